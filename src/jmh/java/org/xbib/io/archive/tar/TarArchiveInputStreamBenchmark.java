@@ -0,0 +1,99 @@
+package org.xbib.io.archive.tar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xbib.io.archive.ArchiveEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a tar archive with many small entries, like the field entries of an export.
+ * Run with the GC profiler to see the allocation per entry:
+ * <pre>
+ *     ./gradlew jmh -Pjmh.args="TarArchiveInputStreamBenchmark -prof gc"
+ * </pre>
+ * The result gc.alloc.rate.norm is the allocation per operation, which reads all entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TarArchiveInputStreamBenchmark {
+
+    @Param({"10000"})
+    private int entries;
+
+    @Param({"40", "2000"})
+    private int entrySize;
+
+    private byte[] archive;
+
+    private byte[] buffer;
+
+    @Setup
+    public void setup() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TarArchiveOutputStream out = new TarArchiveOutputStream(bytes);
+        byte[] payload = new byte[entrySize];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) ('a' + i % 26);
+        }
+        for (int i = 0; i < entries; i++) {
+            TarArchiveOutputEntry entry = out.newArchiveEntry();
+            entry.setName("index/type/" + i + "/_source");
+            entry.setLastModified(new Date());
+            entry.setEntrySize(payload.length);
+            out.putArchiveEntry(entry);
+            out.write(payload);
+            out.closeArchiveEntry();
+        }
+        out.close();
+        this.archive = bytes.toByteArray();
+        this.buffer = new byte[entrySize];
+    }
+
+    @Benchmark
+    public int readEntries(Blackhole blackhole) throws IOException {
+        TarArchiveInputStream in = new TarArchiveInputStream(new ByteArrayInputStream(archive));
+        int n = 0;
+        ArchiveEntry entry;
+        while ((entry = in.getNextEntry()) != null) {
+            int size = (int) entry.getEntrySize();
+            int len = 0;
+            while (len < size) {
+                len += in.read(buffer, len, size - len);
+            }
+            blackhole.consume(entry);
+            n++;
+        }
+        in.close();
+        return n;
+    }
+
+    @Benchmark
+    public int skipEntries() throws IOException {
+        TarArchiveInputStream in = new TarArchiveInputStream(new ByteArrayInputStream(archive));
+        int n = 0;
+        while (in.getNextEntry() != null) {
+            n++;
+        }
+        in.close();
+        return n;
+    }
+}
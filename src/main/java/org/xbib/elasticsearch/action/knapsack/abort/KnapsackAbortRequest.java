@@ -24,8 +24,25 @@ import java.io.IOException;
 
 public class KnapsackAbortRequest extends ActionRequest<KnapsackAbortRequest> {
 
+    private String id;
+
     private boolean reset;
 
+    /**
+     * Set the id of the job to abort. Without an id, all jobs of the node are aborted.
+     *
+     * @param id the job id
+     * @return this request
+     */
+    public KnapsackAbortRequest setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getId() {
+        return id;
+    }
+
     public KnapsackAbortRequest setReset(boolean reset) {
         this.reset = reset;
         return this;
@@ -43,12 +60,14 @@ public class KnapsackAbortRequest extends ActionRequest<KnapsackAbortRequest> {
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
+        id = in.readOptionalString();
         reset = in.readBoolean();
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
+        out.writeOptionalString(id);
         out.writeBoolean(reset);
     }
 }
@@ -24,6 +24,11 @@ public class KnapsackAbortRequestBuilder extends ActionRequestBuilder<KnapsackAb
         super(client, KnapsackAbortAction.INSTANCE, new KnapsackAbortRequest());
     }
 
+    public KnapsackAbortRequestBuilder setId(String id) {
+        request().setId(id);
+        return this;
+    }
+
     public KnapsackAbortRequestBuilder setReset(boolean reset) {
         request().setReset(reset);
         return this;
@@ -27,19 +27,49 @@ import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
 public class KnapsackAbortResponse extends ActionResponse implements ToXContent {
 
+    private String id;
+
+    private boolean found;
+
+    public KnapsackAbortResponse setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public KnapsackAbortResponse setFound(boolean found) {
+        this.found = found;
+        return this;
+    }
+
+    public boolean isFound() {
+        return found;
+    }
+
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        if (id != null) {
+            builder.field("id", id)
+                    .field("found", found);
+        }
         return builder;
     }
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
+        id = in.readOptionalString();
+        found = in.readBoolean();
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
+        out.writeOptionalString(id);
+        out.writeBoolean(found);
     }
 
     @Override
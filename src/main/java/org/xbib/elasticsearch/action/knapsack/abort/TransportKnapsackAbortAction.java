@@ -46,7 +46,11 @@ public class TransportKnapsackAbortAction extends TransportAction<KnapsackAbortR
     protected void doExecute(final KnapsackAbortRequest request, ActionListener<KnapsackAbortResponse> listener) {
         final KnapsackAbortResponse response = new KnapsackAbortResponse();
         try {
-            knapsack.abort(request.getReset());
+            if (request.getId() != null) {
+                response.setId(request.getId()).setFound(knapsack.abort(request.getId()));
+            } else {
+                knapsack.abort(request.getReset());
+            }
             listener.onResponse(response);
         } catch (Throwable e) {
             logger.error(e.getMessage(), e);
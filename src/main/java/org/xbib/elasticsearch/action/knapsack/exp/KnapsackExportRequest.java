@@ -31,6 +31,8 @@ import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
 public class KnapsackExportRequest extends ActionRequest<KnapsackExportRequest>
         implements KnapsackRequest {
 
@@ -54,6 +56,10 @@ public class KnapsackExportRequest extends ActionRequest<KnapsackExportRequest>
 
     private boolean withAliases;
 
+    private boolean packed;
+
+    private String sourceFormat = "json";
+
     private ByteSizeValue bytesToTransfer = ByteSizeValue.parseBytesSizeValue("0", "");
 
     public String getCluster() {
@@ -167,6 +173,37 @@ public class KnapsackExportRequest extends ActionRequest<KnapsackExportRequest>
         return withAliases;
     }
 
+    /**
+     * Write the fields of several documents into a single archive entry.
+     *
+     * @param packed true for packed archive entries
+     * @return this request
+     */
+    public KnapsackExportRequest setPacked(boolean packed) {
+        this.packed = packed;
+        return this;
+    }
+
+    public boolean isPacked() {
+        return packed;
+    }
+
+    /**
+     * Set the format of the document sources in the archive, "json", "smile", or "cbor".
+     * Binary formats are converted once at export and are indexed without conversion at import.
+     *
+     * @param sourceFormat the source format
+     * @return this request
+     */
+    public KnapsackExportRequest setSourceFormat(String sourceFormat) {
+        this.sourceFormat = sourceFormat;
+        return this;
+    }
+
+    public String getSourceFormat() {
+        return sourceFormat;
+    }
+
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
@@ -182,6 +219,8 @@ public class KnapsackExportRequest extends ActionRequest<KnapsackExportRequest>
         out.writeBoolean(withMetadata);
         out.writeBoolean(overwrite);
         out.writeBoolean(withAliases);
+        out.writeBoolean(packed);
+        out.writeString(sourceFormat);
         out.writeString(index);
         out.writeString(type);
         if (searchRequest != null) {
@@ -195,7 +234,11 @@ public class KnapsackExportRequest extends ActionRequest<KnapsackExportRequest>
 
     @Override
     public ActionRequestValidationException validate() {
-        return null;
+        ActionRequestValidationException validationException = null;
+        if (!"json".equals(sourceFormat) && !"smile".equals(sourceFormat) && !"cbor".equals(sourceFormat)) {
+            validationException = addValidationError("unknown source format: " + sourceFormat, null);
+        }
+        return validationException;
     }
 
     @Override
@@ -210,6 +253,8 @@ public class KnapsackExportRequest extends ActionRequest<KnapsackExportRequest>
         withMetadata = in.readBoolean();
         overwrite = in.readBoolean();
         withAliases = in.readBoolean();
+        packed = in.readBoolean();
+        sourceFormat = in.readString();
         index = in.readString();
         type = in.readString();
         if (in.readBoolean()) {
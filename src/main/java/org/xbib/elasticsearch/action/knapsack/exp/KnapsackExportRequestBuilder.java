@@ -81,4 +81,14 @@ public class KnapsackExportRequestBuilder extends ActionRequestBuilder<KnapsackE
         request.withAliases(withAliases);
         return this;
     }
+
+    public KnapsackExportRequestBuilder setPacked(boolean packed) {
+        request.setPacked(packed);
+        return this;
+    }
+
+    public KnapsackExportRequestBuilder setSourceFormat(String sourceFormat) {
+        request.setSourceFormat(sourceFormat);
+        return this;
+    }
 }
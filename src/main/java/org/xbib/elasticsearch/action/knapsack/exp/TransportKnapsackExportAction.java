@@ -28,7 +28,9 @@ import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.node.service.NodeService;
 import org.elasticsearch.search.SearchHit;
@@ -36,6 +38,9 @@ import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportService;
 import org.joda.time.DateTime;
+import org.xbib.elasticsearch.knapsack.KnapsackGovernor;
+import org.xbib.elasticsearch.knapsack.KnapsackJob;
+import org.xbib.elasticsearch.knapsack.KnapsackMemoryBudget;
 import org.xbib.elasticsearch.knapsack.KnapsackParameter;
 import org.xbib.elasticsearch.knapsack.KnapsackService;
 import org.xbib.elasticsearch.knapsack.KnapsackState;
@@ -43,24 +48,31 @@ import org.xbib.io.BytesProgressWatcher;
 import org.xbib.io.Session;
 import org.xbib.io.StringPacket;
 import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.AsyncArchiveSession;
 import org.xbib.io.archive.ArchiveSession;
 import org.xbib.io.archive.esbulk.EsBulkSession;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import static org.elasticsearch.client.Requests.createIndexRequest;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.clearScroll;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.convertSource;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getAliases;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getMapping;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getSettings;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapIndex;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapType;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.setBuffers;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.setSize;
 
 public class TransportKnapsackExportAction extends TransportAction<KnapsackExportRequest, KnapsackExportResponse> {
 
@@ -86,6 +98,7 @@ public class TransportKnapsackExportAction extends TransportAction<KnapsackExpor
     @SuppressWarnings("unchecked")
     protected void doExecute(final KnapsackExportRequest request, ActionListener<KnapsackExportResponse> listener) {
         final KnapsackState state = new KnapsackState()
+                .newId()
                 .setMode("export")
                 .setNodeName(nodeService.nodeName());
         final KnapsackExportResponse response = new KnapsackExportResponse()
@@ -98,19 +111,41 @@ public class TransportKnapsackExportAction extends TransportAction<KnapsackExpor
             }
             ByteSizeValue bytesToTransfer = request.getBytesToTransfer();
             BytesProgressWatcher watcher = new BytesProgressWatcher(bytesToTransfer.bytes());
-            final ArchiveSession session = ArchiveService.newSession(path, watcher);
+            final ArchiveSession archiveSession = ArchiveService.newSession(path, watcher);
+            final KnapsackGovernor.Share share = knapsack.getGovernor().join(state);
+            final KnapsackMemoryBudget.Account account = knapsack.getMemoryBudget().newAccount(state);
+            archiveSession.setThrottle(share.getBytes());
+            archiveSession.setMemoryBudget(account);
+            setBuffers(archiveSession, settings);
+            if (request.isPacked()) {
+                archiveSession.setPackedEntrySize((int) settings.getAsBytesSize(KnapsackParameter.KNAPSACK_PACKED_ENTRY_SIZE,
+                        new ByteSizeValue(64, ByteSizeUnit.KB)).bytes());
+            }
+            // write behind, the archive is written by a writer thread
+            int writeQueueSize = settings.getAsInt(KnapsackParameter.KNAPSACK_WRITE_QUEUE_SIZE, 1024);
+            final Session<StringPacket> session = writeQueueSize > 0 ?
+                    new AsyncArchiveSession(archiveSession, writeQueueSize) : archiveSession;
             EnumSet<Session.Mode> mode = EnumSet.of(request.isOverwriteAllowed() ?
                             Session.Mode.OVERWRITE : Session.Mode.WRITE);
-            session.open(mode, path);
+            try {
+                session.open(mode, path);
+            } catch (IOException e) {
+                knapsack.getGovernor().leave(share);
+                account.close();
+                throw e;
+            }
             if (session.isOpen()) {
                 state.setPath(path).setTimestamp(new DateTime());
+                final KnapsackJob job = knapsack.addJob(new KnapsackJob(state, share));
                 response.setRunning(true);
                 knapsack.submit(new Thread() {
                     public void run() {
-                        performExport(request, state, session);
+                        performExport(request, state, archiveSession, session, share, account, job);
                     }
                 });
             } else {
+                knapsack.getGovernor().leave(share);
+                account.close();
                 response.setRunning(false).setReason("session can not be opened: mode=" + mode + " path=" + path);
             }
             listener.onResponse(response);
@@ -125,11 +160,19 @@ public class TransportKnapsackExportAction extends TransportAction<KnapsackExpor
      *
      * @param request request
      * @param state   state
-     * @param session session
+     * @param archiveSession the archive session
+     * @param session the session for writing to the archive
+     * @param share   the share of this export in the node throttle
+     * @param account the account of this export in the node memory budget
+     * @param job     the job settings that may change while running
      */
     final void performExport(final KnapsackExportRequest request,
                              final KnapsackState state,
-                             final ArchiveSession session) {
+                             final ArchiveSession archiveSession,
+                             final Session<StringPacket> session,
+                             final KnapsackGovernor.Share share,
+                             final KnapsackMemoryBudget.Account account,
+                             final KnapsackJob job) {
         try {
             logger.info("start of export: {}", state);
             knapsack.addExport(state);
@@ -137,8 +180,17 @@ public class TransportKnapsackExportAction extends TransportAction<KnapsackExpor
             for (String s : Strings.commaDelimitedListToSet(request.getIndex())) {
                 indices.put(s, Strings.commaDelimitedListToSet(request.getType()));
             }
+            // bulk format lines are JSON, binary sources are written to the other archive formats only
+            XContentType sourceType = null;
+            if (!"json".equals(request.getSourceFormat())) {
+                if (archiveSession instanceof EsBulkSession) {
+                    logger.warn("source format {} is not supported by bulk format, writing JSON", request.getSourceFormat());
+                } else {
+                    sourceType = XContentType.fromRestContentType(request.getSourceFormat());
+                }
+            }
             // never write _settings / _mapping to bulk format
-            if (request.isWithMetadata() && !(session instanceof EsBulkSession)) {
+            if (request.isWithMetadata() && !(archiveSession instanceof EsBulkSession)) {
                 if (request.getIndexTypeNames() != null) {
                     for (Object spec : request.getIndexTypeNames().keySet()) {
                         if (spec == null) {
@@ -211,6 +263,9 @@ public class TransportKnapsackExportAction extends TransportAction<KnapsackExpor
             }
             long total = 0L;
             for (String index : indices.keySet()) {
+                if (job.isAborted()) {
+                    break;
+                }
                 if (!"_all".equals(index)) {
                     searchRequest.indices(index);
                 }
@@ -218,14 +273,24 @@ public class TransportKnapsackExportAction extends TransportAction<KnapsackExpor
                 if (types != null) {
                     searchRequest.types(types.toArray(new String[types.size()]));
                 }
+                if (job.getScrollSize() > 0) {
+                    setSize(searchRequest, job.getScrollSize());
+                }
                 searchRequest.scroll(request.getTimeout());
                 // use local node client here
                 SearchResponse searchResponse = client.search(searchRequest).actionGet();
+                long pageBytes = 0L;
                 do {
+                    // the reservation of the last page is the estimate for the page we got
+                    pageBytes = account.adjust(pageBytes,
+                            KnapsackMemoryBudget.sizeOf(searchResponse.getHits().getHits()));
                     total += searchResponse.getHits().getHits().length;
                     logger.debug("total={} hits={} took={}", total,
                             searchResponse.getHits().getHits().length,
                             searchResponse.getTookInMillis());
+                    share.acquireDocs(searchResponse.getHits().getHits().length);
+                    // the fields of the page are written as a batch
+                    List<StringPacket> batch = new ArrayList<>();
                     for (SearchHit hit : searchResponse.getHits()) {
                         if (KnapsackService.INDEX_NAME.equals(hit.getIndex())) {
                             continue;
@@ -237,7 +302,7 @@ public class TransportKnapsackExportAction extends TransportAction<KnapsackExpor
                             packet.meta("id", hit.getId());
                             packet.meta("field", f);
                             packet.payload(hit.getFields().get(f).getValue().toString());
-                            session.write(packet);
+                            batch.add(packet);
                         }
                         if (!hit.getFields().keySet().contains("_source")) {
                             StringPacket packet = new StringPacket();
@@ -245,23 +310,44 @@ public class TransportKnapsackExportAction extends TransportAction<KnapsackExpor
                             packet.meta("type", mapType(request, hit.getIndex(), hit.getType()));
                             packet.meta("id", hit.getId());
                             packet.meta("field", "_source");
-                            packet.payload(hit.getSourceAsString());
-                            session.write(packet);
+                            if (sourceType != null) {
+                                packet.bytes(convertSource(hit.sourceRef(), sourceType));
+                            } else {
+                                packet.payload(hit.getSourceAsString());
+                            }
+                            batch.add(packet);
                         }
                     }
+                    session.writeBatch(batch);
                     searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
                             .setScroll(request.getTimeout()).execute().actionGet();
-                } while (searchResponse.getHits().getHits().length > 0 && !Thread.interrupted());
+                } while (searchResponse.getHits().getHits().length > 0 && !Thread.interrupted() && !job.isAborted());
+                clearScroll(client, searchResponse.getScrollId());
+                account.release(pageBytes);
             }
             session.close();
+            if (job.isAborted()) {
+                logger.info("export aborted: {}", state);
+            }
             logger.info("end of export: {}, packets = {}, docs = {}, total bytes transferred = {}, rate = {}",
-                    state, session.getPacketCounter(),
+                    state, archiveSession.getPacketCounter(),
                     total,
-                    session.getWatcher().getTotalBytesInAllTransfers(),
-                    String.format("%f", session.getWatcher().getRecentByteRatePerSecond()));
+                    archiveSession.getWatcher().getTotalBytesInAllTransfers(),
+                    String.format("%f", archiveSession.getWatcher().getRecentByteRatePerSecond()));
         } catch (Throwable e) {
             logger.error(e.getMessage(), e);
         } finally {
+            if (session.isOpen()) {
+                // stop the writer thread and release the archive file after a failure
+                try {
+                    session.close();
+                } catch (IOException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+            knapsack.getGovernor().leave(share);
+            account.close();
+            knapsack.removeJob(job);
             try {
                 knapsack.removeExport(state);
             } catch (IOException e) {
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.knapsack.get;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+public class KnapsackGetRequest extends ActionRequest<KnapsackGetRequest> {
+
+    private Path archivePath;
+
+    private String index;
+
+    private String type;
+
+    private String[] ids;
+
+    private boolean restore;
+
+    public KnapsackGetRequest setArchivePath(Path archivePath) {
+        this.archivePath = archivePath;
+        return this;
+    }
+
+    public Path getArchivePath() {
+        return archivePath;
+    }
+
+    public KnapsackGetRequest setIndex(String index) {
+        this.index = index;
+        return this;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public KnapsackGetRequest setType(String type) {
+        this.type = type;
+        return this;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public KnapsackGetRequest setIds(String... ids) {
+        this.ids = ids;
+        return this;
+    }
+
+    public String[] getIds() {
+        return ids;
+    }
+
+    /**
+     * Index the documents that are found in the archive into the cluster.
+     *
+     * @param restore true if the documents should be indexed
+     * @return this request
+     */
+    public KnapsackGetRequest setRestore(boolean restore) {
+        this.restore = restore;
+        return this;
+    }
+
+    public boolean isRestore() {
+        return restore;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = null;
+        if (archivePath == null) {
+            validationException = addValidationError("archive path is missing", validationException);
+        }
+        if (index == null) {
+            validationException = addValidationError("index is missing", validationException);
+        }
+        if (type == null) {
+            validationException = addValidationError("type is missing", validationException);
+        }
+        if (ids == null || ids.length == 0) {
+            validationException = addValidationError("ids are missing", validationException);
+        }
+        return validationException;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        archivePath = Paths.get(URI.create(in.readString()));
+        index = in.readString();
+        type = in.readString();
+        ids = in.readStringArray();
+        restore = in.readBoolean();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(archivePath.toUri().toString());
+        out.writeString(index);
+        out.writeString(type);
+        out.writeStringArray(ids);
+        out.writeBoolean(restore);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.knapsack.get;
+
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+
+import java.nio.file.Path;
+
+public class KnapsackGetRequestBuilder extends ActionRequestBuilder<KnapsackGetRequest, KnapsackGetResponse, KnapsackGetRequestBuilder> {
+
+    public KnapsackGetRequestBuilder(ElasticsearchClient client) {
+        super(client, KnapsackGetAction.INSTANCE, new KnapsackGetRequest());
+    }
+
+    public KnapsackGetRequestBuilder setArchivePath(Path archivePath) {
+        request().setArchivePath(archivePath);
+        return this;
+    }
+
+    public KnapsackGetRequestBuilder setIndex(String index) {
+        request().setIndex(index);
+        return this;
+    }
+
+    public KnapsackGetRequestBuilder setType(String type) {
+        request().setType(type);
+        return this;
+    }
+
+    public KnapsackGetRequestBuilder setIds(String... ids) {
+        request().setIds(ids);
+        return this;
+    }
+
+    public KnapsackGetRequestBuilder setRestore(boolean restore) {
+        request().setRestore(restore);
+        return this;
+    }
+}
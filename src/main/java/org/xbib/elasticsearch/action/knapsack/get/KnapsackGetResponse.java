@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.knapsack.get;
+
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+public class KnapsackGetResponse extends ActionResponse implements ToXContent {
+
+    private final List<Doc> docs = new ArrayList<>();
+
+    private int restored;
+
+    private String failure;
+
+    public KnapsackGetResponse addDoc(String index, String type, String id, Map<String, String> fields) {
+        docs.add(new Doc(index, type, id, fields));
+        return this;
+    }
+
+    public List<Doc> getDocs() {
+        return docs;
+    }
+
+    public KnapsackGetResponse setRestored(int restored) {
+        this.restored = restored;
+        return this;
+    }
+
+    public int getRestored() {
+        return restored;
+    }
+
+    public KnapsackGetResponse setFailure(String failure) {
+        this.failure = failure;
+        return this;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startArray("docs");
+        for (Doc doc : docs) {
+            builder.startObject()
+                    .field("_index", doc.index)
+                    .field("_type", doc.type)
+                    .field("_id", doc.id)
+                    .field("found", doc.isFound());
+            for (Map.Entry<String, String> entry : doc.fields.entrySet()) {
+                if ("_source".equals(entry.getKey())) {
+                    builder.rawField("_source", new BytesArray(entry.getValue()));
+                } else {
+                    builder.field(entry.getKey(), entry.getValue());
+                }
+            }
+            builder.endObject();
+        }
+        builder.endArray();
+        builder.field("restored", restored);
+        if (failure != null) {
+            builder.field("failure", failure);
+        }
+        return builder;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        int n = in.readVInt();
+        for (int i = 0; i < n; i++) {
+            String index = in.readString();
+            String type = in.readString();
+            String id = in.readString();
+            int m = in.readVInt();
+            Map<String, String> fields = new LinkedHashMap<>();
+            for (int j = 0; j < m; j++) {
+                fields.put(in.readString(), in.readString());
+            }
+            docs.add(new Doc(index, type, id, fields));
+        }
+        restored = in.readVInt();
+        failure = in.readOptionalString();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(docs.size());
+        for (Doc doc : docs) {
+            out.writeString(doc.index);
+            out.writeString(doc.type);
+            out.writeString(doc.id);
+            out.writeVInt(doc.fields.size());
+            for (Map.Entry<String, String> entry : doc.fields.entrySet()) {
+                out.writeString(entry.getKey());
+                out.writeString(entry.getValue());
+            }
+        }
+        out.writeVInt(restored);
+        out.writeOptionalString(failure);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            XContentBuilder builder = jsonBuilder();
+            builder.startObject();
+            builder = toXContent(builder, EMPTY_PARAMS);
+            builder.endObject();
+            return builder.string();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    /**
+     * A document read from the archive, with its fields by field name.
+     */
+    public static class Doc {
+
+        private final String index;
+
+        private final String type;
+
+        private final String id;
+
+        private final Map<String, String> fields;
+
+        Doc(String index, String type, String id, Map<String, String> fields) {
+            this.index = index;
+            this.type = type;
+            this.id = id;
+            this.fields = fields;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Map<String, String> getFields() {
+            return fields;
+        }
+
+        public boolean isFound() {
+            return !fields.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.knapsack.get;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.TransportAction;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+import org.xbib.io.StringPacket;
+import org.xbib.io.archive.ArchiveIndex;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.newIndexRequest;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.readDocument;
+
+/**
+ * Get documents by id from an archive. The offsets of the documents are looked up in the
+ * sidecar index of the archive, so only the entries of the requested documents are read.
+ * The documents are returned, and optionally indexed into the cluster. The archive is read
+ * on the generic thread pool.
+ */
+public class TransportKnapsackGetAction extends TransportAction<KnapsackGetRequest, KnapsackGetResponse> {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackGetAction.class.getSimpleName());
+
+    private final Client client;
+
+    @Inject
+    public TransportKnapsackGetAction(Settings settings, ThreadPool threadPool,
+                                      Client client, ActionFilters actionFilters,
+                                      IndexNameExpressionResolver indexNameExpressionResolver,
+                                      TransportService transportService) {
+        super(settings, KnapsackGetAction.NAME, threadPool, actionFilters, indexNameExpressionResolver, transportService.getTaskManager());
+        this.client = client;
+    }
+
+    @Override
+    protected void doExecute(final KnapsackGetRequest request, final ActionListener<KnapsackGetResponse> listener) {
+        // reading the archive is blocking file I/O, keep it off the calling thread
+        threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+            @Override
+            public void run() {
+                doGet(request, listener);
+            }
+        });
+    }
+
+    private void doGet(final KnapsackGetRequest request, final ActionListener<KnapsackGetResponse> listener) {
+        final KnapsackGetResponse response = new KnapsackGetResponse();
+        try {
+            Path path = request.getArchivePath();
+            if (!ArchiveIndex.exists(path)) {
+                throw new FileNotFoundException("no archive index found: " + ArchiveIndex.indexPath(path));
+            }
+            ArchiveIndex archiveIndex = ArchiveIndex.open(path);
+            String index = request.getIndex();
+            String type = request.getType();
+            final Map<String, Map<String, StringPacket>> found = new LinkedHashMap<>();
+            for (String id : request.getIds()) {
+                Map<String, StringPacket> packets = readDocument(path, archiveIndex, index, type, id, settings);
+                Map<String, String> fields = new LinkedHashMap<>();
+                for (Map.Entry<String, StringPacket> entry : packets.entrySet()) {
+                    StringPacket packet = entry.getValue();
+                    fields.put(entry.getKey(), packet.bytes() != null ?
+                            XContentHelper.convertToJson(new BytesArray(packet.bytes()), false) : packet.payload());
+                }
+                response.addDoc(index, type, id, fields);
+                if (!packets.isEmpty()) {
+                    found.put(id, packets);
+                }
+            }
+            if (!request.isRestore() || found.isEmpty()) {
+                listener.onResponse(response);
+                return;
+            }
+            BulkRequest bulkRequest = new BulkRequest();
+            for (Map.Entry<String, Map<String, StringPacket>> entry : found.entrySet()) {
+                bulkRequest.add(newIndexRequest(index, type, entry.getKey(), entry.getValue(), logger));
+            }
+            client.bulk(bulkRequest, new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(BulkResponse bulkResponse) {
+                    int n = 0;
+                    for (BulkItemResponse item : bulkResponse.getItems()) {
+                        if (!item.isFailed()) {
+                            n++;
+                        }
+                    }
+                    response.setRestored(n);
+                    if (bulkResponse.hasFailures()) {
+                        response.setFailure(bulkResponse.buildFailureMessage());
+                    }
+                    listener.onResponse(response);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    logger.error(e.getMessage(), e);
+                    listener.onFailure(e);
+                }
+            });
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+            listener.onFailure(e);
+        }
+    }
+}
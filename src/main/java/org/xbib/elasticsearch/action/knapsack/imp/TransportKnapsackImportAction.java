@@ -21,19 +21,24 @@ import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder
 import org.elasticsearch.action.admin.indices.create.CreateIndexAction;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
+import org.elasticsearch.action.bulk.BulkAction;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.support.ActionFilters;
 import org.elasticsearch.action.support.TransportAction;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
-import org.elasticsearch.index.VersionType;
 import org.elasticsearch.indices.IndexAlreadyExistsException;
 import org.elasticsearch.node.service.NodeService;
 import org.elasticsearch.threadpool.ThreadPool;
@@ -41,34 +46,65 @@ import org.elasticsearch.transport.TransportService;
 import org.joda.time.DateTime;
 import org.xbib.elasticsearch.helper.client.BulkNodeClient;
 import org.xbib.elasticsearch.helper.client.ClientBuilder;
+import org.xbib.elasticsearch.knapsack.KnapsackGovernor;
+import org.xbib.elasticsearch.knapsack.KnapsackJob;
+import org.xbib.elasticsearch.knapsack.KnapsackMemoryBudget;
 import org.xbib.elasticsearch.knapsack.KnapsackParameter;
 import org.xbib.elasticsearch.knapsack.KnapsackService;
 import org.xbib.elasticsearch.knapsack.KnapsackState;
 import org.xbib.io.BytesProgressWatcher;
 import org.xbib.io.Session;
 import org.xbib.io.StringPacket;
+import org.xbib.io.archive.ArchiveIndex;
 import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
+import org.xbib.io.archive.ArchiveUtils;
+import org.xbib.io.archive.esbulk.EsBulkAction;
+import org.xbib.io.archive.esbulk.EsBulkArchiveFile;
+import org.xbib.io.archive.esbulk.EsBulkArchiveInputStream;
+import org.xbib.io.archive.esbulk.EsBulkSession;
+import org.xbib.io.archive.knapsack.KnapsackArchiveFile;
+import org.xbib.io.archive.zip.ZipArchiveFile;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.elasticsearch.client.Requests.createIndexRequest;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapIndex;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapType;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.newDeleteRequest;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.newIndexRequest;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.setBuffers;
 
 public class TransportKnapsackImportAction extends TransportAction<KnapsackImportRequest, KnapsackImportResponse> {
 
     private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackImportAction.class.getSimpleName());
 
+    /**
+     * The number of packets that are read from an archive at once
+     */
+    private final static int READ_BATCH_SIZE = 256;
+
     private final Client client;
 
     private final NodeService nodeService;
@@ -88,8 +124,10 @@ public class TransportKnapsackImportAction extends TransportAction<KnapsackImpor
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     protected void doExecute(final KnapsackImportRequest request, ActionListener<KnapsackImportResponse> listener) {
         final KnapsackState state = new KnapsackState()
+                .newId()
                 .setMode("import")
                 .setNodeName(nodeService.nodeName());
         final KnapsackImportResponse response = new KnapsackImportResponse()
@@ -100,30 +138,57 @@ public class TransportKnapsackImportAction extends TransportAction<KnapsackImpor
                 String dataPath = settings.get(KnapsackParameter.KNAPSACK_PATH, settings.get(KnapsackParameter.KNAPSACK_DEFAULT_PATH, "."));
                 path = new File(dataPath + File.separator + "_all.tar.gz").toPath();
             }
+            int threads = settings.getAsInt(KnapsackParameter.KNAPSACK_IMPORT_THREADS, 4);
+            if (threads > 1 && isPartitionable(path)) {
+                doExecuteParallel(request, state, response, path, threads);
+                listener.onResponse(response);
+                return;
+            }
             ByteSizeValue bytesToTransfer = request.getBytesToTransfer();
             BytesProgressWatcher watcher = new BytesProgressWatcher(bytesToTransfer.bytes());
-            final Session<StringPacket> session = ArchiveService.newSession(path, watcher);
+            final ArchiveSession session = ArchiveService.newSession(path, watcher);
+            final KnapsackGovernor.Share share = knapsack.getGovernor().join(state);
+            final KnapsackMemoryBudget.Account account = knapsack.getMemoryBudget().newAccount(state);
+            session.setThrottle(share.getBytes());
+            session.setMemoryBudget(account);
+            setBuffers(session, settings);
+            // read ahead, compressed archives are decompressed by a reader thread
+            session.setReadAhead(settings.getAsInt(KnapsackParameter.KNAPSACK_READ_AHEAD_CHUNKS, 16));
             EnumSet<Session.Mode> mode = EnumSet.of(Session.Mode.READ);
-            session.open(mode, path);
+            try {
+                session.open(mode, path);
+            } catch (IOException e) {
+                knapsack.getGovernor().leave(share);
+                account.close();
+                throw e;
+            }
             if (session.isOpen()) {
-                final BulkNodeClient bulkNodeClient = ClientBuilder.builder()
-                        .put(ClientBuilder.MAX_ACTIONS_PER_REQUEST, request.getMaxActionsPerBulkRequest())
-                        .put(ClientBuilder.MAX_CONCURRENT_REQUESTS, request.getMaxBulkConcurrency())
-                        .put(ClientBuilder.FLUSH_INTERVAL, TimeValue.timeValueSeconds(5))
-                        .toBulkNodeClient(client);
+                final BulkNodeClient bulkNodeClient = newBulkNodeClient(request.getMaxActionsPerBulkRequest(),
+                        request.getMaxBulkConcurrency());
                 state.setTimestamp(new DateTime())
                         .setPath(path);
+                final KnapsackJob job = knapsack.addJob(new KnapsackJob(state, share)
+                        .setMaxActionsPerBulkRequest(request.getMaxActionsPerBulkRequest())
+                        .setMaxBulkConcurrency(request.getMaxBulkConcurrency()));
                 response.setRunning(true);
+                final boolean passthrough = session instanceof EsBulkSession
+                        && settings.getAsBoolean(KnapsackParameter.KNAPSACK_BULK_PASSTHROUGH, true);
                 knapsack.submit(new Thread() {
                     public void run() {
                         try {
-                            performImport(request, state, session, bulkNodeClient);
+                            if (passthrough) {
+                                performBulkImport(request, state, (EsBulkSession) session, bulkNodeClient, share, account, job);
+                            } else {
+                                performImport(request, state, session, bulkNodeClient, share, account, job);
+                            }
                         } catch (Throwable t) {
                             //
                         }
                     }
                 });
             } else {
+                knapsack.getGovernor().leave(share);
+                account.close();
                 response.setRunning(false).setReason("session can not be opened: mode=" + mode + " path=" + path);
             }
             listener.onResponse(response);
@@ -133,17 +198,66 @@ public class TransportKnapsackImportAction extends TransportAction<KnapsackImpor
         }
     }
 
+    /**
+     * Zip archives, knapsack archives, and uncompressed tar archives with an {@link ArchiveIndex},
+     * can be read in partitions. Uncompressed bulk files are read in partitions only if enabled,
+     * because actions on the same document in different byte ranges can run in any order.
+     */
+    private boolean isPartitionable(Path path) {
+        String s = path.toString();
+        return s.endsWith(".zip") || s.endsWith(".knapsack")
+                || (s.endsWith(".bulk") && settings.getAsBoolean(KnapsackParameter.KNAPSACK_BULK_RANGES, false))
+                || (s.endsWith(".tar") && ArchiveIndex.exists(path));
+    }
+
+    /**
+     * Start an import of an archive, with partitions of the archive imported in parallel.
+     */
+    private void doExecuteParallel(final KnapsackImportRequest request, final KnapsackState state,
+                                   KnapsackImportResponse response, final Path path, final int threads) throws IOException {
+        if (!Files.isReadable(path)) {
+            throw new FileNotFoundException("can't open for input, check existence or access rights: " + path);
+        }
+        final KnapsackGovernor.Share share = knapsack.getGovernor().join(state);
+        final KnapsackMemoryBudget.Account account = knapsack.getMemoryBudget().newAccount(state);
+        final BulkNodeClient bulkNodeClient = newBulkNodeClient(request.getMaxActionsPerBulkRequest(),
+                request.getMaxBulkConcurrency());
+        state.setTimestamp(new DateTime())
+                .setPath(path);
+        final KnapsackJob job = knapsack.addJob(new KnapsackJob(state, share)
+                .setMaxActionsPerBulkRequest(request.getMaxActionsPerBulkRequest())
+                .setMaxBulkConcurrency(request.getMaxBulkConcurrency()));
+        response.setRunning(true);
+        knapsack.submit(new Thread() {
+            public void run() {
+                try {
+                    performParallelImport(request, state, path, threads, bulkNodeClient, share, account, job);
+                } catch (Throwable t) {
+                    //
+                }
+            }
+        });
+    }
+
     /**
      * Import thread
      *
      * @param request request
      * @param state   state
      * @param session session
+     * @param bulkNodeClient bulk client
+     * @param share   the share of this import in the node throttle
+     * @param account the account of this import in the node memory budget
+     * @param job     the job settings that may change while running
      */
     final void performImport(final KnapsackImportRequest request,
                              final KnapsackState state,
                              final Session<StringPacket> session,
-                             final BulkNodeClient bulkNodeClient) {
+                             final BulkNodeClient bulkNodeClient,
+                             final KnapsackGovernor.Share share,
+                             final KnapsackMemoryBudget.Account account,
+                             final KnapsackJob job) {
+        BulkNodeClient bulkClient = bulkNodeClient;
         try {
             logger.info("start of import: {}", state);
             knapsack.addImport(state);
@@ -151,204 +265,753 @@ public class TransportKnapsackImportAction extends TransportAction<KnapsackImpor
             final Set<String> indexCreated = new HashSet<>();
             final Map<String, String> indexReplicaMap = new HashMap<>();
             final Map<String, Map<String, String>> aliasRequestMap = new HashMap<>();
+            final Set<String> indices = importedIndices(request);
             // per field
             Map<String, StringPacket> packets = new LinkedHashMap<>();
-            StringPacket packet;
             String lastCoord = null;
             long count = 0L;
-            while ((packet = session.read()) != null && !Thread.interrupted()) {
-                count++;
-                String index = (String) packet.meta().get("index");
-                String type = (String) packet.meta().get("type");
-                String id = (String) packet.meta().get("id");
-                String field = (String) packet.meta().get("field");
-                if (field == null) {
-                    field = "_source";
-                }
-                if ("_settings".equals(type)) {
-                    index = mapIndex(request, index);
-                    String settingsStr;
-                    // override settings by user settings
-                    if (request.hasIndexSettings(index)) {
-                        InputStreamReader reader =
-                                new InputStreamReader(new FileInputStream(request.getIndexSettings(index)), "UTF-8");
-                        settingsStr = Streams.copyToString(reader);
-                        reader.close();
-                    } else {
-                        settingsStr = packet.payload();
+            int maxActionsPerBulkRequest = request.getMaxActionsPerBulkRequest();
+            int maxBulkConcurrency = request.getMaxBulkConcurrency();
+            // requests that may be held by the bulk processor
+            KnapsackMemoryBudget.Window window = account.newWindow(maxActionsPerBulkRequest * (maxBulkConcurrency + 1));
+            List<StringPacket> batch;
+            while (!job.isAborted() && !(batch = session.readBatch(READ_BATCH_SIZE)).isEmpty() && !Thread.interrupted()) {
+                for (StringPacket packet : batch) {
+                    count++;
+                    String index = (String) packet.meta().get("index");
+                    String type = (String) packet.meta().get("type");
+                    String id = (String) packet.meta().get("id");
+                    String field = (String) packet.meta().get("field");
+                    if (field == null) {
+                        field = "_source";
                     }
-                    if (!"_all".equals(index)) {
-                        logger.info("index {}: found settings {}", index, settingsStr);
-                        CreateIndexRequest createIndexRequest = indexRequestMap.get(index);
-                        if (createIndexRequest == null) {
-                            createIndexRequest = createIndexRequest(index);
-                            indexRequestMap.put(index, createIndexRequest);
-                        }
-                        Settings.Builder indexSettingsBuilder = Settings.settingsBuilder()
-                                .loadFromSource(settingsStr);
-                        indexReplicaMap.put(index, indexSettingsBuilder.get("index.number_of_replicas"));
-                        // get settings, but overwrite replica, and disable refresh for faster bulk
-                        Settings indexSettings = indexSettingsBuilder
-                                .put("index.refresh_interval", "-1s")
-                                .put("index.number_of_replicas", 0)
-                                .build();
-                        logger.info("switching index {} for bulk indexing: {}", index, indexSettings.getAsMap());
-                        createIndexRequest.settings(indexSettings);
-                    }
-                } else if ("_mapping".equals(id)) {
-                    // first map type, then index
-                    type = mapType(request, index, type);
-                    index = mapIndex(request, index);
-                    String mapping;
-                    // override mappings by user request
-                    if (request.hasIndexTypeMapping(index, type)) {
-                        InputStreamReader reader =
-                                new InputStreamReader(new FileInputStream(request.getIndexTypeMapping(index, type)), "UTF-8");
-                        mapping = Streams.copyToString(reader);
-                        reader.close();
+                    if (ArchiveUtils.isMetadata(packet)) {
+                        readMetadata(request, packet, indexRequestMap, indexReplicaMap, aliasRequestMap);
                     } else {
-                        mapping = packet.payload();
-                    }
-                    if (!"_all".equals(index)) {
-                        logger.info("index {}: found mapping {}", index, mapping);
-                        CreateIndexRequest createIndexRequest = indexRequestMap.get(index);
-                        if (createIndexRequest == null) {
-                            createIndexRequest = createIndexRequest(index);
-                            indexRequestMap.put(index, createIndexRequest);
-                        }
-                        createIndexRequest.mapping(type, mapping);
-                    }
-                } else if ("_alias".equals(id)) {
-                    Map<String, String> aliases = new HashMap<>();
-                    if (aliasRequestMap.containsKey(index)) {
-                        aliases = aliasRequestMap.get(index);
-                    }
-                    aliases.put(type, packet.payload());
-                    aliasRequestMap.put(index, aliases);
-                } else {
-                    // index normal document fields. Check for sane entries here.
-                    if (index != null && type != null && id != null && packet.payload() != null) {
-                        // additional check for Mac tar "." artifacts and skip them (should we check for lowercase here?)
-                        if (!type.startsWith(".") && !id.startsWith(".")) {
-                            String coord = index + File.separator + type + File.separator + id;
-                            if (!coord.equals(lastCoord) && !packets.isEmpty()) {
-                                indexPackets(bulkNodeClient, indexRequestMap, indexCreated, aliasRequestMap, request, packets);
-                                packets.clear();
+                        // index normal document fields. Check for sane entries here.
+                        if (index != null && type != null && id != null && packet.hasPayload()
+                                && isImported(indices, request, index)) {
+                            // additional check for Mac tar "." artifacts and skip them (should we check for lowercase here?)
+                            if (!type.startsWith(".") && !id.startsWith(".")) {
+                                String coord = index + File.separator + type + File.separator + id;
+                                if (!coord.equals(lastCoord) && !packets.isEmpty()) {
+                                    if (job.isBulkChanged(maxActionsPerBulkRequest, maxBulkConcurrency)) {
+                                        // batch boundary: drain the bulk client and continue with the new settings
+                                        maxActionsPerBulkRequest = job.getMaxActionsPerBulkRequest();
+                                        maxBulkConcurrency = job.getMaxBulkConcurrency();
+                                        logger.info("{}: changing bulk settings to max actions {}, concurrency {}",
+                                                state, maxActionsPerBulkRequest, maxBulkConcurrency);
+                                        bulkClient.flushIngest();
+                                        bulkClient.waitForResponses(TimeValue.timeValueSeconds(60));
+                                        bulkClient.shutdown();
+                                        window.clear();
+                                        bulkClient = newBulkNodeClient(maxActionsPerBulkRequest, maxBulkConcurrency);
+                                        window = account.newWindow(maxActionsPerBulkRequest * (maxBulkConcurrency + 1));
+                                    }
+                                    share.acquireDocs(1);
+                                    indexPackets(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request, packets, window);
+                                    packets.clear();
+                                }
+                                packets.put(field, packet);
+                                lastCoord = coord;
                             }
-                            packets.put(field, packet);
-                            lastCoord = coord;
                         }
                     }
                 }
             }
             if (!packets.isEmpty()) {
-                indexPackets(bulkNodeClient, indexRequestMap, indexCreated, aliasRequestMap, request, packets);
+                share.acquireDocs(1);
+                indexPackets(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request, packets, window);
             }
-            bulkNodeClient.flushIngest();
-            bulkNodeClient.waitForResponses(TimeValue.timeValueSeconds(60));
-            for (String index : indexReplicaMap.keySet()) {
-                try {
-                    logger.info("resetting refresh rate for index {}", index);
-                    bulkNodeClient.stopBulk(index);
-                    Integer replica = Integer.parseInt(indexReplicaMap.get(index));
-                    logger.info("resetting replica level {} for index {}", replica, index);
-                    bulkNodeClient.updateReplicaLevel(index, replica);
-                } catch (Exception e) {
-                    logger.error(e.getMessage(), e);
+            bulkClient.flushIngest();
+            bulkClient.waitForResponses(TimeValue.timeValueSeconds(60));
+            window.clear();
+            finishIndices(bulkClient, indexReplicaMap, indexCreated);
+            bulkClient.shutdown();
+            if (job.isAborted()) {
+                logger.info("import aborted: {}", state);
+            }
+            logger.info("end of import: {}, count = {}", state, count);
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            knapsack.getGovernor().leave(share);
+            account.close();
+            knapsack.removeJob(job);
+            try {
+                knapsack.removeImport(state);
+                session.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Import thread for bulk archives. Chunks of action and source lines are sent as bulk requests
+     * without reading documents into packets. Only the action lines are parsed, for selecting the
+     * imported indices and for renaming indices and types.
+     *
+     * @param request        request
+     * @param state          state
+     * @param session        the bulk archive session
+     * @param bulkNodeClient bulk client
+     * @param share          the share of this import in the node throttle
+     * @param account        the account of this import in the node memory budget
+     * @param job            the job settings that may change while running
+     */
+    final void performBulkImport(final KnapsackImportRequest request,
+                                 final KnapsackState state,
+                                 final EsBulkSession session,
+                                 final BulkNodeClient bulkNodeClient,
+                                 final KnapsackGovernor.Share share,
+                                 final KnapsackMemoryBudget.Account account,
+                                 final KnapsackJob job) {
+        try {
+            logger.info("start of bulk import: {}", state);
+            knapsack.addImport(state);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Set<String> indexCreated = Collections.synchronizedSet(new HashSet<String>());
+            long count = importBulkChunks(request, state, session, bulkNodeClient, 1, share, account, job,
+                    failure, indexCreated);
+            finishIndices(bulkNodeClient, Collections.<String, String>emptyMap(), indexCreated);
+            if (failure.get() != null) {
+                logger.error("import failed: {}", state);
+            } else if (job.isAborted()) {
+                logger.info("import aborted: {}", state);
+            }
+            logger.info("end of bulk import: {}, count = {}", state, count);
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            bulkNodeClient.shutdown();
+            knapsack.getGovernor().leave(share);
+            account.close();
+            knapsack.removeJob(job);
+            try {
+                knapsack.removeImport(state);
+                session.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Send the chunks of a bulk archive session as bulk requests. The bulk concurrency of the job
+     * is divided among the partitions that are imported in parallel. A failed bulk request, or a bulk
+     * response with failures, is set as the failure of the import and stops all partitions.
+     *
+     * @param indexCreated the set where the names of the imported indices are added, for the refresh at the end
+     * @return the number of imported actions
+     */
+    private long importBulkChunks(final KnapsackImportRequest request,
+                                  final KnapsackState state,
+                                  EsBulkSession session,
+                                  BulkNodeClient bulkNodeClient,
+                                  int partitions,
+                                  KnapsackGovernor.Share share,
+                                  KnapsackMemoryBudget.Account account,
+                                  KnapsackJob job,
+                                  final AtomicReference<Throwable> failure,
+                                  final Set<String> indexCreated) throws Exception {
+        final Set<String> indices = importedIndices(request);
+        EsBulkArchiveInputStream.ActionMapper mapper = new EsBulkArchiveInputStream.ActionMapper() {
+            @Override
+            public boolean map(EsBulkAction action) {
+                String index = action.getIndex();
+                if (!isImported(indices, request, index)) {
+                    return false;
                 }
+                String mappedIndex = mapIndex(request, index);
+                indexCreated.add(mappedIndex);
+                action.mapTo(mappedIndex, mapType(request, index, action.getType()));
+                return true;
             }
-            for (String index : indexCreated) {
-                bulkNodeClient.refreshIndex(index);
+        };
+        long maxChunkBytes = settings.getAsBytesSize(KnapsackParameter.KNAPSACK_BULK_CHUNK_SIZE,
+                new ByteSizeValue(5, ByteSizeUnit.MB)).bytes();
+        int maxBulkConcurrency = job.getMaxBulkConcurrency();
+        int concurrency = Math.max(1, maxBulkConcurrency / partitions);
+        Semaphore requests = new Semaphore(concurrency);
+        // the chunks that may be held by bulk requests in flight
+        KnapsackMemoryBudget.Window window = account.newWindow(concurrency + 1);
+        long count = 0L;
+        try {
+            while (!job.isAborted() && failure.get() == null && !Thread.currentThread().isInterrupted()) {
+                if (job.getMaxBulkConcurrency() != maxBulkConcurrency) {
+                    // batch boundary: wait for the requests in flight and continue with the new concurrency
+                    requests.acquire(concurrency);
+                    maxBulkConcurrency = job.getMaxBulkConcurrency();
+                    concurrency = Math.max(1, maxBulkConcurrency / partitions);
+                    logger.info("{}: changing bulk concurrency to {}", state, concurrency);
+                    requests = new Semaphore(concurrency);
+                    window.clear();
+                    window = account.newWindow(concurrency + 1);
+                }
+                BytesStreamOutput out = new BytesStreamOutput();
+                int n = session.readActions(out, job.getMaxActionsPerBulkRequest(), maxChunkBytes, mapper);
+                if (n == 0) {
+                    break;
+                }
+                share.acquireDocs(n);
+                window.add(out.size());
+                BulkRequest bulkRequest = new BulkRequest();
+                bulkRequest.add(out.bytes(), null, null);
+                requests.acquire();
+                final Semaphore permits = requests;
+                bulkNodeClient.client().execute(BulkAction.INSTANCE, bulkRequest, new ActionListener<BulkResponse>() {
+                    @Override
+                    public void onResponse(BulkResponse response) {
+                        permits.release();
+                        if (response.hasFailures()) {
+                            logger.error("{}: bulk failures: {}", state, response.buildFailureMessage());
+                            failure.compareAndSet(null, new IOException("bulk failures: " + response.buildFailureMessage()));
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        permits.release();
+                        logger.error("{}: bulk request failed: {}", e, state, e.getMessage());
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                count += n;
             }
+        } finally {
+            requests.acquire(concurrency);
+            window.clear();
+        }
+        return count;
+    }
+
+    /**
+     * Import thread for partitioned archives. The index settings, mappings and aliases are read first,
+     * then the documents are split into partitions that are imported by parallel threads,
+     * each with its own bulk client.
+     *
+     * @param request        request
+     * @param state          state
+     * @param path           the archive path
+     * @param threads        the number of import threads
+     * @param bulkNodeClient bulk client for the index settings
+     * @param share          the share of this import in the node throttle
+     * @param account        the account of this import in the node memory budget
+     * @param job            the job settings that may change while running
+     */
+    final void performParallelImport(final KnapsackImportRequest request,
+                                     final KnapsackState state,
+                                     final Path path,
+                                     final int threads,
+                                     final BulkNodeClient bulkNodeClient,
+                                     final KnapsackGovernor.Share share,
+                                     final KnapsackMemoryBudget.Account account,
+                                     final KnapsackJob job) {
+        ZipArchiveFile zipFile = null;
+        try {
+            logger.info("start of import: {}", state);
+            knapsack.addImport(state);
+            final Map<String, CreateIndexRequest> indexRequestMap = new HashMap<>();
+            final Set<String> indexCreated = new HashSet<>();
+            final Map<String, String> indexReplicaMap = new HashMap<>();
+            final Map<String, Map<String, String>> aliasRequestMap = new HashMap<>();
+            final Set<String> indices = importedIndices(request);
+            List<StringPacket> metadata = new ArrayList<>();
+            final List<Session<StringPacket>> partitions = new ArrayList<>();
+            if (path.toString().endsWith(".zip")) {
+                zipFile = new ZipArchiveFile(path);
+                zipFile.setThrottle(share.getBytes()).setMemoryBudget(account);
+                zipPartitions(zipFile, threads, metadata, partitions);
+            } else if (path.toString().endsWith(".knapsack")) {
+                knapsackPartitions(request, path, indices, threads, share, account, metadata, partitions);
+            } else if (path.toString().endsWith(".bulk")) {
+                bulkPartitions(path, threads, share, account, partitions);
+            } else {
+                tarPartitions(request, path, indices, threads, share, account, metadata, partitions);
+            }
+            for (StringPacket packet : metadata) {
+                readMetadata(request, packet, indexRequestMap, indexReplicaMap, aliasRequestMap);
+            }
+            logger.info("{}: importing {} partitions", state, partitions.size());
+            final AtomicLong count = new AtomicLong(metadata.size());
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final boolean passthrough = settings.getAsBoolean(KnapsackParameter.KNAPSACK_BULK_PASSTHROUGH, true);
+            final Set<String> bulkIndices = Collections.synchronizedSet(new HashSet<String>());
+            List<Future<?>> workers = new ArrayList<>();
+            try {
+                for (final Session<StringPacket> partition : partitions) {
+                    workers.add(knapsack.submitWorker(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (passthrough && partition instanceof EsBulkSession) {
+                                    EsBulkSession session = (EsBulkSession) partition;
+                                    session.open(EnumSet.of(Session.Mode.READ), path);
+                                    try {
+                                        count.addAndGet(importBulkChunks(request, state, session, bulkNodeClient,
+                                                partitions.size(), share, account, job, failure, bulkIndices));
+                                    } finally {
+                                        session.close();
+                                    }
+                                } else {
+                                    importPartition(request, path, partition, partitions.size(), indices,
+                                            indexRequestMap, indexCreated, aliasRequestMap, share, account, job,
+                                            failure, count);
+                                }
+                            } catch (Throwable t) {
+                                logger.error(t.getMessage(), t);
+                                failure.compareAndSet(null, t);
+                            }
+                        }
+                    }));
+                }
+            } finally {
+                awaitWorkers(workers, failure);
+            }
+            indexCreated.addAll(bulkIndices);
+            finishIndices(bulkNodeClient, indexReplicaMap, indexCreated);
             bulkNodeClient.shutdown();
-            logger.info("end of import: {}, count = {}", state, count);
+            if (failure.get() != null) {
+                logger.error("import failed: {}", state);
+            } else if (job.isAborted()) {
+                logger.info("import aborted: {}", state);
+            }
+            logger.info("end of import: {}, count = {}", state, count.get());
         } catch (Throwable e) {
             logger.error(e.getMessage(), e);
         } finally {
+            knapsack.getGovernor().leave(share);
+            account.close();
+            knapsack.removeJob(job);
             try {
                 knapsack.removeImport(state);
-                session.close();
+                if (zipFile != null) {
+                    zipFile.close();
+                }
             } catch (IOException e) {
                 logger.error(e.getMessage(), e);
             }
         }
     }
 
+    /**
+     * Wait for the partition workers of an import. If the import thread is interrupted, the workers
+     * are cancelled.
+     */
+    private static void awaitWorkers(List<Future<?>> workers, AtomicReference<Throwable> failure) {
+        boolean interrupted = false;
+        for (Future<?> worker : workers) {
+            try {
+                if (interrupted) {
+                    worker.cancel(true);
+                } else {
+                    worker.get();
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+                failure.compareAndSet(null, e);
+                worker.cancel(true);
+            } catch (ExecutionException e) {
+                failure.compareAndSet(null, e.getCause());
+            } catch (CancellationException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Read the metadata entries of a zip archive, and split the document entries into partitions.
+     */
+    private void zipPartitions(ZipArchiveFile zipFile, int threads,
+                               List<StringPacket> metadata, List<Session<StringPacket>> partitions) throws IOException {
+        List<ZipArchiveFile.Entry> documents = new ArrayList<>();
+        ZipArchiveFile.Reader reader = zipFile.newReader();
+        try {
+            for (ZipArchiveFile.Entry entry : zipFile.getEntries()) {
+                StringPacket packet = new StringPacket();
+                ArchiveUtils.decodeArchiveEntryName(packet, entry.getName());
+                if (ArchiveUtils.isMetadata(packet)) {
+                    metadata.add(reader.read(entry));
+                } else {
+                    documents.add(entry);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        for (List<ZipArchiveFile.Entry> partition : ZipArchiveFile.partition(documents, threads)) {
+            partitions.add(zipFile.newSession(partition));
+        }
+    }
+
+    /**
+     * Read the metadata entries of a tar archive at the offsets in the archive index, and split the
+     * byte range of the imported indices into partitions.
+     */
+    private void tarPartitions(KnapsackImportRequest request, Path path, Set<String> indices, int threads,
+                               KnapsackGovernor.Share share, KnapsackMemoryBudget.Account account,
+                               List<StringPacket> metadata, List<Session<StringPacket>> partitions) throws IOException {
+        ArchiveIndex archiveIndex = ArchiveIndex.open(path);
+        // runs of consecutive metadata entries
+        List<long[]> runs = new ArrayList<>();
+        long runStart = -1L;
+        try (ArchiveIndex.Cursor cursor = archiveIndex.cursor()) {
+            while (cursor.next()) {
+                if (cursor.isMetadata()) {
+                    if (runStart < 0L) {
+                        runStart = cursor.getOffset();
+                    }
+                } else if (runStart >= 0L) {
+                    runs.add(new long[]{runStart, cursor.getOffset()});
+                    runStart = -1L;
+                }
+            }
+        }
+        if (runStart >= 0L) {
+            runs.add(new long[]{runStart, archiveIndex.getEnd()});
+        }
+        for (long[] run : runs) {
+            ArchiveSession<?, ?> session = newRangeSession(path, run[0], run[1], share, account);
+            session.open(EnumSet.of(Session.Mode.READ), path);
+            try {
+                StringPacket packet;
+                while ((packet = session.read()) != null) {
+                    metadata.add(packet);
+                }
+            } finally {
+                session.close();
+            }
+        }
+        long start = Long.MAX_VALUE;
+        long end = 0L;
+        for (Map.Entry<String, ArchiveIndex.Range> me : archiveIndex.getIndices().entrySet()) {
+            if (isImported(indices, request, me.getKey())) {
+                logger.info("index {}: {} documents in archive range {}", me.getKey(), me.getValue().getDocs(), me.getValue());
+                start = Math.min(start, me.getValue().getStart());
+                end = Math.max(end, me.getValue().getEnd());
+            }
+        }
+        if (start < end) {
+            for (ArchiveIndex.Range range : archiveIndex.split(start, end, threads)) {
+                partitions.add(newRangeSession(path, range.getStart(), range.getEnd(), share, account));
+            }
+        }
+    }
+
+    /**
+     * Read the metadata blocks of a knapsack archive, and split the blocks between the first and
+     * the last block of the imported indices into partitions.
+     */
+    private void knapsackPartitions(KnapsackImportRequest request, Path path, Set<String> indices, int threads,
+                                    KnapsackGovernor.Share share, KnapsackMemoryBudget.Account account,
+                                    List<StringPacket> metadata, List<Session<StringPacket>> partitions) throws IOException {
+        KnapsackArchiveFile archiveFile = new KnapsackArchiveFile(path);
+        List<KnapsackArchiveFile.Block> blocks = archiveFile.getBlocks();
+        for (KnapsackArchiveFile.Block block : blocks) {
+            if (block.isMetadata()) {
+                ArchiveSession<?, ?> session = newRangeSession(path, block.getOffset(), block.getEnd(), share, account);
+                session.open(EnumSet.of(Session.Mode.READ), path);
+                try {
+                    StringPacket packet;
+                    while ((packet = session.read()) != null) {
+                        metadata.add(packet);
+                    }
+                } finally {
+                    session.close();
+                }
+            }
+        }
+        int first = blocks.size();
+        int last = -1;
+        for (KnapsackArchiveFile.Range range : archiveFile.getRanges()) {
+            if (!"_settings".equals(range.getType()) && isImported(indices, request, range.getIndex())) {
+                logger.info("index {} type {}: {} documents in archive blocks {}", range.getIndex(), range.getType(),
+                        range.getDocs(), range);
+                first = Math.min(first, range.getFirstBlock());
+                last = Math.max(last, range.getLastBlock());
+            }
+        }
+        if (first <= last) {
+            for (List<KnapsackArchiveFile.Block> partition : KnapsackArchiveFile.partition(blocks.subList(first, last + 1), threads)) {
+                partitions.add(newRangeSession(path, partition.get(0).getOffset(),
+                        partition.get(partition.size() - 1).getEnd(), share, account));
+            }
+        }
+    }
+
+    /**
+     * Split an uncompressed bulk file into ranges that start at action lines. Bulk files have no metadata.
+     */
+    private void bulkPartitions(Path path, int threads,
+                                KnapsackGovernor.Share share, KnapsackMemoryBudget.Account account,
+                                List<Session<StringPacket>> partitions) throws IOException {
+        for (EsBulkArchiveFile.Range range : new EsBulkArchiveFile(path).split(threads)) {
+            logger.info("bulk file {}: range {}", path, range);
+            partitions.add(newRangeSession(path, range.getStart(), range.getEnd(), share, account));
+        }
+    }
+
+    private ArchiveSession<?, ?> newRangeSession(Path path, long start, long end,
+                                                 KnapsackGovernor.Share share, KnapsackMemoryBudget.Account account) {
+        ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+        session.setThrottle(share.getBytes());
+        session.setMemoryBudget(account);
+        setBuffers(session, settings);
+        session.setRange(start, end);
+        return session;
+    }
+
+    /**
+     * Import a partition of an archive. The bulk concurrency of the job is divided among the partitions.
+     */
+    private void importPartition(KnapsackImportRequest request,
+                                 Path path,
+                                 Session<StringPacket> session,
+                                 int partitions,
+                                 Set<String> indices,
+                                 Map<String, CreateIndexRequest> indexRequestMap,
+                                 Set<String> indexCreated,
+                                 Map<String, Map<String, String>> aliasRequestMap,
+                                 KnapsackGovernor.Share share,
+                                 KnapsackMemoryBudget.Account account,
+                                 KnapsackJob job,
+                                 AtomicReference<Throwable> failure,
+                                 AtomicLong count) throws IOException, InterruptedException {
+        int maxActionsPerBulkRequest = job.getMaxActionsPerBulkRequest();
+        int maxBulkConcurrency = job.getMaxBulkConcurrency();
+        int concurrency = Math.max(1, maxBulkConcurrency / partitions);
+        BulkNodeClient bulkClient = newBulkNodeClient(maxActionsPerBulkRequest, concurrency);
+        KnapsackMemoryBudget.Window window = account.newWindow(maxActionsPerBulkRequest * (concurrency + 1));
+        try {
+            session.open(EnumSet.of(Session.Mode.READ), path);
+            Map<String, StringPacket> packets = new LinkedHashMap<>();
+            String lastCoord = null;
+            List<StringPacket> batch;
+            while (!job.isAborted() && failure.get() == null && !(batch = session.readBatch(READ_BATCH_SIZE)).isEmpty()
+                    && !Thread.currentThread().isInterrupted()) {
+                for (StringPacket packet : batch) {
+                    count.incrementAndGet();
+                    if (ArchiveUtils.isMetadata(packet)) {
+                        // metadata is read before the partitions
+                        continue;
+                    }
+                    String index = (String) packet.meta().get("index");
+                    String type = (String) packet.meta().get("type");
+                    String id = (String) packet.meta().get("id");
+                    String field = (String) packet.meta().get("field");
+                    if (field == null) {
+                        field = "_source";
+                    }
+                    // the same checks as for sequential archives, skip Mac "." artifacts
+                    if (index != null && type != null && id != null && packet.hasPayload()
+                            && !type.startsWith(".") && !id.startsWith(".") && isImported(indices, request, index)) {
+                        String coord = index + File.separator + type + File.separator + id;
+                        if (!coord.equals(lastCoord) && !packets.isEmpty()) {
+                            if (job.isBulkChanged(maxActionsPerBulkRequest, maxBulkConcurrency)) {
+                                maxActionsPerBulkRequest = job.getMaxActionsPerBulkRequest();
+                                maxBulkConcurrency = job.getMaxBulkConcurrency();
+                                concurrency = Math.max(1, maxBulkConcurrency / partitions);
+                                bulkClient.flushIngest();
+                                bulkClient.waitForResponses(TimeValue.timeValueSeconds(60));
+                                bulkClient.shutdown();
+                                window.clear();
+                                bulkClient = newBulkNodeClient(maxActionsPerBulkRequest, concurrency);
+                                window = account.newWindow(maxActionsPerBulkRequest * (concurrency + 1));
+                            }
+                            share.acquireDocs(1);
+                            indexPackets(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request, packets, window);
+                            packets.clear();
+                        }
+                        packets.put(field, packet);
+                        lastCoord = coord;
+                    }
+                }
+            }
+            if (!packets.isEmpty() && !job.isAborted() && failure.get() == null) {
+                share.acquireDocs(1);
+                indexPackets(bulkClient, indexRequestMap, indexCreated, aliasRequestMap, request, packets, window);
+            }
+            bulkClient.flushIngest();
+            bulkClient.waitForResponses(TimeValue.timeValueSeconds(60));
+        } finally {
+            window.clear();
+            bulkClient.shutdown();
+            session.close();
+        }
+    }
+
+    /**
+     * The indices of the archive that are imported, given by the index of the request.
+     *
+     * @param request the request
+     * @return the index names, or null for all indices
+     */
+    private static Set<String> importedIndices(KnapsackImportRequest request) {
+        String index = request.getIndex();
+        return index == null || "_all".equals(index) ? null : Strings.commaDelimitedListToSet(index);
+    }
+
+    private static boolean isImported(Set<String> indices, KnapsackImportRequest request, String index) {
+        return indices == null || indices.contains(index) || indices.contains(mapIndex(request, index));
+    }
+
+    /**
+     * Collect index settings, mappings and aliases for creating the indices
+     * before the first document of an index is imported.
+     */
+    private void readMetadata(KnapsackImportRequest request, StringPacket packet,
+                              Map<String, CreateIndexRequest> indexRequestMap,
+                              Map<String, String> indexReplicaMap,
+                              Map<String, Map<String, String>> aliasRequestMap) throws IOException {
+        String index = (String) packet.meta().get("index");
+        String type = (String) packet.meta().get("type");
+        String id = (String) packet.meta().get("id");
+        if ("_settings".equals(type)) {
+            index = mapIndex(request, index);
+            String settingsStr;
+            // override settings by user settings
+            if (request.hasIndexSettings(index)) {
+                InputStreamReader reader =
+                        new InputStreamReader(new FileInputStream(request.getIndexSettings(index)), "UTF-8");
+                settingsStr = Streams.copyToString(reader);
+                reader.close();
+            } else {
+                settingsStr = packet.payload();
+            }
+            if (!"_all".equals(index)) {
+                logger.info("index {}: found settings {}", index, settingsStr);
+                CreateIndexRequest createIndexRequest = indexRequestMap.get(index);
+                if (createIndexRequest == null) {
+                    createIndexRequest = createIndexRequest(index);
+                    indexRequestMap.put(index, createIndexRequest);
+                }
+                Settings.Builder indexSettingsBuilder = Settings.settingsBuilder()
+                        .loadFromSource(settingsStr);
+                indexReplicaMap.put(index, indexSettingsBuilder.get("index.number_of_replicas"));
+                // get settings, but overwrite replica, and disable refresh for faster bulk
+                Settings indexSettings = indexSettingsBuilder
+                        .put("index.refresh_interval", "-1s")
+                        .put("index.number_of_replicas", 0)
+                        .build();
+                logger.info("switching index {} for bulk indexing: {}", index, indexSettings.getAsMap());
+                createIndexRequest.settings(indexSettings);
+            }
+        } else if ("_mapping".equals(id)) {
+            // first map type, then index
+            type = mapType(request, index, type);
+            index = mapIndex(request, index);
+            String mapping;
+            // override mappings by user request
+            if (request.hasIndexTypeMapping(index, type)) {
+                InputStreamReader reader =
+                        new InputStreamReader(new FileInputStream(request.getIndexTypeMapping(index, type)), "UTF-8");
+                mapping = Streams.copyToString(reader);
+                reader.close();
+            } else {
+                mapping = packet.payload();
+            }
+            if (!"_all".equals(index)) {
+                logger.info("index {}: found mapping {}", index, mapping);
+                CreateIndexRequest createIndexRequest = indexRequestMap.get(index);
+                if (createIndexRequest == null) {
+                    createIndexRequest = createIndexRequest(index);
+                    indexRequestMap.put(index, createIndexRequest);
+                }
+                createIndexRequest.mapping(type, mapping);
+            }
+        } else if ("_alias".equals(id)) {
+            Map<String, String> aliases = new HashMap<>();
+            if (aliasRequestMap.containsKey(index)) {
+                aliases = aliasRequestMap.get(index);
+            }
+            aliases.put(type, packet.payload());
+            aliasRequestMap.put(index, aliases);
+        }
+    }
+
+    /**
+     * Reset refresh rate and replica level of the imported indices, and refresh them.
+     */
+    private void finishIndices(BulkNodeClient bulkClient, Map<String, String> indexReplicaMap, Set<String> indexCreated) {
+        for (String index : indexReplicaMap.keySet()) {
+            try {
+                logger.info("resetting refresh rate for index {}", index);
+                bulkClient.stopBulk(index);
+                Integer replica = Integer.parseInt(indexReplicaMap.get(index));
+                logger.info("resetting replica level {} for index {}", replica, index);
+                bulkClient.updateReplicaLevel(index, replica);
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+        for (String index : indexCreated) {
+            bulkClient.refreshIndex(index);
+        }
+    }
+
+    private BulkNodeClient newBulkNodeClient(int maxActionsPerBulkRequest, int maxBulkConcurrency) {
+        return ClientBuilder.builder()
+                .put(ClientBuilder.MAX_ACTIONS_PER_REQUEST, maxActionsPerBulkRequest)
+                .put(ClientBuilder.MAX_CONCURRENT_REQUESTS, maxBulkConcurrency)
+                .put(ClientBuilder.FLUSH_INTERVAL, TimeValue.timeValueSeconds(5))
+                .toBulkNodeClient(client);
+    }
+
     private void indexPackets(BulkNodeClient bulkNodeClient, Map<String, CreateIndexRequest> indexRequestMap, Set<String> indexCreated,
                               Map<String, Map<String, String>> aliasRequestMap,
-                              KnapsackImportRequest request, Map<String, StringPacket> packets) {
+                              KnapsackImportRequest request, Map<String, StringPacket> packets,
+                              KnapsackMemoryBudget.Window window) throws IOException {
         StringPacket packet = packets.values().iterator().next(); // first packet
         String index = (String) packet.meta().get("index");
         String type = (String) packet.meta().get("type");
         String id = (String) packet.meta().get("id");
-        // check if index must be created
-        if (indexRequestMap.containsKey(index)) {
-            CreateIndexRequest createIndexRequest = indexRequestMap.remove(index);
-            if (request.withMetadata()) {
-                logger.info("creating index {}", index);
-                createIndexRequest.timeout(request.getTimeout());
-                try {
-                    CreateIndexResponse response =
-                            bulkNodeClient.client().execute(CreateIndexAction.INSTANCE, createIndexRequest).actionGet();
-                    if (!response.isAcknowledged()) {
-                        logger.warn("index creation was not acknowledged");
+        // check if index must be created, documents of an index may arrive on several import threads
+        synchronized (indexRequestMap) {
+            if (indexRequestMap.containsKey(index)) {
+                CreateIndexRequest createIndexRequest = indexRequestMap.remove(index);
+                if (request.withMetadata()) {
+                    logger.info("creating index {}", index);
+                    createIndexRequest.timeout(request.getTimeout());
+                    try {
+                        CreateIndexResponse response =
+                                bulkNodeClient.client().execute(CreateIndexAction.INSTANCE, createIndexRequest).actionGet();
+                        if (!response.isAcknowledged()) {
+                            logger.warn("index creation was not acknowledged");
+                        }
+                        indexCreated.add(index);
+                    } catch (IndexAlreadyExistsException e) {
+                        logger.warn("index already exists: {}", index);
                     }
-                    indexCreated.add(index);
-                } catch (IndexAlreadyExistsException e) {
-                    logger.warn("index already exists: {}", index);
                 }
+            } else {
+                // we assume this one is automatically created by the bulk API
+                indexCreated.add(index);
             }
-        } else {
-            // we assume this one is automatically created by the bulk API
-            indexCreated.add(index);
-        }
-        if (aliasRequestMap.containsKey(index)) {
-            Map<String, String> aliases = aliasRequestMap.remove(index);
-            if (request.withMetadata()) {
-                IndicesAliasesRequestBuilder requestBuilder =
-                        new IndicesAliasesRequestBuilder(bulkNodeClient.client(), IndicesAliasesAction.INSTANCE);
-                for (String alias : aliases.keySet()) {
-                    requestBuilder.addAlias(index, alias, aliases.get(alias));
+            if (aliasRequestMap.containsKey(index)) {
+                Map<String, String> aliases = aliasRequestMap.remove(index);
+                if (request.withMetadata()) {
+                    IndicesAliasesRequestBuilder requestBuilder =
+                            new IndicesAliasesRequestBuilder(bulkNodeClient.client(), IndicesAliasesAction.INSTANCE);
+                    for (String alias : aliases.keySet()) {
+                        requestBuilder.addAlias(index, alias, aliases.get(alias));
+                    }
+                    logger.info("creating {} aliases for index {}", aliases.size(), index);
+                    requestBuilder.execute().actionGet();
                 }
-                logger.info("creating {} aliases for index {}", aliases.size(), index);
-                requestBuilder.execute().actionGet();
             }
         }
-        // index document begins here
-        IndexRequest indexRequest = new IndexRequest(mapIndex(request, index), mapType(request, index, type), id);
-        for (String f : packets.keySet()) {
-            if (f == null) {
-                continue;
-            }
-            Object o = packets.get(f).payload();
-            if (o == null) {
-                logger.error("empty payload detected");
-                continue;
-            }
-            String payload = o.toString();
-            switch (f) {
-                case "_parent":
-                    indexRequest.parent(payload);
-                    break;
-                case "_routing":
-                    indexRequest.routing(payload);
-                    break;
-                case "_timestamp":
-                    indexRequest.timestamp(payload);
-                    break;
-                case "_version":
-                    indexRequest.versionType(VersionType.EXTERNAL).version(Long.parseLong(payload));
-                    break;
-                case "_source":
-                    indexRequest.source(payload);
-                    break;
-                default:
-                    if (!f.startsWith(".")) {
-                        indexRequest.source(f, payload);
-                    }
-                    break;
-            }
+        if (packets.containsKey("_delete")) {
+            // delete action of a bulk archive
+            bulkNodeClient.bulkDelete(newDeleteRequest(mapIndex(request, index), mapType(request, index, type), id, packets));
+            return;
         }
+        // index document begins here
+        IndexRequest indexRequest = newIndexRequest(mapIndex(request, index), mapType(request, index, type), id, packets, logger);
+        window.add(indexRequest.source() != null ? indexRequest.source().length() : 0L);
         bulkNodeClient.bulkIndex(indexRequest);
     }
 
@@ -48,6 +48,9 @@ import org.joda.time.DateTime;
 import org.xbib.elasticsearch.helper.client.BulkNodeClient;
 import org.xbib.elasticsearch.helper.client.BulkTransportClient;
 import org.xbib.elasticsearch.helper.client.ClientBuilder;
+import org.xbib.elasticsearch.knapsack.KnapsackGovernor;
+import org.xbib.elasticsearch.knapsack.KnapsackJob;
+import org.xbib.elasticsearch.knapsack.KnapsackMemoryBudget;
 import org.xbib.elasticsearch.knapsack.KnapsackService;
 import org.xbib.elasticsearch.knapsack.KnapsackState;
 
@@ -59,11 +62,13 @@ import java.util.Set;
 
 import static org.elasticsearch.client.Requests.createIndexRequest;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.clientSettings;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.clearScroll;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getAliases;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getMapping;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getSettings;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapIndex;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapType;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.setSize;
 
 public class TransportKnapsackPullAction extends TransportAction<KnapsackPullRequest, KnapsackPullResponse> {
 
@@ -90,6 +95,7 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
     @Override
     protected void doExecute(final KnapsackPullRequest request, ActionListener<KnapsackPullResponse> listener) {
         final KnapsackState state = new KnapsackState()
+                .newId()
                 .setMode("pull")
                 .setNodeName(nodeService.nodeName());
         final KnapsackPullResponse response = new KnapsackPullResponse()
@@ -101,11 +107,8 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
                     .put(ClientBuilder.FLUSH_INTERVAL, TimeValue.timeValueSeconds(5))
                     .put(clientSettings(client, request))
                     .toBulkTransportClient();
-            final BulkNodeClient nodeClient = ClientBuilder.builder()
-                    .put(ClientBuilder.MAX_ACTIONS_PER_REQUEST, request.getMaxActionsPerBulkRequest())
-                    .put(ClientBuilder.MAX_CONCURRENT_REQUESTS, request.getMaxBulkConcurrency())
-                    .put(ClientBuilder.FLUSH_INTERVAL, TimeValue.timeValueSeconds(5))
-                    .toBulkNodeClient(client);
+            final BulkNodeClient nodeClient = newBulkNodeClient(request.getMaxActionsPerBulkRequest(),
+                    request.getMaxBulkConcurrency());
             state.setTimestamp(new DateTime());
             response.setRunning(true);
             knapsack.submit(new Thread() {
@@ -126,12 +129,18 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
      * @param request         request
      * @param state           state
      * @param transportClient bulk client for remote cluster access
-     * @param nodeClient      bulk client for local cluster access
+     * @param bulkNodeClient  bulk client for local cluster access
      */
     final void performPull(final KnapsackPullRequest request,
                            final KnapsackState state,
                            final BulkTransportClient transportClient,
-                           final BulkNodeClient nodeClient) {
+                           final BulkNodeClient bulkNodeClient) {
+        BulkNodeClient nodeClient = bulkNodeClient;
+        KnapsackGovernor.Share share = knapsack.getGovernor().join(state);
+        KnapsackMemoryBudget.Account account = knapsack.getMemoryBudget().newAccount(state);
+        KnapsackJob job = knapsack.addJob(new KnapsackJob(state, share)
+                .setMaxActionsPerBulkRequest(request.getMaxActionsPerBulkRequest())
+                .setMaxBulkConcurrency(request.getMaxBulkConcurrency()));
         try {
             logger.info("start of pull: {}", state);
             long count = 0L;
@@ -209,7 +218,14 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
                         .setQuery(QueryBuilders.matchAllQuery()).addSort(SortBuilders.fieldSort("_doc")).request();
             }
             long total = 0L;
+            int maxActionsPerBulkRequest = request.getMaxActionsPerBulkRequest();
+            int maxBulkConcurrency = request.getMaxBulkConcurrency();
+            // requests that may be held by the bulk processor
+            KnapsackMemoryBudget.Window window = account.newWindow(maxActionsPerBulkRequest * (maxBulkConcurrency + 1));
             for (String index : indices.keySet()) {
+                if (job.isAborted()) {
+                    break;
+                }
                 if (!"_all".equals(index)) {
                     searchRequest.indices(index);
                 }
@@ -217,33 +233,63 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
                 if (types != null) {
                     searchRequest.types(types.toArray(new String[types.size()]));
                 }
+                if (job.getScrollSize() > 0) {
+                    setSize(searchRequest, job.getScrollSize());
+                }
                 searchRequest.scroll(request.getTimeout());
                 SearchResponse searchResponse = transportClient.client()
                         .execute(SearchAction.INSTANCE, searchRequest).actionGet();
+                long pageBytes = 0L;
                 do {
+                    // the reservation of the last page is the estimate for the page we got
+                    pageBytes = account.adjust(pageBytes,
+                            KnapsackMemoryBudget.sizeOf(searchResponse.getHits().getHits()));
                     total += searchResponse.getHits().getHits().length;
                     logger.debug("total={} hits={} took={}", total,
                             searchResponse.getHits().getHits().length,
                             searchResponse.getTookInMillis());
+                    share.acquire(searchResponse.getHits().getHits());
+                    if (job.isBulkChanged(maxActionsPerBulkRequest, maxBulkConcurrency)) {
+                        // batch boundary: drain the bulk client and continue with the new settings
+                        maxActionsPerBulkRequest = job.getMaxActionsPerBulkRequest();
+                        maxBulkConcurrency = job.getMaxBulkConcurrency();
+                        logger.info("{}: changing bulk settings to max actions {}, concurrency {}",
+                                state, maxActionsPerBulkRequest, maxBulkConcurrency);
+                        nodeClient.flushIngest();
+                        nodeClient.waitForResponses(TimeValue.timeValueSeconds(60));
+                        nodeClient.shutdown();
+                        window.clear();
+                        nodeClient = newBulkNodeClient(maxActionsPerBulkRequest, maxBulkConcurrency);
+                        window = account.newWindow(maxActionsPerBulkRequest * (maxBulkConcurrency + 1));
+                    }
                     for (SearchHit hit : searchResponse.getHits()) {
-                        indexSearchHit(nodeClient, request, hit);
+                        indexSearchHit(nodeClient, request, hit, window);
                         count++;
                     }
                     searchResponse =  transportClient.client().execute(SearchScrollAction.INSTANCE,
                             new SearchScrollRequest(searchResponse.getScrollId()).scroll(request.getTimeout())).actionGet();
-                } while (searchResponse.getHits().getHits().length > 0 && !Thread.interrupted());
+                } while (searchResponse.getHits().getHits().length > 0 && !Thread.interrupted() && !job.isAborted());
+                clearScroll(transportClient.client(), searchResponse.getScrollId());
+                account.release(pageBytes);
             }
             nodeClient.flushIngest();
             nodeClient.waitForResponses(TimeValue.timeValueSeconds(60));
+            window.clear();
             for (String index : indices.keySet()) {
                 nodeClient.refreshIndex(index);
             }
             nodeClient.shutdown();
             transportClient.shutdown();
+            if (job.isAborted()) {
+                logger.info("pull aborted: {}", state);
+            }
             logger.info("end of pull: {}, docs = {}, count = {}", state, total, count);
         } catch (Throwable e) {
             logger.error(e.getMessage(), e);
         } finally {
+            knapsack.getGovernor().leave(share);
+            account.close();
+            knapsack.removeJob(job);
             try {
                 knapsack.removeImport(state);
             } catch (IOException e) {
@@ -252,7 +298,16 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
         }
     }
 
-    private void indexSearchHit(BulkNodeClient bulkNodeClient, KnapsackPullRequest request, SearchHit hit)
+    private BulkNodeClient newBulkNodeClient(int maxActionsPerBulkRequest, int maxBulkConcurrency) {
+        return ClientBuilder.builder()
+                .put(ClientBuilder.MAX_ACTIONS_PER_REQUEST, maxActionsPerBulkRequest)
+                .put(ClientBuilder.MAX_CONCURRENT_REQUESTS, maxBulkConcurrency)
+                .put(ClientBuilder.FLUSH_INTERVAL, TimeValue.timeValueSeconds(5))
+                .toBulkNodeClient(client);
+    }
+
+    private void indexSearchHit(BulkNodeClient bulkNodeClient, KnapsackPullRequest request, SearchHit hit,
+                                KnapsackMemoryBudget.Window window)
             throws IOException {
         IndexRequest indexRequest = new IndexRequest(mapIndex(request, hit.getIndex()),
                 mapType(request, hit.getIndex(), hit.getType()), hit.getId());
@@ -282,6 +337,7 @@ public class TransportKnapsackPullAction extends TransportAction<KnapsackPullReq
         if (!hit.getFields().keySet().contains("_source")) {
             indexRequest.source(hit.getSourceAsString());
         }
+        window.add(indexRequest.source() != null ? indexRequest.source().length() : 0L);
         bulkNodeClient.bulkIndex(indexRequest);
     }
 
@@ -46,6 +46,9 @@ import org.elasticsearch.transport.TransportService;
 import org.joda.time.DateTime;
 import org.xbib.elasticsearch.helper.client.BulkTransportClient;
 import org.xbib.elasticsearch.helper.client.ClientBuilder;
+import org.xbib.elasticsearch.knapsack.KnapsackGovernor;
+import org.xbib.elasticsearch.knapsack.KnapsackJob;
+import org.xbib.elasticsearch.knapsack.KnapsackMemoryBudget;
 import org.xbib.elasticsearch.knapsack.KnapsackService;
 import org.xbib.elasticsearch.knapsack.KnapsackState;
 
@@ -57,11 +60,13 @@ import java.util.Set;
 
 import static org.elasticsearch.client.Requests.createIndexRequest;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.clientSettings;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.clearScroll;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getAliases;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getMapping;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.getSettings;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapIndex;
 import static org.xbib.elasticsearch.knapsack.KnapsackHelper.mapType;
+import static org.xbib.elasticsearch.knapsack.KnapsackHelper.setSize;
 
 public class TransportKnapsackPushAction extends TransportAction<KnapsackPushRequest, KnapsackPushResponse> {
 
@@ -88,17 +93,14 @@ public class TransportKnapsackPushAction extends TransportAction<KnapsackPushReq
     @Override
     protected void doExecute(final KnapsackPushRequest request, ActionListener<KnapsackPushResponse> listener) {
         final KnapsackState state = new KnapsackState()
+                .newId()
                 .setMode("push")
                 .setNodeName(nodeService.nodeName());
         final KnapsackPushResponse response = new KnapsackPushResponse()
                 .setState(state);
         try {
-            final BulkTransportClient bulkClient = ClientBuilder.builder()
-                    .put(ClientBuilder.MAX_ACTIONS_PER_REQUEST, request.getMaxActionsPerBulkRequest())
-                    .put(ClientBuilder.MAX_CONCURRENT_REQUESTS, request.getMaxBulkConcurrency())
-                    .put(ClientBuilder.FLUSH_INTERVAL, TimeValue.timeValueSeconds(5))
-                    .put(clientSettings(client, request))
-                    .toBulkTransportClient();
+            final BulkTransportClient bulkClient = newBulkClient(request,
+                    request.getMaxActionsPerBulkRequest(), request.getMaxBulkConcurrency());
             state.setTimestamp(new DateTime());
             response.setRunning(true);
             knapsack.submit(new Thread() {
@@ -120,11 +122,17 @@ public class TransportKnapsackPushAction extends TransportAction<KnapsackPushReq
      *
      * @param request    the request
      * @param state      the state
-     * @param bulkClient the bulk client
+     * @param bulkTransportClient the bulk client
      */
     final void performPush(final KnapsackPushRequest request,
                            final KnapsackState state,
-                           final BulkTransportClient bulkClient) {
+                           final BulkTransportClient bulkTransportClient) {
+        BulkTransportClient bulkClient = bulkTransportClient;
+        KnapsackGovernor.Share share = knapsack.getGovernor().join(state);
+        KnapsackMemoryBudget.Account account = knapsack.getMemoryBudget().newAccount(state);
+        KnapsackJob job = knapsack.addJob(new KnapsackJob(state, share)
+                .setMaxActionsPerBulkRequest(request.getMaxActionsPerBulkRequest())
+                .setMaxBulkConcurrency(request.getMaxBulkConcurrency()));
         try {
             logger.info("start of push: {}", state);
             long count = 0L;
@@ -213,7 +221,14 @@ public class TransportKnapsackPushAction extends TransportAction<KnapsackPushReq
                         .setQuery(QueryBuilders.matchAllQuery()).request();
             }
             long total = 0L;
+            int maxActionsPerBulkRequest = request.getMaxActionsPerBulkRequest();
+            int maxBulkConcurrency = request.getMaxBulkConcurrency();
+            // requests that may be held by the bulk processor
+            KnapsackMemoryBudget.Window window = account.newWindow(maxActionsPerBulkRequest * (maxBulkConcurrency + 1));
             for (String index : indices.keySet()) {
+                if (job.isAborted()) {
+                    break;
+                }
                 if (!"_all".equals(index)) {
                     searchRequest.indices(index);
                 }
@@ -221,14 +236,35 @@ public class TransportKnapsackPushAction extends TransportAction<KnapsackPushReq
                 if (types != null) {
                     searchRequest.types(types.toArray(new String[types.size()]));
                 }
+                if (job.getScrollSize() > 0) {
+                    setSize(searchRequest, job.getScrollSize());
+                }
                 searchRequest.scroll(request.getTimeout());
                 // use local node client here
                 SearchResponse searchResponse = client.execute(SearchAction.INSTANCE, searchRequest).actionGet();
+                long pageBytes = 0L;
                 do {
+                    // the reservation of the last page is the estimate for the page we got
+                    pageBytes = account.adjust(pageBytes,
+                            KnapsackMemoryBudget.sizeOf(searchResponse.getHits().getHits()));
                     total += searchResponse.getHits().getHits().length;
                     logger.debug("total={} hits={} took={}", total,
                             searchResponse.getHits().getHits().length,
                             searchResponse.getTookInMillis());
+                    share.acquire(searchResponse.getHits().getHits());
+                    if (job.isBulkChanged(maxActionsPerBulkRequest, maxBulkConcurrency)) {
+                        // batch boundary: drain the bulk client and continue with the new settings
+                        maxActionsPerBulkRequest = job.getMaxActionsPerBulkRequest();
+                        maxBulkConcurrency = job.getMaxBulkConcurrency();
+                        logger.info("{}: changing bulk settings to max actions {}, concurrency {}",
+                                state, maxActionsPerBulkRequest, maxBulkConcurrency);
+                        bulkClient.flushIngest();
+                        bulkClient.waitForResponses(TimeValue.timeValueSeconds(60));
+                        bulkClient.shutdown();
+                        window.clear();
+                        bulkClient = newBulkClient(request, maxActionsPerBulkRequest, maxBulkConcurrency);
+                        window = account.newWindow(maxActionsPerBulkRequest * (maxBulkConcurrency + 1));
+                    }
                     for (SearchHit hit : searchResponse.getHits()) {
                         IndexRequest indexRequest = new IndexRequest(mapIndex(request, hit.getIndex()),
                                 mapType(request, hit.getIndex(), hit.getType()), hit.getId());
@@ -260,22 +296,32 @@ public class TransportKnapsackPushAction extends TransportAction<KnapsackPushReq
                             indexRequest.source(hit.getSourceAsString());
                             count++;
                         }
+                        window.add(indexRequest.source() != null ? indexRequest.source().length() : 0L);
                         bulkClient.bulkIndex(indexRequest);
                     }
                     searchResponse = client.execute(SearchScrollAction.INSTANCE,
                             new SearchScrollRequest(searchResponse.getScrollId()).scroll(request.getTimeout())).actionGet();
-                } while (searchResponse.getHits().getHits().length > 0 && !Thread.interrupted());
+                } while (searchResponse.getHits().getHits().length > 0 && !Thread.interrupted() && !job.isAborted());
+                clearScroll(client, searchResponse.getScrollId());
+                account.release(pageBytes);
             }
             bulkClient.flushIngest();
             bulkClient.waitForResponses(TimeValue.timeValueSeconds(60));
+            window.clear();
             for (String index : indices.keySet()) {
                 bulkClient.refreshIndex(index);
             }
             bulkClient.shutdown();
+            if (job.isAborted()) {
+                logger.info("push aborted: {}", state);
+            }
             logger.info("end of push: {}, count = {}", state, count);
         } catch (Throwable e) {
             logger.error(e.getMessage(), e);
         } finally {
+            knapsack.getGovernor().leave(share);
+            account.close();
+            knapsack.removeJob(job);
             try {
                 knapsack.removeExport(state);
             } catch (IOException e) {
@@ -284,4 +330,14 @@ public class TransportKnapsackPushAction extends TransportAction<KnapsackPushReq
         }
     }
 
+    private BulkTransportClient newBulkClient(KnapsackPushRequest request,
+                                              int maxActionsPerBulkRequest, int maxBulkConcurrency) {
+        return ClientBuilder.builder()
+                .put(ClientBuilder.MAX_ACTIONS_PER_REQUEST, maxActionsPerBulkRequest)
+                .put(ClientBuilder.MAX_CONCURRENT_REQUESTS, maxBulkConcurrency)
+                .put(ClientBuilder.FLUSH_INTERVAL, TimeValue.timeValueSeconds(5))
+                .put(clientSettings(client, request))
+                .toBulkTransportClient();
+    }
+
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.knapsack.update;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * Request for changing the throughput settings of a running knapsack job.
+ * Settings with a negative value are left unchanged.
+ */
+public class KnapsackUpdateRequest extends ActionRequest<KnapsackUpdateRequest> {
+
+    private String id;
+
+    private int maxActionsPerBulkRequest = -1;
+
+    private int maxBulkConcurrency = -1;
+
+    private int scrollSize = -1;
+
+    private long maxBytesPerSec = -1L;
+
+    private long maxDocsPerSec = -1L;
+
+    public KnapsackUpdateRequest setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public KnapsackUpdateRequest setMaxActionsPerBulkRequest(int maxActionsPerBulkRequest) {
+        this.maxActionsPerBulkRequest = maxActionsPerBulkRequest;
+        return this;
+    }
+
+    public int getMaxActionsPerBulkRequest() {
+        return maxActionsPerBulkRequest;
+    }
+
+    public KnapsackUpdateRequest setMaxBulkConcurrency(int maxBulkConcurrency) {
+        this.maxBulkConcurrency = maxBulkConcurrency;
+        return this;
+    }
+
+    public int getMaxBulkConcurrency() {
+        return maxBulkConcurrency;
+    }
+
+    public KnapsackUpdateRequest setScrollSize(int scrollSize) {
+        this.scrollSize = scrollSize;
+        return this;
+    }
+
+    public int getScrollSize() {
+        return scrollSize;
+    }
+
+    public KnapsackUpdateRequest setMaxBytesPerSec(long maxBytesPerSec) {
+        this.maxBytesPerSec = maxBytesPerSec;
+        return this;
+    }
+
+    public long getMaxBytesPerSec() {
+        return maxBytesPerSec;
+    }
+
+    public KnapsackUpdateRequest setMaxDocsPerSec(long maxDocsPerSec) {
+        this.maxDocsPerSec = maxDocsPerSec;
+        return this;
+    }
+
+    public long getMaxDocsPerSec() {
+        return maxDocsPerSec;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = null;
+        if (id == null) {
+            validationException = addValidationError("job id is missing", validationException);
+        }
+        if (maxActionsPerBulkRequest == 0) {
+            validationException = addValidationError("max actions per bulk request must be positive", validationException);
+        }
+        if (maxBulkConcurrency == 0) {
+            validationException = addValidationError("max bulk concurrency must be positive", validationException);
+        }
+        return validationException;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        id = in.readOptionalString();
+        maxActionsPerBulkRequest = in.readInt();
+        maxBulkConcurrency = in.readInt();
+        scrollSize = in.readInt();
+        maxBytesPerSec = in.readLong();
+        maxDocsPerSec = in.readLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeOptionalString(id);
+        out.writeInt(maxActionsPerBulkRequest);
+        out.writeInt(maxBulkConcurrency);
+        out.writeInt(scrollSize);
+        out.writeLong(maxBytesPerSec);
+        out.writeLong(maxDocsPerSec);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.knapsack.update;
+
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+
+public class KnapsackUpdateRequestBuilder extends ActionRequestBuilder<KnapsackUpdateRequest, KnapsackUpdateResponse, KnapsackUpdateRequestBuilder> {
+
+    public KnapsackUpdateRequestBuilder(ElasticsearchClient client) {
+        super(client, KnapsackUpdateAction.INSTANCE, new KnapsackUpdateRequest());
+    }
+
+    public KnapsackUpdateRequestBuilder setId(String id) {
+        request().setId(id);
+        return this;
+    }
+
+    public KnapsackUpdateRequestBuilder setMaxActionsPerBulkRequest(int maxActionsPerBulkRequest) {
+        request().setMaxActionsPerBulkRequest(maxActionsPerBulkRequest);
+        return this;
+    }
+
+    public KnapsackUpdateRequestBuilder setMaxBulkConcurrency(int maxBulkConcurrency) {
+        request().setMaxBulkConcurrency(maxBulkConcurrency);
+        return this;
+    }
+
+    public KnapsackUpdateRequestBuilder setScrollSize(int scrollSize) {
+        request().setScrollSize(scrollSize);
+        return this;
+    }
+
+    public KnapsackUpdateRequestBuilder setMaxBytesPerSec(long maxBytesPerSec) {
+        request().setMaxBytesPerSec(maxBytesPerSec);
+        return this;
+    }
+
+    public KnapsackUpdateRequestBuilder setMaxDocsPerSec(long maxDocsPerSec) {
+        request().setMaxDocsPerSec(maxDocsPerSec);
+        return this;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.knapsack.update;
+
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.xbib.elasticsearch.knapsack.KnapsackJob;
+
+import java.io.IOException;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+public class KnapsackUpdateResponse extends ActionResponse implements ToXContent {
+
+    private boolean found;
+
+    private String id;
+
+    private String mode;
+
+    private int maxActionsPerBulkRequest;
+
+    private int maxBulkConcurrency;
+
+    private int scrollSize;
+
+    private long maxBytesPerSec;
+
+    private long maxDocsPerSec;
+
+    public KnapsackUpdateResponse setJob(KnapsackJob job) {
+        this.found = true;
+        this.id = job.getId();
+        this.mode = job.getState().getMode();
+        this.maxActionsPerBulkRequest = job.getMaxActionsPerBulkRequest();
+        this.maxBulkConcurrency = job.getMaxBulkConcurrency();
+        this.scrollSize = job.getScrollSize();
+        this.maxBytesPerSec = job.getMaxBytesPerSec();
+        this.maxDocsPerSec = job.getMaxDocsPerSec();
+        return this;
+    }
+
+    public boolean isFound() {
+        return found;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getMaxActionsPerBulkRequest() {
+        return maxActionsPerBulkRequest;
+    }
+
+    public int getMaxBulkConcurrency() {
+        return maxBulkConcurrency;
+    }
+
+    public int getScrollSize() {
+        return scrollSize;
+    }
+
+    public long getMaxBytesPerSec() {
+        return maxBytesPerSec;
+    }
+
+    public long getMaxDocsPerSec() {
+        return maxDocsPerSec;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("found", found);
+        if (found) {
+            builder.startObject("job")
+                    .field("id", id)
+                    .field("mode", mode)
+                    .field("max_bulk_actions_per_request", maxActionsPerBulkRequest)
+                    .field("max_bulk_concurrency", maxBulkConcurrency)
+                    .field("scroll_size", scrollSize)
+                    .field("max_bytes_per_sec", maxBytesPerSec)
+                    .field("max_docs_per_sec", maxDocsPerSec)
+                    .endObject();
+        }
+        return builder;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        found = in.readBoolean();
+        if (found) {
+            id = in.readString();
+            mode = in.readString();
+            maxActionsPerBulkRequest = in.readInt();
+            maxBulkConcurrency = in.readInt();
+            scrollSize = in.readInt();
+            maxBytesPerSec = in.readLong();
+            maxDocsPerSec = in.readLong();
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeBoolean(found);
+        if (found) {
+            out.writeString(id);
+            out.writeString(mode);
+            out.writeInt(maxActionsPerBulkRequest);
+            out.writeInt(maxBulkConcurrency);
+            out.writeInt(scrollSize);
+            out.writeLong(maxBytesPerSec);
+            out.writeLong(maxDocsPerSec);
+        }
+    }
+
+    @Override
+    public String toString() {
+        try {
+            XContentBuilder builder = jsonBuilder();
+            builder.startObject();
+            builder = toXContent(builder, EMPTY_PARAMS);
+            builder.endObject();
+            return builder.string();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.action.knapsack.update;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.TransportAction;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+import org.xbib.elasticsearch.knapsack.KnapsackJob;
+import org.xbib.elasticsearch.knapsack.KnapsackService;
+
+public class TransportKnapsackUpdateAction extends TransportAction<KnapsackUpdateRequest, KnapsackUpdateResponse> {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackUpdateAction.class.getSimpleName());
+
+    private final KnapsackService knapsack;
+
+    @Inject
+    public TransportKnapsackUpdateAction(Settings settings, TransportService transportService,
+                                         ThreadPool threadPool, ActionFilters actionFilters,
+                                         IndexNameExpressionResolver indexNameExpressionResolver,
+                                         KnapsackService knapsack) {
+        super(settings, KnapsackUpdateAction.NAME, threadPool, actionFilters, indexNameExpressionResolver, transportService.getTaskManager());
+        this.knapsack = knapsack;
+    }
+
+    @Override
+    protected void doExecute(final KnapsackUpdateRequest request, ActionListener<KnapsackUpdateResponse> listener) {
+        final KnapsackUpdateResponse response = new KnapsackUpdateResponse();
+        try {
+            KnapsackJob job = knapsack.getJob(request.getId());
+            if (job != null) {
+                if (request.getMaxActionsPerBulkRequest() > 0) {
+                    job.setMaxActionsPerBulkRequest(request.getMaxActionsPerBulkRequest());
+                }
+                if (request.getMaxBulkConcurrency() > 0) {
+                    job.setMaxBulkConcurrency(request.getMaxBulkConcurrency());
+                }
+                if (request.getScrollSize() >= 0) {
+                    job.setScrollSize(request.getScrollSize());
+                }
+                if (request.getMaxBytesPerSec() >= 0L) {
+                    job.setMaxBytesPerSec(request.getMaxBytesPerSec());
+                }
+                if (request.getMaxDocsPerSec() >= 0L) {
+                    job.setMaxDocsPerSec(request.getMaxDocsPerSec());
+                }
+                logger.info("updated job: {}", job);
+                response.setJob(job);
+            }
+            listener.onResponse(response);
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+            listener.onFailure(e);
+        }
+    }
+
+}
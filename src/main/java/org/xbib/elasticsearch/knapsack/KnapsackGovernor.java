@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.knapsack;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.node.settings.NodeSettingsService;
+import org.elasticsearch.search.SearchHit;
+import org.xbib.io.TokenBucket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The node-wide governor for the I/O bandwidth and the document rate of knapsack jobs.
+ * Each running job joins the governor and receives a share with an equal part of the
+ * node limits, so concurrent jobs can not starve each other. The limits are dynamic
+ * cluster settings and are applied to running jobs immediately. A job may have lower
+ * limits of its own, the rate a job does not use is shared by the other jobs.
+ */
+public class KnapsackGovernor extends AbstractComponent implements NodeSettingsService.Listener {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackGovernor.class.getSimpleName());
+
+    public static final String MAX_BYTES_PER_SEC = "knapsack.throttle.max_bytes_per_sec";
+
+    public static final String MAX_DOCS_PER_SEC = "knapsack.throttle.max_docs_per_sec";
+
+    private final List<Share> shares;
+
+    private volatile long maxBytesPerSec;
+
+    private volatile long maxDocsPerSec;
+
+    @Inject
+    public KnapsackGovernor(Settings settings, NodeSettingsService nodeSettingsService) {
+        super(settings);
+        this.shares = new CopyOnWriteArrayList<>();
+        this.maxBytesPerSec = settings.getAsBytesSize(MAX_BYTES_PER_SEC, new ByteSizeValue(0)).bytes();
+        this.maxDocsPerSec = settings.getAsLong(MAX_DOCS_PER_SEC, 0L);
+        nodeSettingsService.addListener(this);
+    }
+
+    @Override
+    public void onRefreshSettings(Settings settings) {
+        long bytesPerSec = settings.getAsBytesSize(MAX_BYTES_PER_SEC, new ByteSizeValue(maxBytesPerSec)).bytes();
+        long docsPerSec = settings.getAsLong(MAX_DOCS_PER_SEC, maxDocsPerSec);
+        if (bytesPerSec != maxBytesPerSec || docsPerSec != maxDocsPerSec) {
+            logger.info("updating throttle: [{}] {} -> {}, [{}] {} -> {}",
+                    MAX_BYTES_PER_SEC, new ByteSizeValue(maxBytesPerSec), new ByteSizeValue(bytesPerSec),
+                    MAX_DOCS_PER_SEC, maxDocsPerSec, docsPerSec);
+            this.maxBytesPerSec = bytesPerSec;
+            this.maxDocsPerSec = docsPerSec;
+            rebalance();
+        }
+    }
+
+    public long getMaxBytesPerSec() {
+        return maxBytesPerSec;
+    }
+
+    public long getMaxDocsPerSec() {
+        return maxDocsPerSec;
+    }
+
+    /**
+     * Join the governor with a job.
+     *
+     * @param state the state of the job
+     * @return the share of the job, must be given back by {@link #leave(Share)}
+     */
+    public Share join(KnapsackState state) {
+        Share share = new Share(this, state);
+        shares.add(share);
+        rebalance();
+        return share;
+    }
+
+    public void leave(Share share) {
+        if (share != null && shares.remove(share)) {
+            rebalance();
+        }
+    }
+
+    private synchronized void rebalance() {
+        List<Share> list = new ArrayList<>(shares);
+        if (list.isEmpty()) {
+            return;
+        }
+        Collections.sort(list, new Comparator<Share>() {
+            @Override
+            public int compare(Share s1, Share s2) {
+                return Long.compare(limit(s1.maxBytesPerSec), limit(s2.maxBytesPerSec));
+            }
+        });
+        double remaining = maxBytesPerSec;
+        int n = list.size();
+        for (Share share : list) {
+            double rate = divide(remaining, n--, share.maxBytesPerSec);
+            share.bytes.setRate(rate);
+            remaining -= rate;
+        }
+        Collections.sort(list, new Comparator<Share>() {
+            @Override
+            public int compare(Share s1, Share s2) {
+                return Long.compare(limit(s1.maxDocsPerSec), limit(s2.maxDocsPerSec));
+            }
+        });
+        remaining = maxDocsPerSec;
+        n = list.size();
+        for (Share share : list) {
+            double rate = divide(remaining, n--, share.maxDocsPerSec);
+            share.docs.setRate(rate);
+            remaining -= rate;
+        }
+        logger.debug("rebalanced shares: {}", list);
+    }
+
+    private static long limit(long rate) {
+        return rate > 0L ? rate : Long.MAX_VALUE;
+    }
+
+    /**
+     * The rate of a share, the equal part of the remaining node rate, or the job limit if it is lower.
+     * Shares are processed in the order of their job limits, so unused rate goes to the following shares.
+     */
+    private static double divide(double remaining, int n, long jobLimit) {
+        if (remaining <= 0.0d) {
+            // no node limit
+            return jobLimit > 0L ? jobLimit : 0.0d;
+        }
+        double fair = remaining / n;
+        return jobLimit > 0L ? Math.min(fair, jobLimit) : fair;
+    }
+
+    /**
+     * The share of a job in the node-wide limits.
+     */
+    public static class Share {
+
+        private final KnapsackGovernor governor;
+
+        private final KnapsackState state;
+
+        private final TokenBucket bytes;
+
+        private final TokenBucket docs;
+
+        private volatile long maxBytesPerSec;
+
+        private volatile long maxDocsPerSec;
+
+        Share(KnapsackGovernor governor, KnapsackState state) {
+            this.governor = governor;
+            this.state = state;
+            this.bytes = new TokenBucket(0.0d);
+            this.docs = new TokenBucket(0.0d);
+        }
+
+        public KnapsackState getState() {
+            return state;
+        }
+
+        /**
+         * Set the limit of bytes per second of this job, lower than the node limit.
+         *
+         * @param maxBytesPerSec the limit, or 0 for no job limit
+         */
+        public void setMaxBytesPerSec(long maxBytesPerSec) {
+            this.maxBytesPerSec = maxBytesPerSec;
+            governor.rebalance();
+        }
+
+        public long getMaxBytesPerSec() {
+            return maxBytesPerSec;
+        }
+
+        /**
+         * Set the limit of documents per second of this job, lower than the node limit.
+         *
+         * @param maxDocsPerSec the limit, or 0 for no job limit
+         */
+        public void setMaxDocsPerSec(long maxDocsPerSec) {
+            this.maxDocsPerSec = maxDocsPerSec;
+            governor.rebalance();
+        }
+
+        public long getMaxDocsPerSec() {
+            return maxDocsPerSec;
+        }
+
+        /**
+         * The byte bucket, for throttling archive streams.
+         *
+         * @return the byte bucket
+         */
+        public TokenBucket getBytes() {
+            return bytes;
+        }
+
+        public void acquireBytes(long n) throws InterruptedException {
+            bytes.acquire(n);
+        }
+
+        public void acquireDocs(long n) throws InterruptedException {
+            docs.acquire(n);
+        }
+
+        /**
+         * Acquire documents and source bytes of search hits, for jobs that do not use archive streams.
+         *
+         * @param hits the search hits
+         * @throws InterruptedException if interrupted while throttled
+         */
+        public void acquire(SearchHit[] hits) throws InterruptedException {
+            docs.acquire(hits.length);
+            if (bytes.isLimited()) {
+                long n = 0L;
+                for (SearchHit hit : hits) {
+                    BytesReference ref = hit.sourceRef();
+                    if (ref != null) {
+                        n += ref.length();
+                    }
+                }
+                bytes.acquire(n);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Share[" + state + ",bytes=" + bytes.getRate() + ",docs=" + docs.getRate() + "]";
+        }
+    }
+}
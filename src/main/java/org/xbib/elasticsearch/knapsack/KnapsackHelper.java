@@ -22,22 +22,46 @@ import org.elasticsearch.action.admin.cluster.node.info.NodesInfoResponse;
 import org.elasticsearch.action.admin.cluster.state.ClusterStateAction;
 import org.elasticsearch.action.admin.cluster.state.ClusterStateRequestBuilder;
 import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.ClearScrollAction;
+import org.elasticsearch.action.search.ClearScrollRequestBuilder;
+import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.client.ElasticsearchClient;
 import org.elasticsearch.cluster.metadata.AliasMetaData;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
 import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.VersionType;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+import org.xbib.io.archive.ArchiveIndex;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
+import org.xbib.io.archive.ArchiveUtils;
+import org.xbib.io.archive.knapsack.KnapsackArchiveConstants;
+import org.xbib.io.archive.knapsack.KnapsackSession;
+import org.xbib.io.compress.CompressCodecService;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
@@ -135,6 +159,223 @@ public class KnapsackHelper {
         return request.getIndexTypeNames().containsKey(s) ? request.getIndexTypeNames().get(s).toString() : type;
     }
 
+    /**
+     * Create an index request for a document read from an archive.
+     *
+     * @param index   the index
+     * @param type    the type
+     * @param id      the id
+     * @param packets the packets of the document fields, by field name
+     * @param logger  the logger
+     * @return the index request
+     */
+    public static IndexRequest newIndexRequest(String index, String type, String id,
+                                               Map<String, StringPacket> packets, ESLogger logger) {
+        IndexRequest indexRequest = new IndexRequest(index, type, id);
+        for (String f : packets.keySet()) {
+            if (f == null) {
+                continue;
+            }
+            StringPacket packet = packets.get(f);
+            if ("_source".equals(f) && packet.bytes() != null) {
+                // SMILE or CBOR, the index request detects the content type
+                indexRequest.source(packet.bytes());
+                continue;
+            }
+            Object o = packet.payload();
+            if (o == null) {
+                logger.error("empty payload detected");
+                continue;
+            }
+            String payload = o.toString();
+            switch (f) {
+                case "_parent":
+                    indexRequest.parent(payload);
+                    break;
+                case "_routing":
+                    indexRequest.routing(payload);
+                    break;
+                case "_timestamp":
+                    indexRequest.timestamp(payload);
+                    break;
+                case "_version":
+                    indexRequest.versionType(VersionType.EXTERNAL).version(Long.parseLong(payload));
+                    break;
+                case "_op_type":
+                    indexRequest.opType(payload);
+                    break;
+                case "_source":
+                    indexRequest.source(payload);
+                    break;
+                default:
+                    if (!f.startsWith(".")) {
+                        indexRequest.source(f, payload);
+                    }
+                    break;
+            }
+        }
+        return indexRequest;
+    }
+
+    /**
+     * Create a delete request for a delete action read from a bulk archive.
+     *
+     * @param index   the index
+     * @param type    the type
+     * @param id      the id
+     * @param packets the packets of the action metadata, by field name
+     * @return the delete request
+     */
+    public static DeleteRequest newDeleteRequest(String index, String type, String id,
+                                                 Map<String, StringPacket> packets) {
+        DeleteRequest deleteRequest = new DeleteRequest(index, type, id);
+        StringPacket packet = packets.get("_routing");
+        if (packet != null) {
+            deleteRequest.routing(packet.payload());
+        }
+        packet = packets.get("_parent");
+        if (packet != null) {
+            deleteRequest.parent(packet.payload());
+        }
+        packet = packets.get("_version");
+        if (packet != null) {
+            deleteRequest.versionType(VersionType.EXTERNAL).version(Long.parseLong(packet.payload()));
+        }
+        return deleteRequest;
+    }
+
+    /**
+     * Convert a document source to a binary XContent format. The parser events are copied
+     * to the generator of the target format, without building a map of the source.
+     *
+     * @param source       the document source
+     * @param xContentType the target format
+     * @return the converted source
+     * @throws IOException if the source can not be parsed
+     */
+    public static byte[] convertSource(BytesReference source, XContentType xContentType) throws IOException {
+        if (XContentFactory.xContentType(source) == xContentType) {
+            return source.toBytes();
+        }
+        XContentParser parser = XContentFactory.xContent(source).createParser(source);
+        try {
+            XContentBuilder builder = XContentFactory.contentBuilder(xContentType);
+            parser.nextToken();
+            builder.copyCurrentStructure(parser);
+            return builder.bytes().toBytes();
+        } finally {
+            parser.close();
+        }
+    }
+
+    public static void clearScroll(ElasticsearchClient client, String scrollId) {
+        if (scrollId != null) {
+            new ClearScrollRequestBuilder(client, ClearScrollAction.INSTANCE)
+                    .addScrollId(scrollId)
+                    .execute().actionGet();
+        }
+    }
+
+    /**
+     * Set the size of a search request, keeping the other parameters of the extra source.
+     *
+     * @param searchRequest the search request
+     * @param size the size
+     * @throws IOException if the extra source can not be parsed
+     */
+    public static void setSize(SearchRequest searchRequest, int size) throws IOException {
+        Map<String, Object> extraSource = new HashMap<>();
+        if (searchRequest.extraSource() != null) {
+            extraSource.putAll(XContentHelper.convertToMap(searchRequest.extraSource(), false).v2());
+        }
+        extraSource.put("size", size);
+        searchRequest.extraSource(extraSource);
+    }
+
+    /**
+     * Configure the I/O buffers of an archive session from the node settings.
+     *
+     * @param session the archive session
+     * @param settings the node settings
+     */
+    public static void setBuffers(ArchiveSession<?, ?> session, Settings settings) {
+        ByteSizeValue bufferSize = settings.getAsBytesSize(KnapsackParameter.KNAPSACK_BUFFER_SIZE,
+                new ByteSizeValue(ArchiveSession.DEFAULT_BUFFER_SIZE));
+        session.setBufferSize((int) bufferSize.bytes(),
+                settings.getAsBoolean(KnapsackParameter.KNAPSACK_DIRECT_BUFFERS, false));
+        for (String codec : CompressCodecService.getCodecs()) {
+            ByteSizeValue codecBufferSize = settings.getAsBytesSize(
+                    String.format(Locale.ROOT, KnapsackParameter.KNAPSACK_CODEC_BUFFER_SIZE, codec), null);
+            if (codecBufferSize != null) {
+                session.setCodecBufferSize(codec, (int) codecBufferSize.bytes());
+            }
+            session.setCodecThreads(codec, settings.getAsInt(
+                    String.format(Locale.ROOT, KnapsackParameter.KNAPSACK_CODEC_THREADS, codec), 1));
+        }
+        session.setMemoryMapped(settings.getAsBoolean(KnapsackParameter.KNAPSACK_MMAP, true));
+        session.setIndexed(settings.getAsBoolean(KnapsackParameter.KNAPSACK_INDEX, true));
+        if (session instanceof KnapsackSession) {
+            ((KnapsackSession) session)
+                    .setBlockSize((int) settings.getAsBytesSize(KnapsackParameter.KNAPSACK_BLOCK_SIZE,
+                            new ByteSizeValue(KnapsackArchiveConstants.DEFAULT_BLOCK_SIZE)).bytes())
+                    .setEncoderThreads(settings.getAsInt(KnapsackParameter.KNAPSACK_ENCODER_THREADS, 1))
+                    .setDictionary(settings.getAsInt(KnapsackParameter.KNAPSACK_DICTIONARY_DOCS, 0),
+                            (int) settings.getAsBytesSize(KnapsackParameter.KNAPSACK_DICTIONARY_SIZE,
+                                    new ByteSizeValue(KnapsackArchiveConstants.MAX_DICTIONARY_SIZE)).bytes());
+        }
+    }
+
+    /**
+     * Read the entries of a document from an indexed archive. Reading starts at each offset of the lookup and
+     * stops at the first entry of another document. A packed entry holds several documents, the documents
+     * before the requested one are skipped within the packed entry.
+     *
+     * @param path         the archive path
+     * @param archiveIndex the index of the archive
+     * @param index        the index name
+     * @param type         the type name
+     * @param id           the document id
+     * @param settings     the settings for the buffers of the archive session
+     * @return the packets of the document fields by field name, empty if the document is not in the archive
+     * @throws IOException if the archive can not be read
+     */
+    public static Map<String, StringPacket> readDocument(Path path, ArchiveIndex archiveIndex,
+                                                         String index, String type, String id,
+                                                         Settings settings) throws IOException {
+        Map<String, StringPacket> packets = new LinkedHashMap<>();
+        for (long offset : archiveIndex.lookup(ArchiveUtils.encodeDocumentName(index, type, id))) {
+            ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+            setBuffers(session, settings);
+            session.setRange(offset, archiveIndex.getEnd());
+            try {
+                session.open(EnumSet.of(Session.Mode.READ), path);
+                boolean found = false;
+                StringPacket packet;
+                while ((packet = session.read()) != null) {
+                    if (!index.equals(packet.meta().get("index")) || !type.equals(packet.meta().get("type"))
+                            || !id.equals(packet.meta().get("id"))) {
+                        // the packet counter counts archive entries, not the packets of a packed entry
+                        if (!found && session.getPacketCounter() == 1L) {
+                            continue;
+                        }
+                        break;
+                    }
+                    found = true;
+                    String field = (String) packet.meta().get("field");
+                    if (field == null) {
+                        field = "_source";
+                    }
+                    if (packet.hasPayload()) {
+                        packets.put(field, packet);
+                    }
+                }
+            } finally {
+                session.close();
+            }
+        }
+        return packets;
+    }
+
     public static Settings clientSettings(ElasticsearchClient client, KnapsackRequest request) {
         String cluster = request.getCluster();
         String host = request.getHost();
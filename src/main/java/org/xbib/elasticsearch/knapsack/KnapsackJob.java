@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.knapsack;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * A running knapsack job on this node, with the throughput settings that can be changed
+ * while the job is running. The job loops pick up changes at the next batch boundary.
+ */
+public class KnapsackJob implements ToXContent {
+
+    private final KnapsackState state;
+
+    private final KnapsackGovernor.Share share;
+
+    private volatile int maxActionsPerBulkRequest;
+
+    private volatile int maxBulkConcurrency;
+
+    private volatile int scrollSize;
+
+    private volatile boolean aborted;
+
+    public KnapsackJob(KnapsackState state, KnapsackGovernor.Share share) {
+        this.state = state;
+        this.share = share;
+    }
+
+    public String getId() {
+        return state.id();
+    }
+
+    public KnapsackState getState() {
+        return state;
+    }
+
+    public KnapsackJob setMaxActionsPerBulkRequest(int maxActionsPerBulkRequest) {
+        this.maxActionsPerBulkRequest = maxActionsPerBulkRequest;
+        return this;
+    }
+
+    public int getMaxActionsPerBulkRequest() {
+        return maxActionsPerBulkRequest;
+    }
+
+    public KnapsackJob setMaxBulkConcurrency(int maxBulkConcurrency) {
+        this.maxBulkConcurrency = maxBulkConcurrency;
+        return this;
+    }
+
+    public int getMaxBulkConcurrency() {
+        return maxBulkConcurrency;
+    }
+
+    /**
+     * Set the scroll size. Elasticsearch can not change the size of an open scroll,
+     * so the size is used for the next scroll of the job.
+     *
+     * @param scrollSize the scroll size, or 0 for the size of the search request
+     * @return this job
+     */
+    public KnapsackJob setScrollSize(int scrollSize) {
+        this.scrollSize = scrollSize;
+        return this;
+    }
+
+    public int getScrollSize() {
+        return scrollSize;
+    }
+
+    public KnapsackJob setMaxBytesPerSec(long maxBytesPerSec) {
+        share.setMaxBytesPerSec(maxBytesPerSec);
+        return this;
+    }
+
+    public long getMaxBytesPerSec() {
+        return share.getMaxBytesPerSec();
+    }
+
+    public KnapsackJob setMaxDocsPerSec(long maxDocsPerSec) {
+        share.setMaxDocsPerSec(maxDocsPerSec);
+        return this;
+    }
+
+    public long getMaxDocsPerSec() {
+        return share.getMaxDocsPerSec();
+    }
+
+    /**
+     * Abort this job. The job loops stop at the next batch boundary, complete the outstanding
+     * bulk requests, clear their scrolls and close their archive sessions.
+     */
+    public void abort() {
+        this.aborted = true;
+    }
+
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Check if the bulk settings differ from the ones a job loop is using.
+     *
+     * @param maxActionsPerBulkRequest the maximum actions per bulk request in use
+     * @param maxBulkConcurrency       the bulk concurrency in use
+     * @return true if the bulk client must be rebuilt
+     */
+    public boolean isBulkChanged(int maxActionsPerBulkRequest, int maxBulkConcurrency) {
+        return this.maxActionsPerBulkRequest != maxActionsPerBulkRequest
+                || this.maxBulkConcurrency != maxBulkConcurrency;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject()
+                .field("id", getId())
+                .field("mode", state.getMode())
+                .field("max_bulk_actions_per_request", maxActionsPerBulkRequest)
+                .field("max_bulk_concurrency", maxBulkConcurrency)
+                .field("scroll_size", scrollSize)
+                .field("max_bytes_per_sec", getMaxBytesPerSec())
+                .field("max_docs_per_sec", getMaxDocsPerSec())
+                .field("aborted", aborted)
+                .endObject();
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return "KnapsackJob[" + getId() + "]";
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.knapsack;
+
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.indices.breaker.BreakerSettings;
+import org.elasticsearch.indices.breaker.CircuitBreakerService;
+import org.elasticsearch.node.settings.NodeSettingsService;
+import org.elasticsearch.search.SearchHit;
+import org.xbib.io.MemoryBudget;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The node-wide memory budget for data that knapsack jobs hold on the heap: scroll pages,
+ * bulk requests in flight, and archive entry buffers. The budget is registered as the
+ * circuit breaker "knapsack", so it also counts against the parent breaker of the node.
+ *
+ * Each job opens an account. A reservation that does not fit into the budget waits until
+ * other jobs have released memory. Jobs below their fair share of the budget, and jobs that
+ * are the only memory holders, are never blocked, so every job keeps making progress.
+ * After the maximum wait time, a reservation is forced.
+ */
+public class KnapsackMemoryBudget extends AbstractComponent implements NodeSettingsService.Listener {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackMemoryBudget.class.getSimpleName());
+
+    public static final String BREAKER_NAME = "knapsack";
+
+    public static final String MEMORY_LIMIT = "knapsack.memory.limit";
+
+    public static final String MEMORY_MAX_WAIT = "knapsack.memory.max_wait";
+
+    private static final String DEFAULT_MEMORY_LIMIT = "10%";
+
+    private static final TimeValue DEFAULT_MEMORY_MAX_WAIT = TimeValue.timeValueSeconds(30);
+
+    private final CircuitBreakerService circuitBreakerService;
+
+    private final List<Account> accounts;
+
+    private final Object monitor;
+
+    private volatile long limit;
+
+    private volatile TimeValue maxWait;
+
+    @Inject
+    public KnapsackMemoryBudget(Settings settings, CircuitBreakerService circuitBreakerService,
+                                NodeSettingsService nodeSettingsService) {
+        super(settings);
+        this.circuitBreakerService = circuitBreakerService;
+        this.accounts = new CopyOnWriteArrayList<>();
+        this.monitor = new Object();
+        this.limit = settings.getAsMemory(MEMORY_LIMIT, DEFAULT_MEMORY_LIMIT).bytes();
+        this.maxWait = settings.getAsTime(MEMORY_MAX_WAIT, DEFAULT_MEMORY_MAX_WAIT);
+        registerBreaker();
+        nodeSettingsService.addListener(this);
+    }
+
+    @Override
+    public void onRefreshSettings(Settings settings) {
+        long newLimit = settings.getAsMemory(MEMORY_LIMIT, new ByteSizeValue(limit).toString()).bytes();
+        if (newLimit != limit) {
+            logger.info("updating [{}] from [{}] to [{}]", MEMORY_LIMIT,
+                    new ByteSizeValue(limit), new ByteSizeValue(newLimit));
+            this.limit = newLimit;
+            registerBreaker();
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+        TimeValue newMaxWait = settings.getAsTime(MEMORY_MAX_WAIT, maxWait);
+        if (newMaxWait.millis() != maxWait.millis()) {
+            logger.info("updating [{}] from [{}] to [{}]", MEMORY_MAX_WAIT, maxWait, newMaxWait);
+            this.maxWait = newMaxWait;
+        }
+    }
+
+    private void registerBreaker() {
+        // an existing breaker is replaced, keeping the bytes in use
+        circuitBreakerService.registerBreaker(new BreakerSettings(BREAKER_NAME, limit, 1.0d,
+                CircuitBreaker.Type.MEMORY));
+    }
+
+    private CircuitBreaker breaker() {
+        return circuitBreakerService.getBreaker(BREAKER_NAME);
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getUsed() {
+        return breaker().getUsed();
+    }
+
+    /**
+     * Open an account for a job.
+     *
+     * @param state the state of the job
+     * @return the account, must be closed when the job ends
+     */
+    public Account newAccount(KnapsackState state) {
+        Account account = new Account(state);
+        accounts.add(account);
+        return account;
+    }
+
+    /**
+     * Estimate the heap bytes held by search hits.
+     *
+     * @param hits the search hits
+     * @return the estimated bytes
+     */
+    public static long sizeOf(SearchHit[] hits) {
+        long n = 0L;
+        for (SearchHit hit : hits) {
+            BytesReference ref = hit.sourceRef();
+            if (ref != null) {
+                n += ref.length();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * The account of a job in the memory budget.
+     */
+    public class Account implements MemoryBudget {
+
+        private final KnapsackState state;
+
+        private final AtomicLong used;
+
+        Account(KnapsackState state) {
+            this.state = state;
+            this.used = new AtomicLong();
+        }
+
+        public KnapsackState getState() {
+            return state;
+        }
+
+        public long getUsed() {
+            return used.get();
+        }
+
+        @Override
+        public void reserve(long bytes) throws IOException {
+            if (bytes <= 0L) {
+                return;
+            }
+            long deadline = System.nanoTime() + maxWait.nanos();
+            synchronized (monitor) {
+                while (!tryReserve(bytes)) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0L) {
+                        logger.warn("{}: memory budget exhausted after waiting {}, forcing reservation of {}",
+                                state, maxWait, new ByteSizeValue(bytes));
+                        forceReserve(bytes);
+                        return;
+                    }
+                    try {
+                        monitor.wait(Math.max(1L, Math.min(TimeUnit.NANOSECONDS.toMillis(remaining), 100L)));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while waiting for memory budget");
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void release(long bytes) {
+            if (bytes <= 0L) {
+                return;
+            }
+            used.addAndGet(-bytes);
+            breaker().addWithoutBreaking(-bytes);
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+
+        /**
+         * Change a reservation to a new size, for example when the real size of an estimate is known.
+         *
+         * @param oldBytes the reserved bytes
+         * @param newBytes the new size
+         * @return the new size
+         * @throws IOException if the reservation was interrupted
+         */
+        public long adjust(long oldBytes, long newBytes) throws IOException {
+            if (newBytes > oldBytes) {
+                reserve(newBytes - oldBytes);
+            } else {
+                release(oldBytes - newBytes);
+            }
+            return newBytes;
+        }
+
+        /**
+         * Create a sliding window for bulk requests. The window holds the reservations of the
+         * most recent requests, the oldest reservation is released when the window is full.
+         *
+         * @param capacity the number of requests that may be in flight
+         * @return the window
+         */
+        public Window newWindow(int capacity) {
+            return new Window(this, capacity);
+        }
+
+        /**
+         * Release all bytes of this account and remove it from the budget.
+         */
+        public void close() {
+            release(used.get());
+            accounts.remove(this);
+        }
+
+        private boolean tryReserve(long bytes) {
+            CircuitBreaker breaker = breaker();
+            long total = breaker.getUsed();
+            if (total + bytes <= breaker.getLimit()) {
+                try {
+                    breaker.addEstimateBytesAndMaybeBreak(bytes, BREAKER_NAME);
+                    used.addAndGet(bytes);
+                    return true;
+                } catch (CircuitBreakingException e) {
+                    // parent breaker is tripped, wait
+                    return false;
+                }
+            }
+            long mine = used.get();
+            int n = Math.max(1, accounts.size());
+            if (mine + bytes <= breaker.getLimit() / n || total - mine <= 0L) {
+                // below fair share, or nobody else can release memory
+                forceReserve(bytes);
+                return true;
+            }
+            return false;
+        }
+
+        private void forceReserve(long bytes) {
+            breaker().addWithoutBreaking(bytes);
+            used.addAndGet(bytes);
+        }
+
+        @Override
+        public String toString() {
+            return "Account[" + state + ",used=" + used.get() + "]";
+        }
+    }
+
+    /**
+     * A sliding window of reservations for requests in flight.
+     */
+    public static class Window {
+
+        private final Account account;
+
+        private final long[] sizes;
+
+        private int pos;
+
+        private int count;
+
+        Window(Account account, int capacity) {
+            this.account = account;
+            this.sizes = new long[Math.max(1, capacity)];
+        }
+
+        public void add(long bytes) throws IOException {
+            if (count == sizes.length) {
+                account.release(sizes[pos]);
+                count--;
+            }
+            account.reserve(bytes);
+            sizes[pos] = bytes;
+            pos = (pos + 1) % sizes.length;
+            count++;
+        }
+
+        public void clear() {
+            long n = 0L;
+            for (int i = 0; i < sizes.length; i++) {
+                n += sizes[i];
+                sizes[i] = 0L;
+            }
+            account.release(n);
+            pos = 0;
+            count = 0;
+        }
+    }
+}
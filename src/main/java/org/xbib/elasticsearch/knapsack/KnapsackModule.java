@@ -22,6 +22,8 @@ public class KnapsackModule implements Module {
 
     @Override
     public void configure(Binder binder) {
+        binder.bind(KnapsackGovernor.class).asEagerSingleton();
+        binder.bind(KnapsackMemoryBudget.class).asEagerSingleton();
         binder.bind(KnapsackService.class).asEagerSingleton();
     }
 }
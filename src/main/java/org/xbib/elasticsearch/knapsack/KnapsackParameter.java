@@ -42,6 +42,94 @@ public interface KnapsackParameter {
      */
     String KNAPSACK_DEFAULT_PATH = "path.logs";
 
+    /**
+     * The number of packets buffered for the archive writer thread, 0 for writing on the export thread
+     */
+    String KNAPSACK_WRITE_QUEUE_SIZE = "knapsack.io.write_queue_size";
+
+    /**
+     * The number of chunks decompressed ahead of the archive reader, 0 for decompressing on the import thread
+     */
+    String KNAPSACK_READ_AHEAD_CHUNKS = "knapsack.io.read_ahead_chunks";
+
+    /**
+     * The size of the buffer between the archive file channel and the archive stream
+     */
+    String KNAPSACK_BUFFER_SIZE = "knapsack.io.buffer_size";
+
+    /**
+     * Use direct buffers for the archive file channel
+     */
+    String KNAPSACK_DIRECT_BUFFERS = "knapsack.io.direct_buffers";
+
+    /**
+     * The buffer size of a compression codec, the placeholder is the codec name, e.g. "gz"
+     */
+    String KNAPSACK_CODEC_BUFFER_SIZE = "knapsack.io.%s.buffer_size";
+
+    /**
+     * The number of threads of a compression codec, the placeholder is the codec name, e.g. "gz"
+     */
+    String KNAPSACK_CODEC_THREADS = "knapsack.io.%s.threads";
+
+    /**
+     * Read uncompressed tar and cpio archives through memory-mapped windows of the archive file
+     */
+    String KNAPSACK_MMAP = "knapsack.io.mmap";
+
+    /**
+     * The minimum size of a packed archive entry
+     */
+    String KNAPSACK_PACKED_ENTRY_SIZE = "knapsack.io.packed_entry_size";
+
+    /**
+     * The uncompressed size of the blocks of knapsack archives
+     */
+    String KNAPSACK_BLOCK_SIZE = "knapsack.io.knapsack.block_size";
+
+    /**
+     * The number of threads that compress the blocks of knapsack archives in parallel
+     */
+    String KNAPSACK_ENCODER_THREADS = "knapsack.io.knapsack.encoder_threads";
+
+    /**
+     * The number of documents per index that are sampled for a preset compression dictionary
+     * of knapsack archives, 0 for no dictionaries
+     */
+    String KNAPSACK_DICTIONARY_DOCS = "knapsack.io.knapsack.dictionary_docs";
+
+    /**
+     * The maximum size of the preset compression dictionaries of knapsack archives
+     */
+    String KNAPSACK_DICTIONARY_SIZE = "knapsack.io.knapsack.dictionary_size";
+
+    /**
+     * Write a sidecar index of entry offsets for uncompressed tar archives
+     */
+    String KNAPSACK_INDEX = "knapsack.io.index";
+
+    /**
+     * The number of threads importing partitions of zip archives and of indexed tar archives in parallel,
+     * 1 for reading archives sequentially
+     */
+    String KNAPSACK_IMPORT_THREADS = "knapsack.io.import_threads";
+
+    /**
+     * Import bulk archives by sending chunks of raw bulk lines, without reading documents
+     */
+    String KNAPSACK_BULK_PASSTHROUGH = "knapsack.io.bulk.passthrough";
+
+    /**
+     * Import uncompressed bulk files in parallel byte ranges. The order of actions across ranges is lost,
+     * so this is only safe for bulk files with at most one action per document, like knapsack exports
+     */
+    String KNAPSACK_BULK_RANGES = "knapsack.io.bulk.ranges";
+
+    /**
+     * The maximum size of a chunk of raw bulk lines
+     */
+    String KNAPSACK_BULK_CHUNK_SIZE = "knapsack.io.bulk.chunk_size";
+
     /**
      * the Elasticsearch host for knapsack push/pull
      */
@@ -96,4 +184,44 @@ public interface KnapsackParameter {
 
     String WITH_ALIASES = "with_aliases";
 
+    /**
+     * Export the fields of several documents into a single archive entry
+     */
+    String PACKED_PARAM = "packed";
+
+    /**
+     * Export document sources as "json", "smile", or "cbor"
+     */
+    String SOURCE_FORMAT_PARAM = "source_format";
+
+    /**
+     * The id of a running knapsack job
+     */
+    String ID_PARAM = "id";
+
+    /**
+     * The scroll size of a running knapsack job
+     */
+    String SCROLL_SIZE_PARAM = "scroll_size";
+
+    /**
+     * The limit of bytes per second of a running knapsack job
+     */
+    String MAX_BYTES_PER_SEC_PARAM = "max_bytes_per_sec";
+
+    /**
+     * The limit of documents per second of a running knapsack job
+     */
+    String MAX_DOCS_PER_SEC_PARAM = "max_docs_per_sec";
+
+    /**
+     * The comma-separated ids of documents to get from an archive
+     */
+    String IDS_PARAM = "ids";
+
+    /**
+     * Index the documents that are found in an archive
+     */
+    String RESTORE_PARAM = "restore";
+
 }
@@ -32,9 +32,12 @@ import org.elasticsearch.indices.IndexAlreadyExistsException;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -61,20 +64,32 @@ public class KnapsackService extends AbstractLifecycleComponent<KnapsackService>
 
     private final Injector injector;
 
+    private final KnapsackGovernor governor;
+
+    private final KnapsackMemoryBudget memoryBudget;
+
     private ExecutorService executor;
 
+    private ExecutorService workerExecutor;
+
     private List<Future<?>> tasks;
 
+    private final Map<String, KnapsackJob> jobs = new ConcurrentHashMap<>();
+
     @Inject
-    public KnapsackService(Settings settings, Injector injector) {
+    public KnapsackService(Settings settings, Injector injector, KnapsackGovernor governor,
+                           KnapsackMemoryBudget memoryBudget) {
         super(settings);
         this.injector = injector;
+        this.governor = governor;
+        this.memoryBudget = memoryBudget;
     }
 
     @Override
     protected void doStart() throws ElasticsearchException {
         this.tasks = new ArrayList<>();
         this.executor = newExecutorService();
+        this.workerExecutor = newWorkerExecutorService();
     }
 
     @Override
@@ -83,8 +98,7 @@ public class KnapsackService extends AbstractLifecycleComponent<KnapsackService>
 
     @Override
     protected void doClose() throws ElasticsearchException {
-        int size = tasks.size();
-        if (size > 0) {
+        synchronized (this) {
             for (Future<?> f : tasks) {
                 if (!f.isDone()) {
                     logger.info("aborting knapsack task {}", f);
@@ -96,6 +110,7 @@ public class KnapsackService extends AbstractLifecycleComponent<KnapsackService>
             }
             tasks.clear();
         }
+        workerExecutor.shutdownNow();
         logger.info("knapsack shutdown...");
         executor.shutdown();
         try {
@@ -115,10 +130,28 @@ public class KnapsackService extends AbstractLifecycleComponent<KnapsackService>
         logger.info("knapsack shutdown complete");
     }
 
+    public KnapsackGovernor getGovernor() {
+        return governor;
+    }
+
+    public KnapsackMemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
     protected ExecutorService newExecutorService() {
         return Executors.newFixedThreadPool(4);
     }
 
+    /**
+     * The executor of the partition workers of parallel imports. The workers are not queued behind
+     * the jobs, as a job waits for its workers.
+     *
+     * @return the executor service
+     */
+    protected ExecutorService newWorkerExecutorService() {
+        return Executors.newCachedThreadPool();
+    }
+
     public List<KnapsackState> getImports() throws IOException {
         return get(IMPORT_NAME);
     }
@@ -243,7 +276,42 @@ public class KnapsackService extends AbstractLifecycleComponent<KnapsackService>
         }
     }
 
-    public void submit(Runnable runnable) {
+    public KnapsackJob addJob(KnapsackJob job) {
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    public void removeJob(KnapsackJob job) {
+        if (job != null) {
+            jobs.remove(job.getId());
+        }
+    }
+
+    public KnapsackJob getJob(String id) {
+        return id != null ? jobs.get(id) : null;
+    }
+
+    public Collection<KnapsackJob> getJobs() {
+        return jobs.values();
+    }
+
+    public synchronized void submit(Runnable runnable) {
+        track(executor.submit(runnable));
+    }
+
+    /**
+     * Submit a partition worker of a job. Workers are cancelled with the jobs by {@link #abort(boolean)}.
+     *
+     * @param runnable the worker
+     * @return the future of the worker
+     */
+    public synchronized Future<?> submitWorker(Runnable runnable) {
+        Future<?> f = workerExecutor.submit(runnable);
+        track(f);
+        return f;
+    }
+
+    private void track(Future<?> future) {
         Iterator<Future<?>> it = tasks.iterator();
         while (it.hasNext()) {
             Future<?> f = it.next();
@@ -251,13 +319,29 @@ public class KnapsackService extends AbstractLifecycleComponent<KnapsackService>
                 it.remove();
             }
         }
-        Future<?> f = executor.submit(runnable);
-        tasks.add(f);
+        tasks.add(future);
+    }
+
+    /**
+     * Abort a single job, without affecting the other jobs on this node.
+     *
+     * @param id the job id
+     * @return true if the job was found
+     */
+    public boolean abort(String id) {
+        KnapsackJob job = getJob(id);
+        if (job == null) {
+            return false;
+        }
+        logger.info("aborting knapsack job {}", job);
+        job.abort();
+        return true;
     }
 
     public void abort(boolean reset) {
         doClose();
         this.executor = newExecutorService();
+        this.workerExecutor = newWorkerExecutorService();
         if (reset) {
             remove(EXPORT_NAME);
             remove(IMPORT_NAME);
@@ -15,6 +15,7 @@
  */
 package org.xbib.elasticsearch.knapsack;
 
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.io.stream.Streamable;
@@ -42,6 +43,11 @@ import static org.elasticsearch.common.xcontent.XContentParser.Token.VALUE_NULL;
 
 public class KnapsackState implements Streamable, ToXContent {
 
+    /**
+     * The id of the knapsack operation, assigned once when the operation is created
+     */
+    private String id;
+
     /**
      * The mode of the knapsack operation
      */
@@ -70,6 +76,21 @@ public class KnapsackState implements Streamable, ToXContent {
     public KnapsackState() {
     }
 
+    /**
+     * Assign a new opaque id to this operation. The id is URL-safe, so it can be used as a request parameter.
+     *
+     * @return this state
+     */
+    public KnapsackState newId() {
+        this.id = Strings.randomBase64UUID();
+        return this;
+    }
+
+    public KnapsackState setId(String id) {
+        this.id = id;
+        return this;
+    }
+
     public KnapsackState setMode(String mode) {
         this.mode = mode;
         return this;
@@ -131,6 +152,7 @@ public class KnapsackState implements Streamable, ToXContent {
 
     public KnapsackState fromXContent(XContentParser parser) throws IOException {
         Long startTimestamp = new Date().getTime();
+        String id = null;
         Path path = null;
         String address = null;
         String nodeName = null;
@@ -145,6 +167,9 @@ public class KnapsackState implements Streamable, ToXContent {
             } else if (token.isValue() || token == VALUE_NULL) {
                 if (currentFieldName != null) {
                     switch (currentFieldName) {
+                        case "id":
+                            id = parser.text();
+                            break;
                         case "mode":
                             mode = parser.text();
                             break;
@@ -164,7 +189,14 @@ public class KnapsackState implements Streamable, ToXContent {
                 }
             }
         }
-        return new KnapsackState()
+        KnapsackState state = new KnapsackState();
+        if (id != null) {
+            state.setId(id);
+        } else {
+            // states written by earlier versions have no id
+            state.newId();
+        }
+        return state
                 .setMode(mode)
                 .setTimestamp(new DateTime(startTimestamp))
                 .setPath(path)
@@ -175,6 +207,7 @@ public class KnapsackState implements Streamable, ToXContent {
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
         builder.startObject()
+                .field("id", id())
                 .field("mode", mode);
         if (timestamp != null) {
             builder.field("started", timestamp);
@@ -193,18 +226,12 @@ public class KnapsackState implements Streamable, ToXContent {
     }
 
     public String id() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(mode)
-                .append(timestamp)
-                .append(path)
-                .append(address)
-                .append(nodeName);
-        return sb.toString();
+        return id;
     }
 
     @Override
     public int hashCode() {
-        return id().hashCode();
+        return id != null ? id.hashCode() : 0;
     }
 
     @Override
@@ -219,11 +246,12 @@ public class KnapsackState implements Streamable, ToXContent {
             return false;
         }
         KnapsackState other = (KnapsackState) obj;
-        return id().equals(other.id());
+        return id != null ? id.equals(other.id) : other.id == null;
     }
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
+        id = in.readOptionalString();
         mode = in.readString();
         timestamp = new DateTime(in.readLong());
         path = Paths.get(URI.create(in.readString()));
@@ -233,6 +261,7 @@ public class KnapsackState implements Streamable, ToXContent {
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
+        out.writeOptionalString(id);
         out.writeString(mode);
         out.writeLong(timestamp.getMillis());
         out.writeString(path.toUri().toString());
@@ -28,6 +28,8 @@ import org.xbib.elasticsearch.action.knapsack.abort.KnapsackAbortAction;
 import org.xbib.elasticsearch.action.knapsack.abort.TransportKnapsackAbortAction;
 import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportAction;
 import org.xbib.elasticsearch.action.knapsack.exp.TransportKnapsackExportAction;
+import org.xbib.elasticsearch.action.knapsack.get.KnapsackGetAction;
+import org.xbib.elasticsearch.action.knapsack.get.TransportKnapsackGetAction;
 import org.xbib.elasticsearch.action.knapsack.imp.KnapsackImportAction;
 import org.xbib.elasticsearch.action.knapsack.imp.TransportKnapsackImportAction;
 import org.xbib.elasticsearch.action.knapsack.pull.KnapsackPullAction;
@@ -36,14 +38,20 @@ import org.xbib.elasticsearch.action.knapsack.push.KnapsackPushAction;
 import org.xbib.elasticsearch.action.knapsack.push.TransportKnapsackPushAction;
 import org.xbib.elasticsearch.action.knapsack.state.KnapsackStateAction;
 import org.xbib.elasticsearch.action.knapsack.state.TransportKnapsackStateAction;
+import org.xbib.elasticsearch.action.knapsack.update.KnapsackUpdateAction;
+import org.xbib.elasticsearch.action.knapsack.update.TransportKnapsackUpdateAction;
+import org.xbib.elasticsearch.knapsack.KnapsackGovernor;
+import org.xbib.elasticsearch.knapsack.KnapsackMemoryBudget;
 import org.xbib.elasticsearch.knapsack.KnapsackModule;
 import org.xbib.elasticsearch.knapsack.KnapsackService;
 import org.xbib.elasticsearch.rest.action.knapsack.abort.RestKnapsackAbortAction;
 import org.xbib.elasticsearch.rest.action.knapsack.exp.RestKnapsackExportAction;
+import org.xbib.elasticsearch.rest.action.knapsack.get.RestKnapsackGetAction;
 import org.xbib.elasticsearch.rest.action.knapsack.imp.RestKnapsackImportAction;
 import org.xbib.elasticsearch.rest.action.knapsack.pull.RestKnapsackPullAction;
 import org.xbib.elasticsearch.rest.action.knapsack.push.RestKnapsackPushAction;
 import org.xbib.elasticsearch.rest.action.knapsack.state.RestKnapsackStateAction;
+import org.xbib.elasticsearch.rest.action.knapsack.update.RestKnapsackUpdateAction;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -77,6 +85,8 @@ public class KnapsackPlugin extends Plugin {
             module.registerAction(KnapsackPullAction.INSTANCE, TransportKnapsackPullAction.class);
             module.registerAction(KnapsackStateAction.INSTANCE, TransportKnapsackStateAction.class);
             module.registerAction(KnapsackAbortAction.INSTANCE, TransportKnapsackAbortAction.class);
+            module.registerAction(KnapsackUpdateAction.INSTANCE, TransportKnapsackUpdateAction.class);
+            module.registerAction(KnapsackGetAction.INSTANCE, TransportKnapsackGetAction.class);
         }
     }
 
@@ -88,15 +98,19 @@ public class KnapsackPlugin extends Plugin {
             module.addRestAction(RestKnapsackPullAction.class);
             module.addRestAction(RestKnapsackStateAction.class);
             module.addRestAction(RestKnapsackAbortAction.class);
+            module.addRestAction(RestKnapsackUpdateAction.class);
+            module.addRestAction(RestKnapsackGetAction.class);
         }
     }
 
-    /*public void onModule(ClusterModule module) {
-        if ("node".equals(settings.get("client.type")) && settings.getAsBoolean(ENABLED, true)) {
-            module.registerClusterDynamicSetting(KnapsackService.EXPORT_STATE_SETTING_NAME, Validator.EMPTY);
-            module.registerClusterDynamicSetting(KnapsackService.IMPORT_STATE_SETTING_NAME, Validator.EMPTY);
+    public void onModule(ClusterModule module) {
+        if (settings.getAsBoolean(ENABLED, true)) {
+            module.registerClusterDynamicSetting(KnapsackGovernor.MAX_BYTES_PER_SEC, Validator.BYTES_SIZE);
+            module.registerClusterDynamicSetting(KnapsackGovernor.MAX_DOCS_PER_SEC, Validator.NON_NEGATIVE_INTEGER);
+            module.registerClusterDynamicSetting(KnapsackMemoryBudget.MEMORY_LIMIT, Validator.MEMORY_SIZE);
+            module.registerClusterDynamicSetting(KnapsackMemoryBudget.MEMORY_MAX_WAIT, Validator.TIME_NON_NEGATIVE);
         }
-    }*/
+    }
 
     @Override
     public Collection<Module> nodeModules() {
@@ -29,6 +29,7 @@ import org.elasticsearch.rest.action.support.RestToXContentListener;
 import org.xbib.elasticsearch.action.knapsack.abort.KnapsackAbortAction;
 import org.xbib.elasticsearch.action.knapsack.abort.KnapsackAbortRequest;
 import org.xbib.elasticsearch.action.knapsack.abort.KnapsackAbortResponse;
+import org.xbib.elasticsearch.knapsack.KnapsackParameter;
 
 import static org.elasticsearch.rest.RestRequest.Method.POST;
 import static org.elasticsearch.rest.RestRequest.Method.DELETE;
@@ -51,6 +52,7 @@ public class RestKnapsackAbortAction extends BaseRestHandler {
     public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) {
         try {
             KnapsackAbortRequest abortRequest = new KnapsackAbortRequest();
+            abortRequest.setId(request.param(KnapsackParameter.ID_PARAM));
             abortRequest.setReset(request.method().equals(DELETE));
             client.admin().indices().execute(KnapsackAbortAction.INSTANCE, abortRequest,
                     new RestToXContentListener<KnapsackAbortResponse>(channel));
@@ -75,6 +75,8 @@ public class RestKnapsackExportAction extends BaseRestHandler implements Knapsac
                     .setOverwriteAllowed(request.paramAsBoolean(OVERWRITE_PARAM, false))
                     .withMetadata(request.paramAsBoolean(WITH_METADATA_PARAM, true))
                     .withAliases(request.paramAsBoolean(WITH_ALIASES, true))
+                    .setPacked(request.paramAsBoolean(PACKED_PARAM, false))
+                    .setSourceFormat(request.param(SOURCE_FORMAT_PARAM, "json"))
                     .setIndexTypeNames(KnapsackHelper.toMap(request.param(MAP_PARAM), logger))
                     .setSearchRequest(toSearchRequest(request))
                     .setBytesToTransfer(request.paramAsSize(BYTES_PARAM, ByteSizeValue.parseBytesSizeValue("0", "")));
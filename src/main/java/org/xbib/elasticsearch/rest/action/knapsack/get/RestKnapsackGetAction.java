@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.rest.action.knapsack.get;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.support.RestToXContentListener;
+import org.xbib.elasticsearch.action.knapsack.get.KnapsackGetAction;
+import org.xbib.elasticsearch.action.knapsack.get.KnapsackGetRequest;
+import org.xbib.elasticsearch.action.knapsack.get.KnapsackGetResponse;
+import org.xbib.elasticsearch.knapsack.KnapsackParameter;
+
+import java.io.File;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * The REST knapsack get action reads documents by id from an indexed archive, and optionally
+ * indexes them into Elasticsearch
+ */
+public class RestKnapsackGetAction extends BaseRestHandler implements KnapsackParameter {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(RestKnapsackGetAction.class.getSimpleName());
+
+    @Inject
+    public RestKnapsackGetAction(Settings settings, Client client, RestController controller) {
+        super(settings, controller, client);
+
+        controller.registerHandler(GET, "/{index}/{type}/_import/get", this);
+        controller.registerHandler(POST, "/{index}/{type}/_import/get", this);
+        controller.registerHandler(GET, "/{index}/{type}/{id}/_import/get", this);
+        controller.registerHandler(POST, "/{index}/{type}/{id}/_import/get", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, RestChannel channel, Client client) {
+        try {
+            final String index = request.param(INDEX_PARAM);
+            final String type = request.param(TYPE_PARAM);
+            String archivePathString = request.param(PATH_PARAM);
+            if (archivePathString == null) {
+                String dataPath = settings.get(KnapsackParameter.KNAPSACK_PATH, settings.get(KnapsackParameter.KNAPSACK_DEFAULT_PATH, "."));
+                archivePathString = dataPath + File.separator + index + "_" + type + ".tar";
+            }
+            String[] ids = request.hasParam(ID_PARAM) ?
+                    new String[]{request.param(ID_PARAM)} :
+                    Strings.commaDelimitedListToStringArray(request.param(IDS_PARAM));
+            KnapsackGetRequest getRequest = new KnapsackGetRequest()
+                    .setArchivePath(new File(archivePathString).toPath())
+                    .setIndex(index)
+                    .setType(type)
+                    .setIds(ids)
+                    .setRestore(request.paramAsBoolean(RESTORE_PARAM, false));
+            client.admin().indices().execute(KnapsackGetAction.INSTANCE, getRequest,
+                    new RestToXContentListener<KnapsackGetResponse>(channel));
+        } catch (Throwable ex) {
+            try {
+                logger.error(ex.getMessage(), ex);
+                channel.sendResponse(new BytesRestResponse(channel, ex));
+            } catch (Exception ex2) {
+                logger.error(ex2.getMessage(), ex2);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.elasticsearch.rest.action.knapsack.update;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.support.RestToXContentListener;
+import org.xbib.elasticsearch.action.knapsack.update.KnapsackUpdateAction;
+import org.xbib.elasticsearch.action.knapsack.update.KnapsackUpdateRequest;
+import org.xbib.elasticsearch.action.knapsack.update.KnapsackUpdateResponse;
+import org.xbib.elasticsearch.knapsack.KnapsackParameter;
+
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * The REST knapsack update action changes the throughput settings of a running knapsack job
+ */
+public class RestKnapsackUpdateAction extends BaseRestHandler implements KnapsackParameter {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(RestKnapsackUpdateAction.class.getSimpleName());
+
+    @Inject
+    public RestKnapsackUpdateAction(Settings settings, Client client, RestController controller) {
+        super(settings, controller, client);
+
+        controller.registerHandler(POST, "/_export/update", this);
+        controller.registerHandler(POST, "/_import/update", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) {
+        try {
+            KnapsackUpdateRequest updateRequest = new KnapsackUpdateRequest()
+                    .setId(request.param(ID_PARAM))
+                    .setMaxActionsPerBulkRequest(request.paramAsInt(MAX_BULK_ACTIONS_PER_REQUEST_PARAM, -1))
+                    .setMaxBulkConcurrency(request.paramAsInt(MAX_BULK_CONCURRENCY_PARAM, -1))
+                    .setScrollSize(request.paramAsInt(SCROLL_SIZE_PARAM, -1))
+                    .setMaxDocsPerSec(request.paramAsLong(MAX_DOCS_PER_SEC_PARAM, -1L));
+            if (request.hasParam(MAX_BYTES_PER_SEC_PARAM)) {
+                updateRequest.setMaxBytesPerSec(ByteSizeValue.parseBytesSizeValue(request.param(MAX_BYTES_PER_SEC_PARAM),
+                        MAX_BYTES_PER_SEC_PARAM).bytes());
+            }
+            client.admin().indices().execute(KnapsackUpdateAction.INSTANCE, updateRequest,
+                    new RestToXContentListener<KnapsackUpdateResponse>(channel));
+        } catch (Throwable ex) {
+            try {
+                logger.error(ex.getMessage(), ex);
+                channel.sendResponse(new BytesRestResponse(channel, ex));
+            } catch (Exception ex2) {
+                logger.error(ex2.getMessage(), ex2);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A pool of byte buffers for file channel streams, so archive sessions do not allocate
+ * their I/O buffers again for each archive file. Direct buffers avoid the copy of heap
+ * buffers into temporary direct buffers by the channel, but are expensive to allocate,
+ * so they should always be returned to the pool.
+ */
+public class BufferPool {
+
+    private final static BufferPool instance = new BufferPool(16);
+
+    private final ConcurrentMap<Integer, Queue<ByteBuffer>> heap;
+
+    private final ConcurrentMap<Integer, Queue<ByteBuffer>> direct;
+
+    private final int maxPooled;
+
+    public BufferPool(int maxPooled) {
+        this.heap = new ConcurrentHashMap<>();
+        this.direct = new ConcurrentHashMap<>();
+        this.maxPooled = maxPooled;
+    }
+
+    public static BufferPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Take a cleared buffer from the pool, or allocate a new one.
+     *
+     * @param size     the capacity of the buffer
+     * @param isDirect true for a direct buffer
+     * @return the buffer
+     */
+    public ByteBuffer acquire(int size, boolean isDirect) {
+        Queue<ByteBuffer> queue = (isDirect ? direct : heap).get(size);
+        ByteBuffer buffer = queue != null ? queue.poll() : null;
+        if (buffer == null) {
+            return isDirect ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool. The buffer must not be used after release.
+     *
+     * @param buffer the buffer
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        ConcurrentMap<Integer, Queue<ByteBuffer>> map = buffer.isDirect() ? direct : heap;
+        Queue<ByteBuffer> queue = map.get(buffer.capacity());
+        if (queue == null) {
+            Queue<ByteBuffer> newQueue = new ConcurrentLinkedQueue<>();
+            queue = map.putIfAbsent(buffer.capacity(), newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        // the size check is not exact under concurrency, which is fine for a soft limit
+        if (queue.size() < maxPooled) {
+            queue.offer(buffer);
+        }
+    }
+}
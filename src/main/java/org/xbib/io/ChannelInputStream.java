@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered stream that reads from a file channel into a pooled buffer. Reads that are larger
+ * than the buffer are read from the channel directly. Skipping moves the channel position.
+ */
+public class ChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+
+    private final BufferPool pool;
+
+    private ByteBuffer buffer;
+
+    public ChannelInputStream(FileChannel channel, int bufferSize, boolean direct) {
+        this(channel, bufferSize, direct, BufferPool.getInstance());
+    }
+
+    public ChannelInputStream(FileChannel channel, int bufferSize, boolean direct, BufferPool pool) {
+        this.channel = channel;
+        this.pool = pool;
+        this.buffer = pool.acquire(bufferSize, direct);
+        buffer.flip(); // empty
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (!buffer.hasRemaining() && fill() == -1) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            if (len >= buffer.capacity()) {
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+            if (fill() == -1) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        if (n <= 0L) {
+            return 0L;
+        }
+        int buffered = buffer.remaining();
+        if (n <= buffered) {
+            buffer.position(buffer.position() + (int) n);
+            return n;
+        }
+        buffer.position(buffer.limit());
+        long pos = channel.position();
+        long skip = Math.min(n - buffered, Math.max(0L, channel.size() - pos));
+        channel.position(pos + skip);
+        return buffered + skip;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        long n = buffer.remaining() + Math.max(0L, channel.size() - channel.position());
+        return (int) Math.min(n, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        pool.release(buffer);
+        buffer = null;
+        channel.close();
+    }
+
+    private int fill() throws IOException {
+        buffer.clear();
+        int n;
+        do {
+            n = channel.read(buffer);
+        } while (n == 0);
+        buffer.flip();
+        return n;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("stream closed");
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered stream that writes to a file channel. Small writes are collected in a pooled buffer,
+ * so the channel receives large writes only. Writes that are larger than the buffer are written
+ * to the channel directly.
+ */
+public class ChannelOutputStream extends OutputStream {
+
+    private final FileChannel channel;
+
+    private final BufferPool pool;
+
+    private ByteBuffer buffer;
+
+    public ChannelOutputStream(FileChannel channel, int bufferSize, boolean direct) {
+        this(channel, bufferSize, direct, BufferPool.getInstance());
+    }
+
+    public ChannelOutputStream(FileChannel channel, int bufferSize, boolean direct, BufferPool pool) {
+        this.channel = channel;
+        this.pool = pool;
+        this.buffer = pool.acquire(bufferSize, direct);
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len >= buffer.capacity()) {
+            drain();
+            writeFully(ByteBuffer.wrap(b, off, len));
+            return;
+        }
+        if (len > buffer.remaining()) {
+            drain();
+        }
+        buffer.put(b, off, len);
+    }
+
+    /**
+     * Write buffers by a gathering write to the channel. The bytes collected before are written first,
+     * in the same write.
+     *
+     * @param srcs the buffers
+     * @throws IOException if the write fails
+     */
+    public void write(ByteBuffer[] srcs) throws IOException {
+        ensureOpen();
+        buffer.flip();
+        ByteBuffer[] buffers = new ByteBuffer[srcs.length + 1];
+        buffers[0] = buffer;
+        System.arraycopy(srcs, 0, buffers, 1, srcs.length);
+        long remaining = 0L;
+        for (ByteBuffer b : buffers) {
+            remaining += b.remaining();
+        }
+        while (remaining > 0L) {
+            remaining -= channel.write(buffers);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            drain();
+        } finally {
+            pool.release(buffer);
+            buffer = null;
+            channel.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("stream closed");
+        }
+    }
+}
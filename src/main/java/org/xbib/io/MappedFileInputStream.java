@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stream that reads a file through memory-mapped windows. Reads copy from the page cache
+ * without a system call, skipping only moves the position, and {@link #slice(int)} gives
+ * access to file content without copying. Only one window is mapped at a time, so large
+ * files do not exhaust the address space.
+ */
+public class MappedFileInputStream extends InputStream {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+
+    private long windowStart;
+
+    private long position;
+
+    private boolean closed;
+
+    public MappedFileInputStream(FileChannel channel) throws IOException {
+        this(channel, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedFileInputStream(FileChannel channel, int windowSize) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.windowSize = windowSize;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureWindow()) {
+            return -1;
+        }
+        position++;
+        return window.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureWindow()) {
+            return -1;
+        }
+        int n = Math.min(len, window.remaining());
+        window.get(b, off, n);
+        position += n;
+        return n;
+    }
+
+    /**
+     * Return the next bytes of the file as a read-only buffer, without copying if the bytes are
+     * inside the current window, and advance the position.
+     *
+     * @param len the number of bytes
+     * @return the buffer, with less than len bytes remaining at the end of the file
+     * @throws IOException if the file can not be mapped
+     */
+    public ByteBuffer slice(int len) throws IOException {
+        ensureOpen();
+        int n = (int) Math.min(len, size - position);
+        ByteBuffer slice;
+        if (window != null && position >= windowStart && position + n <= windowStart + window.limit()) {
+            ByteBuffer dup = window.duplicate();
+            dup.position((int) (position - windowStart));
+            dup.limit(dup.position() + n);
+            slice = dup.slice();
+        } else {
+            slice = channel.map(FileChannel.MapMode.READ_ONLY, position, n);
+        }
+        skip(n);
+        return slice.asReadOnlyBuffer();
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        if (n <= 0L) {
+            return 0L;
+        }
+        long skip = Math.min(n, size - position);
+        position += skip;
+        if (window != null && position >= windowStart && position < windowStart + window.limit()) {
+            window.position((int) (position - windowStart));
+        }
+        return skip;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return (int) Math.min(size - position, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // the window is unmapped by the garbage collector
+        window = null;
+        channel.close();
+    }
+
+    private boolean ensureWindow() throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return false;
+        }
+        if (window == null || position < windowStart || position >= windowStart + window.limit()) {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowSize, size - windowStart));
+        }
+        return true;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+    }
+}
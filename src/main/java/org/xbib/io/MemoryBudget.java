@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io;
+
+import java.io.IOException;
+
+/**
+ * A budget for bytes held on the heap. Reservations may block until
+ * enough bytes have been released by others.
+ */
+public interface MemoryBudget {
+
+    /**
+     * Reserve bytes, waiting if the budget is exhausted.
+     *
+     * @param bytes the number of bytes
+     * @throws IOException if the reservation was interrupted
+     */
+    void reserve(long bytes) throws IOException;
+
+    /**
+     * Release bytes that were reserved before.
+     *
+     * @param bytes the number of bytes
+     */
+    void release(long bytes);
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Stream that reads ahead on a background thread. The thread fills a fixed pool of chunks
+ * from the underlying stream, for example a decompressing stream, while the consumer
+ * processes the chunks filled before. A failure of the thread is thrown to the consumer
+ * after the chunks filled before the failure have been consumed.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    public static final int DEFAULT_CHUNK_SIZE = 65536;
+
+    private final InputStream in;
+
+    private final BlockingQueue<Chunk> free;
+
+    private final BlockingQueue<Chunk> filled;
+
+    private final Chunk eof;
+
+    private final Thread reader;
+
+    private volatile Throwable failure;
+
+    private Chunk current;
+
+    private boolean closed;
+
+    /**
+     * Create a read-ahead stream and start the reader thread.
+     *
+     * @param in        the underlying stream, read by the reader thread only
+     * @param chunks    the number of chunks
+     * @param chunkSize the size of a chunk
+     * @param name      the name of the reader thread
+     */
+    public ReadAheadInputStream(InputStream in, int chunks, int chunkSize, String name) {
+        this.in = in;
+        int n = Math.max(1, chunks);
+        this.free = new ArrayBlockingQueue<>(n);
+        this.filled = new ArrayBlockingQueue<>(n + 1);
+        for (int i = 0; i < n; i++) {
+            free.add(new Chunk(chunkSize));
+        }
+        this.eof = new Chunk(0);
+        this.reader = new Thread(new Reader(), name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!next()) {
+            return -1;
+        }
+        return current.buf[current.pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!next()) {
+            return -1;
+        }
+        int n = Math.min(len, current.len - current.pos);
+        System.arraycopy(current.buf, current.pos, b, off, n);
+        current.pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current != null && current != eof ? current.len - current.pos : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        in.close();
+    }
+
+    /**
+     * Make a chunk with unread bytes current, recycling the consumed chunk.
+     *
+     * @return false at the end of the stream
+     * @throws IOException if the stream is closed, or the reader thread failed
+     */
+    private boolean next() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        if (current == eof) {
+            return false;
+        }
+        if (current != null && current.pos < current.len) {
+            return true;
+        }
+        if (current != null) {
+            free.add(current);
+        }
+        try {
+            current = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for read ahead");
+        }
+        if (current == eof) {
+            Throwable t = failure;
+            if (t != null) {
+                throw t instanceof IOException ? (IOException) t : new IOException(t);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static class Chunk {
+
+        private final byte[] buf;
+
+        private int len;
+
+        private int pos;
+
+        Chunk(int size) {
+            this.buf = new byte[size];
+        }
+    }
+
+    private class Reader implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Chunk chunk = free.take();
+                    int len = 0;
+                    int n = 0;
+                    while (len < chunk.buf.length && (n = in.read(chunk.buf, len, chunk.buf.length - len)) != -1) {
+                        len += n;
+                    }
+                    chunk.len = len;
+                    chunk.pos = 0;
+                    if (len > 0) {
+                        filled.put(chunk);
+                    }
+                    if (n == -1) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // closed by consumer
+            } catch (Throwable t) {
+                failure = t;
+            }
+            // there is always room for the end marker, the filled queue holds one more than the chunks
+            filled.offer(eof);
+        }
+    }
+}
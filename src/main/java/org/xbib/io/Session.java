@@ -4,6 +4,7 @@ package org.xbib.io;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.EnumSet;
+import java.util.List;
 
 /**
  * The Session interface is used for being opened, receive
@@ -30,6 +31,24 @@ public interface Session<P extends Packet> {
 
     void write(P packet) throws IOException;
 
+    /**
+     * Read a batch of packets. The session checks and per-packet bookkeeping are done once per batch.
+     *
+     * @param max the maximum number of packets
+     * @return the packets, empty at the end of the input
+     * @throws IOException if the packets can not be read
+     */
+    List<P> readBatch(int max) throws IOException;
+
+    /**
+     * Write a batch of packets, in the order of the list. The session checks and per-packet
+     * bookkeeping are done once per batch.
+     *
+     * @param packets the packets
+     * @throws IOException if the packets can not be written
+     */
+    void writeBatch(List<P> packets) throws IOException;
+
     /**
      * Close valve
      *
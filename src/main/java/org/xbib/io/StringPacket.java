@@ -9,6 +9,7 @@ public class StringPacket implements Packet<String> {
     private Map<String, Object> meta = new HashMap<>();
     private String name;
     private String string;
+    private byte[] bytes;
 
     public StringPacket() {
     }
@@ -48,6 +49,30 @@ public class StringPacket implements Packet<String> {
         return this;
     }
 
+    /**
+     * Set a binary payload, for document sources in a binary XContent format like SMILE or CBOR.
+     *
+     * @param bytes the binary payload
+     * @return this packet
+     */
+    public StringPacket bytes(byte[] bytes) {
+        this.bytes = bytes;
+        return this;
+    }
+
+    /**
+     * The binary payload.
+     *
+     * @return the binary payload, or null if the payload is a string
+     */
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public boolean hasPayload() {
+        return string != null || bytes != null;
+    }
+
     @Override
     public String toString() {
         return string;
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io;
+
+/**
+ * A token bucket that hands out permits (bytes, documents, ...) at a given rate per second.
+ * Callers reserve permits and are paused until their reservation is due, so concurrent callers
+ * are served in the order of their reservations. A rate of zero or less disables the limit.
+ * The rate can be changed at any time and is applied to the next reservation.
+ */
+public class TokenBucket {
+
+    private volatile double permitsPerSecond;
+
+    private long lastNanos;
+
+    public TokenBucket(double permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.lastNanos = System.nanoTime();
+    }
+
+    public void setRate(double permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    public double getRate() {
+        return permitsPerSecond;
+    }
+
+    public boolean isLimited() {
+        return permitsPerSecond > 0.0d;
+    }
+
+    /**
+     * Acquire permits from this bucket, pausing the current thread if the rate is exceeded.
+     *
+     * @param permits the number of permits
+     * @return the nanoseconds the thread was paused
+     * @throws InterruptedException if the thread was interrupted while paused
+     */
+    public long acquire(long permits) throws InterruptedException {
+        double rate = permitsPerSecond;
+        if (rate <= 0.0d || permits <= 0L) {
+            return 0L;
+        }
+        long startNanos = System.nanoTime();
+        long targetNanos;
+        synchronized (this) {
+            targetNanos = lastNanos + (long) (1000000000.0d * permits / rate);
+            if (startNanos >= targetNanos) {
+                // we are behind the schedule, no need to pause
+                lastNanos = startNanos;
+                return 0L;
+            }
+            lastNanos = targetNanos;
+        }
+        long currentNanos = startNanos;
+        while (currentNanos < targetNanos) {
+            long pauseNanos = targetNanos - currentNanos;
+            Thread.sleep(pauseNanos / 1000000L, (int) (pauseNanos % 1000000L));
+            currentNanos = System.nanoTime();
+        }
+        return currentNanos - startNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBucket[rate=" + permitsPerSecond + "]";
+    }
+}
@@ -0,0 +1,787 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive;
+
+import org.xbib.io.CountingOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sidecar index of an archive, with the offset of every entry in the archive stream,
+ * and the byte range and the number of documents of every index in the archive.
+ * Uncompressed archives can be read from any entry offset, so the index allows
+ * reading selected indices, or splitting an archive into ranges for parallel readers.
+ *
+ * The index file is written next to the archive with the suffix {@link #SUFFIX}. Entry names
+ * are stored with the length of the prefix shared with the previous name, and offsets are
+ * stored as variable-length deltas, so an entry takes a few bytes in most cases.
+ *
+ * A lookup table of document name hashes, sorted by hash, gives the offsets of a document
+ * by a binary search, without reading the entries.
+ */
+public class ArchiveIndex {
+
+    public final static String SUFFIX = ".idx";
+
+    private final static int MAGIC = 0x4b4e4958;
+
+    private final static int VERSION = 1;
+
+    private final static int HEADER_LEN = 5;
+
+    private final static int TRAILER_LEN = 44;
+
+    private final static int LOOKUP_RECORD_LEN = 12;
+
+    /**
+     * The lookup records are spilled into partitions by the top bits of the hash while
+     * the archive is written, each partition is sorted in memory when the index is finished
+     */
+    private final static int LOOKUP_PARTITION_BITS = 6;
+
+    /**
+     * The lookup records of a partition are buffered and appended to the spill file in blocks
+     */
+    private final static int SPILL_BLOCK_RECORDS = 256;
+
+    public final static String SPILL_SUFFIX = ".tmp";
+
+    private final static int END = 0;
+
+    private final static int DOCUMENT = 1;
+
+    private final static int METADATA = 2;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static byte SEPARATOR = (byte) File.separatorChar;
+
+    private final Path path;
+
+    private final Map<String, Range> indices;
+
+    private final long end;
+
+    private final long entries;
+
+    private final long lookup;
+
+    private final long lookupCount;
+
+    private ArchiveIndex(Path path, Map<String, Range> indices, long end, long entries, long lookup, long lookupCount) {
+        this.path = path;
+        this.indices = indices;
+        this.end = end;
+        this.entries = entries;
+        this.lookup = lookup;
+        this.lookupCount = lookupCount;
+    }
+
+    /**
+     * The path of the index of an archive.
+     *
+     * @param archivePath the archive path
+     * @return the index path
+     */
+    public static Path indexPath(Path archivePath) {
+        return Paths.get(archivePath.toString() + SUFFIX);
+    }
+
+    public static boolean exists(Path archivePath) {
+        return Files.isRegularFile(indexPath(archivePath));
+    }
+
+    /**
+     * Open the index of an archive. Only the summary is read, entries are read by a {@link Cursor}.
+     *
+     * @param archivePath the archive path
+     * @return the index
+     * @throws IOException if the index can not be read
+     */
+    public static ArchiveIndex open(Path archivePath) throws IOException {
+        Path path = indexPath(archivePath);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LEN + TRAILER_LEN) {
+                throw new IOException("invalid archive index, too short: " + path);
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LEN);
+            while (trailer.hasRemaining()) {
+                if (channel.read(trailer, size - TRAILER_LEN + trailer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            trailer.flip();
+            long end = trailer.getLong();
+            long entries = trailer.getLong();
+            long summary = trailer.getLong();
+            long lookup = trailer.getLong();
+            long lookupCount = trailer.getLong();
+            if (trailer.getInt() != MAGIC) {
+                throw new IOException("invalid archive index: " + path);
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(summary))));
+            int n = readVarInt(in);
+            Map<String, Range> indices = new LinkedHashMap<>();
+            for (int i = 0; i < n; i++) {
+                String index = in.readUTF();
+                indices.put(index, new Range(readVarLong(in), readVarLong(in), readVarLong(in), readVarLong(in)));
+            }
+            return new ArchiveIndex(path, Collections.unmodifiableMap(indices), end, entries, lookup, lookupCount);
+        }
+    }
+
+    /**
+     * The document ranges of the indices in the archive. The ranges of indices may overlap if
+     * the documents of the indices are interleaved in the archive.
+     *
+     * @return the map of index names to ranges
+     */
+    public Map<String, Range> getIndices() {
+        return indices;
+    }
+
+    /**
+     * The end of the last entry in the archive stream.
+     *
+     * @return the end offset
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * Find the offsets of a document in the archive. The lookup table holds hashes, so the offsets
+     * may also belong to other documents, the document name of the entry at an offset must be checked.
+     * A document has more than one offset if its entries are not consecutive in the archive.
+     *
+     * @param document the document name, see {@link ArchiveUtils#encodeDocumentName(String, String, String)}
+     * @return the offsets of the first entries of the document, in archive order
+     * @throws IOException if the index can not be read
+     */
+    public List<Long> lookup(String document) throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        if (lookupCount == 0L) {
+            return offsets;
+        }
+        long key = hash(document) & 0xFFFFFFFFL;
+        ByteBuffer record = ByteBuffer.allocate(LOOKUP_RECORD_LEN);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long low = 0L;
+            long high = lookupCount;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if ((readRecord(channel, record, mid).getInt(0) & 0xFFFFFFFFL) < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (long i = low; i < lookupCount; i++) {
+                readRecord(channel, record, i);
+                if ((record.getInt(0) & 0xFFFFFFFFL) != key) {
+                    break;
+                }
+                offsets.add(record.getLong(4));
+            }
+        }
+        Collections.sort(offsets);
+        return offsets;
+    }
+
+    private ByteBuffer readRecord(FileChannel channel, ByteBuffer record, long i) throws IOException {
+        record.clear();
+        long position = lookup + i * LOOKUP_RECORD_LEN;
+        while (record.hasRemaining()) {
+            if (channel.read(record, position + record.position()) < 0) {
+                throw new EOFException("unexpected end of archive index");
+            }
+        }
+        return record;
+    }
+
+    /**
+     * The hash of a document name in the lookup table, the string hash with the murmur3 finalizer
+     * for spreading the bits.
+     */
+    static int hash(String document) {
+        int h = document.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Open a cursor over the entries of the archive, in archive order.
+     *
+     * @return the cursor
+     * @throws IOException if the index can not be opened
+     */
+    public Cursor cursor() throws IOException {
+        return new Cursor(Files.newInputStream(path));
+    }
+
+    /**
+     * Split the documents in a byte range of the archive into ranges of about the same size
+     * that start and end at document boundaries.
+     *
+     * @param start the start offset
+     * @param end   the end offset
+     * @param n     the maximum number of ranges
+     * @return the ranges, at most n
+     * @throws IOException if the index can not be read
+     */
+    public List<Range> split(long start, long end, int n) throws IOException {
+        List<Range> ranges = new ArrayList<>();
+        long size = Math.max(1L, (end - start) / Math.max(1, n));
+        long rangeStart = -1L;
+        long docs = 0L;
+        long count = 0L;
+        try (Cursor cursor = cursor()) {
+            while (cursor.next()) {
+                long offset = cursor.getOffset();
+                if (offset < start || cursor.isMetadata()) {
+                    continue;
+                }
+                if (offset >= end) {
+                    break;
+                }
+                if (cursor.isNewDocument()) {
+                    if (rangeStart < 0L) {
+                        rangeStart = offset;
+                    } else if (offset - rangeStart >= size && ranges.size() < n - 1) {
+                        ranges.add(new Range(rangeStart, offset, docs, count));
+                        rangeStart = offset;
+                        docs = 0L;
+                        count = 0L;
+                    }
+                    docs++;
+                }
+                count++;
+            }
+        }
+        if (rangeStart >= 0L) {
+            ranges.add(new Range(rangeStart, end, docs, count));
+        }
+        return ranges;
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0L) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("unexpected end of archive index");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("invalid archive index, malformed number");
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    /**
+     * The position of the last separator in a name, or -1.
+     */
+    private static int lastSeparator(byte[] name, int len) {
+        for (int i = len - 1; i >= 0; i--) {
+            if (name[i] == SEPARATOR) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A byte range in the archive stream, with the number of documents and entries.
+     */
+    public static class Range {
+
+        private long start;
+
+        private long end;
+
+        private long docs;
+
+        private long entries;
+
+        Range(long start, long end, long docs, long entries) {
+            this.start = start;
+            this.end = end;
+            this.docs = docs;
+            this.entries = entries;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getDocs() {
+            return docs;
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + start + "," + end + ",docs=" + docs + ",entries=" + entries + "]";
+        }
+    }
+
+    /**
+     * Reads the entries of an index in archive order.
+     */
+    public static class Cursor implements Closeable {
+
+        private final DataInputStream in;
+
+        private byte[] name = new byte[256];
+
+        private int nameLen;
+
+        private int documentLen;
+
+        private boolean newDocument;
+
+        private boolean metadata;
+
+        private long offset;
+
+        private boolean eof;
+
+        Cursor(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            if (this.in.readInt() != MAGIC || this.in.read() != VERSION) {
+                throw new IOException("invalid archive index");
+            }
+        }
+
+        /**
+         * Move to the next entry.
+         *
+         * @return false if there are no more entries
+         * @throws IOException if the index can not be read
+         */
+        public boolean next() throws IOException {
+            if (eof) {
+                return false;
+            }
+            int tag = in.read();
+            if (tag == END) {
+                eof = true;
+                return false;
+            }
+            if (tag != DOCUMENT && tag != METADATA) {
+                throw new IOException("invalid archive index, unknown entry tag " + tag);
+            }
+            metadata = tag == METADATA;
+            int shared = readVarInt(in);
+            int suffix = readVarInt(in);
+            if (shared > nameLen) {
+                throw new IOException("invalid archive index, malformed name");
+            }
+            if (name.length < shared + suffix) {
+                byte[] b = new byte[Math.max(shared + suffix, name.length * 2)];
+                System.arraycopy(name, 0, b, 0, shared);
+                name = b;
+            }
+            in.readFully(name, shared, suffix);
+            int previousDocumentLen = documentLen;
+            nameLen = shared + suffix;
+            documentLen = lastSeparator(name, nameLen);
+            if (documentLen < 0) {
+                documentLen = nameLen;
+            }
+            newDocument = documentLen != previousDocumentLen || shared < documentLen;
+            offset += readVarLong(in);
+            return true;
+        }
+
+        public String getName() {
+            return new String(name, 0, nameLen, UTF8);
+        }
+
+        /**
+         * The document of the entry, the entry name up to the last path separator.
+         *
+         * @return the document
+         */
+        public String getDocument() {
+            return new String(name, 0, documentLen, UTF8);
+        }
+
+        /**
+         * Check if this entry belongs to another document than the previous entry.
+         *
+         * @return true if this entry starts a document
+         */
+        public boolean isNewDocument() {
+            return newDocument;
+        }
+
+        /**
+         * Check if this entry is index metadata, i.e. settings, mappings or aliases.
+         *
+         * @return true for metadata
+         */
+        public boolean isMetadata() {
+            return metadata;
+        }
+
+        /**
+         * The offset of the entry in the archive stream.
+         *
+         * @return the offset
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the index of an archive while the archive is written.
+     */
+    public static class Writer implements Closeable {
+
+        private final Path path;
+
+        private final CountingOutputStream counter;
+
+        private final DataOutputStream out;
+
+        private final Map<String, Range> indices;
+
+        private byte[] lastName;
+
+        private String lastDocument;
+
+        private long lastOffset;
+
+        private Range pending;
+
+        private long entries;
+
+        private final Path spillPath;
+
+        private FileChannel spill;
+
+        private long spillEnd;
+
+        private final ByteBuffer[] spillBuffers = new ByteBuffer[1 << LOOKUP_PARTITION_BITS];
+
+        private final long[][] spillBlocks = new long[1 << LOOKUP_PARTITION_BITS][];
+
+        private final int[] spillBlockCounts = new int[1 << LOOKUP_PARTITION_BITS];
+
+        private final int[] spillCounts = new int[1 << LOOKUP_PARTITION_BITS];
+
+        private boolean finished;
+
+        /**
+         * Create the index of an archive.
+         *
+         * @param archivePath the archive path
+         * @throws IOException if the index can not be created
+         */
+        public Writer(Path archivePath) throws IOException {
+            this.path = indexPath(archivePath);
+            this.spillPath = Paths.get(path.toString() + SPILL_SUFFIX);
+            this.counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+            this.out = new DataOutputStream(counter);
+            this.indices = new LinkedHashMap<>();
+            this.lastName = new byte[0];
+            out.writeInt(MAGIC);
+            out.write(VERSION);
+        }
+
+        /**
+         * Add an entry. Entries must be added in archive order.
+         *
+         * @param name     the entry name
+         * @param index    the index of the entry
+         * @param offset   the offset of the entry in the archive stream
+         * @param metadata true if the entry is index metadata
+         * @throws IOException if the index can not be written
+         */
+        public void add(String name, String index, long offset, boolean metadata) throws IOException {
+            add(name, index, offset, metadata, null);
+        }
+
+        /**
+         * Add a packed entry. The documents of the packed entry are looked up at the offset of the entry.
+         * Entries must be added in archive order.
+         *
+         * @param name      the entry name
+         * @param index     the index of the entry
+         * @param offset    the offset of the entry in the archive stream
+         * @param documents the encoded names of the documents in the packed entry
+         * @throws IOException if the index can not be written
+         */
+        public void addPacked(String name, String index, long offset, List<String> documents) throws IOException {
+            add(name, index, offset, false, documents);
+        }
+
+        private void add(String name, String index, long offset, boolean metadata, List<String> documents)
+                throws IOException {
+            if (offset < lastOffset) {
+                throw new IOException("entry offsets must increase: " + offset + " < " + lastOffset);
+            }
+            endPending(offset);
+            byte[] b = name.getBytes(UTF8);
+            int shared = 0;
+            int max = Math.min(b.length, lastName.length);
+            while (shared < max && b[shared] == lastName[shared]) {
+                shared++;
+            }
+            out.write(metadata ? METADATA : DOCUMENT);
+            writeVarLong(out, shared);
+            writeVarLong(out, b.length - shared);
+            out.write(b, shared, b.length - shared);
+            writeVarLong(out, offset - lastOffset);
+            lastName = b;
+            lastOffset = offset;
+            entries++;
+            if (!metadata && index != null) {
+                Range range = indices.get(index);
+                if (range == null) {
+                    range = new Range(offset, offset, 0L, 0L);
+                    indices.put(index, range);
+                }
+                int pos = name.lastIndexOf(File.separatorChar);
+                String document = pos >= 0 ? name.substring(0, pos) : name;
+                if (documents != null) {
+                    for (String packed : documents) {
+                        range.docs++;
+                        spill(packed, offset);
+                    }
+                } else if (!document.equals(lastDocument)) {
+                    range.docs++;
+                    spill(document, offset);
+                }
+                range.entries++;
+                lastDocument = document;
+                pending = range;
+            }
+        }
+
+        /**
+         * Write the summary and close the index.
+         *
+         * @param end the end of the last entry in the archive stream
+         * @throws IOException if the index can not be written
+         */
+        public void finish(long end) throws IOException {
+            endPending(end);
+            out.write(END);
+            long summary = counter.getBytesWritten();
+            writeVarLong(out, indices.size());
+            for (Map.Entry<String, Range> me : indices.entrySet()) {
+                Range range = me.getValue();
+                out.writeUTF(me.getKey());
+                writeVarLong(out, range.start);
+                writeVarLong(out, range.end);
+                writeVarLong(out, range.docs);
+                writeVarLong(out, range.entries);
+            }
+            long lookup = counter.getBytesWritten();
+            long lookupCount = writeLookup();
+            out.writeLong(end);
+            out.writeLong(entries);
+            out.writeLong(summary);
+            out.writeLong(lookup);
+            out.writeLong(lookupCount);
+            out.writeInt(MAGIC);
+            out.close();
+            finished = true;
+        }
+
+        /**
+         * Close the index. An index that is not finished is incomplete and is deleted.
+         *
+         * @throws IOException if the index can not be closed
+         */
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                out.close();
+                Files.deleteIfExists(path);
+            }
+            closeSpill();
+        }
+
+        private void closeSpill() throws IOException {
+            if (spill != null) {
+                spill.close();
+                spill = null;
+            }
+            Files.deleteIfExists(spillPath);
+        }
+
+        private void spill(String document, long offset) throws IOException {
+            int hash = hash(document);
+            int p = hash >>> (32 - LOOKUP_PARTITION_BITS);
+            ByteBuffer buffer = spillBuffers[p];
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate(SPILL_BLOCK_RECORDS * LOOKUP_RECORD_LEN);
+                spillBuffers[p] = buffer;
+            }
+            buffer.putInt(hash);
+            buffer.putLong(offset);
+            spillCounts[p]++;
+            if (!buffer.hasRemaining()) {
+                spillBlock(p, buffer);
+            }
+        }
+
+        /**
+         * Append a full block of a partition to the spill file, all partitions share the spill file.
+         */
+        private void spillBlock(int p, ByteBuffer buffer) throws IOException {
+            if (spill == null) {
+                spill = FileChannel.open(spillPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            long[] blocks = spillBlocks[p];
+            if (blocks == null) {
+                blocks = new long[16];
+            } else if (spillBlockCounts[p] == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blocks.length * 2);
+            }
+            blocks[spillBlockCounts[p]++] = spillEnd;
+            spillBlocks[p] = blocks;
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                spillEnd += spill.write(buffer, spillEnd);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Write the lookup table, the spilled partitions in the order of their hash bits, each sorted.
+         */
+        private long writeLookup() throws IOException {
+            long count = 0L;
+            ByteBuffer block = ByteBuffer.allocate(SPILL_BLOCK_RECORDS * LOOKUP_RECORD_LEN);
+            for (int p = 0; p < spillBuffers.length; p++) {
+                int n = spillCounts[p];
+                if (n == 0) {
+                    continue;
+                }
+                // all hashes of a partition have the same top bits, so the keys sort by the unsigned hash
+                long[] keys = new long[n];
+                long[] offsets = new long[n];
+                int i = 0;
+                for (int b = 0; b < spillBlockCounts[p]; b++) {
+                    block.clear();
+                    long pos = spillBlocks[p][b];
+                    while (block.hasRemaining()) {
+                        int len = spill.read(block, pos);
+                        if (len < 0) {
+                            throw new EOFException("unexpected end of spill file " + spillPath);
+                        }
+                        pos += len;
+                    }
+                    block.flip();
+                    i = readLookupRecords(block, keys, offsets, i);
+                }
+                ByteBuffer buffer = spillBuffers[p];
+                buffer.flip();
+                i = readLookupRecords(buffer, keys, offsets, i);
+                spillBuffers[p] = null;
+                spillBlocks[p] = null;
+                Arrays.sort(keys);
+                for (long key : keys) {
+                    out.writeInt((int) (key >>> 32));
+                    out.writeLong(offsets[(int) key]);
+                }
+                count += n;
+            }
+            closeSpill();
+            return count;
+        }
+
+        private static int readLookupRecords(ByteBuffer buffer, long[] keys, long[] offsets, int start) {
+            int i = start;
+            while (buffer.hasRemaining()) {
+                keys[i] = ((buffer.getInt() & 0xFFFFFFFFL) << 32) | i;
+                offsets[i] = buffer.getLong();
+                i++;
+            }
+            return i;
+        }
+
+        private void endPending(long offset) {
+            if (pending != null) {
+                pending.end = offset;
+                pending = null;
+            }
+        }
+    }
+}
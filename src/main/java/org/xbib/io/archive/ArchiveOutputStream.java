@@ -19,6 +19,7 @@ import org.xbib.io.BytesProgressWatcher;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 
 /**
  * Archive output stream implementations are expected to override the
@@ -91,6 +92,23 @@ public abstract class ArchiveOutputStream<E extends ArchiveEntry> extends Output
      */
     public abstract void finish() throws IOException;
 
+    /**
+     * Writes a batch of entries with their contents. Each entry is put, written and closed.
+     * Archive formats override this to assemble the headers and contents of a batch
+     * before handing them to the underlying stream.
+     *
+     * @param entries  the entries, with the entry sizes set
+     * @param contents the contents of the entries
+     * @throws java.io.IOException
+     */
+    public void writeEntries(List<E> entries, List<byte[]> contents) throws IOException {
+        for (int i = 0; i < entries.size(); i++) {
+            putArchiveEntry(entries.get(i));
+            write(contents.get(i));
+            closeArchiveEntry();
+        }
+    }
+
     /**
      * Writes a byte to the current archive entry.
      * <p>
@@ -18,20 +18,40 @@ package org.xbib.io.archive;
 import org.elasticsearch.common.io.Streams;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.xbib.io.BoundedInputStream;
 import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.ChannelInputStream;
+import org.xbib.io.ChannelOutputStream;
+import org.xbib.io.MappedFileInputStream;
+import org.xbib.io.MemoryBudget;
+import org.xbib.io.ReadAheadInputStream;
 import org.xbib.io.Session;
 import org.xbib.io.StringPacket;
+import org.xbib.io.ThrottledInputStream;
+import org.xbib.io.ThrottledOutputStream;
+import org.xbib.io.TokenBucket;
+import org.xbib.io.compress.CompressCodec;
 import org.xbib.io.compress.CompressCodecService;
+import org.xbib.io.compress.ParallelCompressCodec;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -46,6 +66,8 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
 
     private final static ArchiveService archiveService = ArchiveService.getInstance();
 
+    public final static int DEFAULT_BUFFER_SIZE = 65536;
+
     private boolean isOpen;
 
     private EnumSet<Mode> mode;
@@ -62,8 +84,54 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
 
     private long packetCounter;
 
+    private TokenBucket throttle;
+
+    private MemoryBudget memoryBudget;
+
+    private int readAheadChunks;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private boolean directBuffers;
+
+    private boolean memoryMapped;
+
+    private final Map<String, Integer> codecBufferSizes = new HashMap<>();
+
+    private final Map<String, Integer> codecThreads = new HashMap<>();
+
+    private boolean indexed;
+
+    private ArchiveIndex.Writer indexWriter;
+
+    private long rangeStart;
+
+    private long rangeEnd = -1L;
+
+    private long bufferBytes;
+
+    private int packedEntrySize;
+
+    private StringBuilder pack;
+
+    private String packIndex;
+
+    private String packDocument;
+
+    private final List<String> packDocuments = new ArrayList<>();
+
+    private long packCounter;
+
+    private boolean closing;
+
+    private final Deque<StringPacket> unpacked = new ArrayDeque<>();
+
     private AtomicLong archiveCounter = new AtomicLong();
 
+    private Batch batch;
+
+    private boolean endOfInput;
+
     protected ArchiveSession(BytesProgressWatcher watcher) {
         this.watcher = watcher;
         this.packetCounter = 0L;
@@ -80,6 +148,259 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
         return packetCounter;
     }
 
+    /**
+     * Set a token bucket for limiting the bytes per second read from or written to the archive file.
+     * Must be set before the session is opened.
+     *
+     * @param throttle the token bucket or null for no limit
+     * @return this session
+     */
+    public ArchiveSession<I, O> setThrottle(TokenBucket throttle) {
+        this.throttle = throttle;
+        return this;
+    }
+
+    public TokenBucket getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Set a memory budget for the entry buffers of this session.
+     *
+     * @param memoryBudget the memory budget or null for no accounting
+     * @return this session
+     */
+    public ArchiveSession<I, O> setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Set the number of chunks that are decompressed ahead of the archive reader by a background thread.
+     * Must be set before the session is opened. Uncompressed archives are not read ahead.
+     *
+     * @param readAheadChunks the number of chunks, or 0 for decompressing on the reading thread
+     * @return this session
+     */
+    public ArchiveSession<I, O> setReadAhead(int readAheadChunks) {
+        this.readAheadChunks = readAheadChunks;
+        return this;
+    }
+
+    public int getReadAhead() {
+        return readAheadChunks;
+    }
+
+    /**
+     * Set the size of the buffer between the archive file channel and the archive or compression stream.
+     * Must be set before the session is opened.
+     *
+     * @param bufferSize the buffer size in bytes
+     * @param direct     true for direct buffers
+     * @return this session
+     */
+    public ArchiveSession<I, O> setBufferSize(int bufferSize, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.directBuffers = direct;
+        return this;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Set the buffer size of a compression codec. Without a codec buffer size, the buffer size
+     * of the file channel is used.
+     *
+     * @param codec      the codec name, e.g. "gz"
+     * @param bufferSize the buffer size in bytes
+     * @return this session
+     */
+    public ArchiveSession<I, O> setCodecBufferSize(String codec, int bufferSize) {
+        codecBufferSizes.put(codec, bufferSize);
+        return this;
+    }
+
+    public int getCodecBufferSize(String codec) {
+        Integer size = codecBufferSizes.get(codec);
+        return size != null ? size : bufferSize;
+    }
+
+    /**
+     * Set the number of threads of a compression codec, for codecs that compress and decompress
+     * on several threads. Must be set before the session is opened.
+     *
+     * @param codec   the codec name, e.g. "gz"
+     * @param threads the number of threads, or 1 for the calling thread
+     * @return this session
+     */
+    public ArchiveSession<I, O> setCodecThreads(String codec, int threads) {
+        codecThreads.put(codec, threads);
+        return this;
+    }
+
+    public int getCodecThreads(String codec) {
+        Integer threads = codecThreads.get(codec);
+        return threads != null ? threads : 1;
+    }
+
+    /**
+     * Read uncompressed archives through memory-mapped windows of the archive file, if the archive
+     * format supports it. Must be set before the session is opened.
+     *
+     * @param memoryMapped true for memory-mapped reading
+     * @return this session
+     */
+    public ArchiveSession<I, O> setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        return this;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Write a sidecar {@link ArchiveIndex} with the entry offsets, if the archive is uncompressed
+     * and the archive format reports entry positions. Must be set before the session is opened.
+     *
+     * @param indexed true for writing an index
+     * @return this session
+     */
+    public ArchiveSession<I, O> setIndexed(boolean indexed) {
+        this.indexed = indexed;
+        return this;
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Read only a byte range of an uncompressed archive. The range must start and end at entries,
+     * as given by an {@link ArchiveIndex}. Must be set before the session is opened.
+     *
+     * @param start the offset of the first entry
+     * @param end   the end offset of the last entry
+     * @return this session
+     */
+    public ArchiveSession<I, O> setRange(long start, long end) {
+        this.rangeStart = start;
+        this.rangeEnd = end;
+        return this;
+    }
+
+    /**
+     * The start of the byte range that is read.
+     *
+     * @return the offset of the first entry, or 0 for reading from the start of the archive
+     */
+    protected long getRangeStart() {
+        return rangeStart;
+    }
+
+    /**
+     * The path of an open session.
+     *
+     * @return the path
+     */
+    protected Path getPath() {
+        return path;
+    }
+
+    /**
+     * Write the fields of several documents of an index into a single archive entry, if the archive
+     * format supports it. Index settings, mappings and aliases are written as single entries.
+     * Packed entries are unpacked transparently when the archive is read.
+     *
+     * @param packedEntrySize the minimum payload size of a packed entry in chars, or 0 for an entry per field
+     * @return this session
+     */
+    public ArchiveSession<I, O> setPackedEntrySize(int packedEntrySize) {
+        this.packedEntrySize = packedEntrySize;
+        return this;
+    }
+
+    public int getPackedEntrySize() {
+        return packedEntrySize;
+    }
+
+    /**
+     * The position of the next entry in the archive stream, for archive formats that
+     * can report it.
+     *
+     * @param out the archive output stream
+     * @return the position, or -1 if the archive format can not report positions
+     */
+    protected long getPosition(O out) {
+        return -1L;
+    }
+
+    /**
+     * Archive formats that store the fields of documents in entries can write packed entries.
+     *
+     * @return true if the fields of several documents can be written into a single entry
+     */
+    protected boolean isPackable() {
+        return true;
+    }
+
+    /**
+     * Archive formats that read their input sequentially and skip unwanted data by
+     * {@link InputStream#skip(long)} can read from a memory-mapped file.
+     *
+     * @return true if the archive input stream can read from a memory-mapped file
+     */
+    protected boolean isMemoryMappable() {
+        return false;
+    }
+
+    /**
+     * Configure a new archive output stream, for archive formats with settings of their own.
+     *
+     * @param out the archive output stream
+     */
+    protected void configure(O out) {
+    }
+
+    /**
+     * Configure a new archive input stream, for archive formats that need state of the archive
+     * when a byte range is read.
+     *
+     * @param in the archive input stream
+     * @throws IOException if the archive input stream can not be configured
+     */
+    protected void configure(I in) throws IOException {
+    }
+
+    /**
+     * The archive input stream of an open session, for archive formats that can be read without entries.
+     *
+     * @return the archive input stream
+     * @throws IOException if the session is not open for reading
+     */
+    protected I getInputStream() throws IOException {
+        if (!isOpen() || in == null) {
+            throw new IOException("no input stream found");
+        }
+        return in;
+    }
+
+    /**
+     * Prepare a new archive entry for a packet. Archive formats that write the packet metadata
+     * can take it from the packet instead of decoding the entry name.
+     *
+     * @param entry  the archive entry
+     * @param packet the packet
+     */
+    protected void prepareEntry(ArchiveEntry entry, StringPacket packet) {
+    }
+
     protected abstract String getName();
 
     @Override
@@ -90,12 +411,14 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
         this.mode = mode;
         this.path = path;
         this.file = path.toFile();
+        this.endOfInput = false;
         if (mode.contains(Mode.READ)) {
             this.in = createArchiveInputStream();
             this.isOpen = this.in != null;
             if (!isOpen) {
                 throw new FileNotFoundException("can't open for input, check existence or access rights: " + file.getAbsolutePath());
             }
+            configure(in);
         } else if (mode.contains(Mode.WRITE)) {
             this.out = createArchiveOutputStream(false);
             this.isOpen = this.out != null;
@@ -114,17 +437,52 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
     @SuppressWarnings("unchecked")
     private I createArchiveInputStream() throws IOException {
         I archiveIn;
-        FileInputStream in;
+        InputStream in;
+        String pathStr = path.toString();
+        String compression = null;
+        Set<String> streamCodecs = CompressCodecService.getCodecs();
+        for (String codec : streamCodecs) {
+            if (pathStr.endsWith("." + codec)) {
+                compression = codec;
+            }
+        }
+        if (rangeEnd >= 0L && compression != null) {
+            throw new IOException("byte ranges can not be read from compressed archives: " + path);
+        }
         if (file.isFile() && file.canRead()) {
-            in = new FileInputStream(file);
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            if (compression == null && memoryMapped && isMemoryMappable()) {
+                in = new MappedFileInputStream(channel);
+                if (rangeStart > 0L) {
+                    in.skip(rangeStart);
+                }
+            } else {
+                channel.position(rangeStart);
+                in = new ChannelInputStream(channel, bufferSize, directBuffers);
+                // the buffers are held until the session is closed
+                bufferBytes = bufferSize;
+                reserve(bufferBytes);
+            }
+            if (rangeEnd >= 0L) {
+                in = new BoundedInputStream(in, rangeEnd - rangeStart);
+            }
         } else {
             throw new FileNotFoundException("can't open for input, check existence or access rights: " + path);
         }
-        String pathStr = path.toString();
-        Set<String> streamCodecs = CompressCodecService.getCodecs();
+        if (throttle != null) {
+            in = new ThrottledInputStream(in, throttle);
+        }
         for (String codec : streamCodecs) {
-            if (pathStr.endsWith("." + codec)) {
-                archiveIn = (I) archiveService.getCodec(getName()).createArchiveInputStream(codecService.getCodec(codec).decode(in));
+            if (codec.equals(compression)) {
+                InputStream decoded = decode(codec, in);
+                if (readAheadChunks > 0) {
+                    long readAheadBytes = (long) readAheadChunks * ReadAheadInputStream.DEFAULT_CHUNK_SIZE;
+                    reserve(readAheadBytes);
+                    bufferBytes += readAheadBytes;
+                    decoded = new ReadAheadInputStream(decoded, readAheadChunks,
+                            ReadAheadInputStream.DEFAULT_CHUNK_SIZE, "knapsack-reader-" + file.getName());
+                }
+                archiveIn = (I) archiveService.getCodec(getName()).createArchiveInputStream(decoded);
                 archiveIn.setWatcher(watcher);
                 return archiveIn;
             }
@@ -134,29 +492,66 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
         return archiveIn;
     }
 
+    private InputStream decode(String codec, InputStream in) throws IOException {
+        CompressCodec compressCodec = codecService.getCodec(codec);
+        int threads = getCodecThreads(codec);
+        if (threads > 1 && compressCodec instanceof ParallelCompressCodec) {
+            ParallelCompressCodec parallelCodec = (ParallelCompressCodec) compressCodec;
+            reserve(parallelCodec.getBufferBytes(threads));
+            bufferBytes += parallelCodec.getBufferBytes(threads);
+            return parallelCodec.decode(in, getCodecBufferSize(codec), threads);
+        }
+        return compressCodec.decode(in, getCodecBufferSize(codec));
+    }
+
+    private OutputStream encode(String codec, OutputStream out) throws IOException {
+        CompressCodec compressCodec = codecService.getCodec(codec);
+        int threads = getCodecThreads(codec);
+        if (threads > 1 && compressCodec instanceof ParallelCompressCodec) {
+            ParallelCompressCodec parallelCodec = (ParallelCompressCodec) compressCodec;
+            reserve(parallelCodec.getBufferBytes(threads));
+            bufferBytes += parallelCodec.getBufferBytes(threads);
+            return parallelCodec.encode(out, getCodecBufferSize(codec), threads);
+        }
+        return compressCodec.encode(out, getCodecBufferSize(codec));
+    }
+
     @SuppressWarnings("unchecked")
     private O createArchiveOutputStream(boolean overwrite) throws IOException {
         O archiveOut;
-        FileOutputStream out;
+        OutputStream out;
         if (!file.exists() || file.length() == 0 || overwrite) {
             if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
                 throw new IOException("can not create directory: " + file.getParent());
             }
-            out = new FileOutputStream(file);
+            // an index of a previous archive is stale
+            Files.deleteIfExists(ArchiveIndex.indexPath(path));
+            out = new ChannelOutputStream(FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), bufferSize, directBuffers);
+            bufferBytes = bufferSize;
+            reserve(bufferBytes);
         } else {
             throw new FileNotFoundException("can't open for output, check existence or access rights: " + file.getAbsolutePath());
         }
+        if (throttle != null) {
+            out = new ThrottledOutputStream(out, throttle);
+        }
         String pathStr = path.toString();
         Set<String> streamCodecs = CompressCodecService.getCodecs();
         for (String codec : streamCodecs) {
             if (pathStr.endsWith("." + codec)) {
-                archiveOut = (O) archiveService.getCodec(getName()).createArchiveOutputStream(codecService.getCodec(codec).encode(out));
+                archiveOut = (O) archiveService.getCodec(getName()).createArchiveOutputStream(encode(codec, out));
                 archiveOut.setWatcher(watcher);
+                configure(archiveOut);
                 return archiveOut;
             }
         }
         archiveOut = (O) archiveService.getCodec(getName()).createArchiveOutputStream(out);
         archiveOut.setWatcher(watcher);
+        configure(archiveOut);
+        if (indexed && getPosition(archiveOut) >= 0L) {
+            indexWriter = new ArchiveIndex.Writer(path);
+        }
         return archiveOut;
     }
 
@@ -167,14 +562,41 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
 
     @Override
     public synchronized StringPacket read() throws IOException {
+        checkInput();
+        return nextPacket();
+    }
+
+    @Override
+    public synchronized List<StringPacket> readBatch(int max) throws IOException {
+        checkInput();
+        List<StringPacket> packets = new ArrayList<>(Math.min(max, 1024));
+        StringPacket packet;
+        while (packets.size() < max && (packet = nextPacket()) != null) {
+            packets.add(packet);
+        }
+        return packets;
+    }
+
+    private void checkInput() throws IOException {
         if (!isOpen()) {
             throw new IOException("not open");
         }
         if (in == null) {
             throw new IOException("no input stream found");
         }
+    }
+
+    private StringPacket nextPacket() throws IOException {
+        if (!unpacked.isEmpty()) {
+            return unpacked.poll();
+        }
+        if (endOfInput) {
+            // archive streams must not be read after their end, e.g. the padding after a cpio trailer
+            return null;
+        }
         ArchiveEntry entry = in.getNextEntry();
         if (entry == null) {
+            endOfInput = true;
             return null;
         }
         StringPacket packet = newPacket();
@@ -183,42 +605,195 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
         ArchiveUtils.decodeArchiveEntryName(packet, name);
         int size = (int) entry.getEntrySize();
         if (size >= 0) {
-            byte[] b = new byte[size]; // naive but fast, heap may explode
-            int num = in.read(b, 0, size); // fill byte array from stream
-            packet.payload(new String(b, "UTF-8"));
+            reserve(size);
+            try {
+                byte[] b = new byte[size]; // naive but fast, heap may explode
+                int num = 0;
+                while (num < size) { // fill byte array from stream
+                    int n = in.read(b, num, size - num);
+                    if (n == -1) {
+                        throw new IOException("unexpected EOF with " + (size - num) + " bytes unread in entry " + name);
+                    }
+                    num += n;
+                }
+                setPayload(packet, b, size);
+            } finally {
+                release(size);
+            }
         } else {
             // slow copy, unknown size (zip deflate method)
             ByteArrayOutputStream b = new ByteArrayOutputStream();
             Streams.copy(in, b);
-            packet.payload(new String(b.toByteArray(), "UTF-8"));
+            setPayload(packet, b.toByteArray(), b.size());
         }
         packetCounter++;
+        if (ArchiveUtils.isPacked(packet)) {
+            unpacked.addAll(ArchiveUtils.unpack(packet));
+            return nextPacket();
+        }
         return packet;
     }
 
+    private static void setPayload(StringPacket packet, byte[] b, int len) throws IOException {
+        if (ArchiveUtils.isBinaryXContent(b, 0, len)) {
+            packet.bytes(b);
+        } else {
+            packet.payload(new String(b, 0, len, "UTF-8"));
+        }
+    }
+
     @Override
-    @SuppressWarnings("unchecked")
     public synchronized void write(StringPacket packet) throws IOException {
+        checkOutput();
+        writePacket(packet);
+    }
+
+    /**
+     * Write a batch of packets. The archive entries of the batch are collected and handed to the
+     * archive output stream at once, and the split into the next archive is checked after the batch.
+     * With an archive index, the entries are written one by one, as the index needs their positions.
+     *
+     * @param packets the packets
+     * @throws IOException if the packets can not be written
+     */
+    @Override
+    public synchronized void writeBatch(List<StringPacket> packets) throws IOException {
+        checkOutput();
+        if (indexWriter != null) {
+            for (StringPacket packet : packets) {
+                writePacket(packet);
+            }
+            return;
+        }
+        batch = new Batch();
+        try {
+            for (StringPacket packet : packets) {
+                writePacket(packet);
+            }
+            flushBatch(batch);
+        } finally {
+            release(batch.bytes);
+            batch = null;
+        }
+        checkSplit();
+    }
+
+    private void checkOutput() throws IOException {
         if (!isOpen()) {
             throw new IOException("not open");
         }
         if (out == null) {
             throw new IOException("no output stream found");
         }
-        if (packet == null || packet.payload() == null) {
+    }
+
+    private void writePacket(StringPacket packet) throws IOException {
+        if (packet == null || !packet.hasPayload()) {
             throw new IOException("no payload to write for entry");
         }
-        byte[] buf = packet.payload().getBytes("UTF-8");
+        packetCounter++;
+        boolean metadata = ArchiveUtils.isMetadata(packet);
+        // binary payloads are written as they are, packed entries hold text only
+        if (packedEntrySize > 0 && isPackable() && !metadata && packet.bytes() == null
+                && packet.meta().get("index") != null) {
+            writePacked(packet);
+            return;
+        }
+        flushPack();
+        writeEntry(ArchiveUtils.encodeArchiveEntryName(packet), packet, (String) packet.meta().get("index"), metadata,
+                packet.bytes() != null ? packet.bytes() : packet.payload().getBytes("UTF-8"), null);
+    }
+
+    /**
+     * Append a field to the packed entry. A packed entry holds documents of a single index, and
+     * is written at the first new document after the packed entry size is reached.
+     */
+    private void writePacked(StringPacket packet) throws IOException {
+        String index = (String) packet.meta().get("index");
         String name = ArchiveUtils.encodeArchiveEntryName(packet);
+        String document = name.substring(0, name.lastIndexOf(File.separatorChar));
+        if (pack == null) {
+            pack = new StringBuilder();
+        }
+        if (pack.length() > 0 && (!index.equals(packIndex)
+                || (pack.length() >= packedEntrySize && !document.equals(packDocument)))) {
+            flushPack();
+        }
+        ArchiveUtils.pack(pack, name, packet.payload());
+        if (!document.equals(packDocument)) {
+            packDocuments.add(document);
+        }
+        packIndex = index;
+        packDocument = document;
+    }
+
+    private void flushPack() throws IOException {
+        if (pack == null || pack.length() == 0) {
+            return;
+        }
+        StringPacket packet = newPacket();
+        packet.meta("index", packIndex);
+        packet.meta("type", ArchiveUtils.PACKED);
+        packet.meta("id", Long.toString(++packCounter));
+        byte[] buf = pack.toString().getBytes("UTF-8");
+        pack.setLength(0);
+        packDocument = null;
+        try {
+            writeEntry(ArchiveUtils.encodeArchiveEntryName(packet), packet, packIndex, false, buf, packDocuments);
+        } finally {
+            packDocuments.clear();
+        }
+    }
+
+    /**
+     * Write an archive entry.
+     *
+     * @param documents the encoded names of the documents of a packed entry, or null for a single entry
+     */
+    @SuppressWarnings("unchecked")
+    private void writeEntry(String name, StringPacket packet, String index, boolean metadata, byte[] buf,
+                            List<String> documents) throws IOException {
         ArchiveEntry entry = out.newArchiveEntry();
         entry.setName(name);
-        entry.setLastModified(new Date());
+        prepareEntry(entry, packet);
         entry.setEntrySize(buf.length);
-        out.putArchiveEntry(entry);
-        out.write(buf);
-        out.closeArchiveEntry();
-        packetCounter++;
-        if (watcher.getBytesToTransfer() != 0 && watcher.getBytesTransferred() > watcher.getBytesToTransfer()) {
+        // the payload buffer, and the entry buffer of archivers that buffer until entry close
+        reserve(buf.length);
+        if (batch != null) {
+            // the payloads of a batch are released when the batch is written
+            entry.setLastModified(batch.date);
+            batch.entries.add(entry);
+            batch.contents.add(buf);
+            batch.bytes += buf.length;
+            return;
+        }
+        entry.setLastModified(new Date());
+        try {
+            if (indexWriter != null) {
+                if (documents != null) {
+                    indexWriter.addPacked(name, index, getPosition(out), documents);
+                } else {
+                    indexWriter.add(name, index, getPosition(out), metadata);
+                }
+            }
+            out.putArchiveEntry(entry);
+            out.write(buf);
+            out.closeArchiveEntry();
+        } finally {
+            release(buf.length);
+        }
+        checkSplit();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void flushBatch(Batch batch) throws IOException {
+        if (!batch.entries.isEmpty()) {
+            out.writeEntries(batch.entries, batch.contents);
+        }
+    }
+
+    private void checkSplit() throws IOException {
+        if (!closing && watcher.getBytesToTransfer() != 0 && watcher.getBytesTransferred() > watcher.getBytesToTransfer()) {
             logger.debug("bytes watcher: transferred = {}, rate {}",
                     watcher.getBytesTransferred(), watcher.getRecentByteRatePerSecond());
             switchToNextArchive();
@@ -232,11 +807,31 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
             return;
         }
         if (out != null) {
-            out.close();
+            closing = true;
+            try {
+                flushPack();
+            } finally {
+                closing = false;
+            }
+            if (indexWriter != null) {
+                try {
+                    long end = getPosition(out);
+                    out.close();
+                    indexWriter.finish(end);
+                } finally {
+                    indexWriter.close();
+                    indexWriter = null;
+                }
+            } else {
+                out.close();
+            }
         }
         if (in != null) {
             in.close();
         }
+        release(bufferBytes);
+        bufferBytes = 0L;
+        unpacked.clear();
         this.isOpen = false;
     }
 
@@ -245,6 +840,18 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
         return isOpen;
     }
 
+    private void reserve(long bytes) throws IOException {
+        if (memoryBudget != null) {
+            memoryBudget.reserve(bytes);
+        }
+    }
+
+    private void release(long bytes) {
+        if (memoryBudget != null) {
+            memoryBudget.release(bytes);
+        }
+    }
+
     /**
      * Switches to next archive stream if a certain byte limit was set
      *
@@ -263,5 +870,17 @@ public abstract class ArchiveSession<I extends ArchiveInputStream, O extends Arc
         open(mode, path);
     }
 
+    /**
+     * The archive entries of a batch, with their payloads.
+     */
+    private static class Batch {
+
+        private final Date date = new Date();
 
-}
\ No newline at end of file
+        private final List<ArchiveEntry> entries = new ArrayList<>();
+
+        private final List<byte[]> contents = new ArrayList<>();
+
+        private long bytes;
+    }
+}
@@ -24,9 +24,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
-import java.util.StringTokenizer;
 
 /**
  * Archive utilities
@@ -145,6 +149,17 @@ public class ArchiveUtils {
                                       final ArchiveEntryEncoding encoding)
             throws IOException {
         int len = name.length();
+        if (ArchiveEntryEncodingHelper.isAsciiCompatible(encoding) && isAscii(name)) {
+            // copy the chars directly into the header, without encoding buffers
+            int n = Math.min(len, length);
+            for (int i = 0; i < n; i++) {
+                buf[offset + i] = (byte) name.charAt(i);
+            }
+            for (int i = n; i < length; i++) {
+                buf[offset + i] = 0;
+            }
+            return offset + length;
+        }
         ByteBuffer b = encoding.encode(name);
         while (b.limit() > length && len > 0) {
             b = encoding.encode(name.substring(0, --len));
@@ -203,6 +218,21 @@ public class ArchiveUtils {
         return isEqual(buffer1, 0, buffer1.length, buffer, offset, length, false);
     }
 
+    /**
+     * Check if a string contains only ASCII characters.
+     *
+     * @param s the string
+     * @return true if all characters are below 128
+     */
+    public static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Convert a string to Ascii bytes.
      * Used for comparing "magic" strings which need to be independent of the default Locale.
@@ -299,22 +329,21 @@ public class ArchiveUtils {
 
     /**
      * Encode archive entry name. Ensure there is no '/' File.separator at the end of the name, otherwise 'tar' will
-     * recognize it as directory entry.
+     * recognize it as directory entry. The encoded index and type of the last name are reused
+     * if the next name is in the same index and type.
      *
      * @param packet the packet
      * @return teh entry name
      */
     public static String encodeArchiveEntryName(StringPacket packet) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < keys.length; i++) {
-            if (i > 0) {
-                sb.append(File.separator);
-            }
+        Codec codec = codecs.get();
+        StringBuilder sb = codec.builder();
+        codec.appendPrefix(sb, packet.meta().get(keys[0]), packet.meta().get(keys[1]));
+        for (int i = 2; i < keys.length; i++) {
+            sb.append(File.separatorChar);
             Object o = packet.meta().get(keys[i]);
-            if (o == null) {
-                o = EMPTY; // writing "null" here avoids File.separator at the end of the name
-            }
-            sb.append(encode(o.toString(), UTF8));
+            // writing "null" here avoids File.separator at the end of the name
+            appendEncoded(sb, o != null ? o.toString() : EMPTY, codec);
         }
         return sb.toString();
     }
@@ -326,22 +355,152 @@ public class ArchiveUtils {
      * @param archiveEntryName the entry name
      */
     public static void decodeArchiveEntryName(Packet packet, String archiveEntryName) {
-        String[] components = split(archiveEntryName, File.separator);
+        String[] components = split(archiveEntryName, File.separatorChar);
         for (int i = 0; i < components.length; i++) {
             packet.meta(keys[i], decode(components[i], UTF8));
         }
     }
 
     /**
-     * Split "str" into tokens by delimiters and optionally remove white spaces
-     * from the splitted tokens.
+     * Encode the name of a document, the archive entry names of the document fields without the field.
+     *
+     * @param index the index
+     * @param type  the type
+     * @param id    the id
+     * @return the document name
+     */
+    public static String encodeDocumentName(String index, String type, String id) {
+        Codec codec = codecs.get();
+        StringBuilder sb = codec.builder();
+        codec.appendPrefix(sb, index, type);
+        sb.append(File.separatorChar);
+        appendEncoded(sb, id, codec);
+        return sb.toString();
+    }
+
+    /**
+     * Check if a packet holds index metadata, i.e. index settings, a mapping, or an alias,
+     * and not a field of a document.
+     *
+     * @param packet the packet
+     * @return true for metadata
+     */
+    public static boolean isMetadata(Packet packet) {
+        Object id = packet.meta().get("id");
+        return "_settings".equals(packet.meta().get("type")) || "_mapping".equals(id) || "_alias".equals(id);
+    }
+
+    /**
+     * The type of archive entries that hold the fields of several documents of an index
+     */
+    public final static String PACKED = "_packed";
+
+    /**
+     * Check if a packet holds the fields of several documents.
+     *
+     * @param packet the packet
+     * @return true for a packed entry
+     */
+    public static boolean isPacked(Packet packet) {
+        return PACKED.equals(packet.meta().get("type"));
+    }
+
+    /**
+     * Check if an entry payload is a document source in a binary XContent format. SMILE starts
+     * with the header ":)\n", CBOR with a map or the self-describe tag. These first bytes
+     * never start a valid UTF-8 text.
+     *
+     * @param b   the payload
+     * @param off the payload offset
+     * @param len the payload length
+     * @return true for SMILE or CBOR
+     */
+    public static boolean isBinaryXContent(byte[] b, int off, int len) {
+        if (len >= 3 && b[off] == ':' && b[off + 1] == ')' && b[off + 2] == '\n') {
+            return true;
+        }
+        if (len >= 1 && (b[off] & 0xe0) == 0xa0) {
+            return true;
+        }
+        return len >= 3 && (b[off] & 0xff) == 0xd9 && (b[off + 1] & 0xff) == 0xd9 && (b[off + 2] & 0xff) == 0xf7;
+    }
+
+    /**
+     * Append a field to the payload of a packed entry. A field is written as the length of the
+     * archive entry name, a colon, the name, the length of the payload, a colon, and the payload.
+     * Lengths count chars, so packed payloads can be split without decoding bytes again.
+     *
+     * @param sb      the payload of the packed entry
+     * @param name    the archive entry name of the field
+     * @param payload the payload of the field
      */
-    private static String[] split(String str, String delims) {
-        StringTokenizer tokenizer = new StringTokenizer(str, delims);
-        int n = tokenizer.countTokens();
+    public static void pack(StringBuilder sb, String name, String payload) {
+        sb.append(name.length()).append(':').append(name)
+                .append(payload.length()).append(':').append(payload);
+    }
+
+    /**
+     * Split the payload of a packed entry into the packets of the fields.
+     *
+     * @param packet the packed entry
+     * @return the packets, with the archive entry names decoded into the packet meta data
+     * @throws IOException if the payload is corrupt
+     */
+    public static List<StringPacket> unpack(StringPacket packet) throws IOException {
+        List<StringPacket> packets = new ArrayList<>();
+        String s = packet.payload();
+        int[] pos = new int[1];
+        while (pos[0] < s.length()) {
+            String name = nextPacked(s, pos);
+            StringPacket field = new StringPacket();
+            field.meta("name", name);
+            decodeArchiveEntryName(field, name);
+            field.payload(nextPacked(s, pos));
+            packets.add(field);
+        }
+        return packets;
+    }
+
+    private static String nextPacked(String s, int[] pos) throws IOException {
+        int start = pos[0];
+        int colon = s.indexOf(':', start);
+        int len;
+        try {
+            len = colon > start ? Integer.parseInt(s.substring(start, colon)) : -1;
+        } catch (NumberFormatException e) {
+            len = -1;
+        }
+        if (len < 0 || len > s.length() - colon - 1) {
+            throw new IOException("corrupt packed entry at position " + start);
+        }
+        pos[0] = colon + 1 + len;
+        return s.substring(colon + 1, pos[0]);
+    }
+
+    /**
+     * Split "str" into tokens by a separator, empty tokens are dropped.
+     */
+    private static String[] split(String str, char separator) {
+        int len = str.length();
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            if (str.charAt(i) != separator && (i == 0 || str.charAt(i - 1) == separator)) {
+                n++;
+            }
+        }
         String[] list = new String[n];
-        for (int i = 0; i < n; i++) {
-            list[i] = tokenizer.nextToken();
+        int pos = 0;
+        int k = 0;
+        while (k < n) {
+            while (str.charAt(pos) == separator) {
+                pos++;
+            }
+            int next = str.indexOf(separator, pos);
+            if (next < 0) {
+                next = len;
+            }
+            list[k++] = str.substring(pos, next);
+            pos = next;
         }
         return list;
     }
@@ -361,6 +520,41 @@ public class ArchiveUtils {
         if (s == null || s.isEmpty()) {
             return null;
         }
+        if (!UTF8.equals(encoding) || s.indexOf('#') >= 0) {
+            return decodeCharset(s, encoding);
+        }
+        int length = s.length();
+        int i = 0;
+        char ch;
+        while (i < length && (ch = s.charAt(i)) != '%' && ch != '+' && ch < 0x80) {
+            i++;
+        }
+        if (i == length) {
+            // nothing escaped, the ASCII name is the decoded name
+            return s;
+        }
+        byte[] b = codecs.get().bytes(length);
+        int n = 0;
+        for (i = 0; i < length; i++) {
+            ch = s.charAt(i);
+            if (ch == '+') {
+                b[n++] = ' ';
+            } else if (ch == '%') {
+                int hi = i + 2 < length ? Character.digit(s.charAt(i + 1), 16) : -1;
+                int lo = hi >= 0 ? Character.digit(s.charAt(i + 2), 16) : -1;
+                if (lo < 0) {
+                    return decodeCharset(s, encoding);
+                }
+                b[n++] = (byte) ((hi << 4) | lo);
+                i += 2;
+            } else {
+                b[n++] = ch <= 0xff ? (byte) ch : (byte) '?';
+            }
+        }
+        return new String(b, 0, n, UTF8);
+    }
+
+    private static String decodeCharset(String s, Charset encoding) {
         StringBuilder sb = new StringBuilder();
         boolean fragment = false;
         for (int i = 0; i < s.length(); i++) {
@@ -422,6 +616,64 @@ public class ArchiveUtils {
         if (s == null || s.isEmpty()) {
             return null;
         }
+        if (!UTF8.equals(encoding)) {
+            return encodeCharset(s, encoding);
+        }
+        int length = s.length();
+        int i = 0;
+        while (i < length && isSafe(s.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return s;
+        }
+        Codec codec = codecs.get();
+        StringBuilder sb = codec.builder();
+        appendEncoded(sb, s, codec);
+        return sb.toString();
+    }
+
+    /**
+     * Append the UTF-8 URI escaping of a string, or "null" for a missing or empty string.
+     * Unsafe ASCII characters are escaped directly, runs of other characters are
+     * encoded by the UTF-8 encoder of the thread.
+     */
+    private static void appendEncoded(StringBuilder sb, String s, Codec codec) {
+        if (s == null || s.isEmpty()) {
+            sb.append(EMPTY);
+            return;
+        }
+        int length = s.length();
+        int i = 0;
+        while (i < length) {
+            char c = s.charAt(i);
+            if (isSafe(c)) {
+                sb.append(c);
+                i++;
+            } else if (c == ' ') {
+                sb.append('+');
+                i++;
+            } else if (c < 0x80) {
+                appendHex(sb, c);
+                i++;
+            } else {
+                int start = i;
+                while (i < length && s.charAt(i) >= 0x80) {
+                    i++;
+                }
+                ByteBuffer bb = codec.encode(s, start, i);
+                while (bb.hasRemaining()) {
+                    appendHex(sb, bb.get());
+                }
+            }
+        }
+    }
+
+    private static void appendHex(StringBuilder sb, int b) {
+        sb.append('%').append(hex.charAt((b & 0xf0) >> 4)).append(hex.charAt(b & 0x0f));
+    }
+
+    private static String encodeCharset(String s, Charset encoding) {
         int length = s.length();
         int start = 0;
         int i = 0;
@@ -478,4 +730,87 @@ public class ArchiveUtils {
 
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
+    private static final ThreadLocal<Codec> codecs = new ThreadLocal<Codec>() {
+        @Override
+        protected Codec initialValue() {
+            return new Codec();
+        }
+    };
+
+    /**
+     * The reusable buffers and the UTF-8 encoder of a thread for encoding and decoding entry names,
+     * and the encoded index and type of the last entry name.
+     */
+    private static class Codec {
+
+        private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+        private final CharsetEncoder encoder;
+
+        private StringBuilder builder;
+
+        private ByteBuffer encoded;
+
+        private byte[] decoded;
+
+        private String index;
+
+        private String type;
+
+        private String prefix;
+
+        Codec() {
+            // same replacement as String.getBytes()
+            this.encoder = UTF8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.builder = new StringBuilder(256);
+            this.encoded = ByteBuffer.allocate(256);
+            this.decoded = new byte[256];
+        }
+
+        StringBuilder builder() {
+            if (builder.capacity() > MAX_BUFFER_SIZE) {
+                builder = new StringBuilder(256);
+            }
+            builder.setLength(0);
+            return builder;
+        }
+
+        byte[] bytes(int length) {
+            if (decoded.length < length) {
+                decoded = new byte[length];
+            }
+            return decoded;
+        }
+
+        ByteBuffer encode(String s, int start, int end) {
+            int max = (int) ((end - start) * encoder.maxBytesPerChar()) + 1;
+            if (encoded.capacity() < max) {
+                encoded = ByteBuffer.allocate(max);
+            }
+            encoded.clear();
+            encoder.reset();
+            encoder.encode(CharBuffer.wrap(s, start, end), encoded, true);
+            encoder.flush(encoded);
+            encoded.flip();
+            return encoded;
+        }
+
+        void appendPrefix(StringBuilder sb, Object index, Object type) {
+            String i = index != null ? index.toString() : EMPTY;
+            String t = type != null ? type.toString() : EMPTY;
+            if (!i.equals(this.index) || !t.equals(this.type)) {
+                StringBuilder b = new StringBuilder();
+                appendEncoded(b, i, this);
+                b.append(File.separatorChar);
+                appendEncoded(b, t, this);
+                this.prefix = b.toString();
+                this.index = i;
+                this.type = t;
+            }
+            sb.append(prefix);
+        }
+    }
+
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A write-behind session. Packets are enqueued into a bounded buffer, and a dedicated
+ * writer thread owns the archive output stream: entry name encoding, archive headers,
+ * compression and file I/O run on the writer thread. Producers block only if the buffer is full.
+ * A failure of the writer thread is thrown to the producer at the next write or at close.
+ * The writer thread drains the buffer and writes the packets as batches.
+ * Reading is passed through to the underlying session.
+ */
+public class AsyncArchiveSession implements Session<StringPacket> {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(AsyncArchiveSession.class.getSimpleName());
+
+    private final static StringPacket EOF = new StringPacket();
+
+    private final static int MAX_BATCH_SIZE = 256;
+
+    private final ArchiveSession<?, ?> session;
+
+    private final BlockingQueue<StringPacket> queue;
+
+    private Thread writer;
+
+    private volatile Throwable failure;
+
+    /**
+     * Create a write-behind session.
+     *
+     * @param session  the archive session that is written by the writer thread
+     * @param capacity the number of packets the buffer can hold
+     */
+    public AsyncArchiveSession(ArchiveSession<?, ?> session, int capacity) {
+        this.session = session;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public ArchiveSession<?, ?> getSession() {
+        return session;
+    }
+
+    @Override
+    public synchronized void open(EnumSet<Mode> mode, Path path) throws IOException {
+        session.open(mode, path);
+        if (writer == null && (mode.contains(Mode.WRITE) || mode.contains(Mode.OVERWRITE))) {
+            writer = new Thread(new Writer(), "knapsack-writer-" + path.getFileName());
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    @Override
+    public StringPacket newPacket() {
+        return session.newPacket();
+    }
+
+    @Override
+    public StringPacket read() throws IOException {
+        return session.read();
+    }
+
+    @Override
+    public List<StringPacket> readBatch(int max) throws IOException {
+        return session.readBatch(max);
+    }
+
+    @Override
+    public void write(StringPacket packet) throws IOException {
+        if (writer == null) {
+            session.write(packet);
+            return;
+        }
+        if (packet == null || !packet.hasPayload()) {
+            throw new IOException("no payload to write for entry");
+        }
+        enqueue(packet);
+    }
+
+    @Override
+    public void writeBatch(List<StringPacket> packets) throws IOException {
+        if (writer == null) {
+            session.writeBatch(packets);
+            return;
+        }
+        for (StringPacket packet : packets) {
+            if (packet == null || !packet.hasPayload()) {
+                throw new IOException("no payload to write for entry");
+            }
+        }
+        for (StringPacket packet : packets) {
+            enqueue(packet);
+        }
+    }
+
+    /**
+     * Close the session. The writer thread writes the buffered packets and ends. If this thread is
+     * interrupted, for example by an abort, the writer thread is interrupted too, and the session is
+     * closed after the writer thread has ended. The interrupt status of this thread is kept.
+     *
+     * @throws IOException if the writer thread failed, or if this thread was interrupted
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        boolean interrupted = false;
+        if (writer != null) {
+            try {
+                try {
+                    enqueue(EOF);
+                } catch (IOException e) {
+                    // writer failed, or we are interrupted: stop the writer, the failure is thrown below
+                    writer.interrupt();
+                }
+                interrupted = Thread.interrupted();
+                while (writer.isAlive()) {
+                    try {
+                        writer.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        writer.interrupt();
+                    }
+                }
+            } finally {
+                writer = null;
+            }
+        }
+        try {
+            session.close();
+            if (interrupted) {
+                throw new InterruptedIOException("interrupted while closing write-behind session");
+            }
+            checkFailure();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return session.isOpen();
+    }
+
+    private void enqueue(StringPacket packet) throws IOException {
+        try {
+            while (!queue.offer(packet, 100L, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for write buffer");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t != null) {
+            throw t instanceof IOException ? (IOException) t : new IOException(t);
+        }
+    }
+
+    private class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                List<StringPacket> batch = new ArrayList<>(MAX_BATCH_SIZE);
+                boolean eof = false;
+                while (!eof) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                    int i = batch.indexOf(EOF);
+                    if (i >= 0) {
+                        batch = batch.subList(0, i);
+                        eof = true;
+                    }
+                    session.writeBatch(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                failure = new InterruptedIOException("writer thread interrupted");
+                queue.clear();
+            } catch (Throwable t) {
+                logger.error(t.getMessage(), t);
+                failure = t;
+                queue.clear();
+            }
+        }
+    }
+}
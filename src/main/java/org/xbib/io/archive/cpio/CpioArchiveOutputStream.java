@@ -19,9 +19,11 @@ import org.xbib.io.CountingOutputStream;
 import org.xbib.io.archive.ArchiveOutputStream;
 import org.xbib.io.archive.ArchiveUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * CPIOArchiveOutputStream is a stream for writing CPIO streams. All formats of
@@ -49,6 +51,10 @@ import java.util.HashMap;
  * </code>
  * <p>
  * Note: This implementation should be compatible to cpio 2.5
+ * <p>
+ * Headers are assembled in a buffer and written at once. The entries of a batch,
+ * written by {@link #writeEntries(List, List)}, are assembled together with their
+ * contents and paddings.
  */
 public class CpioArchiveOutputStream extends ArchiveOutputStream<CpioArchiveEntry> implements CpioConstants {
 
@@ -72,6 +78,14 @@ public class CpioArchiveOutputStream extends ArchiveOutputStream<CpioArchiveEntr
 
     private final CountingOutputStream out;
 
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+
+    private boolean batch;
+
+    private final static int BATCH_BUFFER_SIZE = 64 * 1024;
+
+    private final static byte[] DIGITS = ArchiveUtils.toAsciiBytes("0123456789abcdef");
+
     /**
      * Construct the cpio output stream. The format for this CPIO stream is the
      * "new" format
@@ -165,22 +179,58 @@ public class CpioArchiveOutputStream extends ArchiveOutputStream<CpioArchiveEntr
             throw new IOException("duplicate entry: " + entry.getName());
         }
         writeHeader(entry);
+        if (!batch) {
+            flushBuffer();
+        }
         this.entry = entry;
         this.written = 0;
     }
 
+    /**
+     * Writes a batch of entries. The headers, contents and paddings are assembled in the
+     * header buffer, which is written when it is full and at the end of the batch.
+     *
+     * @param entries  the entries, with the entry sizes set
+     * @param contents the contents of the entries
+     * @throws java.io.IOException if an I/O error has occurred or if a CPIO file error has occurred
+     */
+    @Override
+    public void writeEntries(List<CpioArchiveEntry> entries, List<byte[]> contents) throws IOException {
+        batch = true;
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                putArchiveEntry(entries.get(i));
+                write(contents.get(i));
+                closeArchiveEntry();
+                if (buffer.size() >= BATCH_BUFFER_SIZE) {
+                    flushBuffer();
+                }
+            }
+            flushBuffer();
+        } finally {
+            batch = false;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (buffer.size() > 0) {
+            buffer.writeTo(out);
+            buffer.reset();
+        }
+    }
+
     private void writeHeader(final CpioArchiveEntry e) throws IOException {
         switch (e.getFormat()) {
             case FORMAT_NEW:
-                out.write(ArchiveUtils.toAsciiBytes(MAGIC_NEW));
+                buffer.write(ArchiveUtils.toAsciiBytes(MAGIC_NEW));
                 writeNewEntry(e);
                 break;
             case FORMAT_NEW_CRC:
-                out.write(ArchiveUtils.toAsciiBytes(MAGIC_NEW_CRC));
+                buffer.write(ArchiveUtils.toAsciiBytes(MAGIC_NEW_CRC));
                 writeNewEntry(e);
                 break;
             case FORMAT_OLD_ASCII:
-                out.write(ArchiveUtils.toAsciiBytes(MAGIC_OLD_ASCII));
+                buffer.write(ArchiveUtils.toAsciiBytes(MAGIC_OLD_ASCII));
                 writeOldAsciiEntry(e);
                 break;
             case FORMAT_OLD_BINARY:
@@ -297,6 +347,9 @@ public class CpioArchiveOutputStream extends ArchiveOutputStream<CpioArchiveEntr
                     + this.entry.getEntrySize() + " but got " + this.written + " bytes)");
         }
         pad(this.entry.getDataPadCount());
+        if (!batch) {
+            flushBuffer();
+        }
         if (this.entry.getFormat() == FORMAT_NEW_CRC && this.crc != this.entry.getChksum()) {
             throw new IOException("CRC Error");
         }
@@ -329,7 +382,12 @@ public class CpioArchiveOutputStream extends ArchiveOutputStream<CpioArchiveEntr
         if (this.written + len > this.entry.getEntrySize()) {
             throw new IOException("attempt to write past end of STORED entry");
         }
-        out.write(b, off, len);
+        if (batch && len < BATCH_BUFFER_SIZE) {
+            buffer.write(b, off, len);
+        } else {
+            flushBuffer();
+            out.write(b, off, len);
+        }
         this.written += len;
         if (this.entry.getFormat() == FORMAT_NEW_CRC) {
             for (int pos = 0; pos < len; pos++) {
@@ -364,6 +422,7 @@ public class CpioArchiveOutputStream extends ArchiveOutputStream<CpioArchiveEntr
         int lengthOfLastBlock = (int) (out.getBytesWritten() % blockSize);
         if (lengthOfLastBlock != 0) {
             pad(blockSize - lengthOfLastBlock);
+            flushBuffer();
         }
         finished = true;
     }
@@ -386,30 +445,29 @@ public class CpioArchiveOutputStream extends ArchiveOutputStream<CpioArchiveEntr
     }
 
     private void pad(int count) throws IOException {
-        if (count > 0) {
-            byte buff[] = new byte[count];
-            out.write(buff);
+        for (int i = 0; i < count; i++) {
+            buffer.write(0);
         }
     }
 
     private void writeBinaryLong(final long number, final int length,
                                  final boolean swapHalfWord) throws IOException {
         byte tmp[] = CpioUtil.long2byteArray(number, length, swapHalfWord);
-        out.write(tmp);
+        buffer.write(tmp);
     }
 
     private void writeAsciiLong(final long number, final int length,
                                 final int radix) throws IOException {
-        StringBuilder tmp = new StringBuilder();
-        String tmpStr;
-        if (radix == 16) {
-            tmp.append(Long.toHexString(number));
-        } else if (radix == 8) {
-            tmp.append(Long.toOctalString(number));
-        } else {
-            tmp.append(Long.toString(number));
+        if (radix == 16 || radix == 8) {
+            // the last digits of the unsigned number, padded with zeros
+            int shift = radix == 16 ? 4 : 3;
+            for (int i = length - 1; i >= 0; i--) {
+                buffer.write(DIGITS[(int) ((number >>> (i * shift)) & (radix - 1))]);
+            }
+            return;
         }
-
+        StringBuilder tmp = new StringBuilder(Long.toString(number));
+        String tmpStr;
         if (tmp.length() <= length) {
             long insertLength = length - tmp.length();
             for (int pos = 0; pos < insertLength; pos++) {
@@ -420,7 +478,7 @@ public class CpioArchiveOutputStream extends ArchiveOutputStream<CpioArchiveEntr
             tmpStr = tmp.substring(tmp.length() - length);
         }
         byte[] b = ArchiveUtils.toAsciiBytes(tmpStr);
-        out.write(b);
+        buffer.write(b);
     }
 
     /**
@@ -431,8 +489,8 @@ public class CpioArchiveOutputStream extends ArchiveOutputStream<CpioArchiveEntr
      */
     private void writeCString(final String str) throws IOException {
         byte[] b = ArchiveUtils.toAsciiBytes(str);
-        out.write(b);
-        out.write('\0');
+        buffer.write(b);
+        buffer.write('\0');
     }
 
 }
@@ -17,4 +17,9 @@ public class CpioSession extends ArchiveSession<CpioArchiveInputStream, CpioArch
         return CpioArchiveCodec.NAME;
     }
 
+    @Override
+    protected boolean isMemoryMappable() {
+        return true;
+    }
+
 }
@@ -195,6 +195,17 @@ public abstract class ArchiveEntryEncodingHelper {
      */
     public static final ArchiveEntryEncoding UTF8_ENCODING = new FallbackArchiveEntryEncoding(UTF8);
 
+    /**
+     * Check if an encoding writes the characters below 128 as single bytes of the same value,
+     * so pure ASCII names can be copied into headers without encoding them.
+     *
+     * @param encoding the encoding
+     * @return true if ASCII names are encoded as ASCII bytes
+     */
+    public static boolean isAsciiCompatible(ArchiveEntryEncoding encoding) {
+        return encoding == UTF8_ENCODING || encoding instanceof Simple8BitArchiveEntryEncoding;
+    }
+
     /**
      * Instantiates an encoding.
      *
@@ -0,0 +1,438 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.esbulk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * An action line of the Elasticsearch bulk format, parsed from bytes. The parser reads the
+ * single object of action metadata and nothing else, so it does not need a JSON library.
+ * Unknown metadata keys are skipped. The offsets of the index and type names are kept, so the action
+ * line can be written for another index or type without parsing it again.
+ */
+public class EsBulkAction {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static byte[] HEX = "0123456789abcdef".getBytes(UTF8);
+
+    public final static String INDEX = "index";
+
+    public final static String CREATE = "create";
+
+    public final static String DELETE = "delete";
+
+    public final static String UPDATE = "update";
+
+    private String action;
+
+    private String index;
+
+    private String type;
+
+    private String id;
+
+    private String routing;
+
+    private String parent;
+
+    private String version;
+
+    private String mappedIndex;
+
+    private String mappedType;
+
+    private int indexStart;
+
+    private int indexEnd;
+
+    private int typeStart;
+
+    private int typeEnd;
+
+    private byte[] b;
+
+    private int start;
+
+    private int pos;
+
+    private int end;
+
+    /**
+     * Parse an action line. The action object is reused for each line, and the buffer
+     * must not change until the action line is written.
+     *
+     * @param b     the buffer
+     * @param start the start of the line
+     * @param end   the end of the line, without the line feed
+     * @return this action
+     * @throws IOException if the line is not a bulk action
+     */
+    public EsBulkAction parse(byte[] b, int start, int end) throws IOException {
+        this.b = b;
+        this.start = start;
+        this.pos = start;
+        this.end = end;
+        action = null;
+        index = null;
+        type = null;
+        id = null;
+        routing = null;
+        parent = null;
+        version = null;
+        mappedIndex = null;
+        mappedType = null;
+        indexStart = -1;
+        indexEnd = -1;
+        typeStart = -1;
+        typeEnd = -1;
+        expect('{');
+        action = string();
+        expect(':');
+        expect('{');
+        if (peek() != '}') {
+            do {
+                String key = string();
+                expect(':');
+                int valueStart = skipWhitespace();
+                switch (key) {
+                    case "_index":
+                        index = string();
+                        indexStart = valueStart;
+                        indexEnd = pos;
+                        break;
+                    case "_type":
+                        type = string();
+                        typeStart = valueStart;
+                        typeEnd = pos;
+                        break;
+                    case "_id":
+                        id = value();
+                        break;
+                    case "_routing":
+                    case "routing":
+                        routing = value();
+                        break;
+                    case "_parent":
+                    case "parent":
+                        parent = value();
+                        break;
+                    case "_version":
+                    case "version":
+                        version = value();
+                        break;
+                    default:
+                        skipValue();
+                        break;
+                }
+            } while (next(',', '}') == ',');
+        }
+        expect('}');
+        expect('}');
+        if (skipWhitespace() < end) {
+            throw error("trailing characters");
+        }
+        return this;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * Check if the action is followed by a source line. Only delete actions have no source.
+     *
+     * @return true if a source line follows
+     */
+    public boolean hasSource() {
+        return !DELETE.equals(action);
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getRouting() {
+        return routing;
+    }
+
+    public String getParent() {
+        return parent;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Write the action line for another index or type.
+     *
+     * @param index the index name, or null for the index of the action
+     * @param type  the type name, or null for the type of the action
+     */
+    public void mapTo(String index, String type) {
+        this.mappedIndex = index != null && !index.equals(this.index) ? index : null;
+        this.mappedType = type != null && !type.equals(this.type) ? type : null;
+    }
+
+    /**
+     * Write the action line, with the index and type given by {@link #mapTo(String, String)}.
+     * Only the names are replaced, the bytes of the other action metadata are written as they were read.
+     *
+     * @param out the output stream
+     * @throws IOException if the line can not be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (mappedIndex == null && mappedType == null) {
+            out.write(b, start, end - start);
+            return;
+        }
+        // the replaced names in the order of their offsets
+        boolean indexFirst = typeStart < 0 || indexStart < typeStart;
+        int p = start;
+        p = replace(out, p, indexFirst ? indexStart : typeStart, indexFirst ? indexEnd : typeEnd,
+                indexFirst ? mappedIndex : mappedType);
+        p = replace(out, p, indexFirst ? typeStart : indexStart, indexFirst ? typeEnd : indexEnd,
+                indexFirst ? mappedType : mappedIndex);
+        out.write(b, p, end - p);
+    }
+
+    private int replace(OutputStream out, int p, int from, int to, String value) throws IOException {
+        if (value == null || from < 0) {
+            return p;
+        }
+        out.write(b, p, from - p);
+        writeString(out, value);
+        return to;
+    }
+
+    /**
+     * Write a JSON string with quotes.
+     *
+     * @param out the output stream
+     * @param s   the string
+     * @throws IOException if the string can not be written
+     */
+    public static void writeString(OutputStream out, String s) throws IOException {
+        out.write('"');
+        int len = s.length();
+        int from = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            if (i > from) {
+                out.write(s.substring(from, i).getBytes(UTF8));
+            }
+            out.write('\\');
+            switch (c) {
+                case '"':
+                case '\\':
+                    out.write(c);
+                    break;
+                case '\n':
+                    out.write('n');
+                    break;
+                case '\r':
+                    out.write('r');
+                    break;
+                case '\t':
+                    out.write('t');
+                    break;
+                default:
+                    out.write('u');
+                    out.write(HEX[0]);
+                    out.write(HEX[0]);
+                    out.write(HEX[c >> 4]);
+                    out.write(HEX[c & 0xf]);
+                    break;
+            }
+            from = i + 1;
+        }
+        if (from == 0) {
+            out.write(s.getBytes(UTF8));
+        } else if (from < len) {
+            out.write(s.substring(from).getBytes(UTF8));
+        }
+        out.write('"');
+    }
+
+    private int skipWhitespace() {
+        while (pos < end && (b[pos] == ' ' || b[pos] == '\t' || b[pos] == '\r' || b[pos] == '\n')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private byte peek() throws IOException {
+        if (skipWhitespace() >= end) {
+            throw error("unexpected end of line");
+        }
+        return b[pos];
+    }
+
+    private void expect(char c) throws IOException {
+        if (peek() != c) {
+            throw error("expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private byte next(char c1, char c2) throws IOException {
+        byte c = peek();
+        if (c != c1 && c != c2) {
+            throw error("expected '" + c1 + "' or '" + c2 + "'");
+        }
+        if (c == c1) {
+            pos++;
+        }
+        return c;
+    }
+
+    /**
+     * A string or a scalar value, as string. Numeric ids and versions are not quoted.
+     */
+    private String value() throws IOException {
+        if (peek() == '"') {
+            return string();
+        }
+        int from = pos;
+        while (pos < end && b[pos] != ',' && b[pos] != '}' && b[pos] != ' ' && b[pos] != '\t') {
+            pos++;
+        }
+        if (pos == from) {
+            throw error("missing value");
+        }
+        String s = new String(b, from, pos - from, UTF8);
+        return "null".equals(s) ? null : s;
+    }
+
+    private String string() throws IOException {
+        expect('"');
+        int from = pos;
+        while (pos < end && b[pos] != '"' && b[pos] != '\\') {
+            pos++;
+        }
+        if (pos >= end) {
+            throw error("unterminated string");
+        }
+        if (b[pos] == '"') {
+            // no escapes, the common case
+            return new String(b, from, pos++ - from, UTF8);
+        }
+        StringBuilder sb = new StringBuilder(new String(b, from, pos - from, UTF8));
+        int chunk = pos;
+        while (pos < end && b[pos] != '"') {
+            if (b[pos] != '\\') {
+                pos++;
+                continue;
+            }
+            sb.append(new String(b, chunk, pos - chunk, UTF8));
+            if (++pos >= end) {
+                break;
+            }
+            byte c = b[pos++];
+            switch (c) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > end) {
+                        throw error("invalid unicode escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(new String(b, pos, 4, UTF8), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("invalid unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    // quote, backslash, slash
+                    sb.append((char) c);
+                    break;
+            }
+            chunk = pos;
+        }
+        if (pos >= end) {
+            throw error("unterminated string");
+        }
+        sb.append(new String(b, chunk, pos++ - chunk, UTF8));
+        return sb.toString();
+    }
+
+    private void skipValue() throws IOException {
+        byte c = peek();
+        if (c == '"') {
+            string();
+            return;
+        }
+        if (c != '{' && c != '[') {
+            value();
+            return;
+        }
+        int depth = 0;
+        while (pos < end) {
+            c = b[pos];
+            if (c == '"') {
+                string();
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (--depth == 0) {
+                    pos++;
+                    return;
+                }
+            }
+            pos++;
+        }
+        throw error("unterminated value");
+    }
+
+    private IOException error(String message) {
+        return new IOException("invalid bulk action line at column " + (pos - start) + ": " + message);
+    }
+
+    @Override
+    public String toString() {
+        return action + "[" + index + "/" + type + "/" + id + "]";
+    }
+}
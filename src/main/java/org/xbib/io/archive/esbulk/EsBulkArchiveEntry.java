@@ -25,6 +25,14 @@ public class EsBulkArchiveEntry implements ArchiveEntry {
 
     private long size;
 
+    private String index;
+
+    private String type;
+
+    private String id;
+
+    private String field;
+
     public EsBulkArchiveEntry() {
     }
 
@@ -60,6 +68,39 @@ public class EsBulkArchiveEntry implements ArchiveEntry {
         return null;
     }
 
+    /**
+     * Set the document of the entry, so the bulk writer does not decode the entry name.
+     *
+     * @param index the index
+     * @param type  the type
+     * @param id    the id
+     * @param field the field, or null for the source
+     * @return this entry
+     */
+    public EsBulkArchiveEntry setDocument(String index, String type, String id, String field) {
+        this.index = index;
+        this.type = type;
+        this.id = id;
+        this.field = field;
+        return this;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getField() {
+        return field;
+    }
+
     @Override
     public boolean isDirectory() {
         return false;
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.esbulk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits an uncompressed bulk file into byte ranges that can be read in parallel. Each range starts
+ * at an action line, so action and source lines are never separated.
+ *
+ * A split offset is moved to the start of the next line that parses as a bulk action, and whose
+ * source line, if any, is followed by another action line or by the end of the file.
+ * A source line that looks like two bulk actions is not recognized.
+ */
+public class EsBulkArchiveFile {
+
+    /**
+     * Lines longer than this are never action lines
+     */
+    private final static int MAX_ACTION_LENGTH = 64 * 1024;
+
+    private final static int CHUNK_SIZE = 8192;
+
+    private final Path path;
+
+    private final EsBulkAction action;
+
+    private FileChannel channel;
+
+    private long size;
+
+    public EsBulkArchiveFile(Path path) {
+        this.path = path;
+        this.action = new EsBulkAction();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Split the file into ranges of about the same size.
+     *
+     * @param n the number of ranges
+     * @return the ranges, at most n, in file order
+     * @throws IOException if the file can not be read
+     */
+    public List<Range> split(int n) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.channel = channel;
+            this.size = channel.size();
+            List<Range> ranges = new ArrayList<>();
+            long start = 0L;
+            for (int i = 1; i <= n && start < size; i++) {
+                long end = i < n ? align(size / n * i) : size;
+                if (end > start) {
+                    ranges.add(new Range(start, end));
+                    start = end;
+                }
+            }
+            return ranges;
+        } finally {
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Find the start of the first action line at or after an offset.
+     */
+    private long align(long offset) throws IOException {
+        long p = offset > 0L ? nextLine(offset - 1) : 0L;
+        while (p < size) {
+            if (isActionAt(p)) {
+                // the line after the action, or after its source, must be an action too
+                long q = nextLine(p);
+                if (action.hasSource()) {
+                    q = nextLine(q);
+                }
+                q = skipEmptyLines(q);
+                if (q >= size || isActionAt(q)) {
+                    return p;
+                }
+            }
+            p = nextLine(p);
+        }
+        return size;
+    }
+
+    private long skipEmptyLines(long p) throws IOException {
+        while (p < size) {
+            byte[] b = line(p, 2);
+            if (b == null || (b.length > 0 && !(b.length == 1 && b[0] == '\r'))) {
+                return p;
+            }
+            p = nextLine(p);
+        }
+        return p;
+    }
+
+    private boolean isActionAt(long p) throws IOException {
+        byte[] b = line(p, MAX_ACTION_LENGTH);
+        if (b == null) {
+            return false;
+        }
+        try {
+            action.parse(b, 0, b.length);
+        } catch (IOException e) {
+            return false;
+        }
+        String name = action.getAction();
+        return EsBulkAction.INDEX.equals(name) || EsBulkAction.CREATE.equals(name)
+                || EsBulkAction.DELETE.equals(name) || EsBulkAction.UPDATE.equals(name);
+    }
+
+    /**
+     * The offset after the line feed at or after an offset, or the file size.
+     */
+    private long nextLine(long p) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        while (p < size) {
+            buffer.clear();
+            int n = channel.read(buffer, p);
+            if (n <= 0) {
+                break;
+            }
+            byte[] b = buffer.array();
+            for (int i = 0; i < n; i++) {
+                if (b[i] == '\n') {
+                    return p + i + 1;
+                }
+            }
+            p += n;
+        }
+        return size;
+    }
+
+    /**
+     * The line at an offset, without line feed, or null if the line is longer than the maximum length.
+     */
+    private byte[] line(long p, int max) throws IOException {
+        int len = (int) Math.min(max + 1L, size - p);
+        ByteBuffer buffer = ByteBuffer.allocate(len);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, p + buffer.position()) <= 0) {
+                break;
+            }
+        }
+        byte[] b = buffer.array();
+        int n = buffer.position();
+        for (int i = 0; i < n; i++) {
+            if (b[i] == '\n') {
+                return Arrays.copyOf(b, i > 0 && b[i - 1] == '\r' ? i - 1 : i);
+            }
+        }
+        return n <= max ? Arrays.copyOf(b, n) : null;
+    }
+
+    /**
+     * A byte range of the bulk file.
+     */
+    public static class Range {
+
+        private final long start;
+
+        private final long end;
+
+        Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + start + "," + end + "]";
+        }
+    }
+}
@@ -15,82 +15,289 @@
  */
 package org.xbib.io.archive.esbulk;
 
+import org.xbib.io.BufferPool;
 import org.xbib.io.archive.ArchiveInputStream;
 import org.xbib.io.archive.ArchiveUtils;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
+/**
+ * Reads Elasticsearch bulk files. Lines are scanned for line feeds in a pooled buffer, action lines
+ * are parsed from bytes, and source lines are read from the buffer without copy.
+ * An action is read as an entry for the source, followed by entries for the fields
+ * _routing, _parent and _version of the action metadata, and _op_type for create actions.
+ * A delete action is read as an empty entry for the field _delete.
+ */
 public class EsBulkArchiveInputStream extends ArchiveInputStream<EsBulkArchiveEntry> {
 
-    private final static Pattern indexPattern = Pattern.compile("\"_index\"\\s*:\\s*\"(.*?)\"");
-    private final static Pattern typePattern = Pattern.compile("\"_type\"\\s*:\\s*\"(.*?)\"");
-    private final static Pattern idPattern = Pattern.compile("\"_id\"\\s*:\\s*\"(.*?)\"");
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final static byte[] EMPTY = new byte[0];
+
+    private final InputStream in;
+
+    private final BufferPool pool;
+
+    private final EsBulkAction action;
+
+    private final Deque<Field> fields;
+
+    private ByteBuffer buffer;
+
+    private byte[] buf;
+
+    private int pos;
+
+    private int limit;
+
+    private int lineEnd;
+
+    private boolean eof;
+
+    private byte[] data;
 
-    private final BufferedReader reader;
+    private int dataPos;
 
-    private ByteArrayInputStream in;
+    private int dataEnd;
 
-    public EsBulkArchiveInputStream(InputStream in) throws UnsupportedEncodingException {
-        this.reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+    public EsBulkArchiveInputStream(InputStream in) {
+        this(in, BufferPool.getInstance());
+    }
+
+    public EsBulkArchiveInputStream(InputStream in, BufferPool pool) {
+        this.in = in;
+        this.pool = pool;
+        this.action = new EsBulkAction();
+        this.fields = new ArrayDeque<>();
+        this.buffer = pool.acquire(BUFFER_SIZE, false);
+        this.buf = buffer.array();
     }
 
     @Override
     public EsBulkArchiveEntry getNextEntry() throws IOException {
-        String meta = reader.readLine();
-        if (meta == null) {
-            return null;
+        if (!fields.isEmpty()) {
+            Field field = fields.poll();
+            return newEntry(field.name, field.value, 0, field.value.length);
         }
-        String data = reader.readLine();
-        if (data == null) {
+        int start = nextLine();
+        if (start < 0) {
             return null;
         }
-        EsBulkArchiveEntry entry = new EsBulkArchiveEntry();
-        StringBuilder sb = new StringBuilder();
-        Matcher m = indexPattern.matcher(meta);
-        if (m.find()) {
-            sb.append(ArchiveUtils.encode(m.group(1), Charset.forName("UTF-8")));
-        } else {
+        action.parse(buf, start, lineEnd);
+        if (action.getIndex() == null) {
             throw new IOException("no _index found");
         }
-        m = typePattern.matcher(meta);
-        if (m.find()) {
-            sb.append('/').append(ArchiveUtils.encode(m.group(1), Charset.forName("UTF-8")));
-        } else {
+        if (action.getType() == null) {
             throw new IOException("no _type found");
         }
-        m = idPattern.matcher(meta);
-        if (m.find()) {
-            sb.append('/').append(ArchiveUtils.encode(m.group(1), Charset.forName("UTF-8")));
-        } else {
+        if (action.getId() == null) {
             throw new IOException("no _id found");
         }
-        entry.setName(sb.toString());
-        byte[] b = data.getBytes("UTF-8");
-        entry.setEntrySize(b.length);
-        this.in = new ByteArrayInputStream(b);
-        return entry;
+        if (EsBulkAction.UPDATE.equals(action.getAction())) {
+            throw new IOException("unsupported bulk action: " + action);
+        }
+        String document = ArchiveUtils.encode(action.getIndex(), UTF8) + File.separatorChar
+                + ArchiveUtils.encode(action.getType(), UTF8) + File.separatorChar
+                + ArchiveUtils.encode(action.getId(), UTF8);
+        addField(document, "_routing", action.getRouting());
+        addField(document, "_parent", action.getParent());
+        addField(document, "_version", action.getVersion());
+        if (!action.hasSource()) {
+            return newEntry(document + File.separatorChar + "_delete", EMPTY, 0, 0);
+        }
+        if (EsBulkAction.CREATE.equals(action.getAction())) {
+            addField(document, "_op_type", EsBulkAction.CREATE);
+        }
+        start = nextLine();
+        if (start < 0) {
+            // a truncated file
+            fields.clear();
+            return null;
+        }
+        return newEntry(document, buf, start, lineEnd);
+    }
+
+    /**
+     * Read a chunk of complete bulk actions, with their source lines, as raw bytes. Action lines
+     * are written as mapped by the action mapper, source lines are copied without parsing.
+     * The chunk ends after the action that reaches the maximum number of actions or bytes.
+     *
+     * @param out        the output stream for the chunk
+     * @param maxActions the maximum number of actions in the chunk
+     * @param maxBytes   the maximum number of bytes in the chunk
+     * @param mapper     the action mapper, or null for writing all actions as they are
+     * @return the number of actions in the chunk, 0 at the end of the stream
+     * @throws IOException if the stream can not be read or an action line is invalid
+     */
+    public int readActions(OutputStream out, int maxActions, long maxBytes, ActionMapper mapper) throws IOException {
+        int n = 0;
+        long bytes = 0L;
+        while (n < maxActions && bytes < maxBytes) {
+            int start = nextLine();
+            if (start < 0) {
+                break;
+            }
+            action.parse(buf, start, lineEnd);
+            boolean accepted = mapper == null || mapper.map(action);
+            if (accepted) {
+                // the action line is invalid after the next line is read
+                action.writeTo(out);
+                out.write('\n');
+                bytes += lineEnd - start + 1;
+                n++;
+            }
+            if (action.hasSource()) {
+                start = nextLine();
+                if (start < 0) {
+                    throw new IOException("no source line for bulk action " + action);
+                }
+                if (accepted) {
+                    out.write(buf, start, lineEnd - start);
+                    out.write('\n');
+                    bytes += lineEnd - start + 1;
+                }
+            }
+        }
+        return n;
     }
 
     @Override
     public int read(byte[] buffer, int start, int length) throws IOException {
-        return in.read(buffer, start, length);
+        if (dataPos >= dataEnd) {
+            return -1;
+        }
+        int n = Math.min(length, dataEnd - dataPos);
+        System.arraycopy(data, dataPos, buffer, start, n);
+        dataPos += n;
+        return n;
     }
 
     @Override
     public void close() throws IOException {
-        reader.close();
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+            buf = null;
+            data = null;
+        }
+        in.close();
     }
 
     @Override
     public long skip(long value) throws IOException {
         throw new UnsupportedOperationException();
     }
+
+    private EsBulkArchiveEntry newEntry(String name, byte[] b, int start, int end) {
+        EsBulkArchiveEntry entry = new EsBulkArchiveEntry();
+        entry.setName(name);
+        entry.setEntrySize(end - start);
+        data = b;
+        dataPos = start;
+        dataEnd = end;
+        return entry;
+    }
+
+    private void addField(String document, String field, String value) {
+        if (value != null) {
+            fields.add(new Field(document + File.separatorChar + field, value.getBytes(UTF8)));
+        }
+    }
+
+    /**
+     * Find the next non-empty line in the buffer, refilling the buffer if the line is incomplete.
+     * Lines returned before are invalid after this call.
+     *
+     * @return the start of the line, or -1 at the end of the stream. The end is in {@code lineEnd}.
+     * @throws IOException if the stream can not be read
+     */
+    private int nextLine() throws IOException {
+        while (true) {
+            int i = pos;
+            while (true) {
+                while (i < limit && buf[i] != '\n') {
+                    i++;
+                }
+                if (i < limit || eof) {
+                    break;
+                }
+                int scanned = i - pos;
+                fill();
+                i = pos + scanned;
+            }
+            if (pos >= limit) {
+                return -1;
+            }
+            int start = pos;
+            int end = i;
+            pos = i < limit ? i + 1 : limit;
+            if (end > start && buf[end - 1] == '\r') {
+                end--;
+            }
+            if (end > start) {
+                lineEnd = end;
+                return start;
+            }
+        }
+    }
+
+    /**
+     * Move the incomplete line to the start of the buffer, grow the buffer if the line fills it,
+     * and read more bytes.
+     */
+    private void fill() throws IOException {
+        int n = limit - pos;
+        if (pos == 0 && n == buf.length) {
+            ByteBuffer larger = pool.acquire(buf.length * 2, false);
+            System.arraycopy(buf, 0, larger.array(), 0, n);
+            pool.release(buffer);
+            buffer = larger;
+            buf = larger.array();
+        } else if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, n);
+        }
+        pos = 0;
+        limit = n;
+        int len = in.read(buf, limit, buf.length - limit);
+        if (len < 0) {
+            eof = true;
+        } else {
+            limit += len;
+        }
+    }
+
+    private static class Field {
+
+        private final String name;
+
+        private final byte[] value;
+
+        Field(String name, byte[] value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Selects and maps the actions of raw bulk chunks.
+     */
+    public interface ActionMapper {
+
+        /**
+         * Map an action to another index or type by {@link EsBulkAction#mapTo(String, String)}.
+         *
+         * @param action the action
+         * @return false to skip the action and its source line
+         */
+        boolean map(EsBulkAction action);
+    }
 }
@@ -15,23 +15,89 @@
  */
 package org.xbib.io.archive.esbulk;
 
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.xbib.io.StringPacket;
 import org.xbib.io.archive.ArchiveOutputStream;
 import org.xbib.io.archive.ArchiveUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Writes Elasticsearch bulk files. The entries of a document are collected until the next document
+ * starts, then the action line and the source line are written. The fields _routing, _parent,
+ * _timestamp, _ttl and _version are written into the action metadata, other fields are dropped,
+ * as stored fields are part of the source.
+ * The action line prefixes of index types are encoded once, and the document is assembled
+ * in a reusable buffer. The documents of a batch are collected in the buffer and written at once.
+ */
 public class EsBulkArchiveOutputStream extends ArchiveOutputStream<EsBulkArchiveEntry> {
 
+    private final static ESLogger logger = ESLoggerFactory.getLogger(EsBulkArchiveOutputStream.class.getSimpleName());
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static byte[] ID = bytes(",\"_id\":");
+
+    private final static byte[] ROUTING = bytes(",\"_routing\":");
+
+    private final static byte[] PARENT = bytes(",\"_parent\":");
+
+    private final static byte[] TIMESTAMP = bytes(",\"_timestamp\":");
+
+    private final static byte[] TTL = bytes(",\"_ttl\":");
+
+    private final static byte[] VERSION = bytes(",\"_version_type\":\"external\",\"_version\":");
+
+    private final static byte[] END = bytes("}}\n");
+
+    private final static int BATCH_BUFFER_SIZE = 256 * 1024;
+
     private final OutputStream out;
 
+    private final Map<String, Map<String, byte[]>> prefixes;
+
+    private final ByteArrayOutputStream buffer;
+
+    private final ByteArrayOutputStream source;
+
     private boolean closed = false;
 
     private boolean finished;
 
+    private boolean batch;
+
+    private String index;
+
+    private String type;
+
+    private String id;
+
+    private String field;
+
+    private boolean hasSource;
+
+    private String routing;
+
+    private String parent;
+
+    private String timestamp;
+
+    private String ttl;
+
+    private String version;
+
     public EsBulkArchiveOutputStream(OutputStream out) {
         this.out = out;
+        this.prefixes = new HashMap<>();
+        this.buffer = new ByteArrayOutputStream(8192);
+        this.source = new ByteArrayOutputStream(8192);
     }
 
     @Override
@@ -41,31 +107,100 @@ public class EsBulkArchiveOutputStream extends ArchiveOutputStream<EsBulkArchive
 
     @Override
     public void putArchiveEntry(EsBulkArchiveEntry entry) throws IOException {
-        StringPacket packet = new StringPacket();
-        ArchiveUtils.decodeArchiveEntryName(packet, entry.getName());
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\"index\":{\"_index\":\"").append(packet.meta().get(ArchiveUtils.keys[0]))
-                .append("\",\"_type\":\"").append(packet.meta().get(ArchiveUtils.keys[1]))
-                .append("\",\"_id\":\"").append(packet.meta().get(ArchiveUtils.keys[2]))
-                .append("\"}\n");
-        out.write(sb.toString().getBytes("UTF-8"));
+        String index = entry.getIndex();
+        String type = entry.getType();
+        String id = entry.getId();
+        String field = entry.getField();
+        if (index == null) {
+            // an entry without document, decode the name
+            StringPacket packet = new StringPacket();
+            ArchiveUtils.decodeArchiveEntryName(packet, entry.getName());
+            index = (String) packet.meta().get(ArchiveUtils.keys[0]);
+            type = (String) packet.meta().get(ArchiveUtils.keys[1]);
+            id = (String) packet.meta().get(ArchiveUtils.keys[2]);
+            field = (String) packet.meta().get(ArchiveUtils.keys[3]);
+            if ("null".equals(field)) {
+                // the name of an entry without field
+                field = null;
+            }
+        }
+        if (this.id != null && !(id.equals(this.id) && index.equals(this.index) && type.equals(this.type))) {
+            writeDocument();
+        }
+        this.index = index;
+        this.type = type;
+        this.id = id;
+        this.field = field != null ? field : "_source";
     }
 
     @Override
     public void write(byte[] buf, int offset, int size) throws IOException {
-        out.write(buf, offset, size);
-        out.write('\n');
+        writeField(buf, offset, size);
         getWatcher().updateBytesTransferred(size);
     }
 
+    private void writeField(byte[] buf, int offset, int size) {
+        switch (field) {
+            case "_source":
+                writeSource(buf, offset, size);
+                hasSource = true;
+                break;
+            case "_routing":
+                routing = new String(buf, offset, size, UTF8);
+                break;
+            case "_parent":
+                parent = new String(buf, offset, size, UTF8);
+                break;
+            case "_timestamp":
+                timestamp = new String(buf, offset, size, UTF8);
+                break;
+            case "_ttl":
+                ttl = new String(buf, offset, size, UTF8);
+                break;
+            case "_version":
+                // an invalid version must not break the bulk file in the middle of an export
+                String value = new String(buf, offset, size, UTF8).trim();
+                try {
+                    version = Long.toString(Long.parseLong(value));
+                } catch (NumberFormatException e) {
+                    logger.warn("skipping invalid _version {} of document {}", value, id);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
     @Override
     public void closeArchiveEntry() throws IOException {
-        // do nothing
+        // the document is written at the next document
+    }
+
+    @Override
+    public void writeEntries(List<EsBulkArchiveEntry> entries, List<byte[]> contents) throws IOException {
+        batch = true;
+        try {
+            long n = 0L;
+            for (int i = 0; i < entries.size(); i++) {
+                putArchiveEntry(entries.get(i));
+                byte[] b = contents.get(i);
+                writeField(b, 0, b.length);
+                n += b.length;
+            }
+            getWatcher().updateBytesTransferred(n);
+            flushBuffer();
+        } finally {
+            batch = false;
+        }
     }
 
     @Override
     public void finish() throws IOException {
-        // do nothing
+        if (id != null) {
+            writeDocument();
+        }
+        flushBuffer();
+        out.flush();
     }
 
     @Override
@@ -80,4 +215,90 @@ public class EsBulkArchiveOutputStream extends ArchiveOutputStream<EsBulkArchive
         }
     }
 
+    private void writeDocument() throws IOException {
+        if (hasSource) {
+            buffer.write(prefix(index, type));
+            buffer.write(ID);
+            EsBulkAction.writeString(buffer, id);
+            field(ROUTING, routing);
+            field(PARENT, parent);
+            field(TIMESTAMP, timestamp);
+            field(TTL, ttl);
+            if (version != null) {
+                buffer.write(VERSION);
+                buffer.write(bytes(version));
+            }
+            buffer.write(END);
+            source.writeTo(buffer);
+            buffer.write('\n');
+            if (!batch || buffer.size() >= BATCH_BUFFER_SIZE) {
+                flushBuffer();
+            }
+        }
+        source.reset();
+        hasSource = false;
+        id = null;
+        routing = null;
+        parent = null;
+        timestamp = null;
+        ttl = null;
+        version = null;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (buffer.size() > 0) {
+            buffer.writeTo(out);
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Append to the source line. Line feeds can only be whitespace in JSON, they are replaced by spaces
+     * so a pretty printed source does not break the bulk format.
+     */
+    private void writeSource(byte[] buf, int offset, int size) {
+        int end = offset + size;
+        int from = offset;
+        for (int i = offset; i < end; i++) {
+            if (buf[i] == '\n' || buf[i] == '\r') {
+                source.write(buf, from, i - from);
+                source.write(' ');
+                from = i + 1;
+            }
+        }
+        source.write(buf, from, end - from);
+    }
+
+    private void field(byte[] name, String value) throws IOException {
+        if (value != null) {
+            buffer.write(name);
+            EsBulkAction.writeString(buffer, value);
+        }
+    }
+
+    /**
+     * The encoded action line up to the id, for an index type.
+     */
+    private byte[] prefix(String index, String type) throws IOException {
+        Map<String, byte[]> types = prefixes.get(index);
+        if (types == null) {
+            types = new HashMap<>();
+            prefixes.put(index, types);
+        }
+        byte[] prefix = types.get(type);
+        if (prefix == null) {
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            b.write(bytes("{\"index\":{\"_index\":"));
+            EsBulkAction.writeString(b, index);
+            b.write(bytes(",\"_type\":"));
+            EsBulkAction.writeString(b, type);
+            prefix = b.toByteArray();
+            types.put(type, prefix);
+        }
+        return prefix;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(UTF8);
+    }
 }
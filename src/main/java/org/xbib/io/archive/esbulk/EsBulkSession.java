@@ -16,14 +16,50 @@
 package org.xbib.io.archive.esbulk;
 
 import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.StringPacket;
+import org.xbib.io.archive.ArchiveEntry;
 import org.xbib.io.archive.ArchiveSession;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 public class EsBulkSession extends ArchiveSession<EsBulkArchiveInputStream, EsBulkArchiveOutputStream> {
 
     protected EsBulkSession(BytesProgressWatcher watcher) {
         super(watcher);
     }
 
+    /**
+     * Bulk lines are written per document, a packed entry would be written as a single document.
+     */
+    @Override
+    protected boolean isPackable() {
+        return false;
+    }
+
+    /**
+     * Read a chunk of complete bulk actions, with their source lines, as raw bytes for a bulk request.
+     *
+     * @param out        the output stream for the chunk
+     * @param maxActions the maximum number of actions in the chunk
+     * @param maxBytes   the maximum number of bytes in the chunk
+     * @param mapper     the action mapper, or null for all actions
+     * @return the number of actions in the chunk, 0 at the end of the archive
+     * @throws IOException if the archive can not be read
+     */
+    public int readActions(OutputStream out, int maxActions, long maxBytes,
+                           EsBulkArchiveInputStream.ActionMapper mapper) throws IOException {
+        return getInputStream().readActions(out, maxActions, maxBytes, mapper);
+    }
+
+    @Override
+    protected void prepareEntry(ArchiveEntry entry, StringPacket packet) {
+        Object field = packet.meta().get("field");
+        ((EsBulkArchiveEntry) entry).setDocument((String) packet.meta().get("index"),
+                (String) packet.meta().get("type"), (String) packet.meta().get("id"),
+                field != null ? field.toString() : null);
+    }
+
     @Override
     protected String getName() {
         return EsBulkArchiveCodec.NAME;
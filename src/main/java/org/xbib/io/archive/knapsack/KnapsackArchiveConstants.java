@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.knapsack;
+
+/**
+ * Constants of the knapsack archive format.
+ *
+ * A knapsack archive starts with a header of the magic bytes and the format version, followed by blocks
+ * and a footer. A block has a header of the tag, the compression method, the compressed length, the
+ * uncompressed length, the number of records, and the CRC32 of the uncompressed data. The block data
+ * is a sequence of records, each with a length-prefixed entry name and length-prefixed entry data.
+ * Blocks are compressed independently and never split a document, so they can be decoded in any order.
+ *
+ * Blocks of an index may be compressed with a preset dictionary that is trained on the first documents
+ * of the index. A dictionary is stored in a dictionary block before the first block that uses it.
+ * Archives with dictionaries are written in format version 2, all other archives in format version 1.
+ *
+ * The footer holds the offsets of all blocks, and the block ranges and document counts of the index
+ * types in the archive. The archive ends with the offset of the footer and the magic number.
+ */
+public interface KnapsackArchiveConstants {
+
+    /**
+     * The magic number "KNAP" at the start and at the end of an archive
+     */
+    int MAGIC = 0x4b4e4150;
+
+    /**
+     * The format version of archives without dictionaries
+     */
+    int VERSION = 1;
+
+    /**
+     * The format version of archives with dictionary blocks
+     */
+    int DICTIONARY_VERSION = 2;
+
+    /**
+     * The length of the archive header, the magic number and the version
+     */
+    int HEADER_LEN = 5;
+
+    /**
+     * The tag of the footer
+     */
+    byte FOOTER = 0;
+
+    /**
+     * The tag of a block
+     */
+    byte BLOCK = 1;
+
+    /**
+     * The tag of a dictionary block. The data of a dictionary block is the stored dictionary,
+     * the records field of the block header is the dictionary ID.
+     */
+    byte DICTIONARY = 2;
+
+    /**
+     * The length of a block header: tag, method, compressed length, length, records, CRC32
+     */
+    int BLOCK_HEADER_LEN = 18;
+
+    /**
+     * The length of the archive trailer, the footer offset and the magic number
+     */
+    int TRAILER_LEN = 12;
+
+    /**
+     * Block data is stored uncompressed
+     */
+    byte STORED = 0;
+
+    /**
+     * Block data is compressed by raw deflate
+     */
+    byte DEFLATED = 8;
+
+    /**
+     * Block data is compressed by raw deflate with a preset dictionary. The compressed data
+     * starts with the dictionary ID as a varint.
+     */
+    byte DEFLATED_DICTIONARY = 9;
+
+    /**
+     * The block flag for blocks of index settings, mappings and aliases
+     */
+    byte METADATA = 1;
+
+    /**
+     * The block flag for dictionary blocks
+     */
+    byte DICTIONARY_BLOCK = 2;
+
+    /**
+     * The maximum size of a dictionary, the deflate window size
+     */
+    int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    /**
+     * The default uncompressed size of a block
+     */
+    int DEFAULT_BLOCK_SIZE = 128 * 1024;
+}
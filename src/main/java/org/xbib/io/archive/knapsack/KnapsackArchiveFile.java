@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.knapsack;
+
+import org.xbib.io.archive.ArchiveUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The footer of a knapsack archive, with the offsets of the blocks and the block ranges of
+ * the index types. Blocks can be read in any order by a session with the byte range of the blocks.
+ */
+public class KnapsackArchiveFile implements KnapsackArchiveConstants {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Path path;
+
+    private final List<Block> blocks;
+
+    private final List<Range> ranges;
+
+    private long end;
+
+    public KnapsackArchiveFile(Path path) throws IOException {
+        this.path = path;
+        this.blocks = new ArrayList<>();
+        this.ranges = new ArrayList<>();
+        readFooter();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * The blocks of the archive, in archive order.
+     *
+     * @return the blocks
+     */
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * The index types of the archive, with the first and the last block that hold documents
+     * of the index type, and the number of documents.
+     *
+     * @return the ranges, in the order of the first document of an index type
+     */
+    public List<Range> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * The end of the last block, the offset of the footer.
+     *
+     * @return the end offset
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Read the dictionaries of the archive, for reading blocks after the dictionary blocks.
+     *
+     * @return the dictionaries by dictionary ID, empty if the archive has no dictionaries
+     * @throws IOException if the dictionaries can not be read
+     */
+    public Map<Integer, byte[]> getDictionaries() throws IOException {
+        Map<Integer, byte[]> dictionaries = new HashMap<>();
+        FileChannel channel = null;
+        try {
+            for (Block block : blocks) {
+                if (block.isDictionary()) {
+                    if (channel == null) {
+                        channel = FileChannel.open(path, StandardOpenOption.READ);
+                    }
+                    dictionaries.put(block.getRecords(),
+                            readAt(channel, block.getOffset() + BLOCK_HEADER_LEN, block.getCompressedLength()).array());
+                }
+            }
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        return dictionaries;
+    }
+
+    /**
+     * Split blocks into consecutive partitions of about the same uncompressed size.
+     *
+     * @param blocks the blocks
+     * @param n      the number of partitions
+     * @return the partitions, at most n
+     */
+    public static List<List<Block>> partition(List<Block> blocks, int n) {
+        if (blocks.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (n <= 1) {
+            return Collections.singletonList(blocks);
+        }
+        long total = 0L;
+        for (Block block : blocks) {
+            total += block.length;
+        }
+        List<List<Block>> partitions = new ArrayList<>(n);
+        long target = total / n;
+        long sum = 0L;
+        int start = 0;
+        for (int i = 0; i < blocks.size(); i++) {
+            if (sum >= target * (partitions.size() + 1) && partitions.size() < n - 1) {
+                partitions.add(blocks.subList(start, i));
+                start = i;
+            }
+            sum += blocks.get(i).length;
+        }
+        partitions.add(blocks.subList(start, blocks.size()));
+        return partitions;
+    }
+
+    private void readFooter() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LEN + TRAILER_LEN + 1) {
+                throw new IOException("not a knapsack archive, too short: " + path);
+            }
+            ByteBuffer trailer = readAt(channel, size - TRAILER_LEN, TRAILER_LEN);
+            long footer = trailer.getLong(0);
+            if (trailer.getInt(8) != MAGIC || footer < HEADER_LEN || footer > size - TRAILER_LEN - 1) {
+                throw new IOException("not a knapsack archive, or archive is incomplete: " + path);
+            }
+            if (readAt(channel, 0L, 4).getInt(0) != MAGIC) {
+                throw new IOException("not a knapsack archive: " + path);
+            }
+            long len = size - TRAILER_LEN - footer;
+            if (len > Integer.MAX_VALUE) {
+                throw new IOException("knapsack archive footer too large: " + path);
+            }
+            ByteBuffer buffer = readAt(channel, footer, (int) len);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+            if (in.readByte() != FOOTER) {
+                throw new IOException("corrupt knapsack archive footer: " + path);
+            }
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                blocks.add(new Block(in.readLong(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readByte()));
+            }
+            int m = in.readInt();
+            for (int i = 0; i < m; i++) {
+                String index = ArchiveUtils.decode(in.readUTF(), UTF8);
+                String type = ArchiveUtils.decode(in.readUTF(), UTF8);
+                ranges.add(new Range(index, type, in.readInt(), in.readInt(), in.readLong()));
+            }
+            this.end = footer;
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(len);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("unexpected end of knapsack archive");
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * A block of the archive.
+     */
+    public static class Block {
+
+        private final long offset;
+
+        private final int compressedLength;
+
+        private final int length;
+
+        private final int records;
+
+        private final int docs;
+
+        private final byte flags;
+
+        Block(long offset, int compressedLength, int length, int records, int docs, byte flags) {
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.length = length;
+            this.records = records;
+            this.docs = docs;
+            this.flags = flags;
+        }
+
+        /**
+         * The offset of the block header in the archive.
+         *
+         * @return the offset
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * The offset after the block.
+         *
+         * @return the end offset
+         */
+        public long getEnd() {
+            return offset + BLOCK_HEADER_LEN + compressedLength;
+        }
+
+        public int getCompressedLength() {
+            return compressedLength;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        public int getDocs() {
+            return docs;
+        }
+
+        public byte getFlags() {
+            return flags;
+        }
+
+        /**
+         * Check if the block holds index settings, mappings and aliases. Blocks hold either
+         * metadata or documents.
+         *
+         * @return true for a metadata block
+         */
+        public boolean isMetadata() {
+            return (flags & METADATA) != 0;
+        }
+
+        /**
+         * Check if the block holds a dictionary. The records of a dictionary block are the dictionary ID.
+         *
+         * @return true for a dictionary block
+         */
+        public boolean isDictionary() {
+            return (flags & DICTIONARY_BLOCK) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + offset + "," + getEnd() + ",docs=" + docs + "]";
+        }
+    }
+
+    /**
+     * The blocks of an index type.
+     */
+    public static class Range {
+
+        private final String index;
+
+        private final String type;
+
+        private final int firstBlock;
+
+        private final int lastBlock;
+
+        private final long docs;
+
+        Range(String index, String type, int firstBlock, int lastBlock, long docs) {
+            this.index = index;
+            this.type = type;
+            this.firstBlock = firstBlock;
+            this.lastBlock = lastBlock;
+            this.docs = docs;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public int getFirstBlock() {
+            return firstBlock;
+        }
+
+        public int getLastBlock() {
+            return lastBlock;
+        }
+
+        public long getDocs() {
+            return docs;
+        }
+
+        @Override
+        public String toString() {
+            return index + "/" + type + "[" + firstBlock + "," + lastBlock + ",docs=" + docs + "]";
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.knapsack;
+
+import org.xbib.io.archive.ArchiveInputStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the entries of a knapsack archive, block by block. Each block is decompressed at once
+ * and its checksum is verified before the entries of the block are returned. The stream may
+ * start at the archive header or at any block offset, and ends at the footer or at the end of input.
+ * Dictionary blocks are kept for the blocks that follow. A stream that starts after the dictionary
+ * blocks of an archive must be given the dictionaries by {@link #addDictionary(int, byte[])}.
+ */
+public class KnapsackArchiveInputStream extends ArchiveInputStream<KnapsackArchiveEntry> implements KnapsackArchiveConstants {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final InputStream in;
+
+    private final byte[] header = new byte[BLOCK_HEADER_LEN];
+
+    private final Inflater inflater = new Inflater(true);
+
+    private final CRC32 crc = new CRC32();
+
+    private final Map<Integer, byte[]> dictionaries = new HashMap<>();
+
+    private byte[] compressed = new byte[0];
+
+    private byte[] block = new byte[0];
+
+    private int length;
+
+    private int pos;
+
+    private int entryEnd;
+
+    private boolean started;
+
+    private boolean eof;
+
+    private boolean closed;
+
+    public KnapsackArchiveInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Add a dictionary of the archive, for reading blocks after the dictionary block.
+     *
+     * @param id         the dictionary ID
+     * @param dictionary the dictionary
+     * @return this stream
+     */
+    public KnapsackArchiveInputStream addDictionary(int id, byte[] dictionary) {
+        dictionaries.put(id, dictionary);
+        return this;
+    }
+
+    @Override
+    public KnapsackArchiveEntry getNextEntry() throws IOException {
+        if (eof) {
+            return null;
+        }
+        // skip the unread data of the current entry
+        pos = entryEnd;
+        while (pos >= length) {
+            if (!readBlock()) {
+                eof = true;
+                return null;
+            }
+        }
+        int nameLength = readVarInt();
+        if (nameLength < 0 || pos + nameLength > length) {
+            throw new IOException("corrupt record in knapsack archive block");
+        }
+        String name = new String(block, pos, nameLength, UTF8);
+        pos += nameLength;
+        int size = readVarInt();
+        if (size < 0 || pos + size > length) {
+            throw new IOException("corrupt record in knapsack archive block: " + name);
+        }
+        entryEnd = pos + size;
+        KnapsackArchiveEntry entry = new KnapsackArchiveEntry();
+        entry.setName(name);
+        entry.setEntrySize(size);
+        return entry;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos >= entryEnd) {
+            return -1;
+        }
+        int n = Math.min(len, entryEnd - pos);
+        System.arraycopy(block, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            inflater.end();
+            in.close();
+            closed = true;
+        }
+    }
+
+    private boolean readBlock() throws IOException {
+        int tag = in.read();
+        if (!started) {
+            started = true;
+            if (tag == (MAGIC >>> 24)) {
+                readFully(header, 1, HEADER_LEN - 1);
+                if (((header[1] & 0xff) << 16 | (header[2] & 0xff) << 8 | (header[3] & 0xff)) != (MAGIC & 0xFFFFFF)) {
+                    throw new IOException("not a knapsack archive");
+                }
+                if (header[4] != VERSION && header[4] != DICTIONARY_VERSION) {
+                    throw new IOException("unsupported knapsack archive version " + header[4]);
+                }
+                tag = in.read();
+            }
+        }
+        while (tag == DICTIONARY) {
+            readDictionary();
+            tag = in.read();
+        }
+        if (tag < 0 || tag == FOOTER) {
+            return false;
+        }
+        if (tag != BLOCK) {
+            throw new IOException("corrupt knapsack archive, unexpected tag " + tag);
+        }
+        readFully(header, 1, BLOCK_HEADER_LEN - 1);
+        byte method = header[1];
+        int compressedLength = getInt(header, 2);
+        int len = getInt(header, 6);
+        int checksum = getInt(header, 14);
+        if (compressedLength < 0 || len < 0) {
+            throw new IOException("corrupt knapsack archive block header");
+        }
+        if (block.length < len) {
+            block = new byte[len];
+        }
+        if (method == STORED) {
+            if (compressedLength != len) {
+                throw new IOException("corrupt knapsack archive block header");
+            }
+            readFully(block, 0, len);
+        } else if (method == DEFLATED || method == DEFLATED_DICTIONARY) {
+            // raw inflate needs an extra dummy byte after the compressed data
+            if (compressed.length < compressedLength + 1) {
+                compressed = new byte[compressedLength + 1];
+            }
+            readFully(compressed, 0, compressedLength);
+            compressed[compressedLength] = 0;
+            inflater.reset();
+            int off = 0;
+            if (method == DEFLATED_DICTIONARY) {
+                int id = 0;
+                for (int shift = 0; ; shift += 7) {
+                    if (off >= compressedLength || shift >= 32) {
+                        throw new IOException("corrupt knapsack archive block header");
+                    }
+                    byte b = compressed[off++];
+                    id |= (b & 0x7F) << shift;
+                    if ((b & 0x80) == 0) {
+                        break;
+                    }
+                }
+                byte[] dictionary = dictionaries.get(id);
+                if (dictionary == null) {
+                    throw new IOException("missing dictionary " + id + " of knapsack archive block");
+                }
+                inflater.setDictionary(dictionary);
+            }
+            inflater.setInput(compressed, off, compressedLength + 1 - off);
+            int n = 0;
+            try {
+                while (n < len) {
+                    int k = inflater.inflate(block, n, len - n);
+                    if (k == 0 && (inflater.finished() || inflater.needsInput())) {
+                        break;
+                    }
+                    n += k;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("corrupt knapsack archive block: " + e.getMessage(), e);
+            }
+            if (n != len) {
+                throw new IOException("corrupt knapsack archive block, " + n + " of " + len + " bytes decompressed");
+            }
+        } else {
+            throw new IOException("unsupported compression method " + method + " in knapsack archive block");
+        }
+        crc.reset();
+        crc.update(block, 0, len);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("checksum mismatch in knapsack archive block");
+        }
+        length = len;
+        pos = 0;
+        entryEnd = 0;
+        return true;
+    }
+
+    private void readDictionary() throws IOException {
+        readFully(header, 1, BLOCK_HEADER_LEN - 1);
+        int len = getInt(header, 2);
+        if (header[1] != STORED || len < 0 || len > MAX_DICTIONARY_SIZE || len != getInt(header, 6)) {
+            throw new IOException("corrupt knapsack archive dictionary header");
+        }
+        byte[] dictionary = new byte[len];
+        readFully(dictionary, 0, len);
+        crc.reset();
+        crc.update(dictionary, 0, len);
+        if ((int) crc.getValue() != getInt(header, 14)) {
+            throw new IOException("checksum mismatch in knapsack archive dictionary");
+        }
+        dictionaries.put(getInt(header, 10), dictionary);
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (pos >= length) {
+                throw new IOException("corrupt record in knapsack archive block");
+            }
+            byte b = block[pos++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("corrupt record in knapsack archive block");
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                throw new EOFException("unexpected end of knapsack archive");
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16 | (b[off + 2] & 0xff) << 8 | (b[off + 3] & 0xff);
+    }
+}
@@ -0,0 +1,603 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.knapsack;
+
+import org.xbib.io.archive.ArchiveOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a knapsack archive. Entries are appended as records to the current block. A block is
+ * closed at the first new document after the block size is reached, and at a change between
+ * index metadata and documents, so blocks never split a document. Closed blocks are compressed
+ * on the writing thread, or by encoder threads in parallel and written in order.
+ *
+ * If dictionaries are enabled, the records of the first documents of each index are sampled
+ * for a preset dictionary. The dictionary is written at the next block boundary, and the following
+ * blocks that start with a document of the index are compressed with the dictionary.
+ */
+public class KnapsackArchiveOutputStream extends ArchiveOutputStream<KnapsackArchiveEntry> implements KnapsackArchiveConstants {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static char SEPARATOR = File.separatorChar;
+
+    private final OutputStream out;
+
+    private final List<KnapsackArchiveFile.Block> blocks;
+
+    /**
+     * The block ranges and document counts by encoded index and type: first block, last block, documents
+     */
+    private final Map<String, long[]> ranges;
+
+    private final Queue<Deflater> deflaters;
+
+    private final Deque<Future<Encoded>> pending;
+
+    /**
+     * The dictionary builders of the indices that are sampled, by encoded index
+     */
+    private final Map<String, KnapsackDictionaryBuilder> samples;
+
+    /**
+     * The dictionaries by encoded index. Indices without common tokens have no dictionary.
+     */
+    private final Map<String, Dictionary> dictionaries;
+
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    private int encoderThreads = 1;
+
+    private int dictionaryDocs;
+
+    private int dictionarySize = MAX_DICTIONARY_SIZE;
+
+    private int dictionaryCount;
+
+    private ExecutorService executor;
+
+    private byte[] buf = new byte[0];
+
+    private int count;
+
+    private int records;
+
+    private int docs;
+
+    private boolean blockMetadata;
+
+    private String blockIndex;
+
+    private KnapsackDictionaryBuilder sampling;
+
+    private int recordStart;
+
+    private int blockCount;
+
+    private String lastDocument;
+
+    private boolean entryOpen;
+
+    private long remaining;
+
+    private long position;
+
+    private boolean headerWritten;
+
+    private boolean closed;
+
+    private boolean finished;
+
+    public KnapsackArchiveOutputStream(OutputStream out) throws IOException {
+        this.out = out;
+        this.blocks = new ArrayList<>();
+        this.ranges = new LinkedHashMap<>();
+        this.deflaters = new ConcurrentLinkedQueue<>();
+        this.pending = new ArrayDeque<>();
+        this.samples = new HashMap<>();
+        this.dictionaries = new HashMap<>();
+        this.position = HEADER_LEN;
+    }
+
+    /**
+     * Set the uncompressed size of the blocks. Must be set before the first entry is written.
+     *
+     * @param blockSize the block size in bytes
+     * @return this stream
+     */
+    public KnapsackArchiveOutputStream setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * Set the number of threads that compress blocks. Must be set before the first entry is written.
+     *
+     * @param encoderThreads the number of threads, or 1 for compressing on the writing thread
+     * @return this stream
+     */
+    public KnapsackArchiveOutputStream setEncoderThreads(int encoderThreads) {
+        this.encoderThreads = encoderThreads;
+        return this;
+    }
+
+    /**
+     * Compress the blocks of each index with a preset dictionary, trained on the first documents of the index.
+     * Must be set before the first entry is written.
+     *
+     * @param dictionaryDocs the number of documents per index that are sampled, or 0 for no dictionaries
+     * @param dictionarySize the maximum size of a dictionary in bytes, at most {@link #MAX_DICTIONARY_SIZE}
+     * @return this stream
+     */
+    public KnapsackArchiveOutputStream setDictionary(int dictionaryDocs, int dictionarySize) {
+        this.dictionaryDocs = dictionaryDocs;
+        this.dictionarySize = Math.min(dictionarySize, MAX_DICTIONARY_SIZE);
+        return this;
+    }
+
+    @Override
+    public KnapsackArchiveEntry newArchiveEntry() {
+        return new KnapsackArchiveEntry();
+    }
+
+    @Override
+    public void putArchiveEntry(KnapsackArchiveEntry entry) throws IOException {
+        if (finished) {
+            throw new IOException("stream has already been finished");
+        }
+        if (entryOpen) {
+            throw new IOException("previous entry has not been closed");
+        }
+        String name = entry.getName();
+        long size = entry.getEntrySize();
+        if (size < 0L || size > Integer.MAX_VALUE) {
+            throw new IOException("invalid entry size " + size + " of entry " + name);
+        }
+        // index/type/id/field
+        int s1 = name.indexOf(SEPARATOR);
+        int s2 = s1 >= 0 ? name.indexOf(SEPARATOR, s1 + 1) : -1;
+        int s3 = s2 >= 0 ? name.indexOf(SEPARATOR, s2 + 1) : -1;
+        String document = s3 >= 0 ? name.substring(0, s3) : name;
+        String key = s2 >= 0 ? name.substring(0, s2) : document;
+        boolean metadata = s2 >= 0 && ("_settings".equals(name.substring(s1 + 1, s2))
+                || (s3 >= 0 && isMetadataId(name.substring(s2 + 1, s3))));
+        boolean newDocument = !document.equals(lastDocument);
+        if (count > 0 && newDocument && (count >= blockSize || metadata != blockMetadata)) {
+            flushBlock();
+        }
+        String index = s1 >= 0 ? name.substring(0, s1) : null;
+        if (count == 0) {
+            blockMetadata = metadata;
+            blockIndex = index;
+        }
+        if (newDocument) {
+            sampling = metadata ? null : sample(index);
+            docs++;
+            long[] range = ranges.get(key);
+            if (range == null) {
+                range = new long[]{blockCount, blockCount, 0L};
+                ranges.put(key, range);
+            }
+            range[1] = blockCount;
+            range[2]++;
+            lastDocument = document;
+        }
+        byte[] nameBytes = name.getBytes(UTF8);
+        ensureCapacity(count + 10 + nameBytes.length + (int) size);
+        recordStart = count;
+        count = putVarInt(buf, count, nameBytes.length);
+        System.arraycopy(nameBytes, 0, buf, count, nameBytes.length);
+        count += nameBytes.length;
+        count = putVarInt(buf, count, (int) size);
+        records++;
+        remaining = size;
+        entryOpen = true;
+    }
+
+    private KnapsackDictionaryBuilder sample(String index) {
+        if (dictionaryDocs <= 0 || index == null || dictionaries.containsKey(index)) {
+            return null;
+        }
+        KnapsackDictionaryBuilder builder = samples.get(index);
+        if (builder == null) {
+            builder = new KnapsackDictionaryBuilder(dictionarySize);
+            samples.put(index, builder);
+        }
+        return builder.getSamples() < dictionaryDocs ? builder.startSample() : null;
+    }
+
+    private static boolean isMetadataId(String id) {
+        return "_mapping".equals(id) || "_alias".equals(id);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (!entryOpen || len > remaining) {
+            throw new IOException("request to write " + len + " bytes exceeds the size of the entry");
+        }
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+        remaining -= len;
+        getWatcher().updateBytesTransferred(len);
+    }
+
+    @Override
+    public void closeArchiveEntry() throws IOException {
+        if (!entryOpen) {
+            return;
+        }
+        if (remaining != 0L) {
+            throw new IOException("entry closed with " + remaining + " bytes missing");
+        }
+        if (sampling != null) {
+            sampling.add(buf, recordStart, count - recordStart);
+        }
+        entryOpen = false;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (entryOpen) {
+            throw new IOException("this archive contains an unclosed entry");
+        }
+        try {
+            // no blocks follow that could use new dictionaries
+            samples.clear();
+            if (count > 0) {
+                flushBlock();
+            }
+            while (!pending.isEmpty()) {
+                writeBlock(take(pending.poll()));
+            }
+            writeFooter();
+            out.flush();
+        } finally {
+            finished = true;
+            shutdown();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!finished) {
+                finish();
+            }
+        } finally {
+            if (!closed) {
+                out.close();
+                closed = true;
+            }
+            Deflater deflater;
+            while ((deflater = deflaters.poll()) != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(capacity, Math.max(blockSize + blockSize / 4, buf.length * 2)));
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        final byte[] data = buf;
+        final int length = count;
+        final int blockRecords = records;
+        final int blockDocs = docs;
+        final byte flags = blockMetadata ? METADATA : 0;
+        final Dictionary dictionary = blockMetadata || blockIndex == null ? null : dictionaries.get(blockIndex);
+        if (encoderThreads > 1) {
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(encoderThreads, new EncoderThreadFactory());
+            }
+            pending.add(executor.submit(new Callable<Encoded>() {
+                @Override
+                public Encoded call() {
+                    return encode(data, length, blockRecords, blockDocs, flags, dictionary);
+                }
+            }));
+            // the block buffer now belongs to the encoder
+            buf = new byte[data.length];
+            while (pending.size() > 2 * encoderThreads) {
+                writeBlock(take(pending.poll()));
+            }
+        } else {
+            writeBlock(encode(data, length, blockRecords, blockDocs, flags, dictionary));
+        }
+        count = 0;
+        records = 0;
+        docs = 0;
+        blockCount++;
+        if (!samples.isEmpty()) {
+            flushDictionaries();
+        }
+    }
+
+    /**
+     * Build the dictionaries of the indices with enough samples, and write them as dictionary blocks.
+     * Dictionary blocks are counted like other blocks, so the block ranges of the footer stay valid.
+     */
+    private void flushDictionaries() throws IOException {
+        Iterator<Map.Entry<String, KnapsackDictionaryBuilder>> it = samples.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, KnapsackDictionaryBuilder> me = it.next();
+            if (me.getValue().getSamples() < dictionaryDocs) {
+                continue;
+            }
+            it.remove();
+            byte[] data = me.getValue().build();
+            if (data == null) {
+                dictionaries.put(me.getKey(), null);
+                continue;
+            }
+            Dictionary dictionary = new Dictionary(dictionaryCount++, data);
+            dictionaries.put(me.getKey(), dictionary);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            Encoded encoded = new Encoded(DICTIONARY, STORED, data, data.length, data.length, dictionary.id, 0,
+                    DICTIONARY_BLOCK, (int) crc.getValue());
+            if (encoderThreads > 1) {
+                FutureTask<Encoded> task = new FutureTask<>(new Done(encoded));
+                task.run();
+                pending.add(task);
+            } else {
+                writeBlock(encoded);
+            }
+            blockCount++;
+        }
+    }
+
+    private Encoded encode(byte[] data, int length, int records, int docs, byte flags, Dictionary dictionary) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        try {
+            // compressed data that is not smaller than the block is stored
+            byte[] compressed = new byte[length];
+            int n = 0;
+            byte method = DEFLATED;
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary.data);
+                n = putVarInt(compressed, 0, dictionary.id);
+                method = DEFLATED_DICTIONARY;
+            }
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            while (!deflater.finished() && n < compressed.length) {
+                n += deflater.deflate(compressed, n, compressed.length - n);
+            }
+            if (deflater.finished() && n < length) {
+                return new Encoded(BLOCK, method, compressed, n, length, records, docs, flags, (int) crc.getValue());
+            }
+            return new Encoded(BLOCK, STORED, Arrays.copyOf(data, length), length, length, records, docs, flags,
+                    (int) crc.getValue());
+        } finally {
+            deflater.reset();
+            deflaters.offer(deflater);
+        }
+    }
+
+    private Encoded take(Future<Encoded> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for block encoder");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void writeBlock(Encoded encoded) throws IOException {
+        writeHeader();
+        blocks.add(new KnapsackArchiveFile.Block(position, encoded.compressedLength, encoded.length,
+                encoded.records, encoded.docs, encoded.flags));
+        byte[] header = new byte[BLOCK_HEADER_LEN];
+        header[0] = encoded.tag;
+        header[1] = encoded.method;
+        putInt(header, 2, encoded.compressedLength);
+        putInt(header, 6, encoded.length);
+        putInt(header, 10, encoded.records);
+        putInt(header, 14, encoded.crc);
+        out.write(header);
+        out.write(encoded.data, 0, encoded.compressedLength);
+        position += BLOCK_HEADER_LEN + encoded.compressedLength;
+    }
+
+    private void writeHeader() throws IOException {
+        if (headerWritten) {
+            return;
+        }
+        byte[] header = new byte[HEADER_LEN];
+        putInt(header, 0, MAGIC);
+        header[4] = (byte) (dictionaryDocs > 0 ? DICTIONARY_VERSION : VERSION);
+        out.write(header);
+        headerWritten = true;
+    }
+
+    private void writeFooter() throws IOException {
+        writeHeader();
+        long footer = position;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(FOOTER);
+        data.writeInt(blocks.size());
+        for (KnapsackArchiveFile.Block block : blocks) {
+            data.writeLong(block.getOffset());
+            data.writeInt(block.getCompressedLength());
+            data.writeInt(block.getLength());
+            data.writeInt(block.getRecords());
+            data.writeInt(block.getDocs());
+            data.writeByte(block.getFlags());
+        }
+        data.writeInt(ranges.size());
+        for (Map.Entry<String, long[]> me : ranges.entrySet()) {
+            String key = me.getKey();
+            int pos = key.indexOf(SEPARATOR);
+            data.writeUTF(pos >= 0 ? key.substring(0, pos) : key);
+            data.writeUTF(pos >= 0 ? key.substring(pos + 1) : "");
+            data.writeInt((int) me.getValue()[0]);
+            data.writeInt((int) me.getValue()[1]);
+            data.writeLong(me.getValue()[2]);
+        }
+        data.writeLong(footer);
+        data.writeInt(MAGIC);
+        data.flush();
+        bytes.writeTo(out);
+        position += bytes.size();
+    }
+
+    private void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private static void putInt(byte[] b, int off, int value) {
+        b[off] = (byte) (value >>> 24);
+        b[off + 1] = (byte) (value >>> 16);
+        b[off + 2] = (byte) (value >>> 8);
+        b[off + 3] = (byte) value;
+    }
+
+    private static int putVarInt(byte[] b, int off, int value) {
+        while ((value & ~0x7F) != 0) {
+            b[off++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        b[off++] = (byte) value;
+        return off;
+    }
+
+    /**
+     * A dictionary and its ID.
+     */
+    private static class Dictionary {
+
+        private final int id;
+
+        private final byte[] data;
+
+        Dictionary(int id, byte[] data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+
+    /**
+     * A compressed block.
+     */
+    private static class Encoded {
+
+        private final byte tag;
+
+        private final byte method;
+
+        private final byte[] data;
+
+        private final int compressedLength;
+
+        private final int length;
+
+        private final int records;
+
+        private final int docs;
+
+        private final byte flags;
+
+        private final int crc;
+
+        Encoded(byte tag, byte method, byte[] data, int compressedLength, int length, int records, int docs,
+                byte flags, int crc) {
+            this.tag = tag;
+            this.method = method;
+            this.data = data;
+            this.compressedLength = compressedLength;
+            this.length = length;
+            this.records = records;
+            this.docs = docs;
+            this.flags = flags;
+            this.crc = crc;
+        }
+    }
+
+    /**
+     * An encoded block that is queued in order with the blocks of the encoder threads.
+     */
+    private static class Done implements Callable<Encoded> {
+
+        private final Encoded encoded;
+
+        Done(Encoded encoded) {
+            this.encoded = encoded;
+        }
+
+        @Override
+        public Encoded call() {
+            return encoded;
+        }
+    }
+
+    private static class EncoderThreadFactory implements ThreadFactory {
+
+        private final static AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "knapsack-encoder-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.knapsack;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a preset compression dictionary from sample documents. The records of a document are split
+ * into tokens at JSON structure characters and path separators, so field names, repeated values and
+ * entry name prefixes become tokens. Tokens that occur in more than one document are selected by
+ * their frequency times their length, and the best tokens are placed at the end of the dictionary,
+ * where deflate can reach them with the shortest distances.
+ */
+public class KnapsackDictionaryBuilder {
+
+    private final static Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final static int MIN_TOKEN_LEN = 4;
+
+    private final static int MAX_TOKEN_LEN = 256;
+
+    private final static int MAX_TOKENS = 64 * 1024;
+
+    private final int size;
+
+    /**
+     * The number of documents that contain a token, by token. Tokens are held as ISO-8859-1
+     * strings, one char per byte.
+     */
+    private final Map<String, int[]> tokens;
+
+    private final Set<String> seen;
+
+    private int samples;
+
+    /**
+     * Create a dictionary builder.
+     *
+     * @param size the maximum size of the dictionary, at most {@link KnapsackArchiveConstants#MAX_DICTIONARY_SIZE}
+     */
+    public KnapsackDictionaryBuilder(int size) {
+        this.size = Math.min(size, KnapsackArchiveConstants.MAX_DICTIONARY_SIZE);
+        this.tokens = new HashMap<>();
+        this.seen = new HashSet<>();
+    }
+
+    /**
+     * Start the next sample document.
+     *
+     * @return this builder
+     */
+    public KnapsackDictionaryBuilder startSample() {
+        seen.clear();
+        samples++;
+        return this;
+    }
+
+    /**
+     * Add a record of the current sample document.
+     *
+     * @param b   the record
+     * @param off the offset
+     * @param len the length
+     * @return this builder
+     */
+    public KnapsackDictionaryBuilder add(byte[] b, int off, int len) {
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (isDelimiter(b[i])) {
+                addToken(b, start, i + 1 - start);
+                start = i + 1;
+            }
+        }
+        addToken(b, start, end - start);
+        return this;
+    }
+
+    /**
+     * The number of sample documents.
+     *
+     * @return the number of samples
+     */
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * Build the dictionary.
+     *
+     * @return the dictionary, or null if the samples have no tokens in common
+     */
+    public byte[] build() {
+        List<Map.Entry<String, int[]>> candidates = new ArrayList<>();
+        for (Map.Entry<String, int[]> me : tokens.entrySet()) {
+            if (me.getValue()[0] > 1) {
+                candidates.add(me);
+            }
+        }
+        Collections.sort(candidates, new Comparator<Map.Entry<String, int[]>>() {
+            @Override
+            public int compare(Map.Entry<String, int[]> e1, Map.Entry<String, int[]> e2) {
+                long s1 = (long) e1.getValue()[0] * e1.getKey().length();
+                long s2 = (long) e2.getValue()[0] * e2.getKey().length();
+                return s1 != s2 ? (s1 > s2 ? -1 : 1) : e1.getKey().compareTo(e2.getKey());
+            }
+        });
+        List<String> selected = new ArrayList<>();
+        int length = 0;
+        for (Map.Entry<String, int[]> me : candidates) {
+            String token = me.getKey();
+            if (length + token.length() <= size) {
+                selected.add(token);
+                length += token.length();
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        byte[] dictionary = new byte[length];
+        int pos = length;
+        for (String token : selected) {
+            byte[] b = token.getBytes(ISO_8859_1);
+            pos -= b.length;
+            System.arraycopy(b, 0, dictionary, pos, b.length);
+        }
+        return dictionary;
+    }
+
+    private void addToken(byte[] b, int off, int len) {
+        if (len < MIN_TOKEN_LEN || len > MAX_TOKEN_LEN) {
+            return;
+        }
+        String token = new String(b, off, len, ISO_8859_1);
+        if (!seen.add(token)) {
+            return;
+        }
+        int[] count = tokens.get(token);
+        if (count != null) {
+            count[0]++;
+        } else if (tokens.size() < MAX_TOKENS) {
+            tokens.put(token, new int[]{1});
+        }
+    }
+
+    private static boolean isDelimiter(byte b) {
+        switch (b) {
+            case ',':
+            case ':':
+            case '{':
+            case '}':
+            case '[':
+            case ']':
+            case '/':
+                return true;
+            default:
+                return false;
+        }
+    }
+}
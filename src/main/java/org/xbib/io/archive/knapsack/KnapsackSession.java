@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.knapsack;
+
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.archive.ArchiveSession;
+
+import java.io.IOException;
+import java.util.Map;
+
+public class KnapsackSession extends ArchiveSession<KnapsackArchiveInputStream, KnapsackArchiveOutputStream> {
+
+    private int blockSize = KnapsackArchiveConstants.DEFAULT_BLOCK_SIZE;
+
+    private int encoderThreads = 1;
+
+    private int dictionaryDocs;
+
+    private int dictionarySize = KnapsackArchiveConstants.MAX_DICTIONARY_SIZE;
+
+    protected KnapsackSession(BytesProgressWatcher watcher) {
+        super(watcher);
+    }
+
+    /**
+     * Set the uncompressed size of the blocks. Must be set before the session is opened.
+     *
+     * @param blockSize the block size in bytes
+     * @return this session
+     */
+    public KnapsackSession setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Set the number of threads that compress blocks in parallel. Must be set before the session is opened.
+     *
+     * @param encoderThreads the number of threads, or 1 for compressing on the writing thread
+     * @return this session
+     */
+    public KnapsackSession setEncoderThreads(int encoderThreads) {
+        this.encoderThreads = encoderThreads;
+        return this;
+    }
+
+    public int getEncoderThreads() {
+        return encoderThreads;
+    }
+
+    /**
+     * Compress the blocks of each index with a preset dictionary, trained on the first documents of the index.
+     * Must be set before the session is opened.
+     *
+     * @param dictionaryDocs the number of documents per index that are sampled, or 0 for no dictionaries
+     * @param dictionarySize the maximum size of a dictionary in bytes
+     * @return this session
+     */
+    public KnapsackSession setDictionary(int dictionaryDocs, int dictionarySize) {
+        this.dictionaryDocs = dictionaryDocs;
+        this.dictionarySize = dictionarySize;
+        return this;
+    }
+
+    public int getDictionaryDocs() {
+        return dictionaryDocs;
+    }
+
+    public int getDictionarySize() {
+        return dictionarySize;
+    }
+
+    @Override
+    protected void configure(KnapsackArchiveOutputStream out) {
+        out.setBlockSize(blockSize).setEncoderThreads(encoderThreads).setDictionary(dictionaryDocs, dictionarySize);
+    }
+
+    /**
+     * A byte range after the start of the archive may skip dictionary blocks, the dictionaries
+     * are taken from the footer.
+     */
+    @Override
+    protected void configure(KnapsackArchiveInputStream in) throws IOException {
+        if (getRangeStart() > 0L) {
+            for (Map.Entry<Integer, byte[]> me : new KnapsackArchiveFile(getPath()).getDictionaries().entrySet()) {
+                in.addDictionary(me.getKey(), me.getValue());
+            }
+        }
+    }
+
+    @Override
+    protected boolean isMemoryMappable() {
+        return true;
+    }
+
+    /**
+     * Records in blocks have no entry headers, packing would not save space.
+     */
+    @Override
+    protected boolean isPackable() {
+        return false;
+    }
+
+    @Override
+    protected String getName() {
+        return KnapsackArchiveCodec.NAME;
+    }
+}
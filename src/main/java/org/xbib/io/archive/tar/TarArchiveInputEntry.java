@@ -33,6 +33,12 @@ public class TarArchiveInputEntry implements TarConstants, ArchiveEntry {
      */
     private static final int MILLIS_PER_SECOND = 1000;
 
+    private static final byte[] MAGIC_UNIX_BYTES = ArchiveUtils.toAsciiBytes(MAGIC_UNIX);
+
+    private static final byte[] MAGIC_POSIX_BYTES = ArchiveUtils.toAsciiBytes(MAGIC_POSIX);
+
+    private static final byte[] MAGIC_GNU_BYTES = ArchiveUtils.toAsciiBytes(MAGIC_GNU);
+
     /**
      * The entry's name.
      */
@@ -188,8 +194,21 @@ public class TarArchiveInputEntry implements TarConstants, ArchiveEntry {
      * @throws IllegalArgumentException if any of the numeric fields have an invalid format
      */
     public TarArchiveInputEntry(byte[] headerBuf, ArchiveEntryEncoding encoding) throws IOException {
+        this(headerBuf, 0, encoding);
+    }
+
+    /**
+     * Construct an entry from the header bytes at an offset of a buffer,
+     * for example a block buffer of an archive. File is set to null.
+     *
+     * @param buffer   The buffer with the header bytes from a tar archive entry.
+     * @param offset   The offset of the header in the buffer.
+     * @param encoding encoding to use for file names
+     * @throws IllegalArgumentException if any of the numeric fields have an invalid format
+     */
+    public TarArchiveInputEntry(byte[] buffer, int offset, ArchiveEntryEncoding encoding) throws IOException {
         this();
-        parseTarHeader(headerBuf, encoding);
+        parseTarHeader(buffer, offset, encoding, false);
     }
 
     /**
@@ -543,14 +562,14 @@ public class TarArchiveInputEntry implements TarConstants, ArchiveEntry {
      */
     public void parseTarHeader(byte[] header, ArchiveEntryEncoding encoding)
             throws IOException {
-        parseTarHeader(header, encoding, false);
+        parseTarHeader(header, 0, encoding, false);
     }
 
-    private void parseTarHeader(byte[] header, ArchiveEntryEncoding encoding, final boolean oldStyle)
+    private void parseTarHeader(byte[] header, int base, ArchiveEntryEncoding encoding, final boolean oldStyle)
             throws IOException {
-        int offset = 0;
-        int type = evaluateType(header);
-        name = parseFileName(header);
+        int offset = base;
+        int type = evaluateType(header, base);
+        name = parseFileName(header, base);
         offset += NAMELEN;
         mode = (int) parseOctalOrBinary(header, offset, MODELEN);
         offset += MODELEN;
@@ -605,21 +624,26 @@ public class TarArchiveInputEntry implements TarConstants, ArchiveEntry {
      * Evaluate an entry's header format from a header buffer.
      *
      * @param header The tar entry header buffer to evaluate the format for.
+     * @param base   The offset of the header in the buffer.
      * @return format type
      */
-    private int evaluateType(byte[] header) {
-        if (ArchiveUtils.matchAsciiBuffer(MAGIC_UNIX, header, MAGIC_OFFSET, MAGICLEN)) {
+    private int evaluateType(byte[] header, int base) {
+        if (matchMagic(MAGIC_UNIX_BYTES, header, base)) {
             return UNIX_FORMAT;
         }
-        if (ArchiveUtils.matchAsciiBuffer(MAGIC_POSIX, header, MAGIC_OFFSET, MAGICLEN)) {
+        if (matchMagic(MAGIC_POSIX_BYTES, header, base)) {
             return POSIX_FORMAT;
         }
-        if (ArchiveUtils.matchAsciiBuffer(MAGIC_GNU, header, MAGIC_OFFSET, MAGICLEN)) {
+        if (matchMagic(MAGIC_GNU_BYTES, header, base)) {
             return GNU_FORMAT;
         }
         return 0;
     }
 
+    private static boolean matchMagic(byte[] magic, byte[] header, int base) {
+        return ArchiveUtils.isEqual(magic, 0, magic.length, header, base + MAGIC_OFFSET, MAGICLEN, false);
+    }
+
     /**
      * Parse an octal string from a buffer.
      * <p>Leading spaces are ignored.
@@ -822,21 +846,30 @@ public class TarArchiveInputEntry implements TarConstants, ArchiveEntry {
         return test;
     }
 
-    private String parseFileName(byte[] header) {
-        StringBuilder result = new StringBuilder(256);
+    private String parseFileName(byte[] header, int base) {
         // If header[345] is not equal to zero, then it is the "prefix"
         // that 'ustar' defines. It must be prepended to the "normal"
         // name field. We are responsible for the separating '/'.
-        if (header[345] != 0) {
-            for (int i = 345; i < 500 && header[i] != 0; ++i) {
-                result.append((char) header[i]);
+        int prefixLen = 0;
+        while (prefixLen < 155 && header[base + 345 + prefixLen] != 0) {
+            prefixLen++;
+        }
+        int nameLen = 0;
+        while (nameLen < 100 && header[base + nameLen] != 0) {
+            nameLen++;
+        }
+        char[] result = new char[prefixLen > 0 ? prefixLen + 1 + nameLen : nameLen];
+        int pos = 0;
+        if (prefixLen > 0) {
+            for (int i = 0; i < prefixLen; i++) {
+                result[pos++] = (char) header[base + 345 + i];
             }
-            result.append("/");
+            result[pos++] = '/';
         }
-        for (int i = 0; i < 100 && header[i] != 0; ++i) {
-            result.append((char) header[i]);
+        for (int i = 0; i < nameLen; i++) {
+            result[pos++] = (char) header[base + i];
         }
-        return result.toString();
+        return new String(result);
     }
 }
 
@@ -24,11 +24,12 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveInputEnt
 
     private final int recordSize;
 
-    private final int recsPerBlock;
-
     private final byte[] blockBuffer;
 
-    private byte[] readBuf;
+    /**
+     * The offset of the next unread byte in the block buffer
+     */
+    private int blockOffset;
 
     private boolean hasHitEOF;
 
@@ -38,8 +39,6 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveInputEnt
 
     private TarArchiveInputEntry entry;
 
-    private int currRecIdx;
-
     /**
      * Constructor for TarInputStream.
      *
@@ -47,14 +46,12 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveInputEnt
      */
     public TarArchiveInputStream(InputStream is) {
         this.encoding = ArchiveEntryEncodingHelper.getEncoding(null);
-        this.readBuf = null;
         this.hasHitEOF = false;
         this.inStream = is;
         this.blockSize = DEFAULT_BLOCK_SIZE;
         this.recordSize = DEFAULT_RECORD_SIZE;
-        this.recsPerBlock = this.blockSize / this.recordSize;
         this.blockBuffer = new byte[this.blockSize];
-        this.currRecIdx = this.recsPerBlock;
+        this.blockOffset = this.blockSize;
     }
 
     /**
@@ -112,21 +109,40 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveInputEnt
      */
     @Override
     public long skip(long numToSkip) throws IOException {
-        // REVIEW
-        // This is horribly inefficient, but it ensures that we
-        // properly skip over bytes
-        //
-        byte[] skipBuf = new byte[1024];
-        long skip = numToSkip;
-        while (skip > 0) {
-            int realSkip = (int) (skip > skipBuf.length ? skipBuf.length : skip);
-            int numRead = read(skipBuf, 0, realSkip);
-            if (numRead == -1) {
+        long skip = Math.min(numToSkip, entrySize - entryOffset);
+        if (skip <= 0) {
+            return 0;
+        }
+        long remaining = skip;
+        // the rest of the current block
+        int n = (int) Math.min(remaining, blockSize - blockOffset);
+        blockOffset += n;
+        remaining -= n;
+        // whole blocks are skipped in the underlying stream
+        long bytes = (remaining / blockSize) * blockSize;
+        long skipped = 0;
+        while (skipped < bytes) {
+            long k = inStream.skip(bytes - skipped);
+            if (k <= 0) {
                 break;
             }
-            skip -= numRead;
+            skipped += k;
         }
-        return (numToSkip - skip);
+        if (skipped % blockSize != 0) {
+            throw new IOException("unexpected EOF while skipping " + (bytes - skipped) + " bytes");
+        }
+        remaining -= skipped;
+        // blocks the underlying stream did not skip are read
+        while (remaining > 0) {
+            if (!readBlock()) {
+                throw new IOException("unexpected EOF with " + remaining + " bytes unskipped");
+            }
+            n = (int) Math.min(remaining, blockSize);
+            blockOffset = n;
+            remaining -= n;
+        }
+        entryOffset += skip;
+        return skip;
     }
 
     /**
@@ -162,15 +178,16 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveInputEnt
                 }
                 numToSkip -= skipped;
             }
-            readBuf = null;
+            // the data of an entry is padded to the record size
+            blockOffset = ((blockOffset + recordSize - 1) / recordSize) * recordSize;
         }
-        byte[] headerBuf = getRecord();
+        int headerOffset = getRecord();
         if (hasHitEOF) {
             entry = null;
             return null;
         }
         try {
-            this.entry = new TarArchiveInputEntry(headerBuf, encoding);
+            this.entry = new TarArchiveInputEntry(blockBuffer, headerOffset, encoding);
             this.entryOffset = 0;
             this.entrySize = this.entry.getEntrySize();
         } catch (IllegalArgumentException e) {
@@ -199,54 +216,41 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveInputEnt
     }
 
     /**
-     * Get the next record in this tar archive. This will skip
-     * over any remaining data in the current entry, if there
-     * is one, and place the input stream at the header of the
-     * next entry.
-     * If there are no more entries in the archive, null will
+     * Get the next record in this tar archive. The stream must be placed
+     * at the header of the next entry.
+     * If there are no more entries in the archive, -1 will
      * be returned to indicate that the end of the archive has
      * been reached.
      *
-     * @return The next header in the archive, or null.
+     * @return The offset of the next header in the block buffer, or -1.
      * @throws IOException on error
      */
-    private byte[] getRecord() throws IOException {
+    private int getRecord() throws IOException {
         if (hasHitEOF) {
-            return null;
+            return -1;
         }
-        byte[] headerBuf = readRecord();
-        if (headerBuf == null) {
-            hasHitEOF = true;
-        } else if (isEOFRecord(headerBuf)) {
+        if (blockOffset >= blockSize && !readBlock()) {
             hasHitEOF = true;
+            return -1;
         }
-        return hasHitEOF ? null : headerBuf;
-    }
-
-    /**
-     * Read a record from the input stream and return the data.
-     *
-     * @return The record data.
-     * @throws IOException on error
-     */
-    private byte[] readRecord() throws IOException {
-        if (currRecIdx >= recsPerBlock && !readBlock()) {
-            return null;
+        int offset = blockOffset;
+        blockOffset += recordSize;
+        if (isEOFRecord(blockBuffer, offset)) {
+            hasHitEOF = true;
+            return -1;
         }
-        byte[] result = new byte[recordSize];
-        System.arraycopy(blockBuffer, (currRecIdx * recordSize), result, 0, recordSize);
-        currRecIdx++;
-        return result;
+        return offset;
     }
 
     private boolean readBlock() throws IOException {
-        currRecIdx = 0;
+        blockOffset = 0;
         int offset = 0;
         int bytesNeeded = blockSize;
         while (bytesNeeded > 0) {
             long numBytes = inStream.read(blockBuffer, offset, bytesNeeded);
             if (numBytes == -1) {
                 if (offset == 0) {
+                    blockOffset = blockSize;
                     return false;
                 }
                 Arrays.fill(blockBuffer, offset, offset + bytesNeeded, (byte) 0);
@@ -262,12 +266,13 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveInputEnt
      * Determine if an archive record indicate End of Archive. End of
      * archive is indicated by a record that consists entirely of null bytes.
      *
-     * @param record The record data to check.
+     * @param buffer The buffer with the record data to check.
+     * @param offset The offset of the record in the buffer.
      * @return true if the record data is an End of Archive
      */
-    private boolean isEOFRecord(byte[] record) {
-        for (int i = 0, sz = getRecordSize(); i < sz; ++i) {
-            if (record[i] != 0) {
+    private boolean isEOFRecord(byte[] buffer, int offset) {
+        for (int i = offset, end = offset + recordSize; i < end; ++i) {
+            if (buffer[i] != 0) {
                 return false;
             }
         }
@@ -372,6 +377,18 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveInputEnt
         return getNextTarEntry();
     }
 
+    @Override
+    public int read() throws IOException {
+        if (entryOffset >= entrySize) {
+            return -1;
+        }
+        if (blockOffset >= blockSize && !readBlock()) {
+            throw new IOException("unexpected EOF with " + (entrySize - entryOffset) + " bytes unread");
+        }
+        entryOffset++;
+        return blockBuffer[blockOffset++] & 0xff;
+    }
+
     /**
      * Reads bytes from the current tar archive entry.
      * This method is aware of the boundaries of the current
@@ -386,43 +403,20 @@ public class TarArchiveInputStream extends ArchiveInputStream<TarArchiveInputEnt
      */
     @Override
     public int read(byte[] buf, int offset, int numToRead) throws IOException {
-        int totalRead = 0;
         if (entryOffset >= entrySize) {
             return -1;
         }
         if ((numToRead + entryOffset) > entrySize) {
             numToRead = (int) (entrySize - entryOffset);
         }
-        if (readBuf != null) {
-            int sz = (numToRead > readBuf.length) ? readBuf.length : numToRead;
-            System.arraycopy(readBuf, 0, buf, offset, sz);
-            if (sz >= readBuf.length) {
-                readBuf = null;
-            } else {
-                int newLen = readBuf.length - sz;
-                byte[] newBuf = new byte[newLen];
-                System.arraycopy(readBuf, sz, newBuf, 0, newLen);
-                readBuf = newBuf;
-            }
-            totalRead += sz;
-            numToRead -= sz;
-            offset += sz;
-        }
+        int totalRead = 0;
         while (numToRead > 0) {
-            byte[] rec = readRecord();
-            if (rec == null) {
+            if (blockOffset >= blockSize && !readBlock()) {
                 throw new IOException("unexpected EOF with " + numToRead + " bytes unread");
             }
-            int sz = numToRead;
-            int recLen = rec.length;
-            if (recLen > sz) {
-                System.arraycopy(rec, 0, buf, offset, sz);
-                readBuf = new byte[recLen - sz];
-                System.arraycopy(rec, sz, readBuf, 0, recLen - sz);
-            } else {
-                sz = recLen;
-                System.arraycopy(rec, 0, buf, offset, recLen);
-            }
+            int sz = Math.min(numToRead, blockSize - blockOffset);
+            System.arraycopy(blockBuffer, blockOffset, buf, offset, sz);
+            blockOffset += sz;
             totalRead += sz;
             numToRead -= sz;
             offset += sz;
@@ -1,19 +1,26 @@
 package org.xbib.io.archive.tar;
 
+import org.xbib.io.ChannelOutputStream;
 import org.xbib.io.archive.ArchiveOutputStream;
+import org.xbib.io.archive.ArchiveUtils;
 import org.xbib.io.archive.entry.ArchiveEntryEncoding;
 import org.xbib.io.archive.entry.ArchiveEntryEncodingHelper;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
- * The TarOutputStream writes a UNIX tar archive as an output stream
+ * The TarOutputStream writes a UNIX tar archive as an output stream.
+ * Headers, payloads and padding of entries are assembled record-aligned in a large buffer
+ * of whole blocks, so many small entries go to the underlying stream in a few big writes.
+ * If the underlying stream is a {@link ChannelOutputStream}, the buffer and payloads larger
+ * than the buffer are written together by a gathering write to the file channel.
  */
 public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutputEntry> implements TarConstants {
 
@@ -27,15 +34,24 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutput
 
     private final int recordSize;
 
-    private final int recsPerBlock;
+    private final byte[] recordBuf;
 
-    private final byte[] blockBuffer;
+    private final ChannelOutputStream channelStream;
 
-    private final byte[] recordBuf;
+    /**
+     * The buffer for assembling records, a multiple of the block size
+     */
+    private byte[] buffer;
 
-    private final byte[] assemBuf;
+    /**
+     * The position of the next byte in the buffer
+     */
+    private int pos;
 
-    private int currRecIdx;
+    /**
+     * The number of bytes written to the underlying stream
+     */
+    private long bytesWritten;
 
     private long currSize;
 
@@ -43,8 +59,6 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutput
 
     private long currBytes;
 
-    private int assemLen;
-
     private int longFileMode = LONGFILE_GNU;
 
     private int bigNumberMode = BIGNUMBER_ERROR;
@@ -124,15 +138,27 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutput
      */
     public TarArchiveOutputStream(OutputStream os, int blockSize, int recordSize, String encoding) {
         this.encoding = ArchiveEntryEncodingHelper.getEncoding(encoding);
-        this.assemLen = 0;
-        this.assemBuf = new byte[recordSize];
         this.recordBuf = new byte[recordSize];
         this.outStream = os;
+        this.channelStream = os instanceof ChannelOutputStream ? (ChannelOutputStream) os : null;
         this.blockSize = blockSize;
         this.recordSize = recordSize;
-        this.recsPerBlock = (this.blockSize / this.recordSize);
-        this.blockBuffer = new byte[this.blockSize];
-        this.currRecIdx = 0;
+        this.buffer = new byte[DEFAULT_BUFFER_BLOCKS * blockSize];
+        this.pos = 0;
+    }
+
+    /**
+     * Set the size of the buffer for assembling records. The size is rounded up to a multiple
+     * of the block size. The buffer must be set before the first entry is written.
+     *
+     * @param bufferSize the buffer size in bytes
+     */
+    public void setBufferSize(int bufferSize) {
+        if (pos > 0 || bytesWritten > 0) {
+            throw new IllegalStateException("buffer size must be set before writing");
+        }
+        int blocks = Math.max(1, (bufferSize + blockSize - 1) / blockSize);
+        this.buffer = new byte[blocks * blockSize];
     }
 
     /**
@@ -185,7 +211,14 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutput
         }
         writeEOFRecord();
         writeEOFRecord();
-        flushBlock();
+        // the archive is padded to whole blocks
+        int pad = (int) ((blockSize - (bytesWritten + pos) % blockSize) % blockSize);
+        if (pad > 0) {
+            ensureCapacity(pad);
+            Arrays.fill(buffer, pos, pos + pad, (byte) 0);
+            pos += pad;
+        }
+        writeBuffer(null, 0, 0);
         finished = true;
     }
 
@@ -201,7 +234,7 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutput
         }
         if (!closed) {
             if (outStream != null) {
-                flushBlock();
+                writeBuffer(null, 0, 0);
                 if (outStream != System.out
                         && outStream != System.err) {
                     outStream.close();
@@ -211,25 +244,51 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutput
         }
     }
 
-    private void flushBlock() throws IOException {
+    /**
+     * Write the whole records in the buffer, together with an optional record-aligned
+     * payload that is passed through without copying. An incomplete record is kept.
+     */
+    private void writeBuffer(byte[] b, int off, int len) throws IOException {
         if (outStream == null) {
             throw new IOException("writing to an input buffer");
         }
-        if (currRecIdx > 0) {
-            writeBlock();
+        int aligned = pos - pos % recordSize;
+        if (channelStream != null) {
+            if (len > 0) {
+                channelStream.write(new ByteBuffer[]{ByteBuffer.wrap(buffer, 0, aligned), ByteBuffer.wrap(b, off, len)});
+            } else if (aligned > 0) {
+                channelStream.write(buffer, 0, aligned);
+            }
+        } else {
+            if (aligned > 0) {
+                outStream.write(buffer, 0, aligned);
+            }
+            if (len > 0) {
+                outStream.write(b, off, len);
+            }
         }
+        bytesWritten += aligned + len;
+        if (aligned < pos) {
+            System.arraycopy(buffer, aligned, buffer, 0, pos - aligned);
+        }
+        pos -= aligned;
     }
 
-    private void writeBlock() throws IOException {
-        if (outStream == null) {
-            throw new IOException("writing to an input buffer");
+    private void ensureCapacity(int n) throws IOException {
+        if (pos + n > buffer.length) {
+            writeBuffer(null, 0, 0);
         }
-        outStream.write(blockBuffer, 0, blockSize);
-        outStream.flush();
-        currRecIdx = 0;
-        Arrays.fill(blockBuffer, (byte) 0);
     }
 
+    /**
+     * The position of the next record in the tar stream, counting the buffered bytes.
+     * Before an entry is put, this is the offset of the entry header.
+     *
+     * @return the position
+     */
+    public long getPosition() {
+        return bytesWritten + pos;
+    }
 
     /**
      * Get the record size being used by this stream's TarBuffer.
@@ -265,9 +324,13 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutput
         }
         Map<String, String> paxHeaders = new HashMap<String, String>();
         final String entryName = archiveEntry.getName();
-        final byte[] nameBytes = encoding.encode(entryName).array();
+        // pure ASCII names are written into the header as they are, without encoding buffers
+        final boolean asciiName = ArchiveEntryEncodingHelper.isAsciiCompatible(encoding)
+                && ArchiveUtils.isAscii(entryName);
+        final byte[] nameBytes = asciiName ? null : encoding.encode(entryName).array();
+        final int nameLength = asciiName ? entryName.length() : nameBytes.length;
         boolean paxHeaderContainsPath = false;
-        if (nameBytes.length >= NAMELEN) {
+        if (nameLength >= NAMELEN) {
             if (longFileMode == LONGFILE_POSIX) {
                 paxHeaders.put("path", entryName);
                 paxHeaderContainsPath = true;
@@ -275,9 +338,9 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutput
                 // create a TarEntry for the LongLink, the contents
                 // of which are the entry's name
                 TarArchiveOutputEntry longLinkEntry = new TarArchiveOutputEntry(GNU_LONGLINK, LF_GNUTYPE_LONGNAME);
-                longLinkEntry.setEntrySize(nameBytes.length + 1); // +1 for NUL
+                longLinkEntry.setEntrySize(nameLength + 1); // +1 for NUL
                 putArchiveEntry(longLinkEntry);
-                write(nameBytes);
+                write(asciiName ? ArchiveUtils.toAsciiBytes(entryName) : nameBytes);
                 write(0); // NUL terminator
                 closeArchiveEntry();
             } else if (longFileMode != LONGFILE_TRUNCATE) {
@@ -292,7 +355,7 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutput
             failForBigNumbers(archiveEntry);
         }
         if (addPaxHeadersForNonAsciiNames && !paxHeaderContainsPath
-                && !ASCII.canEncode(entryName)) {
+                && !asciiName && !ASCII.canEncode(entryName)) {
             paxHeaders.put("path", entryName);
         }
         if (addPaxHeadersForNonAsciiNames
@@ -334,17 +397,12 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutput
         if (!haveUnclosedEntry) {
             throw new IOException("no current entry to close");
         }
-        if (assemLen > 0) {
-            for (int i = assemLen; i < assemBuf.length; ++i) {
-                assemBuf[i] = 0;
-            }
-
-            writeRecord(assemBuf);
-
-            currBytes += assemLen;
-            assemLen = 0;
+        // pad the data to the record size
+        int rest = pos % recordSize;
+        if (rest > 0) {
+            Arrays.fill(buffer, pos, pos + recordSize - rest, (byte) 0);
+            pos += recordSize - rest;
         }
-
         if (currBytes < currSize) {
             throw new IOException("entry '" + currName + "' closed at '"
                     + currBytes
@@ -375,62 +433,25 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutput
                     + "' bytes exceeds size in header of '"
                     + currSize + "' bytes for entry '"
                     + currName + "'");
-
-            //
-            // We have to deal with assembly!!!
-            // The programmer can be writing little 32 byte chunks for all
-            // we know, and we must assemble complete records for writing.
-            // REVIEW Maybe this should be in TarBuffer? Could that help to
-            // eliminate some of the buffer copying.
-            //
         }
-
-        if (assemLen > 0) {
-            if ((assemLen + numToWrite) >= recordBuf.length) {
-                int aLen = recordBuf.length - assemLen;
-
-                System.arraycopy(assemBuf, 0, recordBuf, 0,
-                        assemLen);
-                System.arraycopy(wBuf, wOffset, recordBuf,
-                        assemLen, aLen);
-                writeRecord(recordBuf);
-
-                currBytes += recordBuf.length;
-                wOffset += aLen;
-                numToWrite -= aLen;
-                assemLen = 0;
-            } else {
-                System.arraycopy(wBuf, wOffset, assemBuf, assemLen,
-                        numToWrite);
-
-                wOffset += numToWrite;
-                assemLen += numToWrite;
-                numToWrite = 0;
-            }
-        }
-
-        //
-        // When we get here we have EITHER:
-        // o An empty "assemble" buffer.
-        // o No bytes to write (numToWrite == 0)
-        //
+        currBytes += numToWrite;
         while (numToWrite > 0) {
-            if (numToWrite < recordBuf.length) {
-                System.arraycopy(wBuf, wOffset, assemBuf, assemLen,
-                        numToWrite);
-
-                assemLen += numToWrite;
-
-                break;
+            if (pos == buffer.length) {
+                writeBuffer(null, 0, 0);
             }
-
-            writeRecord(wBuf, wOffset);
-
-            int num = recordBuf.length;
-
-            currBytes += num;
-            numToWrite -= num;
-            wOffset += num;
+            if (numToWrite >= buffer.length && pos % recordSize == 0) {
+                // large payloads are passed through without copying
+                int n = numToWrite - numToWrite % recordSize;
+                writeBuffer(wBuf, wOffset, n);
+                wOffset += n;
+                numToWrite -= n;
+                continue;
+            }
+            int n = Math.min(numToWrite, buffer.length - pos);
+            System.arraycopy(wBuf, wOffset, buffer, pos, n);
+            pos += n;
+            wOffset += n;
+            numToWrite -= n;
         }
     }
 
@@ -497,6 +518,7 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutput
 
     @Override
     public void flush() throws IOException {
+        writeBuffer(null, 0, 0);
         outStream.flush();
     }
 
@@ -549,27 +571,8 @@ public class TarArchiveOutputStream extends ArchiveOutputStream<TarArchiveOutput
                     + "' which is not the record size of '"
                     + recordSize + "'");
         }
-        if (currRecIdx >= recsPerBlock) {
-            writeBlock();
-        }
-        System.arraycopy(record, 0, blockBuffer, (currRecIdx * recordSize), recordSize);
-        currRecIdx++;
-    }
-
-    private void writeRecord(byte[] buf, int offset) throws IOException {
-        if (outStream == null) {
-            throw new IOException("Output buffer is closed");
-        }
-        if ((offset + recordSize) > buf.length) {
-            throw new IOException("record has length '" + buf.length
-                    + "' with offset '" + offset
-                    + "' which is less than the record size of '"
-                    + recordSize + "'");
-        }
-        if (currRecIdx >= recsPerBlock) {
-            writeBlock();
-        }
-        System.arraycopy(buf, offset, blockBuffer, (currRecIdx * recordSize), recordSize);
-        currRecIdx++;
+        ensureCapacity(recordSize);
+        System.arraycopy(record, 0, buffer, pos, recordSize);
+        pos += recordSize;
     }
 }
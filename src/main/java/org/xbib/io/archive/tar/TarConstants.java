@@ -295,5 +295,10 @@ public interface TarConstants {
      */
     int DEFAULT_BLOCK_SIZE = DEFAULT_RECORD_SIZE * 20;
 
+    /**
+     * Default number of blocks in the output buffer
+     */
+    int DEFAULT_BUFFER_BLOCKS = 32;
+
     int SMALL_BUFFER_SIZE = 256;
 }
@@ -28,4 +28,14 @@ public class TarSession extends ArchiveSession<TarArchiveInputStream, TarArchive
     public String getName() {
         return TarArchiveCodec.NAME;
     }
+
+    @Override
+    protected boolean isMemoryMappable() {
+        return true;
+    }
+
+    @Override
+    protected long getPosition(TarArchiveOutputStream out) {
+        return out.getPosition();
+    }
 }
\ No newline at end of file
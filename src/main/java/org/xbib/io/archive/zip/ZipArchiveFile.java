@@ -0,0 +1,619 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.archive.zip;
+
+import org.xbib.io.MemoryBudget;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+import org.xbib.io.TokenBucket;
+import org.xbib.io.archive.ArchiveUtils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Random access to the entries of a zip archive. The central directory is read once when
+ * the file is opened. Entries are read by positional reads of the file channel, so any
+ * number of readers on different threads can decompress entries at the same time.
+ */
+public class ZipArchiveFile implements Closeable {
+
+    private final static int LOCAL_HEADER_SIG = 0x04034b50;
+
+    private final static int CENTRAL_HEADER_SIG = 0x02014b50;
+
+    private final static int END_SIG = 0x06054b50;
+
+    private final static int ZIP64_END_SIG = 0x06064b50;
+
+    private final static int ZIP64_LOCATOR_SIG = 0x07064b50;
+
+    private final static int ZIP64_EXTRA_ID = 0x0001;
+
+    private final static int LOCAL_HEADER_LEN = 30;
+
+    private final static int CENTRAL_HEADER_LEN = 46;
+
+    private final static int END_LEN = 22;
+
+    private final static int ZIP64_END_LEN = 56;
+
+    private final static int ZIP64_LOCATOR_LEN = 20;
+
+    private final static long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    /**
+     * Extra bytes read with the entry data in a single read, local headers may
+     * have longer extra fields than the central directory
+     */
+    private final static int LOCAL_EXTRA_SLACK = 64;
+
+    private final static byte[] DUMMY = new byte[1];
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final FileChannel channel;
+
+    private final List<Entry> entries;
+
+    private TokenBucket throttle;
+
+    private MemoryBudget memoryBudget;
+
+    public ZipArchiveFile(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.entries = readCentralDirectory();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Set a token bucket for limiting the bytes per second read from the archive file.
+     *
+     * @param throttle the token bucket or null for no limit
+     * @return this file
+     */
+    public ZipArchiveFile setThrottle(TokenBucket throttle) {
+        this.throttle = throttle;
+        return this;
+    }
+
+    /**
+     * Set a memory budget for the entry buffers of the readers.
+     *
+     * @param memoryBudget the memory budget or null for no accounting
+     * @return this file
+     */
+    public ZipArchiveFile setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    /**
+     * The entries in the order of the central directory.
+     *
+     * @return the entries
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Create a reader. A reader keeps its buffers and its inflater between entries
+     * and must be used by a single thread.
+     *
+     * @return a new reader
+     */
+    public Reader newReader() {
+        return new Reader();
+    }
+
+    /**
+     * Create a read-only session over entries, e.g. a partition. The session has its own reader,
+     * so it must be used by a single thread.
+     *
+     * @param entries the entries
+     * @return the session
+     */
+    public Session<StringPacket> newSession(List<Entry> entries) {
+        return new EntrySession(entries);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Split entries into partitions of about the same compressed size. The partitions are
+     * consecutive ranges of the given entries, so each partition is read in file order.
+     * Entries of the same document, i.e. entries with the same name up to the last path
+     * separator, are never split into different partitions.
+     *
+     * @param entries the entries
+     * @param n       the maximum number of partitions
+     * @return the partitions, at most n
+     */
+    public static List<List<Entry>> partition(List<Entry> entries, int n) {
+        if (entries.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (n <= 1) {
+            return Collections.singletonList(entries);
+        }
+        long total = 0L;
+        for (Entry entry : entries) {
+            total += entry.compressedSize;
+        }
+        List<List<Entry>> partitions = new ArrayList<>(n);
+        long target = total / n;
+        long sum = 0L;
+        int start = 0;
+        String lastDocument = null;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            String document = entry.getDocument();
+            if (sum >= target * (partitions.size() + 1) && !document.equals(lastDocument)
+                    && partitions.size() < n - 1) {
+                partitions.add(entries.subList(start, i));
+                start = i;
+            }
+            sum += entry.compressedSize;
+            lastDocument = document;
+        }
+        partitions.add(entries.subList(start, entries.size()));
+        return partitions;
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long size = channel.size();
+        if (size < END_LEN) {
+            throw new ZipException("not a zip archive, too short");
+        }
+        // the end record is followed by a comment of up to 65535 bytes
+        int len = (int) Math.min(size, END_LEN + 0xFFFF);
+        ByteBuffer tail = readAt(size - len, len);
+        int pos = -1;
+        for (int i = len - END_LEN; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIG && i + END_LEN + (tail.getShort(i + 20) & 0xFFFF) == len) {
+                pos = i;
+                break;
+            }
+        }
+        if (pos < 0) {
+            throw new ZipException("end of central directory not found");
+        }
+        long count = tail.getShort(pos + 10) & 0xFFFF;
+        long cdSize = tail.getInt(pos + 12) & ZIP64_MAGIC;
+        long cdOffset = tail.getInt(pos + 16) & ZIP64_MAGIC;
+        long endPos = size - len + pos;
+        if (endPos >= ZIP64_LOCATOR_LEN) {
+            ByteBuffer locator = readAt(endPos - ZIP64_LOCATOR_LEN, ZIP64_LOCATOR_LEN);
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIG) {
+                ByteBuffer end64 = readAt(locator.getLong(8), ZIP64_END_LEN);
+                if (end64.getInt(0) != ZIP64_END_SIG) {
+                    throw new ZipException("invalid zip64 end of central directory");
+                }
+                count = end64.getLong(32);
+                cdSize = end64.getLong(40);
+                cdOffset = end64.getLong(48);
+            }
+        }
+        if (cdOffset + cdSize > size || count < 0 || count > Integer.MAX_VALUE) {
+            throw new ZipException("invalid central directory");
+        }
+        List<Entry> list = new ArrayList<>((int) count);
+        // positional reads into a local buffer, the shared channel position is left alone
+        ByteBuffer in = ByteBuffer.allocate((int) Math.min(Math.max(cdSize, CENTRAL_HEADER_LEN), 65536L));
+        in.flip();
+        long cdPos = cdOffset;
+        byte[] header = new byte[CENTRAL_HEADER_LEN];
+        ByteBuffer h = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] b = new byte[256];
+        for (long i = 0; i < count; i++) {
+            cdPos = readFully(in, cdPos, header, CENTRAL_HEADER_LEN);
+            if (h.getInt(0) != CENTRAL_HEADER_SIG) {
+                throw new ZipException("invalid central directory header at entry " + i);
+            }
+            int method = h.getShort(10) & 0xFFFF;
+            long crc = h.getInt(16) & ZIP64_MAGIC;
+            long compressedSize = h.getInt(20) & ZIP64_MAGIC;
+            long entrySize = h.getInt(24) & ZIP64_MAGIC;
+            int nameLen = h.getShort(28) & 0xFFFF;
+            int extraLen = h.getShort(30) & 0xFFFF;
+            int commentLen = h.getShort(32) & 0xFFFF;
+            long offset = h.getInt(42) & ZIP64_MAGIC;
+            int n = nameLen + extraLen + commentLen;
+            if (b.length < n) {
+                b = new byte[n];
+            }
+            cdPos = readFully(in, cdPos, b, n);
+            String name = new String(b, 0, nameLen, UTF8);
+            if (entrySize == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || offset == ZIP64_MAGIC) {
+                ByteBuffer extra = ByteBuffer.wrap(b, nameLen, extraLen).order(ByteOrder.LITTLE_ENDIAN);
+                while (extra.remaining() >= 4) {
+                    int id = extra.getShort() & 0xFFFF;
+                    int dataLen = extra.getShort() & 0xFFFF;
+                    int next = extra.position() + dataLen;
+                    if (id == ZIP64_EXTRA_ID) {
+                        if (entrySize == ZIP64_MAGIC) {
+                            entrySize = extra.getLong();
+                        }
+                        if (compressedSize == ZIP64_MAGIC) {
+                            compressedSize = extra.getLong();
+                        }
+                        if (offset == ZIP64_MAGIC) {
+                            offset = extra.getLong();
+                        }
+                        break;
+                    }
+                    extra.position(next);
+                }
+            }
+            if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+                throw new ZipException("unsupported compression method " + method + " of entry " + name);
+            }
+            list.add(new Entry(name, method, crc, compressedSize, entrySize, offset));
+        }
+        return list;
+    }
+
+    private ByteBuffer readAt(long position, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, pos);
+            if (n < 0) {
+                throw new EOFException("unexpected end of zip archive at " + pos);
+            }
+            pos += n;
+        }
+    }
+
+    private long readFully(ByteBuffer buffer, long position, byte[] b, int len) throws IOException {
+        long pos = position;
+        int num = 0;
+        while (num < len) {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                int n = channel.read(buffer, pos);
+                buffer.flip();
+                if (n < 0) {
+                    throw new EOFException("unexpected end of central directory");
+                }
+                pos += n;
+            }
+            int n = Math.min(len - num, buffer.remaining());
+            buffer.get(b, num, n);
+            num += n;
+        }
+        return pos;
+    }
+
+    /**
+     * An entry of the central directory.
+     */
+    public static class Entry {
+
+        private final String name;
+
+        private final int method;
+
+        private final long crc;
+
+        private final long compressedSize;
+
+        private final long size;
+
+        private final long offset;
+
+        Entry(String name, int method, long crc, long compressedSize, long size, long offset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * The document of this entry, the entry name up to the last path separator.
+         *
+         * @return the document name
+         */
+        public String getDocument() {
+            int pos = name.lastIndexOf(File.separatorChar);
+            return pos >= 0 ? name.substring(0, pos) : name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private class EntrySession implements Session<StringPacket> {
+
+        private final Iterator<Entry> iterator;
+
+        private final Deque<StringPacket> unpacked = new ArrayDeque<>();
+
+        private Reader reader;
+
+        EntrySession(List<Entry> entries) {
+            this.iterator = entries.iterator();
+        }
+
+        @Override
+        public void open(EnumSet<Mode> mode, Path path) throws IOException {
+            if (mode.contains(Mode.WRITE) || mode.contains(Mode.OVERWRITE)) {
+                throw new IOException("entries of a zip archive file are read only");
+            }
+            if (reader == null) {
+                reader = newReader();
+            }
+        }
+
+        @Override
+        public StringPacket newPacket() {
+            return new StringPacket();
+        }
+
+        @Override
+        public StringPacket read() throws IOException {
+            if (reader == null) {
+                throw new IOException("not open");
+            }
+            while (unpacked.isEmpty()) {
+                if (!iterator.hasNext()) {
+                    return null;
+                }
+                StringPacket packet = reader.read(iterator.next());
+                if (!ArchiveUtils.isPacked(packet)) {
+                    return packet;
+                }
+                unpacked.addAll(ArchiveUtils.unpack(packet));
+            }
+            return unpacked.poll();
+        }
+
+        @Override
+        public List<StringPacket> readBatch(int max) throws IOException {
+            List<StringPacket> packets = new ArrayList<>(Math.min(max, 1024));
+            StringPacket packet;
+            while (packets.size() < max && (packet = read()) != null) {
+                packets.add(packet);
+            }
+            return packets;
+        }
+
+        @Override
+        public void write(StringPacket packet) throws IOException {
+            throw new IOException("entries of a zip archive file are read only");
+        }
+
+        @Override
+        public void writeBatch(List<StringPacket> packets) throws IOException {
+            throw new IOException("entries of a zip archive file are read only");
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return reader != null;
+        }
+    }
+
+    /**
+     * Reads entries into packets, on a single thread.
+     */
+    public class Reader implements Closeable {
+
+        private final Inflater inflater = new Inflater(true);
+
+        private final java.util.zip.CRC32 crc32 = new CRC32();
+
+        private ByteBuffer buffer = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+
+        /**
+         * Read an entry into a packet with the entry name decoded into the packet meta data.
+         *
+         * @param entry the entry
+         * @return the packet
+         * @throws IOException if the entry can not be read
+         */
+        public StringPacket read(Entry entry) throws IOException {
+            if (entry.size > Integer.MAX_VALUE || entry.compressedSize > Integer.MAX_VALUE - LOCAL_EXTRA_SLACK) {
+                throw new ZipException("entry too large: " + entry.name);
+            }
+            StringPacket packet = new StringPacket();
+            packet.meta("name", entry.name);
+            ArchiveUtils.decodeArchiveEntryName(packet, entry.name);
+            byte[] nameBytes = entry.name.getBytes(UTF8);
+            int len = LOCAL_HEADER_LEN + nameBytes.length + LOCAL_EXTRA_SLACK + (int) entry.compressedSize;
+            long reserved = len + (entry.method == ZipEntry.DEFLATED ? entry.size : 0L);
+            reserve(reserved);
+            try {
+                // local header and data in a single read, if the local extra field is short
+                int limit = (int) Math.min(len, channel.size() - entry.offset);
+                if (limit < LOCAL_HEADER_LEN) {
+                    throw new ZipException("invalid local header offset of entry " + entry.name);
+                }
+                ByteBuffer b = read(entry.offset, 0, limit);
+                if (b.getInt(0) != LOCAL_HEADER_SIG) {
+                    throw new ZipException("invalid local header of entry " + entry.name);
+                }
+                int start = LOCAL_HEADER_LEN + (b.getShort(26) & 0xFFFF) + (b.getShort(28) & 0xFFFF);
+                int end = start + (int) entry.compressedSize;
+                if (end > limit) {
+                    b = read(entry.offset + limit, limit, end);
+                }
+                byte[] payload;
+                int offset;
+                if (entry.method == ZipEntry.STORED) {
+                    payload = b.array();
+                    offset = start;
+                } else {
+                    payload = inflate(entry, b.array(), start);
+                    offset = 0;
+                }
+                crc32.reset();
+                crc32.update(payload, offset, (int) entry.size);
+                if (crc32.getValue() != entry.crc) {
+                    throw new ZipException("invalid crc of entry " + entry.name);
+                }
+                if (ArchiveUtils.isBinaryXContent(payload, offset, (int) entry.size)) {
+                    packet.bytes(Arrays.copyOfRange(payload, offset, offset + (int) entry.size));
+                } else {
+                    packet.payload(new String(payload, offset, (int) entry.size, UTF8));
+                }
+            } finally {
+                release(reserved);
+            }
+            return packet;
+        }
+
+        @Override
+        public void close() {
+            inflater.end();
+        }
+
+        /**
+         * Read into the reader buffer, keeping the bytes before the buffer position.
+         */
+        private ByteBuffer read(long position, int from, int to) throws IOException {
+            if (buffer.capacity() < to) {
+                ByteBuffer b = ByteBuffer.allocate(Math.max(to, buffer.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+                System.arraycopy(buffer.array(), 0, b.array(), 0, from);
+                buffer = b;
+            }
+            buffer.limit(to).position(from);
+            if (throttle != null) {
+                try {
+                    throttle.acquire(to - from);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while throttled");
+                }
+            }
+            readFully(buffer, position);
+            buffer.position(0);
+            return buffer;
+        }
+
+        private byte[] inflate(Entry entry, byte[] b, int start) throws IOException {
+            byte[] payload = new byte[(int) entry.size];
+            inflater.reset();
+            inflater.setInput(b, start, (int) entry.compressedSize);
+            int num = 0;
+            boolean dummy = false;
+            try {
+                while (num < payload.length) {
+                    int n = inflater.inflate(payload, num, payload.length - num);
+                    if (n == 0) {
+                        if (inflater.finished() || inflater.needsDictionary() || !inflater.needsInput() || dummy) {
+                            break;
+                        }
+                        // raw inflate may need a dummy byte after the compressed data
+                        inflater.setInput(DUMMY);
+                        dummy = true;
+                    }
+                    num += n;
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("invalid compressed data of entry " + entry.name + ": " + e.getMessage());
+            }
+            if (num != payload.length) {
+                throw new ZipException("unexpected end of compressed data of entry " + entry.name);
+            }
+            return payload;
+        }
+
+        private void reserve(long bytes) throws IOException {
+            if (memoryBudget != null) {
+                memoryBudget.reserve(bytes);
+            }
+        }
+
+        private void release(long bytes) {
+            if (memoryBudget != null) {
+                memoryBudget.release(bytes);
+            }
+        }
+    }
+}
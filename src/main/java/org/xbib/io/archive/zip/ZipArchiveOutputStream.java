@@ -17,26 +17,36 @@ package org.xbib.io.archive.zip;
 
 import org.xbib.io.archive.ArchiveOutputStream;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+/**
+ * A zip archive output stream that writes entries directly to the underlying stream.
+ *
+ * DEFLATED entries are written as they come, CRC and compressed size follow the entry data
+ * in a data descriptor. STORED entries must have the CRC in the local header. If the payload
+ * of a STORED entry is written at once, as archive sessions do, the CRC is computed before
+ * the entry is written, otherwise the entry is buffered until it is closed.
+ *
+ * Archives with more than 65535 entries or more than 4 GB are written in ZIP64 format.
+ */
 public class ZipArchiveOutputStream extends ArchiveOutputStream<ZipArchiveEntry> {
 
     private final ZipOutputStream out;
 
+    private final CRC32 crc;
+
+    private int method;
+
     private ZipEntry zipEntry;
 
-    private List<ByteBuffer> bytes;
+    private boolean entryStarted;
 
-    private CRC32 crc;
+    private ByteArrayOutputStream buffer;
 
     private boolean finished;
 
@@ -44,8 +54,37 @@ public class ZipArchiveOutputStream extends ArchiveOutputStream<ZipArchiveEntry>
 
     public ZipArchiveOutputStream(OutputStream out) {
         this.out = new ZipOutputStream(out);
-        this.bytes = new LinkedList<ByteBuffer>();
         this.crc = new CRC32();
+        this.method = ZipEntry.DEFLATED;
+    }
+
+    /**
+     * Set the compression method of the following entries.
+     *
+     * @param method {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}
+     * @return this stream
+     */
+    public ZipArchiveOutputStream setMethod(int method) {
+        if (method != ZipEntry.DEFLATED && method != ZipEntry.STORED) {
+            throw new IllegalArgumentException("invalid compression method: " + method);
+        }
+        this.method = method;
+        return this;
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    /**
+     * Set the compression level of DEFLATED entries.
+     *
+     * @param level the compression level, 0-9
+     * @return this stream
+     */
+    public ZipArchiveOutputStream setLevel(int level) {
+        out.setLevel(level);
+        return this;
     }
 
     @Override
@@ -56,18 +95,26 @@ public class ZipArchiveOutputStream extends ArchiveOutputStream<ZipArchiveEntry>
     @Override
     public void putArchiveEntry(ZipArchiveEntry entry) throws IOException {
         zipEntry = entry.getEntry();
+        zipEntry.setMethod(method);
+        entryStarted = false;
+        if (method == ZipEntry.DEFLATED) {
+            // CRC and compressed size are unknown, they are written in the data descriptor
+            out.putNextEntry(zipEntry);
+            entryStarted = true;
+        }
     }
 
     @Override
     public void closeArchiveEntry() throws IOException {
-        zipEntry.setCrc(crc.getValue());
-        out.putNextEntry(zipEntry);
-        WritableByteChannel channel = Channels.newChannel(out);
-        for (ByteBuffer buffer : bytes) {
-            channel.write(buffer);
+        if (!entryStarted) {
+            // STORED entry without data, or with data written in pieces
+            byte[] b = buffer != null ? buffer.toByteArray() : new byte[0];
+            startStoredEntry(b, 0, b.length);
+            out.write(b);
+            buffer = null;
         }
-        bytes.clear();
         out.closeEntry();
+        zipEntry = null;
     }
 
     @Override
@@ -87,11 +134,36 @@ public class ZipArchiveOutputStream extends ArchiveOutputStream<ZipArchiveEntry>
         }
     }
 
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
     @Override
     public void write(byte[] b, int offset, int length) throws IOException {
         getWatcher().updateBytesTransferred(length);
-        crc.update(b, offset, length);
-        bytes.add(ByteBuffer.wrap(b, offset, length));
+        if (!entryStarted) {
+            if (buffer == null && length == zipEntry.getSize()) {
+                // the whole payload of a STORED entry, the CRC can be computed in advance
+                startStoredEntry(b, offset, length);
+            } else {
+                if (buffer == null) {
+                    buffer = new ByteArrayOutputStream();
+                }
+                buffer.write(b, offset, length);
+                return;
+            }
+        }
+        out.write(b, offset, length);
     }
 
+    private void startStoredEntry(byte[] b, int offset, int length) throws IOException {
+        crc.reset();
+        crc.update(b, offset, length);
+        zipEntry.setCrc(crc.getValue());
+        zipEntry.setSize(length);
+        zipEntry.setCompressedSize(length);
+        out.putNextEntry(zipEntry);
+        entryStarted = true;
+    }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.compress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compression codec that can compress and decompress a stream on several threads.
+ */
+public interface ParallelCompressCodec<I extends InputStream, O extends OutputStream> extends CompressCodec<I, O> {
+
+    I decode(InputStream in, int bufsize, int threads) throws IOException;
+
+    O encode(OutputStream out, int bufsize, int threads) throws IOException;
+
+    /**
+     * The memory held by the buffers of a parallel stream.
+     *
+     * @param threads the number of threads
+     * @return the number of bytes
+     */
+    long getBufferBytes(int threads);
+}
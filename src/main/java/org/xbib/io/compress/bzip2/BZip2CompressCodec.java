@@ -30,6 +30,6 @@ public class BZip2CompressCodec implements CompressCodec<BZip2InputStream, BZip2
 
     @Override
     public BZip2OutputStream encode(OutputStream out, int bufsize) throws IOException {
-        return new BZip2OutputStream(out, bufsize);
+        return new BZip2OutputStream(out); // bufsize is not a block size multiplier, use the default block size
     }
 }
@@ -15,7 +15,7 @@
  */
 package org.xbib.io.compress.gzip;
 
-import org.xbib.io.compress.CompressCodec;
+import org.xbib.io.compress.ParallelCompressCodec;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -23,7 +23,7 @@ import java.io.OutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
-public class GzipCompressCodec implements CompressCodec<GZIPInputStream, GZIPOutputStream> {
+public class GzipCompressCodec implements ParallelCompressCodec<InputStream, OutputStream> {
 
     @Override
     public String getName() {
@@ -40,6 +40,11 @@ public class GzipCompressCodec implements CompressCodec<GZIPInputStream, GZIPOut
         return new GZIPInputStream(in, bufsize);
     }
 
+    @Override
+    public ParallelGzipInputStream decode(InputStream in, int bufsize, int threads) throws IOException {
+        return new ParallelGzipInputStream(in, bufsize, threads);
+    }
+
     @Override
     public GZIPOutputStream encode(OutputStream out) throws IOException {
         return new GZIPOutputStream(out);
@@ -49,4 +54,17 @@ public class GzipCompressCodec implements CompressCodec<GZIPInputStream, GZIPOut
     public GZIPOutputStream encode(OutputStream out, int bufsize) throws IOException {
         return new GZIPOutputStream(out, bufsize);
     }
+
+    @Override
+    public ParallelGzipOutputStream encode(OutputStream out, int bufsize, int threads) throws IOException {
+        return new ParallelGzipOutputStream(out, threads);
+    }
+
+    /**
+     * Up to two members per thread are queued, each with an uncompressed and a compressed buffer.
+     */
+    @Override
+    public long getBufferBytes(int threads) {
+        return (2L * threads + 1) * 2 * ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE;
+    }
 }
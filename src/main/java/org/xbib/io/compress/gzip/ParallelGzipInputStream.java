@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.compress.gzip;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a gzip stream that was written by {@link ParallelGzipOutputStream}. The members are read ahead
+ * by the length in their extra field, decompressed by a pool of threads, and returned in order.
+ * At the first member without a length, the rest of the stream is read by a {@link GZIPInputStream},
+ * so gzip streams of other writers are read sequentially.
+ */
+public class ParallelGzipInputStream extends InputStream {
+
+    /**
+     * The maximum uncompressed size of a member that is decompressed in parallel
+     */
+    private final static int MAX_MEMBER_SIZE = 64 * 1024 * 1024;
+
+    private final InputStream in;
+
+    private final int bufsize;
+
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    private final Deque<Future<byte[]>> pending;
+
+    private final byte[] header = new byte[ParallelGzipOutputStream.HEADER_LEN];
+
+    private InputStream fallback;
+
+    private byte[] current = new byte[0];
+
+    private int pos;
+
+    private boolean eof;
+
+    private boolean closed;
+
+    public ParallelGzipInputStream(InputStream in, int bufsize, int threads) {
+        this.in = in;
+        this.bufsize = bufsize;
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads, new DecoderThreadFactory());
+        this.pending = new ArrayDeque<>();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (pos >= current.length) {
+            readAhead();
+            if (pending.isEmpty()) {
+                return fallback != null ? fallback.read(b, off, len) : -1;
+            }
+            current = take(pending.poll());
+            pos = 0;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            executor.shutdownNow();
+            if (fallback != null) {
+                fallback.close();
+            } else {
+                in.close();
+            }
+        }
+    }
+
+    private void readAhead() throws IOException {
+        while (!eof && pending.size() < 2 * threads) {
+            readMember();
+        }
+    }
+
+    private void readMember() throws IOException {
+        int n = readFully(header, 0, 10);
+        if (n == 0) {
+            eof = true;
+            return;
+        }
+        if (n == 10 && (header[3] & 0xff) == ParallelGzipOutputStream.FEXTRA) {
+            n += readFully(header, 10, ParallelGzipOutputStream.HEADER_LEN - 10);
+        }
+        if (n < ParallelGzipOutputStream.HEADER_LEN || getShort(header, 0) != ParallelGzipOutputStream.GZIP_MAGIC
+                || header[2] != 8 || getShort(header, 10) != 8
+                || header[12] != ParallelGzipOutputStream.SI1 || header[13] != ParallelGzipOutputStream.SI2
+                || getShort(header, 14) != 4) {
+            // not a member of a parallel gzip stream
+            fallback = new GZIPInputStream(new SequenceInputStream(
+                    new ByteArrayInputStream(Arrays.copyOf(header, n)), in), bufsize);
+            eof = true;
+            return;
+        }
+        int size = getInt(header, 16);
+        if (size < ParallelGzipOutputStream.HEADER_LEN + ParallelGzipOutputStream.TRAILER_LEN) {
+            throw new ZipException("corrupt gzip member length " + size);
+        }
+        final byte[] member = new byte[size - ParallelGzipOutputStream.HEADER_LEN];
+        if (readFully(member, 0, member.length) != member.length) {
+            throw new EOFException("unexpected end of gzip stream");
+        }
+        pending.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return decode(member);
+            }
+        }));
+    }
+
+    /**
+     * Decompress the deflate data and check the trailer of a member.
+     *
+     * @param member the member without header
+     * @return the uncompressed data
+     * @throws IOException if the member is corrupt
+     */
+    private static byte[] decode(byte[] member) throws IOException {
+        int end = member.length - ParallelGzipOutputStream.TRAILER_LEN;
+        int checksum = getInt(member, end);
+        int length = getInt(member, end + 4);
+        if (length < 0 || length > MAX_MEMBER_SIZE) {
+            throw new ZipException("gzip member too large: " + (length & 0xffffffffL));
+        }
+        byte[] data = new byte[length];
+        Inflater inflater = new Inflater(true);
+        try {
+            // raw inflate may need the first byte of the trailer as dummy input
+            inflater.setInput(member, 0, end + 1);
+            int n = 0;
+            while (!inflater.finished()) {
+                int k = inflater.inflate(data, n, length - n);
+                if (k == 0 && !inflater.finished() && (inflater.needsInput() || n == length)) {
+                    break;
+                }
+                n += k;
+            }
+            if (!inflater.finished() || n != length || inflater.getRemaining() != 1) {
+                throw new ZipException("corrupt gzip member, " + n + " of " + length + " bytes decompressed");
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("corrupt gzip member: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        if ((int) crc.getValue() != checksum) {
+            throw new ZipException("corrupt gzip member, CRC32 mismatch");
+        }
+        return data;
+    }
+
+    private byte[] take(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for gzip decoder");
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            throw t instanceof IOException ? (IOException) t : new IOException(t);
+        }
+    }
+
+    private int readFully(byte[] b, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int k = in.read(b, off + n, len - n);
+            if (k < 0) {
+                break;
+            }
+            n += k;
+        }
+        return n;
+    }
+
+    private static int getShort(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+
+    private static class DecoderThreadFactory implements ThreadFactory {
+
+        private final static AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "knapsack-gzip-decoder-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2014 Jörg Prante
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xbib.io.compress.gzip;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a gzip stream of independent members, compressed by a pool of threads. The input is split
+ * into blocks, each block is compressed into a gzip member of its own, and the members are written in order.
+ * The concatenated members are a valid gzip stream for any gzip reader.
+ *
+ * A member header has an extra field with the length of the member, so {@link ParallelGzipInputStream}
+ * can read the members of a stream ahead and decompress them in parallel. Blocks are compressed without
+ * the tail of the previous block as dictionary, which costs a few bytes per block, but a member can be
+ * decompressed without its predecessor.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    /**
+     * The default uncompressed size of a member
+     */
+    public final static int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * The length of a member header with the extra field
+     */
+    final static int HEADER_LEN = 20;
+
+    /**
+     * The length of a member trailer, the CRC32 and the uncompressed length
+     */
+    final static int TRAILER_LEN = 8;
+
+    final static int GZIP_MAGIC = 0x8b1f;
+
+    final static int FEXTRA = 4;
+
+    /**
+     * The extra subfield ID of the member length
+     */
+    final static byte SI1 = 'K';
+
+    final static byte SI2 = 'S';
+
+    private final OutputStream out;
+
+    private final int blockSize;
+
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    private final Queue<Deflater> deflaters;
+
+    private final Deque<Future<Member>> pending;
+
+    private byte[] buf;
+
+    private int count;
+
+    private boolean written;
+
+    private boolean closed;
+
+    public ParallelGzipOutputStream(OutputStream out, int threads) {
+        this(out, threads, DEFAULT_BLOCK_SIZE);
+    }
+
+    public ParallelGzipOutputStream(OutputStream out, int threads, int blockSize) {
+        this.out = out;
+        this.threads = threads;
+        this.blockSize = blockSize;
+        this.executor = Executors.newFixedThreadPool(threads, new EncoderThreadFactory());
+        this.deflaters = new ConcurrentLinkedQueue<>();
+        this.pending = new ArrayDeque<>();
+        this.buf = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        if (count == blockSize) {
+            flushBlock();
+        }
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        while (len > 0) {
+            if (count == blockSize) {
+                flushBlock();
+            }
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, buf, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Write the members that are compressed so far. The current block is not cut short,
+     * so flushing does not create small members.
+     *
+     * @throws IOException if the members can not be written
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            writeMember(take(pending.poll()));
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // an empty stream is a single empty member
+            if (count > 0 || (!written && pending.isEmpty())) {
+                flushBlock();
+            }
+            while (!pending.isEmpty()) {
+                writeMember(take(pending.poll()));
+            }
+            out.close();
+        } finally {
+            executor.shutdownNow();
+            Deflater deflater;
+            while ((deflater = deflaters.poll()) != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        final byte[] data = buf;
+        final int length = count;
+        pending.add(executor.submit(new Callable<Member>() {
+            @Override
+            public Member call() {
+                return encode(data, length);
+            }
+        }));
+        // the block buffer now belongs to the encoder
+        buf = new byte[blockSize];
+        count = 0;
+        while (pending.size() > 2 * threads) {
+            writeMember(take(pending.poll()));
+        }
+    }
+
+    private Member encode(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] b = new byte[HEADER_LEN + length + length / 16 + 64 + TRAILER_LEN];
+            int n = HEADER_LEN;
+            while (!deflater.finished()) {
+                if (n == b.length - TRAILER_LEN) {
+                    b = Arrays.copyOf(b, b.length * 2);
+                }
+                n += deflater.deflate(b, n, b.length - TRAILER_LEN - n);
+            }
+            int size = n + TRAILER_LEN;
+            b[0] = (byte) GZIP_MAGIC;
+            b[1] = (byte) (GZIP_MAGIC >> 8);
+            b[2] = Deflater.DEFLATED;
+            b[3] = FEXTRA;
+            // modification time 0, extra flags 0, operating system 0
+            putShort(b, 10, 8);
+            b[12] = SI1;
+            b[13] = SI2;
+            putShort(b, 14, 4);
+            putInt(b, 16, size);
+            putInt(b, n, (int) crc.getValue());
+            putInt(b, n + 4, length);
+            return new Member(b, size);
+        } finally {
+            deflater.reset();
+            deflaters.offer(deflater);
+        }
+    }
+
+    private Member take(Future<Member> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for gzip encoder");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void writeMember(Member member) throws IOException {
+        out.write(member.data, 0, member.length);
+        written = true;
+    }
+
+    private static void putShort(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+        b[off + 2] = (byte) (value >>> 16);
+        b[off + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * A compressed gzip member.
+     */
+    private static class Member {
+
+        private final byte[] data;
+
+        private final int length;
+
+        Member(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private static class EncoderThreadFactory implements ThreadFactory {
+
+        private final static AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "knapsack-gzip-encoder-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
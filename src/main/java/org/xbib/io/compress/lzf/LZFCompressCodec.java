@@ -45,6 +45,6 @@ public class LZFCompressCodec implements CompressCodec<LZFInputStream, LZFOutput
 
     @Override
     public LZFOutputStream encode(OutputStream out, int bufsize) throws IOException {
-        return new LZFOutputStream(out, bufsize);
+        return new LZFOutputStream(out, Math.min(bufsize, LZFChunk.MAX_CHUNK_LEN));
     }
 }
@@ -20,7 +20,7 @@ public class XZCompressCodec implements CompressCodec<XZInputStream, XZOutputStr
 
     @Override
     public XZInputStream decode(InputStream in, int bufsize) throws IOException {
-        return new XZInputStream(in, bufsize / 1024); // KB limit
+        return new XZInputStream(in); // bufsize is not a memory limit, the decoder has no buffer to size
     }
 
     @Override
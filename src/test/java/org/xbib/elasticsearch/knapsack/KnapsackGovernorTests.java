@@ -0,0 +1,95 @@
+package org.xbib.elasticsearch.knapsack;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.node.settings.NodeSettingsService;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class KnapsackGovernorTests {
+
+    private static KnapsackGovernor newGovernor(String maxBytesPerSec) {
+        Settings settings = Settings.settingsBuilder()
+                .put(KnapsackGovernor.MAX_BYTES_PER_SEC, maxBytesPerSec)
+                .build();
+        return new KnapsackGovernor(settings, new NodeSettingsService(settings));
+    }
+
+    @Test
+    public void testJoinLeave() {
+        KnapsackGovernor governor = newGovernor("1200b");
+        assertEquals(1200L, governor.getMaxBytesPerSec());
+        KnapsackGovernor.Share share1 = governor.join(new KnapsackState().setMode("test1"));
+        assertEquals(1200.0d, share1.getBytes().getRate(), 0.0d);
+        KnapsackGovernor.Share share2 = governor.join(new KnapsackState().setMode("test2"));
+        assertEquals(600.0d, share1.getBytes().getRate(), 0.0d);
+        assertEquals(600.0d, share2.getBytes().getRate(), 0.0d);
+        KnapsackGovernor.Share share3 = governor.join(new KnapsackState().setMode("test3"));
+        assertEquals(400.0d, share1.getBytes().getRate(), 0.0d);
+        assertEquals(400.0d, share2.getBytes().getRate(), 0.0d);
+        assertEquals(400.0d, share3.getBytes().getRate(), 0.0d);
+        governor.leave(share2);
+        assertEquals(600.0d, share1.getBytes().getRate(), 0.0d);
+        assertEquals(600.0d, share3.getBytes().getRate(), 0.0d);
+        governor.leave(share1);
+        assertEquals(1200.0d, share3.getBytes().getRate(), 0.0d);
+        // leaving twice is harmless
+        governor.leave(share1);
+        governor.leave(null);
+        assertEquals(1200.0d, share3.getBytes().getRate(), 0.0d);
+    }
+
+    @Test
+    public void testUnusedRateIsShared() {
+        KnapsackGovernor governor = newGovernor("1200b");
+        KnapsackGovernor.Share share1 = governor.join(new KnapsackState().setMode("test1"));
+        KnapsackGovernor.Share share2 = governor.join(new KnapsackState().setMode("test2"));
+        KnapsackGovernor.Share share3 = governor.join(new KnapsackState().setMode("test3"));
+        share1.setMaxBytesPerSec(200L);
+        assertEquals(200.0d, share1.getBytes().getRate(), 0.0d);
+        assertEquals(500.0d, share2.getBytes().getRate(), 0.0d);
+        assertEquals(500.0d, share3.getBytes().getRate(), 0.0d);
+        // a job limit above the fair part does not take more than the fair part
+        share2.setMaxBytesPerSec(5000L);
+        assertEquals(200.0d, share1.getBytes().getRate(), 0.0d);
+        assertEquals(500.0d, share2.getBytes().getRate(), 0.0d);
+        assertEquals(500.0d, share3.getBytes().getRate(), 0.0d);
+        share1.setMaxBytesPerSec(0L);
+        assertEquals(400.0d, share1.getBytes().getRate(), 0.0d);
+        assertEquals(400.0d, share2.getBytes().getRate(), 0.0d);
+        assertEquals(400.0d, share3.getBytes().getRate(), 0.0d);
+    }
+
+    @Test
+    public void testNoNodeLimit() {
+        KnapsackGovernor governor = newGovernor("0b");
+        KnapsackGovernor.Share share1 = governor.join(new KnapsackState().setMode("test1"));
+        KnapsackGovernor.Share share2 = governor.join(new KnapsackState().setMode("test2"));
+        assertFalse(share1.getBytes().isLimited());
+        assertFalse(share2.getBytes().isLimited());
+        share1.setMaxBytesPerSec(300L);
+        assertEquals(300.0d, share1.getBytes().getRate(), 0.0d);
+        assertFalse(share2.getBytes().isLimited());
+    }
+
+    @Test
+    public void testRefreshSettings() {
+        KnapsackGovernor governor = newGovernor("1200b");
+        KnapsackGovernor.Share share1 = governor.join(new KnapsackState().setMode("test1"));
+        KnapsackGovernor.Share share2 = governor.join(new KnapsackState().setMode("test2"));
+        governor.onRefreshSettings(Settings.settingsBuilder()
+                .put(KnapsackGovernor.MAX_BYTES_PER_SEC, "2400b")
+                .put(KnapsackGovernor.MAX_DOCS_PER_SEC, 100L)
+                .build());
+        assertEquals(2400L, governor.getMaxBytesPerSec());
+        assertEquals(100L, governor.getMaxDocsPerSec());
+        assertEquals(1200.0d, share1.getBytes().getRate(), 0.0d);
+        assertEquals(1200.0d, share2.getBytes().getRate(), 0.0d);
+        governor.onRefreshSettings(Settings.settingsBuilder()
+                .put(KnapsackGovernor.MAX_BYTES_PER_SEC, "0b")
+                .build());
+        assertFalse(share1.getBytes().isLimited());
+        assertFalse(share2.getBytes().isLimited());
+    }
+}
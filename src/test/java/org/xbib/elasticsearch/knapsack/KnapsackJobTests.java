@@ -0,0 +1,83 @@
+package org.xbib.elasticsearch.knapsack;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.node.settings.NodeSettingsService;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class KnapsackJobTests {
+
+    @Test
+    public void testAbort() {
+        KnapsackGovernor governor = new KnapsackGovernor(Settings.EMPTY, new NodeSettingsService(Settings.EMPTY));
+        KnapsackService service = new KnapsackService(Settings.EMPTY, null, governor, null);
+        KnapsackState state1 = new KnapsackState().newId().setMode("export").setNodeName("node1");
+        KnapsackState state2 = new KnapsackState().newId().setMode("import").setNodeName("node1");
+        KnapsackJob job1 = service.addJob(new KnapsackJob(state1, governor.join(state1)));
+        KnapsackJob job2 = service.addJob(new KnapsackJob(state2, governor.join(state2)));
+        assertSame(job1, service.getJob(state1.id()));
+        assertEquals(2, service.getJobs().size());
+        assertTrue(service.abort(job1.getId()));
+        assertTrue(job1.isAborted());
+        // the other job keeps running
+        assertFalse(job2.isAborted());
+        assertFalse(service.abort("unknown"));
+        assertFalse(service.abort((String) null));
+        service.removeJob(job1);
+        assertNull(service.getJob(job1.getId()));
+        assertFalse(service.abort(job1.getId()));
+        assertFalse(job2.isAborted());
+    }
+
+    @Test
+    public void testJobIds() {
+        KnapsackGovernor governor = new KnapsackGovernor(Settings.EMPTY, new NodeSettingsService(Settings.EMPTY));
+        KnapsackService service = new KnapsackService(Settings.EMPTY, null, governor, null);
+        DateTime timestamp = new DateTime();
+        Path path = Paths.get("/tmp/x.tar.gz");
+        // jobs with the same mode and path, started at the same time
+        KnapsackState state1 = new KnapsackState().newId().setMode("export").setTimestamp(timestamp).setPath(path);
+        KnapsackState state2 = new KnapsackState().newId().setMode("export").setTimestamp(timestamp).setPath(path);
+        assertNotEquals(state1.id(), state2.id());
+        assertFalse(state1.equals(state2));
+        // the id can be used as request parameter without encoding
+        assertTrue(state1.id().matches("[A-Za-z0-9_-]+"));
+        KnapsackJob job1 = service.addJob(new KnapsackJob(state1, governor.join(state1)));
+        KnapsackJob job2 = service.addJob(new KnapsackJob(state2, governor.join(state2)));
+        assertEquals(2, service.getJobs().size());
+        // the id does not change when the state changes
+        String id = job1.getId();
+        state1.setClusterAddress("localhost:9300");
+        assertEquals(id, job1.getId());
+        service.removeJob(job1);
+        assertNull(service.getJob(job1.getId()));
+        assertSame(job2, service.getJob(job2.getId()));
+    }
+
+    @Test
+    public void testBulkChanged() {
+        KnapsackGovernor governor = new KnapsackGovernor(Settings.EMPTY, new NodeSettingsService(Settings.EMPTY));
+        KnapsackState state = new KnapsackState().setMode("import");
+        KnapsackJob job = new KnapsackJob(state, governor.join(state))
+                .setMaxActionsPerBulkRequest(1000)
+                .setMaxBulkConcurrency(4);
+        assertFalse(job.isBulkChanged(1000, 4));
+        job.setMaxBulkConcurrency(2);
+        assertTrue(job.isBulkChanged(1000, 4));
+        assertFalse(job.isBulkChanged(1000, 2));
+        job.setMaxActionsPerBulkRequest(500);
+        assertTrue(job.isBulkChanged(1000, 2));
+        job.setMaxDocsPerSec(100L);
+        assertEquals(100L, job.getMaxDocsPerSec());
+    }
+}
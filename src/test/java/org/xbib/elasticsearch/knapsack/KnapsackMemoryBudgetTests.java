@@ -0,0 +1,121 @@
+package org.xbib.elasticsearch.knapsack;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.indices.breaker.HierarchyCircuitBreakerService;
+import org.elasticsearch.node.settings.NodeSettingsService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class KnapsackMemoryBudgetTests {
+
+    private KnapsackMemoryBudget budget;
+
+    @Before
+    public void setup() {
+        Settings settings = Settings.settingsBuilder()
+                .put(KnapsackMemoryBudget.MEMORY_LIMIT, "1000b")
+                .put(KnapsackMemoryBudget.MEMORY_MAX_WAIT, "10s")
+                .build();
+        NodeSettingsService nodeSettingsService = new NodeSettingsService(settings);
+        budget = new KnapsackMemoryBudget(settings,
+                new HierarchyCircuitBreakerService(settings, nodeSettingsService), nodeSettingsService);
+    }
+
+    @Test
+    public void testReserveRelease() throws IOException {
+        assertEquals(1000L, budget.getLimit());
+        KnapsackMemoryBudget.Account account = budget.newAccount(new KnapsackState().setMode("test"));
+        account.reserve(100L);
+        account.reserve(200L);
+        assertEquals(300L, account.getUsed());
+        assertEquals(300L, budget.getUsed());
+        account.release(100L);
+        assertEquals(200L, account.getUsed());
+        assertEquals(200L, budget.getUsed());
+        account.reserve(0L);
+        account.release(-1L);
+        assertEquals(200L, account.getUsed());
+        account.close();
+        assertEquals(0L, account.getUsed());
+        assertEquals(0L, budget.getUsed());
+    }
+
+    @Test
+    public void testAdjust() throws IOException {
+        KnapsackMemoryBudget.Account account = budget.newAccount(new KnapsackState().setMode("test"));
+        account.reserve(100L);
+        assertEquals(250L, account.adjust(100L, 250L));
+        assertEquals(250L, budget.getUsed());
+        assertEquals(50L, account.adjust(250L, 50L));
+        assertEquals(50L, budget.getUsed());
+        account.close();
+        assertEquals(0L, budget.getUsed());
+    }
+
+    @Test
+    public void testWindow() throws IOException {
+        KnapsackMemoryBudget.Account account = budget.newAccount(new KnapsackState().setMode("test"));
+        KnapsackMemoryBudget.Window window = account.newWindow(2);
+        window.add(10L);
+        window.add(20L);
+        assertEquals(30L, account.getUsed());
+        // the window is full, the oldest reservation is released
+        window.add(30L);
+        assertEquals(50L, account.getUsed());
+        window.add(40L);
+        assertEquals(70L, account.getUsed());
+        window.clear();
+        assertEquals(0L, account.getUsed());
+        assertEquals(0L, budget.getUsed());
+        window.add(5L);
+        assertEquals(5L, account.getUsed());
+        account.close();
+    }
+
+    @Test
+    public void testOnlyHolderIsNotBlocked() throws IOException {
+        KnapsackMemoryBudget.Account account = budget.newAccount(new KnapsackState().setMode("test"));
+        account.reserve(2000L);
+        assertEquals(2000L, account.getUsed());
+        assertEquals(2000L, budget.getUsed());
+        account.close();
+        assertEquals(0L, budget.getUsed());
+    }
+
+    @Test
+    public void testWaitForRelease() throws Exception {
+        KnapsackMemoryBudget.Account account1 = budget.newAccount(new KnapsackState().setMode("test1"));
+        final KnapsackMemoryBudget.Account account2 = budget.newAccount(new KnapsackState().setMode("test2"));
+        account1.reserve(600L);
+        account2.reserve(300L);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        // account2 is above its fair share, so the reservation must wait for account1
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    account2.reserve(300L);
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        };
+        thread.start();
+        thread.join(200L);
+        assertEquals(300L, account2.getUsed());
+        account1.release(600L);
+        thread.join(5000L);
+        assertNull(failure.get());
+        assertEquals(600L, account2.getUsed());
+        assertEquals(600L, budget.getUsed());
+        account1.close();
+        account2.close();
+        assertEquals(0L, budget.getUsed());
+    }
+}
@@ -0,0 +1,93 @@
+package org.xbib.elasticsearch.plugin.knapsack;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.knapsack.abort.KnapsackAbortRequestBuilder;
+import org.xbib.elasticsearch.action.knapsack.abort.KnapsackAbortResponse;
+import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportRequestBuilder;
+import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportResponse;
+import org.xbib.elasticsearch.action.knapsack.update.KnapsackUpdateRequestBuilder;
+import org.xbib.elasticsearch.knapsack.KnapsackGovernor;
+import org.xbib.elasticsearch.util.NodeTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KnapsackAbortTests extends NodeTestUtils {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackAbortTests.class.getName());
+
+    @Test
+    public void testAbortById() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello World " + i)).actionGet();
+        }
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        // throttle the exports, so they are still running when one of them is aborted
+        client("1").admin().cluster().prepareUpdateSettings()
+                .setTransientSettings(Settings.settingsBuilder().put(KnapsackGovernor.MAX_DOCS_PER_SEC, 2))
+                .execute().actionGet();
+        File exportFile1 = File.createTempFile("knapsack-abort-", ".bulk");
+        File exportFile2 = File.createTempFile("knapsack-abort-", ".bulk");
+        String id1 = export(exportFile1);
+        String id2 = export(exportFile2);
+        try {
+            KnapsackAbortResponse response = new KnapsackAbortRequestBuilder(client("1"))
+                    .setId(id1)
+                    .execute().actionGet();
+            logger.info("response={}", response);
+            assertTrue(response.isFound());
+            assertEquals(id1, response.getId());
+            // the aborted job ends, the other job keeps running
+            for (int i = 0; i < 50 && isRunning(id1); i++) {
+                Thread.sleep(100L);
+            }
+            assertFalse(isRunning(id1));
+            assertTrue(isRunning(id2));
+            // unknown ids are not found
+            response = new KnapsackAbortRequestBuilder(client("1"))
+                    .setId("unknown")
+                    .execute().actionGet();
+            assertFalse(response.isFound());
+            response = new KnapsackAbortRequestBuilder(client("1"))
+                    .setId(id1)
+                    .execute().actionGet();
+            assertFalse(response.isFound());
+        } finally {
+            new KnapsackAbortRequestBuilder(client("1")).setId(id2).execute().actionGet();
+            client("1").admin().cluster().prepareUpdateSettings()
+                    .setTransientSettings(Settings.settingsBuilder().put(KnapsackGovernor.MAX_DOCS_PER_SEC, 0))
+                    .execute().actionGet();
+            exportFile1.delete();
+            exportFile2.delete();
+        }
+    }
+
+    private String export(File exportFile) throws IOException {
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        KnapsackExportResponse response = new KnapsackExportRequestBuilder(client("1"))
+                .setArchivePath(exportPath)
+                .setOverwriteAllowed(true)
+                .execute().actionGet();
+        if (!response.isRunning()) {
+            logger.error(response.getReason());
+            throw new IOException("knapsack export not running");
+        }
+        return response.getState().id();
+    }
+
+    private boolean isRunning(String id) {
+        return new KnapsackUpdateRequestBuilder(client("1")).setId(id).execute().actionGet().isFound();
+    }
+}
@@ -0,0 +1,137 @@
+package org.xbib.elasticsearch.plugin.knapsack;
+
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportRequestBuilder;
+import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportResponse;
+import org.xbib.elasticsearch.action.knapsack.get.KnapsackGetRequestBuilder;
+import org.xbib.elasticsearch.action.knapsack.get.KnapsackGetResponse;
+import org.xbib.elasticsearch.action.knapsack.state.KnapsackStateRequestBuilder;
+import org.xbib.elasticsearch.util.NodeTestUtils;
+import org.xbib.io.archive.ArchiveIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KnapsackGetTests extends NodeTestUtils {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackGetTests.class.getName());
+
+    @Test
+    public void testGet() throws Exception {
+        Path exportPath = export();
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        // by id
+        KnapsackGetResponse response = new KnapsackGetRequestBuilder(client("1"))
+                .setArchivePath(exportPath)
+                .setIndex("index1")
+                .setType("test1")
+                .setIds("doc2")
+                .execute().actionGet();
+        logger.info("response={}", response);
+        assertEquals(1, response.getDocs().size());
+        KnapsackGetResponse.Doc doc = response.getDocs().get(0);
+        assertEquals("doc2", doc.getId());
+        assertTrue(doc.isFound());
+        assertTrue(doc.getFields().get("_source").contains("Hello World 2"));
+        assertEquals(0, response.getRestored());
+        // by ids
+        response = new KnapsackGetRequestBuilder(client("1"))
+                .setArchivePath(exportPath)
+                .setIndex("index1")
+                .setType("test1")
+                .setIds("doc1", "doc3", "doc4")
+                .execute().actionGet();
+        logger.info("response={}", response);
+        assertEquals(3, response.getDocs().size());
+        assertTrue(response.getDocs().get(0).isFound());
+        assertTrue(response.getDocs().get(0).getFields().get("_source").contains("Hello World 1"));
+        assertTrue(response.getDocs().get(1).isFound());
+        assertTrue(response.getDocs().get(1).getFields().get("_source").contains("Hello World 3"));
+        assertFalse(response.getDocs().get(2).isFound());
+        assertEquals(0, response.getRestored());
+        // the documents are not indexed without restore
+        assertFalse(client("1").admin().indices().prepareExists("index1").execute().actionGet().isExists());
+    }
+
+    @Test
+    public void testRestore() throws Exception {
+        Path exportPath = export();
+        client("1").admin().indices().delete(new DeleteIndexRequest("index1")).actionGet();
+        // by id
+        KnapsackGetResponse response = new KnapsackGetRequestBuilder(client("1"))
+                .setArchivePath(exportPath)
+                .setIndex("index1")
+                .setType("test1")
+                .setIds("doc2")
+                .setRestore(true)
+                .execute().actionGet();
+        logger.info("response={}", response);
+        assertEquals(1, response.getRestored());
+        assertNull(response.getFailure());
+        GetResponse getResponse = client("1").prepareGet("index1", "test1", "doc2").execute().actionGet();
+        assertTrue(getResponse.isExists());
+        assertEquals("Hello World 2", getResponse.getSource().get("content"));
+        assertFalse(client("1").prepareGet("index1", "test1", "doc1").execute().actionGet().isExists());
+        // by ids
+        response = new KnapsackGetRequestBuilder(client("1"))
+                .setArchivePath(exportPath)
+                .setIndex("index1")
+                .setType("test1")
+                .setIds("doc1", "doc3", "doc4")
+                .setRestore(true)
+                .execute().actionGet();
+        logger.info("response={}", response);
+        assertEquals(2, response.getRestored());
+        assertTrue(client("1").prepareGet("index1", "test1", "doc1").execute().actionGet().isExists());
+        assertTrue(client("1").prepareGet("index1", "test1", "doc3").execute().actionGet().isExists());
+        assertFalse(client("1").prepareGet("index1", "test1", "doc4").execute().actionGet().isExists());
+    }
+
+    private Path export() throws Exception {
+        File exportFile = File.createTempFile("knapsack-get-", ".tar");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        for (int i = 1; i <= 3; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello World " + i).refresh(true)).actionGet();
+        }
+        KnapsackExportResponse knapsackExportResponse = new KnapsackExportRequestBuilder(client("1"))
+                .setArchivePath(exportPath)
+                .setOverwriteAllowed(true)
+                .execute().actionGet();
+        if (!knapsackExportResponse.isRunning()) {
+            logger.error(knapsackExportResponse.getReason());
+            throw new IOException("knapsack export not running");
+        }
+        // the archive index is complete when the export ends
+        for (int i = 0; i < 50; i++) {
+            Thread.sleep(200L);
+            if (!new KnapsackStateRequestBuilder(client("1")).execute().actionGet().isExportActive(exportPath)
+                    && isComplete(exportPath)) {
+                break;
+            }
+        }
+        assertTrue(isComplete(exportPath));
+        return exportPath;
+    }
+
+    private static boolean isComplete(Path exportPath) {
+        try {
+            return ArchiveIndex.exists(exportPath) && ArchiveIndex.open(exportPath).getEntries() > 0L;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.xbib.elasticsearch.plugin.knapsack;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.knapsack.abort.KnapsackAbortRequestBuilder;
+import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportRequestBuilder;
+import org.xbib.elasticsearch.action.knapsack.exp.KnapsackExportResponse;
+import org.xbib.elasticsearch.action.knapsack.update.KnapsackUpdateRequestBuilder;
+import org.xbib.elasticsearch.action.knapsack.update.KnapsackUpdateResponse;
+import org.xbib.elasticsearch.knapsack.KnapsackGovernor;
+import org.xbib.elasticsearch.util.NodeTestUtils;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KnapsackUpdateTests extends NodeTestUtils {
+
+    private final static ESLogger logger = ESLoggerFactory.getLogger(KnapsackUpdateTests.class.getName());
+
+    @Test
+    public void testUpdate() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            client("1").index(new IndexRequest().index("index1").type("test1").id("doc" + i)
+                    .source("content", "Hello World " + i)).actionGet();
+        }
+        client("1").admin().indices().prepareRefresh("index1").execute().actionGet();
+        // throttle the export, so the job is still running when it is updated
+        client("1").admin().cluster().prepareUpdateSettings()
+                .setTransientSettings(Settings.settingsBuilder().put(KnapsackGovernor.MAX_DOCS_PER_SEC, 2))
+                .execute().actionGet();
+        File exportFile = File.createTempFile("knapsack-update-", ".bulk");
+        Path exportPath = Paths.get(URI.create("file:" + exportFile.getAbsolutePath()));
+        KnapsackExportResponse exportResponse = new KnapsackExportRequestBuilder(client("1"))
+                .setArchivePath(exportPath)
+                .setOverwriteAllowed(true)
+                .execute().actionGet();
+        assertTrue(exportResponse.isRunning());
+        String id = exportResponse.getState().id();
+        try {
+            KnapsackUpdateResponse response = new KnapsackUpdateRequestBuilder(client("1"))
+                    .setId(id)
+                    .setMaxBulkConcurrency(2)
+                    .setScrollSize(5)
+                    .execute().actionGet();
+            logger.info("response={}", response);
+            assertTrue(response.isFound());
+            assertEquals(id, response.getId());
+            assertEquals(2, response.getMaxBulkConcurrency());
+            assertEquals(5, response.getScrollSize());
+            // settings that are not given are kept
+            response = new KnapsackUpdateRequestBuilder(client("1"))
+                    .setId(id)
+                    .setMaxDocsPerSec(100L)
+                    .execute().actionGet();
+            assertTrue(response.isFound());
+            assertEquals(2, response.getMaxBulkConcurrency());
+            assertEquals(5, response.getScrollSize());
+            assertEquals(100L, response.getMaxDocsPerSec());
+            // unknown ids are rejected
+            response = new KnapsackUpdateRequestBuilder(client("1"))
+                    .setId("unknown")
+                    .setMaxBulkConcurrency(2)
+                    .execute().actionGet();
+            assertFalse(response.isFound());
+        } finally {
+            new KnapsackAbortRequestBuilder(client("1")).setId(id).execute().actionGet();
+            client("1").admin().cluster().prepareUpdateSettings()
+                    .setTransientSettings(Settings.settingsBuilder().put(KnapsackGovernor.MAX_DOCS_PER_SEC, 0))
+                    .execute().actionGet();
+            exportFile.delete();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.xbib.io;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChannelStreamTests {
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        Path path = File.createTempFile("knapsack-channel", ".bin").toPath();
+        BufferPool pool = new BufferPool(2);
+        try (OutputStream out = new ChannelOutputStream(FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING), 100, true, pool)) {
+            for (int i = 0; i < 1000; i++) {
+                out.write(i & 0xff);
+            }
+            byte[] b = new byte[250];
+            for (int i = 0; i < b.length; i++) {
+                b[i] = (byte) (1000 + i);
+            }
+            out.write(b);
+            out.write(b, 0, 50);
+        }
+        assertEquals(1300L, path.toFile().length());
+        try (InputStream in = new ChannelInputStream(FileChannel.open(path, StandardOpenOption.READ), 100, false, pool)) {
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i & 0xff, in.read());
+            }
+            byte[] b = new byte[250];
+            int n = 0;
+            while (n < b.length) {
+                n += in.read(b, n, b.length - n);
+            }
+            for (int i = 0; i < b.length; i++) {
+                assertEquals((byte) (1000 + i), b[i]);
+            }
+            assertEquals(40L, in.skip(40L));
+            assertEquals((byte) (1040), (byte) in.read());
+            assertEquals(9L, in.skip(100L));
+            assertEquals(-1, in.read());
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testPool() {
+        BufferPool pool = new BufferPool(1);
+        ByteBuffer buffer = pool.acquire(64, false);
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        ByteBuffer other = pool.acquire(64, false);
+        assertEquals(buffer, other);
+        assertEquals(0, other.position());
+        assertEquals(64, other.limit());
+    }
+}
@@ -0,0 +1,50 @@
+package org.xbib.io;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+
+public class MappedFileInputStreamTests {
+
+    @Test
+    public void testReadSkipSlice() throws IOException {
+        Path path = File.createTempFile("knapsack-mapped", ".bin").toPath();
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Files.write(path, data);
+        try (MappedFileInputStream in = new MappedFileInputStream(FileChannel.open(path, StandardOpenOption.READ), 1000)) {
+            byte[] b = new byte[1500];
+            // reads end at window boundaries
+            assertEquals(1000, in.read(b, 0, b.length));
+            assertEquals(500, in.read(b, 1000, 500));
+            for (int i = 0; i < b.length; i++) {
+                assertEquals((byte) i, b[i]);
+            }
+            assertEquals(3000L, in.skip(3000L));
+            assertEquals((byte) 4500, (byte) in.read());
+            ByteBuffer slice = in.slice(100);
+            assertEquals(100, slice.remaining());
+            assertEquals((byte) 4501, slice.get());
+            // slice across a window boundary
+            slice = in.slice(1000);
+            assertEquals(1000, slice.remaining());
+            assertEquals((byte) 4601, slice.get());
+            assertEquals(5601L, in.getPosition());
+            assertEquals((byte) 5601, (byte) in.read());
+            assertEquals(4398L, in.skip(100000L));
+            assertEquals(-1, in.read());
+        } finally {
+            path.toFile().delete();
+        }
+    }
+}
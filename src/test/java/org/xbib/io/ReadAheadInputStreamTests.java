@@ -0,0 +1,71 @@
+package org.xbib.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ReadAheadInputStreamTests {
+
+    @Test
+    public void testReadAhead() throws IOException {
+        byte[] data = new byte[1000000];
+        new Random(42L).nextBytes(data);
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gz)) {
+            out.write(data);
+        }
+        InputStream in = new ReadAheadInputStream(new GZIPInputStream(new ByteArrayInputStream(gz.toByteArray())),
+                4, 1000, "test-reader");
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buf = new byte[777];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            result.write(buf, 0, n);
+        }
+        assertEquals(-1, in.read());
+        in.close();
+        assertArrayEquals(data, result.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailure() throws IOException {
+        InputStream failing = new InputStream() {
+            private int count;
+
+            @Override
+            public int read() throws IOException {
+                if (count++ > 5000) {
+                    throw new IOException("broken");
+                }
+                return 'x';
+            }
+        };
+        try (InputStream in = new ReadAheadInputStream(failing, 2, 100, "test-reader")) {
+            while (in.read() != -1) {
+                // consume until failure
+            }
+        }
+    }
+
+    @Test
+    public void testCloseBeforeEnd() throws IOException {
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return 'x';
+            }
+        };
+        InputStream in = new ReadAheadInputStream(endless, 2, 100, "test-reader");
+        assertEquals('x', in.read());
+        in.close();
+    }
+}
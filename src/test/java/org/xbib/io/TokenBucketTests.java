@@ -0,0 +1,68 @@
+package org.xbib.io;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTests {
+
+    @Test
+    public void testUnlimited() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(0.0d);
+        assertFalse(bucket.isLimited());
+        assertEquals(0L, bucket.acquire(1000000L));
+        bucket = new TokenBucket(-1.0d);
+        assertFalse(bucket.isLimited());
+        assertEquals(0L, bucket.acquire(1000000L));
+    }
+
+    @Test
+    public void testNoPermits() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1.0d);
+        assertEquals(0L, bucket.acquire(0L));
+        assertEquals(0L, bucket.acquire(-1L));
+    }
+
+    @Test
+    public void testAcquirePauses() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000.0d);
+        long start = System.nanoTime();
+        // 200 permits at 1000 per second is due after 200 milliseconds
+        long paused = bucket.acquire(200L);
+        long elapsed = System.nanoTime() - start;
+        assertTrue("paused " + paused, paused > TimeUnit.MILLISECONDS.toNanos(150L));
+        assertTrue("elapsed " + elapsed, elapsed >= TimeUnit.MILLISECONDS.toNanos(190L));
+        // the next reservation is queued behind the first one
+        start = System.nanoTime();
+        bucket.acquire(100L);
+        elapsed = System.nanoTime() - start;
+        assertTrue("elapsed " + elapsed, elapsed >= TimeUnit.MILLISECONDS.toNanos(90L));
+    }
+
+    @Test
+    public void testBehindSchedule() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000.0d);
+        Thread.sleep(100L);
+        // 50 permits were due after 50 milliseconds, so there is no pause
+        assertEquals(0L, bucket.acquire(50L));
+    }
+
+    @Test
+    public void testSetRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(0.0d);
+        assertEquals(0L, bucket.acquire(100L));
+        bucket.setRate(1000.0d);
+        assertTrue(bucket.isLimited());
+        assertEquals(1000.0d, bucket.getRate(), 0.0d);
+        long start = System.nanoTime();
+        bucket.acquire(100L);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50L));
+        bucket.setRate(0.0d);
+        assertFalse(bucket.isLimited());
+        assertEquals(0L, bucket.acquire(1000000L));
+    }
+}
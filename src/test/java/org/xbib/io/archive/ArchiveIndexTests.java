@@ -0,0 +1,197 @@
+package org.xbib.io.archive;
+
+import org.junit.Test;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ArchiveIndexTests {
+
+    private final static int DOCS = 3000;
+
+    @Test
+    public void testIndexedTar() throws IOException {
+        Path path = File.createTempFile("knapsack-index", ".tar").toPath();
+        try {
+            write(path);
+            assertTrue(ArchiveIndex.exists(path));
+            ArchiveIndex archiveIndex = ArchiveIndex.open(path);
+            assertEquals(2 + 2 * DOCS, archiveIndex.getEntries());
+            assertEquals(2, archiveIndex.getIndices().size());
+            ArchiveIndex.Range a = archiveIndex.getIndices().get("a");
+            ArchiveIndex.Range b = archiveIndex.getIndices().get("b");
+            assertEquals(DOCS / 2, a.getDocs());
+            assertEquals(DOCS, a.getEntries());
+            assertEquals(DOCS / 2, b.getDocs());
+            assertEquals(a.getEnd(), b.getStart());
+            assertEquals(archiveIndex.getEnd(), b.getEnd());
+            // only the documents of index b
+            assertEquals(DOCS / 2, read(path, b.getStart(), b.getEnd(), "b"));
+            // parallel ranges cover all documents exactly once
+            List<ArchiveIndex.Range> ranges = archiveIndex.split(a.getStart(), b.getEnd(), 4);
+            assertEquals(4, ranges.size());
+            long docs = 0L;
+            long start = a.getStart();
+            for (ArchiveIndex.Range range : ranges) {
+                assertEquals(start, range.getStart());
+                docs += range.getDocs();
+                assertEquals(range.getDocs(), read(path, range.getStart(), range.getEnd(), null));
+                start = range.getEnd();
+            }
+            assertEquals(DOCS, docs);
+            assertEquals(b.getEnd(), start);
+            // metadata entries are marked
+            try (ArchiveIndex.Cursor cursor = archiveIndex.cursor()) {
+                assertTrue(cursor.next());
+                assertTrue(cursor.isMetadata());
+                assertEquals(0L, cursor.getOffset());
+                assertTrue(cursor.next());
+                assertTrue(cursor.isMetadata());
+                assertTrue(cursor.next());
+                assertFalse(cursor.isMetadata());
+                assertTrue(cursor.isNewDocument());
+                assertTrue(cursor.next());
+                assertFalse(cursor.isNewDocument());
+                assertEquals("a" + File.separator + "type" + File.separator + "0", cursor.getDocument());
+            }
+        } finally {
+            ArchiveIndex.indexPath(path).toFile().delete();
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        Path path = File.createTempFile("knapsack-index", ".tar").toPath();
+        try {
+            write(path);
+            ArchiveIndex archiveIndex = ArchiveIndex.open(path);
+            for (int i = 0; i < DOCS; i += 97) {
+                String index = i < DOCS / 2 ? "a" : "b";
+                List<Long> offsets = archiveIndex.lookup(ArchiveUtils.encodeDocumentName(index, "type", Integer.toString(i)));
+                assertFalse(offsets.isEmpty());
+                boolean found = false;
+                for (long offset : offsets) {
+                    ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+                    session.setRange(offset, archiveIndex.getEnd());
+                    session.open(EnumSet.of(Session.Mode.READ), path);
+                    StringPacket packet = session.read();
+                    if (Integer.toString(i).equals(packet.meta().get("id"))) {
+                        assertEquals(index, packet.meta().get("index"));
+                        assertEquals("_source", packet.meta().get("field"));
+                        assertEquals("{\"key\":\"" + i + "\"}", packet.payload());
+                        assertEquals("_routing", session.read().meta().get("field"));
+                        found = true;
+                    }
+                    session.close();
+                }
+                assertTrue(found);
+            }
+            assertTrue(archiveIndex.lookup(ArchiveUtils.encodeDocumentName("c", "type", "0")).isEmpty());
+        } finally {
+            ArchiveIndex.indexPath(path).toFile().delete();
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testSpilledLookup() throws IOException {
+        Path path = File.createTempFile("knapsack-index", ".tar").toPath();
+        Path spillPath = Paths.get(ArchiveIndex.indexPath(path).toString() + ArchiveIndex.SPILL_SUFFIX);
+        int docs = 50000;
+        try {
+            ArchiveIndex.Writer writer = new ArchiveIndex.Writer(path);
+            for (int i = 0; i < docs; i++) {
+                String document = ArchiveUtils.encodeDocumentName("a", "type", Integer.toString(i));
+                writer.add(document + File.separator + "_source", "a", 512L * i, false);
+            }
+            // the lookup records of all partitions are spilled to a single file
+            assertTrue(Files.exists(spillPath));
+            writer.finish(512L * docs);
+            writer.close();
+            assertFalse(Files.exists(spillPath));
+            ArchiveIndex archiveIndex = ArchiveIndex.open(path);
+            assertEquals(docs, archiveIndex.getIndices().get("a").getDocs());
+            for (int i = 0; i < docs; i += 101) {
+                List<Long> offsets = archiveIndex.lookup(ArchiveUtils.encodeDocumentName("a", "type", Integer.toString(i)));
+                assertTrue(offsets.contains(512L * i));
+            }
+        } finally {
+            ArchiveIndex.indexPath(path).toFile().delete();
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testNoIndexForCompressedTar() throws IOException {
+        Path path = File.createTempFile("knapsack-index", ".tar.gz").toPath();
+        try {
+            write(path);
+            assertFalse(ArchiveIndex.exists(path));
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    private static void write(Path path) throws IOException {
+        ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+        session.setIndexed(true);
+        session.open(EnumSet.of(Session.Mode.OVERWRITE), path);
+        for (String index : new String[]{"a", "b"}) {
+            StringPacket packet = session.newPacket();
+            packet.meta("index", index);
+            packet.meta("type", "_settings");
+            packet.payload("{}");
+            session.write(packet);
+        }
+        for (int i = 0; i < DOCS; i++) {
+            String index = i < DOCS / 2 ? "a" : "b";
+            session.write(packet(index, i, "_source", "{\"key\":\"" + i + "\"}"));
+            session.write(packet(index, i, "_routing", Integer.toString(i)));
+        }
+        session.close();
+    }
+
+    private static long read(Path path, long start, long end, String index) throws IOException {
+        ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+        // ranges of single indices through the file channel, parallel ranges memory-mapped
+        session.setMemoryMapped(index == null);
+        session.setRange(start, end);
+        session.open(EnumSet.of(Session.Mode.READ), path);
+        Set<String> ids = new HashSet<>();
+        StringPacket packet;
+        while ((packet = session.read()) != null) {
+            assertFalse(ArchiveUtils.isMetadata(packet));
+            if (index != null) {
+                assertEquals(index, packet.meta().get("index"));
+            }
+            ids.add((String) packet.meta().get("id"));
+        }
+        session.close();
+        return ids.size();
+    }
+
+    private static StringPacket packet(String index, int i, String field, String payload) {
+        StringPacket packet = new StringPacket();
+        packet.meta("index", index);
+        packet.meta("type", "type");
+        packet.meta("id", Integer.toString(i));
+        packet.meta("field", field);
+        packet.payload(payload);
+        return packet;
+    }
+}
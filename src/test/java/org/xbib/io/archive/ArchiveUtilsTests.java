@@ -0,0 +1,96 @@
+package org.xbib.io.archive;
+
+import org.junit.Test;
+import org.xbib.io.StringPacket;
+import org.xbib.io.archive.entry.ArchiveEntryEncodingHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ArchiveUtilsTests {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static String[] NAMES = new String[]{
+            "test", "my_index-2014.01", "a b", "a/b", "a%20b", "a+b", "Grüße", "日本語 テキスト",
+            "mixed?日本&x=é", "😀 smile", "lone\ud800surrogate", "tab\tand\nnewline", "*.*"
+    };
+
+    @Test
+    public void testEncode() throws IOException {
+        for (String name : NAMES) {
+            String encoded = ArchiveUtils.encode(name, UTF8);
+            assertEquals(name, URLEncoder.encode(name, "UTF-8"), encoded);
+            if (!name.contains("\ud800")) {
+                assertEquals(name, ArchiveUtils.decode(encoded, UTF8));
+            }
+            assertEquals(name, URLDecoder.decode(encoded, "UTF-8"), ArchiveUtils.decode(encoded, UTF8));
+        }
+        String safe = "my_index-2014.01";
+        assertSame(safe, ArchiveUtils.encode(safe, UTF8));
+        assertSame(safe, ArchiveUtils.decode(safe, UTF8));
+        assertNull(ArchiveUtils.encode("", UTF8));
+        assertNull(ArchiveUtils.decode("", UTF8));
+        assertEquals("a#%41", ArchiveUtils.decode("a#%41", UTF8));
+    }
+
+    @Test
+    public void testEntryNames() {
+        for (String index : NAMES) {
+            for (String type : new String[]{"type", "the type", ""}) {
+                StringPacket packet = new StringPacket();
+                packet.meta("index", index);
+                packet.meta("type", type);
+                packet.meta("id", "id " + index);
+                String name = ArchiveUtils.encodeArchiveEntryName(packet);
+                String expected = encode(index) + File.separator + encode(type) + File.separator
+                        + encode("id " + index) + File.separator + "null";
+                assertEquals(expected, name);
+                assertEquals(encode(index) + File.separator + encode(type) + File.separator + encode("id " + index),
+                        ArchiveUtils.encodeDocumentName(index, type, "id " + index));
+                StringPacket decoded = new StringPacket();
+                ArchiveUtils.decodeArchiveEntryName(decoded, name);
+                if (!index.contains("\ud800")) {
+                    assertEquals(index, decoded.meta().get("index"));
+                }
+                assertEquals(type.isEmpty() ? "null" : type, decoded.meta().get("type"));
+                assertEquals("null", decoded.meta().get("field"));
+            }
+        }
+        StringPacket decoded = new StringPacket();
+        ArchiveUtils.decodeArchiveEntryName(decoded, File.separator + "index" + File.separator + File.separator
+                + "type" + File.separator);
+        assertEquals("index", decoded.meta().get("index"));
+        assertEquals("type", decoded.meta().get("type"));
+        assertNull(decoded.meta().get("id"));
+    }
+
+    @Test
+    public void testFormatNameBytes() throws IOException {
+        byte[] buf = new byte[8];
+        Arrays.fill(buf, (byte) 'x');
+        ArchiveUtils.formatNameBytes("abc", buf, 1, 6, ArchiveEntryEncodingHelper.UTF8_ENCODING);
+        assertEquals("xabc\0\0\0x", new String(buf, "ASCII"));
+        ArchiveUtils.formatNameBytes("abcdefgh", buf, 1, 6, ArchiveEntryEncodingHelper.UTF8_ENCODING);
+        assertEquals("xabcdefx", new String(buf, "ASCII"));
+        ArchiveUtils.formatNameBytes("äb", buf, 1, 6, ArchiveEntryEncodingHelper.UTF8_ENCODING);
+        assertEquals("äb", new String(buf, 1, 3, "UTF-8"));
+        assertEquals(0, buf[4]);
+    }
+
+    private static String encode(String s) {
+        try {
+            return s.isEmpty() ? "null" : URLEncoder.encode(s, "UTF-8");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
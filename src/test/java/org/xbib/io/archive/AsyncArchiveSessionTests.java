@@ -0,0 +1,104 @@
+package org.xbib.io.archive;
+
+import org.junit.Test;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncArchiveSessionTests {
+
+    @Test
+    public void testWriteBehind() throws IOException {
+        Path path = File.createTempFile("knapsack-async", ".tar.gz").toPath();
+        ArchiveSession<?, ?> archiveSession = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+        AsyncArchiveSession session = new AsyncArchiveSession(archiveSession, 16);
+        session.open(EnumSet.of(Session.Mode.OVERWRITE), path);
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            StringPacket packet = session.newPacket();
+            packet.meta("index", "index");
+            packet.meta("type", "type");
+            packet.meta("id", Integer.toString(i));
+            packet.meta("field", "_source");
+            packet.payload("{\"key\":\"value " + i + "\"}");
+            session.write(packet);
+        }
+        session.close();
+        assertFalse(session.isOpen());
+        assertEquals(n, archiveSession.getPacketCounter());
+        ArchiveSession<?, ?> readSession = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+        readSession.setReadAhead(2);
+        readSession.open(EnumSet.of(Session.Mode.READ), path);
+        for (int i = 0; i < n; i++) {
+            StringPacket packet = readSession.read();
+            assertEquals(Integer.toString(i), packet.meta().get("id"));
+            assertEquals("{\"key\":\"value " + i + "\"}", packet.payload());
+        }
+        assertNull(readSession.read());
+        readSession.close();
+        path.toFile().delete();
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriterFailure() throws IOException {
+        Path path = File.createTempFile("knapsack-async", ".tar").toPath();
+        ArchiveSession<?, ?> archiveSession = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+        AsyncArchiveSession session = new AsyncArchiveSession(archiveSession, 4);
+        session.open(EnumSet.of(Session.Mode.OVERWRITE), path);
+        // the writer thread fails because the underlying session is closed
+        archiveSession.close();
+        try {
+            for (int i = 0; i < 100; i++) {
+                StringPacket packet = session.newPacket();
+                packet.meta("id", Integer.toString(i));
+                packet.payload("{}");
+                session.write(packet);
+            }
+            session.close();
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testCloseInterrupted() throws IOException {
+        Path path = File.createTempFile("knapsack-async", ".tar").toPath();
+        ArchiveSession<?, ?> archiveSession = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+        AsyncArchiveSession session = new AsyncArchiveSession(archiveSession, 4);
+        session.open(EnumSet.of(Session.Mode.OVERWRITE), path);
+        String name = "knapsack-writer-" + path.getFileName();
+        try {
+            StringPacket packet = session.newPacket();
+            packet.meta("id", "1");
+            packet.payload("{}");
+            session.write(packet);
+            // an abort interrupts the exporting thread before it closes the session
+            Thread.currentThread().interrupt();
+            try {
+                session.close();
+                fail();
+            } catch (InterruptedIOException e) {
+                // expected
+            }
+            assertTrue(Thread.interrupted());
+            assertFalse(session.isOpen());
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                assertFalse(name.equals(thread.getName()) && thread.isAlive());
+            }
+        } finally {
+            path.toFile().delete();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.xbib.io.archive;
+
+import org.junit.Test;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchSessionTests {
+
+    @Test
+    public void testBatches() throws IOException {
+        for (String suffix : new String[]{".tar", ".tar.gz", ".cpio", ".zip", ".knapsack", ".bulk"}) {
+            for (int packedEntrySize : new int[]{0, 1024}) {
+                Path path = File.createTempFile("knapsack-batch", suffix).toPath();
+                try {
+                    ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+                    session.setPackedEntrySize(packedEntrySize);
+                    session.open(EnumSet.of(Session.Mode.OVERWRITE), path);
+                    if (!suffix.equals(".bulk")) {
+                        // bulk files have no metadata
+                        session.write(packet("index", "_settings", null, null, "{\"index\":{}}"));
+                    }
+                    List<StringPacket> batch = new ArrayList<>();
+                    for (int i = 0; i < 100; i++) {
+                        batch.add(packet("index", "type", Integer.toString(i), "_source", "{\"n\":" + i + "}"));
+                        batch.add(packet("index", "type", Integer.toString(i), "_routing", "r" + i));
+                        if (batch.size() == 26) {
+                            session.writeBatch(batch);
+                            batch.clear();
+                        }
+                    }
+                    session.writeBatch(batch);
+                    session.writeBatch(new ArrayList<StringPacket>());
+                    session.close();
+                    session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+                    session.open(EnumSet.of(Session.Mode.READ), path);
+                    List<StringPacket> packets = new ArrayList<>();
+                    List<StringPacket> packetBatch;
+                    while (!(packetBatch = session.readBatch(7)).isEmpty()) {
+                        assertTrue(packetBatch.size() <= 7);
+                        packets.addAll(packetBatch);
+                    }
+                    session.close();
+                    int i = 0;
+                    for (StringPacket packet : packets) {
+                        if (ArchiveUtils.isMetadata(packet)) {
+                            continue;
+                        }
+                        String field = (String) packet.meta().get("field");
+                        assertEquals(suffix, Integer.toString(i / 2), packet.meta().get("id"));
+                        if (i % 2 == 0) {
+                            assertTrue(suffix, field == null || "null".equals(field) || "_source".equals(field));
+                            assertEquals(suffix, "{\"n\":" + (i / 2) + "}", packet.payload());
+                        } else {
+                            assertEquals(suffix, "_routing", field);
+                            assertEquals(suffix, "r" + (i / 2), packet.payload());
+                        }
+                        i++;
+                    }
+                    assertEquals(suffix, 200, i);
+                } finally {
+                    path.toFile().delete();
+                }
+            }
+        }
+    }
+
+    private static StringPacket packet(String index, String type, String id, String field, String payload) {
+        StringPacket packet = new StringPacket();
+        packet.meta("index", index);
+        packet.meta("type", type);
+        if (id != null) {
+            packet.meta("id", id);
+        }
+        if (field != null) {
+            packet.meta("field", field);
+        }
+        packet.payload(payload);
+        return packet;
+    }
+}
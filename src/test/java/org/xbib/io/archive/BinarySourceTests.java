@@ -0,0 +1,94 @@
+package org.xbib.io.archive;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+import org.xbib.elasticsearch.knapsack.KnapsackHelper;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BinarySourceTests {
+
+    private final static String SOURCE = "{\"key\":\"value\",\"text\":\"Grüße 12:34\",\"n\":[1,2,3]}";
+
+    @Test
+    public void testConvertSource() throws IOException {
+        for (XContentType type : new XContentType[]{XContentType.SMILE, XContentType.CBOR}) {
+            byte[] b = KnapsackHelper.convertSource(new BytesArray(SOURCE), type);
+            assertEquals(type, XContentFactory.xContentType(b));
+            assertTrue(ArchiveUtils.isBinaryXContent(b, 0, b.length));
+            assertEquals(XContentHelper.convertToJson(new BytesArray(SOURCE), false),
+                    XContentHelper.convertToJson(new BytesArray(b), false));
+        }
+        byte[] json = SOURCE.getBytes("UTF-8");
+        assertFalse(ArchiveUtils.isBinaryXContent(json, 0, json.length));
+    }
+
+    @Test
+    public void testBinarySources() throws IOException {
+        for (XContentType type : new XContentType[]{XContentType.SMILE, XContentType.CBOR}) {
+            byte[] source = KnapsackHelper.convertSource(new BytesArray(SOURCE), type);
+            for (String suffix : new String[]{".tar", ".tar.gz", ".cpio", ".zip", ".knapsack"}) {
+                Path path = File.createTempFile("knapsack-binary", suffix).toPath();
+                try {
+                    ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+                    // binary sources are not packed
+                    session.setPackedEntrySize(16 * 1024);
+                    session.open(EnumSet.of(Session.Mode.OVERWRITE), path);
+                    for (int i = 0; i < 10; i++) {
+                        session.write(packet(i, "_source").bytes(source));
+                        session.write((StringPacket) packet(i, "_routing").payload("r" + i));
+                    }
+                    session.close();
+                    session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+                    session.open(EnumSet.of(Session.Mode.READ), path);
+                    for (int i = 0; i < 10; i++) {
+                        StringPacket packet = session.read();
+                        assertEquals(Integer.toString(i), packet.meta().get("id"));
+                        assertEquals("_source", packet.meta().get("field"));
+                        assertNull(packet.payload());
+                        assertArrayEquals(suffix, source, packet.bytes());
+                        IndexRequest indexRequest = KnapsackHelper.newIndexRequest("index", "type", "1",
+                                Collections.singletonMap("_source", packet),
+                                ESLoggerFactory.getLogger(BinarySourceTests.class.getSimpleName()));
+                        assertEquals(type, XContentFactory.xContentType(indexRequest.source()));
+                        packet = session.read();
+                        assertEquals("_routing", packet.meta().get("field"));
+                        assertEquals("r" + i, packet.payload());
+                        assertNull(packet.bytes());
+                    }
+                    assertNull(session.read());
+                    session.close();
+                } finally {
+                    path.toFile().delete();
+                }
+            }
+        }
+    }
+
+    private static StringPacket packet(int i, String field) {
+        StringPacket packet = new StringPacket();
+        packet.meta("index", "index");
+        packet.meta("type", "type");
+        packet.meta("id", Integer.toString(i));
+        packet.meta("field", field);
+        return packet;
+    }
+}
@@ -0,0 +1,173 @@
+package org.xbib.io.archive;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+import org.xbib.elasticsearch.knapsack.KnapsackHelper;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+import org.xbib.io.archive.zip.ZipArchiveFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PackedEntryTests {
+
+    private final static int DOCS = 2000;
+
+    @Test
+    public void testPackedEntries() throws IOException {
+        for (String suffix : new String[]{".tar", ".tar.gz", ".cpio", ".zip"}) {
+            Path path = File.createTempFile("knapsack-packed", suffix).toPath();
+            try {
+                write(path);
+                ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+                session.open(EnumSet.of(Session.Mode.READ), path);
+                assertEquals("_settings", session.read().meta().get("type"));
+                for (int i = 0; i < DOCS; i++) {
+                    StringPacket packet = session.read();
+                    assertEquals(suffix, index(i), packet.meta().get("index"));
+                    assertEquals(Integer.toString(i), packet.meta().get("id"));
+                    assertEquals("_source", packet.meta().get("field"));
+                    assertEquals(source(i), packet.payload());
+                    packet = session.read();
+                    assertEquals("_routing", packet.meta().get("field"));
+                    assertEquals("r:" + i, packet.payload());
+                }
+                assertEquals(null, session.read());
+                session.close();
+            } finally {
+                ArchiveIndex.indexPath(path).toFile().delete();
+                path.toFile().delete();
+            }
+        }
+    }
+
+    @Test
+    public void testPackedTarIndex() throws IOException {
+        Path path = File.createTempFile("knapsack-packed", ".tar").toPath();
+        try {
+            write(path);
+            ArchiveIndex archiveIndex = ArchiveIndex.open(path);
+            // the settings entry and a few packed entries instead of an entry per field
+            assertTrue(archiveIndex.getEntries() < 40);
+            assertEquals(2, archiveIndex.getIndices().size());
+            Set<String> ids = new HashSet<>();
+            for (ArchiveIndex.Range range : archiveIndex.split(archiveIndex.getIndices().get("a").getStart(),
+                    archiveIndex.getEnd(), 3)) {
+                ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+                session.setRange(range.getStart(), range.getEnd());
+                session.open(EnumSet.of(Session.Mode.READ), path);
+                StringPacket packet;
+                while ((packet = session.read()) != null) {
+                    if ("_source".equals(packet.meta().get("field"))) {
+                        assertTrue(ids.add((String) packet.meta().get("id")));
+                    }
+                }
+                session.close();
+            }
+            assertEquals(DOCS, ids.size());
+        } finally {
+            ArchiveIndex.indexPath(path).toFile().delete();
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testPackedTarLookup() throws IOException {
+        Path path = File.createTempFile("knapsack-packed", ".tar").toPath();
+        try {
+            write(path);
+            ArchiveIndex archiveIndex = ArchiveIndex.open(path);
+            // documents are counted, not packed entries
+            assertEquals(DOCS / 2, archiveIndex.getIndices().get("a").getDocs());
+            assertEquals(DOCS / 2, archiveIndex.getIndices().get("b").getDocs());
+            for (int i : new int[]{0, 1, 77, DOCS / 2 - 1, DOCS / 2, DOCS - 1}) {
+                assertEquals(1, archiveIndex.lookup(ArchiveUtils.encodeDocumentName(index(i), "type",
+                        Integer.toString(i))).size());
+                Map<String, StringPacket> packets = KnapsackHelper.readDocument(path, archiveIndex, index(i), "type",
+                        Integer.toString(i), Settings.EMPTY);
+                assertEquals(2, packets.size());
+                assertEquals(Integer.toString(i), packets.get("_source").meta().get("id"));
+                assertEquals(source(i), packets.get("_source").payload());
+                assertEquals("r:" + i, packets.get("_routing").payload());
+            }
+            assertTrue(KnapsackHelper.readDocument(path, archiveIndex, "a", "type", "missing",
+                    Settings.EMPTY).isEmpty());
+        } finally {
+            ArchiveIndex.indexPath(path).toFile().delete();
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testPackedZipPartitions() throws IOException {
+        Path path = File.createTempFile("knapsack-packed", ".zip").toPath();
+        try {
+            write(path);
+            Set<String> ids = new HashSet<>();
+            try (ZipArchiveFile zipFile = new ZipArchiveFile(path)) {
+                List<ZipArchiveFile.Entry> entries = zipFile.getEntries();
+                for (List<ZipArchiveFile.Entry> partition : ZipArchiveFile.partition(entries.subList(1, entries.size()), 3)) {
+                    Session<StringPacket> session = zipFile.newSession(partition);
+                    session.open(EnumSet.of(Session.Mode.READ), path);
+                    StringPacket packet;
+                    while ((packet = session.read()) != null) {
+                        if ("_source".equals(packet.meta().get("field"))) {
+                            assertTrue(ids.add((String) packet.meta().get("id")));
+                        }
+                    }
+                    session.close();
+                }
+            }
+            assertEquals(DOCS, ids.size());
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    private static void write(Path path) throws IOException {
+        ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+        session.setIndexed(true);
+        session.setPackedEntrySize(16 * 1024);
+        session.open(EnumSet.of(Session.Mode.OVERWRITE), path);
+        StringPacket settings = session.newPacket();
+        settings.meta("index", "a");
+        settings.meta("type", "_settings");
+        settings.payload("{}");
+        session.write(settings);
+        for (int i = 0; i < DOCS; i++) {
+            session.write(packet(index(i), i, "_source", source(i)));
+            // payloads with the separator of packed fields
+            session.write(packet(index(i), i, "_routing", "r:" + i));
+        }
+        session.close();
+    }
+
+    private static String index(int i) {
+        return i < DOCS / 2 ? "a" : "b";
+    }
+
+    private static String source(int i) {
+        return "{\"key\":\"" + i + "\",\"text\":\"Grüße 12:34\"}";
+    }
+
+    private static StringPacket packet(String index, int i, String field, String payload) {
+        StringPacket packet = new StringPacket();
+        packet.meta("index", index);
+        packet.meta("type", "type");
+        packet.meta("id", Integer.toString(i));
+        packet.meta("field", field);
+        packet.payload(payload);
+        return packet;
+    }
+}
@@ -0,0 +1,76 @@
+package org.xbib.io.archive.esbulk;
+
+import org.junit.Test;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EsBulkArchiveFileTests {
+
+    private final static int DOCS = 5000;
+
+    @Test
+    public void testSplit() throws IOException {
+        Path path = File.createTempFile("knapsack-split", ".bulk").toPath();
+        try {
+            StringBuilder sb = new StringBuilder();
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < DOCS; i++) {
+                if (i % 10 == 3) {
+                    sb.append("{\"delete\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"").append(i).append("\"}}\n");
+                    expected.add(i + "/_delete");
+                    continue;
+                }
+                sb.append("{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"").append(i).append("\"}}\n");
+                if (i % 7 == 0) {
+                    // a source that is also a valid action line
+                    sb.append("{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"x").append(i).append("\"}}\n");
+                } else {
+                    sb.append("{\"key\":\"").append(i).append("\"}\r\n");
+                }
+                expected.add(i + "/_source");
+                if (i % 100 == 0) {
+                    sb.append("\n");
+                }
+            }
+            Files.write(path, sb.toString().getBytes("UTF-8"));
+            for (int n : new int[]{1, 2, 7, 64}) {
+                List<EsBulkArchiveFile.Range> ranges = new EsBulkArchiveFile(path).split(n);
+                assertTrue(ranges.size() <= n);
+                assertEquals(0L, ranges.get(0).getStart());
+                assertEquals(Files.size(path), ranges.get(ranges.size() - 1).getEnd());
+                List<String> ids = new ArrayList<>();
+                long start = 0L;
+                for (EsBulkArchiveFile.Range range : ranges) {
+                    assertEquals(start, range.getStart());
+                    start = range.getEnd();
+                    ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+                    session.setRange(range.getStart(), range.getEnd());
+                    session.open(EnumSet.of(Session.Mode.READ), path);
+                    StringPacket packet;
+                    while ((packet = session.read()) != null) {
+                        Object field = packet.meta().get("field");
+                        ids.add(packet.meta().get("id") + "/" + (field != null ? field : "_source"));
+                    }
+                    session.close();
+                }
+                assertEquals("ranges " + ranges, expected, ids);
+            }
+        } finally {
+            path.toFile().delete();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.xbib.io.archive.esbulk;
+
+import org.junit.Test;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class EsBulkArchiveInputStreamTests {
+
+    @Test
+    public void testActions() throws IOException {
+        String bulk = "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"1\"}}\n"
+                + "{\"key\":\"value 1\"}\n"
+                + "\n"
+                + "{ \"create\" : { \"_index\" : \"test\", \"_type\" : \"doc\", \"_id\" : 2, \"_routing\" : \"r\\\"2\","
+                + " \"_version\" : 7, \"_ttl\" : {\"a\":[1,\"}\"]} } }\r\n"
+                + "{\"key\":\"value 2\"}\r\n"
+                + "{\"delete\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"a/b \\u00fc\",\"parent\":\"p\"}}\n"
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"4\"}}\n"
+                + "{\"key\":\"value 4\"}";
+        Path path = File.createTempFile("knapsack-actions", ".bulk").toPath();
+        try {
+            Files.write(path, bulk.getBytes("UTF-8"));
+            ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+            session.open(EnumSet.of(Session.Mode.READ), path);
+            assertPacket(session.read(), "1", null, "{\"key\":\"value 1\"}");
+            assertPacket(session.read(), "2", null, "{\"key\":\"value 2\"}");
+            assertPacket(session.read(), "2", "_routing", "r\"2");
+            assertPacket(session.read(), "2", "_version", "7");
+            assertPacket(session.read(), "2", "_op_type", "create");
+            assertPacket(session.read(), "a/b ü", "_delete", "");
+            assertPacket(session.read(), "a/b ü", "_parent", "p");
+            assertPacket(session.read(), "4", null, "{\"key\":\"value 4\"}");
+            assertNull(session.read());
+            session.close();
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testLongLines() throws IOException {
+        char[] c = new char[200 * 1024];
+        Arrays.fill(c, 'x');
+        String value = new String(c);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            sb.append("{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"").append(i).append("\"}}\n")
+                    .append("{\"key\":\"").append(value).append("\"}\n");
+        }
+        EsBulkArchiveInputStream in = new EsBulkArchiveInputStream(new ByteArrayInputStream(sb.toString().getBytes("UTF-8")));
+        for (int i = 0; i < 10; i++) {
+            EsBulkArchiveEntry entry = in.getNextEntry();
+            assertEquals("test" + File.separator + "doc" + File.separator + i, entry.getName());
+            assertEquals(value.length() + 10, entry.getEntrySize());
+            byte[] b = new byte[(int) entry.getEntrySize()];
+            int n = 0;
+            while (n < b.length) {
+                n += in.read(b, n, Math.min(4096, b.length - n));
+            }
+            assertEquals(-1, in.read(b, 0, 1));
+            assertEquals("{\"key\":\"" + value + "\"}", new String(b, "UTF-8"));
+        }
+        assertNull(in.getNextEntry());
+        in.close();
+    }
+
+    @Test
+    public void testReadActions() throws IOException {
+        String bulk = "{\"index\":{\"_type\":\"doc\",\"_id\":\"1\",\"_index\":\"a\"}}\n"
+                + "{\"key\":\"value 1\"}\n"
+                + "{\"delete\":{\"_index\":\"b\",\"_type\":\"doc\",\"_id\":\"2\"}}\n"
+                + "{\"create\":{\"_index\":\"b\",\"_type\":\"doc\",\"_id\":\"3\",\"_routing\":\"r\"}}\n"
+                + "{\"key\":\"value 3\"}\n"
+                + "{\"index\":{\"_index\":\"a\",\"_type\":\"other\",\"_id\":\"4\"}}\n"
+                + "{\"key\":\"value 4\"}\n";
+        EsBulkArchiveInputStream.ActionMapper mapper = new EsBulkArchiveInputStream.ActionMapper() {
+            @Override
+            public boolean map(EsBulkAction action) {
+                if (!"a".equals(action.getIndex())) {
+                    return false;
+                }
+                action.mapTo("x\"y", "doc".equals(action.getType()) ? "d" : null);
+                return true;
+            }
+        };
+        EsBulkArchiveInputStream in = new EsBulkArchiveInputStream(new ByteArrayInputStream(bulk.getBytes("UTF-8")));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(1, in.readActions(out, 1, Long.MAX_VALUE, mapper));
+        assertEquals("{\"index\":{\"_type\":\"d\",\"_id\":\"1\",\"_index\":\"x\\\"y\"}}\n{\"key\":\"value 1\"}\n",
+                out.toString("UTF-8"));
+        out.reset();
+        assertEquals(1, in.readActions(out, 10, Long.MAX_VALUE, mapper));
+        assertEquals("{\"index\":{\"_index\":\"x\\\"y\",\"_type\":\"other\",\"_id\":\"4\"}}\n{\"key\":\"value 4\"}\n",
+                out.toString("UTF-8"));
+        assertEquals(0, in.readActions(out, 10, Long.MAX_VALUE, mapper));
+        in.close();
+        in = new EsBulkArchiveInputStream(new ByteArrayInputStream(bulk.getBytes("UTF-8")));
+        out.reset();
+        assertEquals(4, in.readActions(out, 10, Long.MAX_VALUE, null));
+        assertEquals(bulk, out.toString("UTF-8"));
+        in.close();
+    }
+
+    @Test
+    public void testInvalidActions() throws IOException {
+        for (String line : new String[]{"{\"index\":{\"_index\":\"test\",\"_type\":\"doc\"}}",
+                "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"1\"}",
+                "{\"update\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"1\"}}",
+                "{\"key\":\"value\"}"}) {
+            EsBulkArchiveInputStream in = new EsBulkArchiveInputStream(
+                    new ByteArrayInputStream((line + "\n{}\n").getBytes("UTF-8")));
+            try {
+                in.getNextEntry();
+                fail(line);
+            } catch (IOException e) {
+                // expected
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private static void assertPacket(StringPacket packet, String id, String field, String payload) {
+        assertEquals("test", packet.meta().get("index"));
+        assertEquals("doc", packet.meta().get("type"));
+        assertEquals(id, packet.meta().get("id"));
+        assertEquals(field, packet.meta().get("field"));
+        assertEquals(payload, packet.payload());
+    }
+}
@@ -0,0 +1,77 @@
+package org.xbib.io.archive.esbulk;
+
+import org.junit.Test;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EsBulkArchiveOutputStreamTests {
+
+    @Test
+    public void testActionMetadata() throws IOException {
+        Path path = File.createTempFile("knapsack-writer", ".bulk").toPath();
+        try {
+            ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+            session.open(EnumSet.of(Session.Mode.OVERWRITE), path);
+            // fields of a document are written before the source by export
+            session.write(packet("test", "1", "_routing", "r\"1"));
+            session.write(packet("test", "1", "_version", "3"));
+            session.write(packet("test", "1", "title", "stored"));
+            session.write(packet("test", "1", "_source", "{\n  \"key\" : \"value 1\"\n}"));
+            session.write(packet("test", "a\"b\\c", "_source", "{\"key\":\"value 2\"}"));
+            session.write(packet("other", "3", "_parent", "p"));
+            // not a number, skipped
+            session.write(packet("other", "3", "_version", "v1"));
+            session.write(packet("other", "3", "_source", "{\"key\":\"value 3\"}"));
+            session.close();
+            assertEquals("{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"1\",\"_routing\":\"r\\\"1\","
+                            + "\"_version_type\":\"external\",\"_version\":3}}\n"
+                            + "{   \"key\" : \"value 1\" }\n"
+                            + "{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"a\\\"b\\\\c\"}}\n"
+                            + "{\"key\":\"value 2\"}\n"
+                            + "{\"index\":{\"_index\":\"other\",\"_type\":\"doc\",\"_id\":\"3\",\"_parent\":\"p\"}}\n"
+                            + "{\"key\":\"value 3\"}\n",
+                    new String(Files.readAllBytes(path), "UTF-8"));
+            session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+            session.open(EnumSet.of(Session.Mode.READ), path);
+            assertPacket(session.read(), "test", "1", null, "{   \"key\" : \"value 1\" }");
+            assertPacket(session.read(), "test", "1", "_routing", "r\"1");
+            assertPacket(session.read(), "test", "1", "_version", "3");
+            assertPacket(session.read(), "test", "a\"b\\c", null, "{\"key\":\"value 2\"}");
+            assertPacket(session.read(), "other", "3", null, "{\"key\":\"value 3\"}");
+            assertPacket(session.read(), "other", "3", "_parent", "p");
+            assertNull(session.read());
+            session.close();
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    private static StringPacket packet(String index, String id, String field, String payload) {
+        StringPacket packet = new StringPacket();
+        packet.meta("index", index);
+        packet.meta("type", "doc");
+        packet.meta("id", id);
+        packet.meta("field", field);
+        packet.payload(payload);
+        return packet;
+    }
+
+    private static void assertPacket(StringPacket packet, String index, String id, String field, String payload) {
+        assertEquals(index, packet.meta().get("index"));
+        assertEquals(id, packet.meta().get("id"));
+        assertEquals(field, packet.meta().get("field"));
+        assertEquals(payload, packet.payload());
+    }
+}
@@ -0,0 +1,247 @@
+package org.xbib.io.archive.knapsack;
+
+import org.junit.Test;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
+import org.xbib.io.archive.ArchiveUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KnapsackArchiveTests {
+
+    private final static int DOCS = 5000;
+
+    @Test
+    public void testReadWrite() throws IOException {
+        for (int threads : new int[]{1, 3}) {
+            Path path = File.createTempFile("knapsack-archive", ".knapsack").toPath();
+            try {
+                write(path, threads);
+                ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+                assertTrue(session instanceof KnapsackSession);
+                session.open(EnumSet.of(Session.Mode.READ), path);
+                StringPacket packet = session.read();
+                assertEquals("a", packet.meta().get("index"));
+                assertEquals("_settings", packet.meta().get("type"));
+                session.read();
+                for (int i = 0; i < DOCS; i++) {
+                    packet = session.read();
+                    assertEquals(Integer.toString(i), packet.meta().get("id"));
+                    assertEquals("_source", packet.meta().get("field"));
+                    assertEquals(source(i), packet.payload());
+                    packet = session.read();
+                    assertEquals("_routing", packet.meta().get("field"));
+                    assertEquals(Integer.toString(i), packet.payload());
+                }
+                assertEquals(null, session.read());
+                session.close();
+            } finally {
+                path.toFile().delete();
+            }
+        }
+    }
+
+    @Test
+    public void testFooter() throws IOException {
+        Path path = File.createTempFile("knapsack-archive", ".knapsack").toPath();
+        try {
+            write(path, 2);
+            KnapsackArchiveFile archiveFile = new KnapsackArchiveFile(path);
+            List<KnapsackArchiveFile.Block> blocks = archiveFile.getBlocks();
+            assertTrue(blocks.size() > 10);
+            assertTrue(blocks.get(0).isMetadata());
+            assertEquals(2, blocks.get(0).getDocs());
+            long docs = 0L;
+            long offset = blocks.get(0).getOffset();
+            for (KnapsackArchiveFile.Block block : blocks) {
+                assertEquals(offset, block.getOffset());
+                assertTrue(block.getCompressedLength() < block.getLength());
+                docs += block.getDocs();
+                offset = block.getEnd();
+            }
+            assertEquals(archiveFile.getEnd(), offset);
+            assertEquals(2 + DOCS, docs);
+            assertEquals(4, archiveFile.getRanges().size());
+            KnapsackArchiveFile.Range a = archiveFile.getRanges().get(2);
+            KnapsackArchiveFile.Range b = archiveFile.getRanges().get(3);
+            assertEquals("a", a.getIndex());
+            assertEquals("type", a.getType());
+            assertEquals(DOCS / 2, a.getDocs());
+            assertEquals(1, a.getFirstBlock());
+            assertEquals("b", b.getIndex());
+            assertEquals(DOCS / 2, b.getDocs());
+            assertEquals(blocks.size() - 1, b.getLastBlock());
+            // partitions of the document blocks cover all documents exactly once
+            List<List<KnapsackArchiveFile.Block>> partitions =
+                    KnapsackArchiveFile.partition(blocks.subList(1, blocks.size()), 4);
+            assertEquals(4, partitions.size());
+            Set<String> ids = new HashSet<>();
+            for (List<KnapsackArchiveFile.Block> partition : partitions) {
+                ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+                session.setMemoryMapped(partitions.indexOf(partition) % 2 == 0);
+                session.setRange(partition.get(0).getOffset(), partition.get(partition.size() - 1).getEnd());
+                session.open(EnumSet.of(Session.Mode.READ), path);
+                StringPacket packet;
+                while ((packet = session.read()) != null) {
+                    assertFalse(ArchiveUtils.isMetadata(packet));
+                    if ("_source".equals(packet.meta().get("field"))) {
+                        assertTrue(ids.add((String) packet.meta().get("id")));
+                    }
+                }
+                session.close();
+            }
+            assertEquals(DOCS, ids.size());
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testChecksum() throws IOException {
+        Path path = File.createTempFile("knapsack-archive", ".knapsack").toPath();
+        try {
+            write(path, 1);
+            KnapsackArchiveFile archiveFile = new KnapsackArchiveFile(path);
+            KnapsackArchiveFile.Block block = archiveFile.getBlocks().get(3);
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                // flip a bit in the middle of the compressed data
+                long pos = block.getOffset() + KnapsackArchiveConstants.BLOCK_HEADER_LEN + block.getCompressedLength() / 2;
+                file.seek(pos);
+                int b = file.read();
+                file.seek(pos);
+                file.write(b ^ 0x10);
+            }
+            ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+            session.open(EnumSet.of(Session.Mode.READ), path);
+            try {
+                while (session.read() != null) {
+                    // read until the corrupt block
+                }
+                fail("corrupt block not detected");
+            } catch (IOException e) {
+                // expected
+            } finally {
+                session.close();
+            }
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testDictionary() throws IOException {
+        for (int threads : new int[]{1, 3}) {
+            Path plain = File.createTempFile("knapsack-archive", ".knapsack").toPath();
+            Path path = File.createTempFile("knapsack-archive", ".knapsack").toPath();
+            try {
+                write(plain, threads, 1024, 0);
+                write(path, threads, 1024, 100);
+                assertTrue(path.toFile().length() < plain.toFile().length() * 9 / 10);
+                KnapsackArchiveFile archiveFile = new KnapsackArchiveFile(path);
+                assertEquals(2, archiveFile.getDictionaries().size());
+                assertTrue(new KnapsackArchiveFile(plain).getDictionaries().isEmpty());
+                ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+                session.open(EnumSet.of(Session.Mode.READ), path);
+                session.read();
+                session.read();
+                for (int i = 0; i < DOCS; i++) {
+                    StringPacket packet = session.read();
+                    assertEquals(Integer.toString(i), packet.meta().get("id"));
+                    assertEquals(source(i), packet.payload());
+                    session.read();
+                }
+                assertEquals(null, session.read());
+                session.close();
+                // ranges after the dictionary blocks
+                List<KnapsackArchiveFile.Block> blocks = archiveFile.getBlocks();
+                Set<String> ids = new HashSet<>();
+                for (List<KnapsackArchiveFile.Block> partition : KnapsackArchiveFile.partition(blocks.subList(1, blocks.size()), 4)) {
+                    session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+                    session.setRange(partition.get(0).getOffset(), partition.get(partition.size() - 1).getEnd());
+                    session.open(EnumSet.of(Session.Mode.READ), path);
+                    StringPacket packet;
+                    while ((packet = session.read()) != null) {
+                        if ("_source".equals(packet.meta().get("field"))) {
+                            String id = (String) packet.meta().get("id");
+                            assertEquals(source(Integer.parseInt(id)), packet.payload());
+                            assertTrue(ids.add(id));
+                        }
+                    }
+                    session.close();
+                }
+                assertEquals(DOCS, ids.size());
+            } finally {
+                plain.toFile().delete();
+                path.toFile().delete();
+            }
+        }
+    }
+
+    @Test
+    public void testDictionaryBuilder() {
+        KnapsackDictionaryBuilder builder = new KnapsackDictionaryBuilder(64);
+        for (int i = 0; i < 10; i++) {
+            byte[] b = ("{\"field\":\"value " + i + "\",\"common\":\"common value\"}").getBytes();
+            builder.startSample().add(b, 0, b.length);
+        }
+        assertEquals(10, builder.getSamples());
+        String dictionary = new String(builder.build());
+        assertTrue(dictionary.length() <= 64);
+        // the most frequent and longest token is at the end
+        assertTrue(dictionary, dictionary.endsWith("\"common value\"}"));
+        assertFalse(dictionary, dictionary.contains("value 1"));
+        assertEquals(null, new KnapsackDictionaryBuilder(64).startSample().build());
+    }
+
+    private static void write(Path path, int threads) throws IOException {
+        write(path, threads, 16 * 1024, 0);
+    }
+
+    private static void write(Path path, int threads, int blockSize, int dictionaryDocs) throws IOException {
+        KnapsackSession session = (KnapsackSession) ArchiveService.<KnapsackArchiveInputStream, KnapsackArchiveOutputStream>newSession(path, new BytesProgressWatcher(0L));
+        session.setBlockSize(blockSize).setEncoderThreads(threads).setDictionary(dictionaryDocs, 32 * 1024);
+        session.open(EnumSet.of(Session.Mode.OVERWRITE), path);
+        for (String index : new String[]{"a", "b"}) {
+            StringPacket packet = session.newPacket();
+            packet.meta("index", index);
+            packet.meta("type", "_settings");
+            packet.payload("{}");
+            session.write(packet);
+        }
+        for (int i = 0; i < DOCS; i++) {
+            String index = i < DOCS / 2 ? "a" : "b";
+            session.write(packet(index, i, "_source", source(i)));
+            session.write(packet(index, i, "_routing", Integer.toString(i)));
+        }
+        session.close();
+    }
+
+    private static String source(int i) {
+        return "{\"key\":\"" + i + "\",\"text\":\"the quick brown fox jumps over the lazy dog " + (i % 17) + "\"}";
+    }
+
+    private static StringPacket packet(String index, int i, String field, String payload) {
+        StringPacket packet = new StringPacket();
+        packet.meta("index", index);
+        packet.meta("type", "type");
+        packet.meta("id", Integer.toString(i));
+        packet.meta("field", field);
+        packet.payload(payload);
+        return packet;
+    }
+}
@@ -0,0 +1,113 @@
+package org.xbib.io.archive.tar;
+
+import org.junit.Test;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.ChannelInputStream;
+import org.xbib.io.MappedFileInputStream;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+import org.xbib.io.archive.ArchiveEntry;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TarArchiveInputStreamTests {
+
+    private final static int[] SIZES = {0, 1, 511, 512, 513, 10240, 30000, 100, 70000, 5};
+
+    @Test
+    public void testSkipMapped() throws IOException {
+        Path path = createArchive();
+        try {
+            testSkip(new MappedFileInputStream(FileChannel.open(path, StandardOpenOption.READ), 8192));
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testSkipChannel() throws IOException {
+        Path path = createArchive();
+        try {
+            testSkip(new ChannelInputStream(FileChannel.open(path, StandardOpenOption.READ), 4096, false));
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testReadSession() throws IOException {
+        Path path = createArchive();
+        try {
+            ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+            session.setMemoryMapped(true);
+            session.open(EnumSet.of(Session.Mode.READ), path);
+            for (int i = 0; i < SIZES.length; i++) {
+                StringPacket packet = session.read();
+                assertEquals(Integer.toString(i), packet.meta().get("id"));
+                assertEquals(payload(i), packet.payload());
+            }
+            assertNull(session.read());
+            session.close();
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    private void testSkip(InputStream in) throws IOException {
+        TarArchiveInputStream tar = new TarArchiveInputStream(in);
+        for (int i = 0; i < SIZES.length; i++) {
+            ArchiveEntry entry = tar.getNextEntry();
+            assertEquals(SIZES[i], entry.getEntrySize());
+            if (i % 3 == 0) {
+                // read the whole entry
+                byte[] b = new byte[SIZES[i]];
+                int n = 0;
+                while (n < b.length) {
+                    n += tar.read(b, n, b.length - n);
+                }
+                assertEquals(payload(i), new String(b, "UTF-8"));
+            } else if (i % 3 == 1 && SIZES[i] > 1) {
+                // read the head, skip the rest by the next entry
+                assertEquals(payload(i).charAt(0), (char) tar.read());
+            }
+        }
+        assertNull(tar.getNextEntry());
+        tar.close();
+    }
+
+    private Path createArchive() throws IOException {
+        Path path = File.createTempFile("knapsack-tar", ".tar").toPath();
+        ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+        session.open(EnumSet.of(Session.Mode.OVERWRITE), path);
+        for (int i = 0; i < SIZES.length; i++) {
+            StringPacket packet = session.newPacket();
+            packet.meta("index", "index");
+            packet.meta("type", "type");
+            packet.meta("id", Integer.toString(i));
+            packet.meta("field", "_source");
+            packet.payload(payload(i));
+            session.write(packet);
+        }
+        session.close();
+        return path;
+    }
+
+    private static String payload(int i) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < SIZES[i]; j++) {
+            sb.append((char) ('a' + (i + j) % 26));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,89 @@
+package org.xbib.io.archive.tar;
+
+import org.junit.Test;
+import org.xbib.io.ChannelOutputStream;
+import org.xbib.io.archive.ArchiveEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TarArchiveOutputStreamTests {
+
+    private final static int[] SIZES = {0, 1, 511, 512, 513, 10240, 30000, 100, 70000, 5, 20480};
+
+    @Test
+    public void testGatheringWrite() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeArchive(bytes, 10240);
+        byte[] streamed = bytes.toByteArray();
+        assertEquals(0, streamed.length % TarConstants.DEFAULT_BLOCK_SIZE);
+        Path path = File.createTempFile("knapsack-tar", ".tar").toPath();
+        try {
+            writeArchive(new ChannelOutputStream(FileChannel.open(path, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING), 4096, false), 10240);
+            assertArrayEquals(streamed, Files.readAllBytes(path));
+        } finally {
+            path.toFile().delete();
+        }
+        // the default buffer gives the same archive
+        bytes = new ByteArrayOutputStream();
+        writeArchive(bytes, 0);
+        assertArrayEquals(streamed, bytes.toByteArray());
+        TarArchiveInputStream in = new TarArchiveInputStream(new ByteArrayInputStream(streamed));
+        for (int i = 0; i < SIZES.length; i++) {
+            ArchiveEntry entry = in.getNextEntry();
+            assertEquals("entry" + i, entry.getName());
+            byte[] b = new byte[SIZES[i]];
+            int n = 0;
+            while (n < b.length) {
+                n += in.read(b, n, b.length - n);
+            }
+            assertArrayEquals(payload(i), b);
+        }
+        assertNull(in.getNextEntry());
+    }
+
+    private void writeArchive(OutputStream os, int bufferSize) throws IOException {
+        TarArchiveOutputStream out = new TarArchiveOutputStream(os);
+        if (bufferSize > 0) {
+            out.setBufferSize(bufferSize);
+        }
+        Date date = new Date(1000000000000L);
+        for (int i = 0; i < SIZES.length; i++) {
+            TarArchiveOutputEntry entry = out.newArchiveEntry();
+            entry.setName("entry" + i);
+            entry.setLastModified(date);
+            entry.setEntrySize(SIZES[i]);
+            out.putArchiveEntry(entry);
+            byte[] b = payload(i);
+            // small writes and one large write
+            int n = Math.min(b.length, 300);
+            for (int j = 0; j < n; j++) {
+                out.write(b[j]);
+            }
+            out.write(b, n, b.length - n);
+            out.closeArchiveEntry();
+        }
+        out.close();
+    }
+
+    private static byte[] payload(int i) {
+        byte[] b = new byte[SIZES[i]];
+        for (int j = 0; j < b.length; j++) {
+            b[j] = (byte) (i + j);
+        }
+        return b;
+    }
+}
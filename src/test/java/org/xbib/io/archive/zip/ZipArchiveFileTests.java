@@ -0,0 +1,141 @@
+package org.xbib.io.archive.zip;
+
+import org.junit.Test;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ZipArchiveFileTests {
+
+    /**
+     * More entries than a zip without ZIP64 can hold
+     */
+    private final static int DOCS = 35000;
+
+    @Test
+    public void testParallelRead() throws Exception {
+        Path path = File.createTempFile("knapsack-zip", ".zip").toPath();
+        try {
+            ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+            session.open(EnumSet.of(Session.Mode.OVERWRITE), path);
+            for (int i = 0; i < DOCS; i++) {
+                session.write(packet(i, "_source", payload(i)));
+                session.write(packet(i, "_routing", Integer.toString(i % 7)));
+            }
+            session.close();
+            final ZipArchiveFile zipFile = new ZipArchiveFile(path);
+            try {
+                assertEquals(2 * DOCS, zipFile.getEntries().size());
+                List<List<ZipArchiveFile.Entry>> partitions = ZipArchiveFile.partition(zipFile.getEntries(), 4);
+                assertEquals(4, partitions.size());
+                Set<String> documents = new HashSet<>();
+                int n = 0;
+                for (List<ZipArchiveFile.Entry> partition : partitions) {
+                    assertFalse(partition.isEmpty());
+                    // both fields of a document are in the same partition
+                    assertEquals(0, partition.size() % 2);
+                    assertTrue(documents.add(partition.get(0).getDocument()));
+                    n += partition.size();
+                }
+                assertEquals(2 * DOCS, n);
+                final AtomicReference<Throwable> failure = new AtomicReference<>();
+                Thread[] threads = new Thread[partitions.size()];
+                for (int i = 0; i < threads.length; i++) {
+                    final List<ZipArchiveFile.Entry> partition = partitions.get(i);
+                    threads[i] = new Thread() {
+                        public void run() {
+                            try (ZipArchiveFile.Reader reader = zipFile.newReader()) {
+                                for (ZipArchiveFile.Entry entry : partition) {
+                                    StringPacket packet = reader.read(entry);
+                                    int id = Integer.parseInt((String) packet.meta().get("id"));
+                                    if ("_source".equals(packet.meta().get("field"))) {
+                                        assertEquals(payload(id), packet.payload());
+                                    } else {
+                                        assertEquals(Integer.toString(id % 7), packet.payload());
+                                    }
+                                }
+                            } catch (Throwable t) {
+                                failure.set(t);
+                            }
+                        }
+                    };
+                    threads[i].start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                assertNull(failure.get());
+            } finally {
+                zipFile.close();
+            }
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testStored() throws IOException {
+        Path path = File.createTempFile("knapsack-zip", ".zip").toPath();
+        try {
+            ZipArchiveOutputStream out = new ZipArchiveOutputStream(new FileOutputStream(path.toFile()))
+                    .setMethod(ZipEntry.STORED);
+            out.setWatcher(new BytesProgressWatcher(0L));
+            for (int i = 0; i < 100; i++) {
+                byte[] b = payload(i).getBytes("UTF-8");
+                ZipArchiveEntry entry = out.newArchiveEntry();
+                entry.setName("index/type/" + i + "/_source");
+                entry.setLastModified(new Date());
+                entry.setEntrySize(b.length);
+                out.putArchiveEntry(entry);
+                out.write(b);
+                out.closeArchiveEntry();
+            }
+            out.close();
+            try (ZipArchiveFile zipFile = new ZipArchiveFile(path);
+                 ZipArchiveFile.Reader reader = zipFile.newReader()) {
+                int i = 0;
+                for (ZipArchiveFile.Entry entry : zipFile.getEntries()) {
+                    assertEquals(ZipEntry.STORED, entry.getMethod());
+                    assertEquals(payload(i++), reader.read(entry).payload());
+                }
+                assertEquals(100, i);
+                assertEquals(1, ZipArchiveFile.partition(zipFile.getEntries(), 1).size());
+            }
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    private static StringPacket packet(int i, String field, String payload) {
+        StringPacket packet = new StringPacket();
+        packet.meta("index", "index");
+        packet.meta("type", "type");
+        packet.meta("id", Integer.toString(i));
+        packet.meta("field", field);
+        packet.payload(payload);
+        return packet;
+    }
+
+    private static String payload(int i) {
+        return "{\"key\":\"value " + i + "\"}";
+    }
+}
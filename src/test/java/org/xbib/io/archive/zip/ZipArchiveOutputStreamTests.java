@@ -0,0 +1,115 @@
+package org.xbib.io.archive.zip;
+
+import org.junit.Test;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ZipArchiveOutputStreamTests {
+
+    /**
+     * More entries than a zip without ZIP64 can hold
+     */
+    private final static int ENTRIES = 70000;
+
+    @Test
+    public void testDeflatedZip64() throws IOException {
+        Path path = File.createTempFile("knapsack-zip", ".zip").toPath();
+        try {
+            ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+            session.open(EnumSet.of(Session.Mode.OVERWRITE), path);
+            for (int i = 0; i < ENTRIES; i++) {
+                StringPacket packet = session.newPacket();
+                packet.meta("index", "index");
+                packet.meta("type", "type");
+                packet.meta("id", Integer.toString(i));
+                packet.meta("field", "_source");
+                packet.payload(payload(i));
+                session.write(packet);
+            }
+            session.close();
+            session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+            session.open(EnumSet.of(Session.Mode.READ), path);
+            for (int i = 0; i < ENTRIES; i++) {
+                StringPacket packet = session.read();
+                assertEquals(Integer.toString(i), packet.meta().get("id"));
+                assertEquals(payload(i), packet.payload());
+            }
+            assertNull(session.read());
+            session.close();
+            assertZipFile(path, ZipEntry.DEFLATED);
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testStored() throws IOException {
+        Path path = File.createTempFile("knapsack-zip", ".zip").toPath();
+        try {
+            ZipArchiveOutputStream out = new ZipArchiveOutputStream(new FileOutputStream(path.toFile()))
+                    .setMethod(ZipEntry.STORED);
+            out.setWatcher(new BytesProgressWatcher(0L));
+            for (int i = 0; i < ENTRIES; i++) {
+                byte[] b = payload(i).getBytes("UTF-8");
+                ZipArchiveEntry entry = out.newArchiveEntry();
+                entry.setName("entry" + i);
+                entry.setLastModified(new Date());
+                entry.setEntrySize(b.length);
+                out.putArchiveEntry(entry);
+                if (i % 2 == 0) {
+                    out.write(b);
+                } else {
+                    // written in pieces, the entry is buffered
+                    out.write(b, 0, 3);
+                    out.write(b, 3, b.length - 3);
+                }
+                out.closeArchiveEntry();
+            }
+            out.close();
+            assertZipFile(path, ZipEntry.STORED);
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    private void assertZipFile(Path path, int method) throws IOException {
+        try (ZipFile zipFile = new ZipFile(path.toFile())) {
+            assertEquals(ENTRIES, zipFile.size());
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            int i = 0;
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                assertEquals(method, entry.getMethod());
+                byte[] b = new byte[(int) entry.getSize()];
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    int n = 0;
+                    while (n < b.length) {
+                        n += in.read(b, n, b.length - n);
+                    }
+                }
+                assertEquals(payload(i++), new String(b, "UTF-8"));
+            }
+        }
+    }
+
+    private static String payload(int i) {
+        return "{\"key\":\"value " + i + "\"}";
+    }
+}
@@ -0,0 +1,141 @@
+package org.xbib.io.compress.gzip;
+
+import org.junit.Test;
+import org.xbib.io.BytesProgressWatcher;
+import org.xbib.io.Session;
+import org.xbib.io.StringPacket;
+import org.xbib.io.archive.ArchiveService;
+import org.xbib.io.archive.ArchiveSession;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ParallelGzipTests {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = data(1000000);
+        for (int threads : new int[]{1, 4}) {
+            ByteArrayOutputStream gz = new ByteArrayOutputStream();
+            try (OutputStream out = new ParallelGzipOutputStream(gz, threads, 65536)) {
+                out.write(data, 0, 1000);
+                out.write(data[1000]);
+                out.flush();
+                out.write(data, 1001, data.length - 1001);
+            }
+            // a valid gzip stream for any reader
+            assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(gz.toByteArray()))));
+            assertArrayEquals(data, readAll(new ParallelGzipInputStream(new ByteArrayInputStream(gz.toByteArray()),
+                    8192, threads)));
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(gz, 2).close();
+        assertEquals(-1, new GZIPInputStream(new ByteArrayInputStream(gz.toByteArray())).read());
+        assertEquals(-1, new ParallelGzipInputStream(new ByteArrayInputStream(gz.toByteArray()), 8192, 2).read());
+    }
+
+    @Test
+    public void testSequentialGzip() throws IOException {
+        byte[] data = data(300000);
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try (OutputStream out = new ParallelGzipOutputStream(gz, 2, 65536)) {
+            out.write(data, 0, 100000);
+        }
+        try (OutputStream out = new GZIPOutputStream(gz)) {
+            out.write(data, 100000, data.length - 100000);
+        }
+        assertArrayEquals(data, readAll(new ParallelGzipInputStream(new ByteArrayInputStream(gz.toByteArray()),
+                8192, 2)));
+    }
+
+    @Test
+    public void testCorruptMember() throws IOException {
+        byte[] data = data(300000);
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try (OutputStream out = new ParallelGzipOutputStream(gz, 2, 65536)) {
+            out.write(data);
+        }
+        byte[] b = gz.toByteArray();
+        b[b.length / 2] ^= 0x10;
+        try {
+            readAll(new ParallelGzipInputStream(new ByteArrayInputStream(b), 8192, 2));
+            fail("corrupt member not detected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testArchiveSession() throws IOException {
+        Path path = File.createTempFile("knapsack-gzip", ".tar.gz").toPath();
+        try {
+            ArchiveSession<?, ?> session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+            session.setCodecThreads("gz", 3);
+            session.open(EnumSet.of(Session.Mode.OVERWRITE), path);
+            for (int i = 0; i < 10000; i++) {
+                session.write(packet(i));
+            }
+            session.close();
+            session = ArchiveService.newSession(path, new BytesProgressWatcher(0L));
+            session.setCodecThreads("gz", 3);
+            session.open(EnumSet.of(Session.Mode.READ), path);
+            for (int i = 0; i < 10000; i++) {
+                StringPacket packet = session.read();
+                assertEquals(Integer.toString(i), packet.meta().get("id"));
+                assertEquals(packet(i).payload(), packet.payload());
+            }
+            assertNull(session.read());
+            session.close();
+        } finally {
+            path.toFile().delete();
+        }
+    }
+
+    private static StringPacket packet(int i) {
+        StringPacket packet = new StringPacket();
+        packet.meta("index", "index");
+        packet.meta("type", "type");
+        packet.meta("id", Integer.toString(i));
+        packet.meta("field", "_source");
+        packet.payload("{\"n\":" + i + ",\"text\":\"the quick brown fox " + (i % 13) + "\"}");
+        return packet;
+    }
+
+    private static byte[] data(int length) {
+        Random random = new Random(42L);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i % 1000 < 500 ? 'a' + random.nextInt(4) : random.nextInt());
+        }
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buf = new byte[777];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            result.write(buf, 0, n);
+        }
+        in.close();
+        return result.toByteArray();
+    }
+}
@@ -10,6 +10,7 @@ import org.xbib.io.compress.bzip2.BZip2HuffmanStageDecoderTests;
 import org.xbib.io.compress.bzip2.BZip2OutputStreamTests;
 import org.xbib.io.compress.bzip2.SimpleBZip2Tests;
 import org.xbib.io.compress.bzip2.HuffmanAllocatorTests;
+import org.xbib.io.compress.gzip.ParallelGzipTests;
 
 
 @RunWith(Suite.class)
@@ -21,7 +22,8 @@ import org.xbib.io.compress.bzip2.HuffmanAllocatorTests;
         BZip2HuffmanStageDecoderTests.class,
         BZip2OutputStreamTests.class,
         HuffmanAllocatorTests.class,
-        SimpleBZip2Tests.class
+        SimpleBZip2Tests.class,
+        ParallelGzipTests.class
 })
 public class CompressionTestSuite {
 